@@ -7,27 +7,46 @@ import java.math.BigInteger;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.tepi.filtertable.datefilter.DateFilterPopup;
 import org.tepi.filtertable.datefilter.DateInterval;
+import org.tepi.filtertable.engine.AdaptiveAnd;
+import org.tepi.filtertable.engine.AsyncFilterable;
+import org.tepi.filtertable.engine.ColumnSource;
+import org.tepi.filtertable.engine.FacetCountable;
+import org.tepi.filtertable.engine.FilterCompiler;
+import org.tepi.filtertable.engine.FilterEvaluation;
+import org.tepi.filtertable.engine.RefinableFilterable;
 import org.tepi.filtertable.numberfilter.NumberFilterPopup;
 import org.tepi.filtertable.numberfilter.NumberInterval;
 import org.tepi.filtertable.paged.PagedFilterTable;
+import org.tepi.filtertable.paged.PagedFilterTableContainer;
+import org.tepi.filtertable.suggest.ContainerSuggestions;
+import org.tepi.filtertable.suggest.SuggestionField;
 
 import com.vaadin.server.Resource;
 import com.vaadin.server.Sizeable.Unit;
 import com.vaadin.ui.Component;
 import com.vaadin.ui.HasComponents;
+import com.vaadin.ui.UI;
 import com.vaadin.v7.data.Container;
 import com.vaadin.v7.data.Container.Filter;
 import com.vaadin.v7.data.Container.Filterable;
 import com.vaadin.v7.data.Property;
 import com.vaadin.v7.data.Property.ValueChangeListener;
+import com.vaadin.v7.data.util.AbstractInMemoryContainer;
 import com.vaadin.v7.data.util.filter.And;
 import com.vaadin.v7.data.util.filter.Between;
 import com.vaadin.v7.data.util.filter.Compare;
@@ -42,35 +61,70 @@ import com.vaadin.v7.ui.TextField;
 
 @SuppressWarnings({ "serial", "deprecation" })
 class FilterFieldGenerator implements Serializable {
+	/* Minimum text change timeout of text filters also evaluated in the browser */
+	private static final int CLIENT_SIDE_TEXT_CHANGE_TIMEOUT = 1000;
+
 	private final IFilterTable owner;
 
 	/* Mapping for property IDs, filters and components */
 	private final Map<Object, Filter> filters = new HashMap<Object, Container.Filter>();
+	/* The filters above combined into the single filter set to the container, null if none */
+	private Filter containerFilter;
 	private final Map<AbstractField<?>, Object> customFields = new HashMap<AbstractField<?>, Object>();
 	private final Map<TextField, Object> texts = new HashMap<TextField, Object>();
+	private final Map<SuggestionField, Object> suggestionFields = new HashMap<SuggestionField, Object>();
 	private final Map<ComboBox, Object> enums = new HashMap<ComboBox, Object>();
 	private final Map<ComboBox, Object> booleans = new HashMap<ComboBox, Object>();
 	private final Map<DateFilterPopup, Object> dates = new HashMap<DateFilterPopup, Object>();
 	private final Map<NumberFilterPopup, Object> numbers = new HashMap<NumberFilterPopup, Object>();
 
-	private And lastOnDemandFilter;
+	private Filter lastOnDemandFilter;
 
 	/* ValueChangeListener for filter components */
 	private final ValueChangeListener listener = initializeListener();
 
 	private boolean runFiltersOnDemand;
+	/* Are generated filters compiled before adding them to the container? */
+	private boolean compileFilters;
+
+	/* Executor for evaluating filters asynchronously, null if not in use */
+	private transient ExecutorService filterExecutor;
+	/* Filters being evaluated asynchronously, null if none */
+	private transient PendingFilters pendingFilters;
+	/* Nesting depth of batch updates, and the changes collected in them */
+	private int batchDepth;
+	private transient PendingFilters batch;
+
+	/* Show the number of matching items for each enum and boolean option */
+	private boolean facetCounting;
+	private boolean emptyFacetsHidden;
+	/* All options of the enum and boolean fields in order, while counting facets */
+	private final Map<ComboBox, List<Object>> facetOptions = new HashMap<ComboBox, List<Object>>();
+
+	/* String properties whose text filter suggests values */
+	private final Set<Object> suggestedProperties = new HashSet<Object>();
+
+	/* Fields other than text fields are created on first use */
+	private boolean lazyFields;
+	private final Map<FilterPlaceholder, Object> placeholders = new HashMap<FilterPlaceholder, Object>();
+
+	/* Text filters are evaluated in the browser, the server is told lazily */
+	private boolean clientSideFiltering;
 
 	FilterFieldGenerator(IFilterTable owner) {
 		this.owner = owner;
 	}
 
 	void destroyFilterComponents() {
+		cancelPendingFilters();
+		batch = null;
 		owner.setRefreshingEnabled(false);
 		/* Remove all filters from container */
+		if (owner.getFilterable() != null && containerFilter != null) {
+			owner.getFilterable().removeContainerFilter(containerFilter);
+		}
+		containerFilter = null;
 		for (Object propertyId : filters.keySet()) {
-			if (owner.getFilterable() != null) {
-				owner.getFilterable().removeContainerFilter(filters.get(propertyId));
-			}
 			if (owner.getFilterGenerator() != null) {
 				owner.getFilterGenerator().filterRemoved(propertyId);
 			}
@@ -78,9 +132,15 @@ class FilterFieldGenerator implements Serializable {
 		/* Remove listeners */
 		removeValueChangeListeners();
 		/* Clear the data related to filters */
+		facetOptions.clear();
+		for (SuggestionField sf : suggestionFields.keySet()) {
+			sf.getSuggestions().detach();
+		}
 		customFields.clear();
 		filters.clear();
 		texts.clear();
+		suggestionFields.clear();
+		placeholders.clear();
 		enums.clear();
 		booleans.clear();
 		dates.clear();
@@ -94,37 +154,45 @@ class FilterFieldGenerator implements Serializable {
 		owner.setRefreshingEnabled(true);
 	}
 
+	/*
+	 * The filters and the reset fields are collected into a batch update, so
+	 * that the container is filtered once.
+	 */
 	void clearFilterData() {
+		cancelPendingFilters();
 		owner.setRefreshingEnabled(false);
-		/* Remove all filters from container */
-		for (Object propertyId : filters.keySet()) {
-			if (owner.getFilterable() != null) {
-				owner.getFilterable().removeContainerFilter(filters.get(propertyId));
-			}
-			if (owner.getFilterGenerator() != null) {
-				owner.getFilterGenerator().filterRemoved(propertyId);
+		beginFilterUpdate();
+		try {
+			for (Object propertyId : filters.keySet()) {
+				PendingFilters changed = changeFilter(batch, propertyId, null, null);
+				if (changed != null) {
+					batch = changed;
+				}
 			}
-		}
-
-		filters.clear();
 
-		for (AbstractField<?> f : customFields.keySet()) {
-			f.setValue(null);
-		}
-		for (AbstractField<?> f : texts.keySet()) {
-			f.setValue(null);
-		}
-		for (AbstractField<?> f : enums.keySet()) {
-			f.setValue(null);
-		}
-		for (AbstractField<?> f : booleans.keySet()) {
-			f.setValue(null);
-		}
-		for (AbstractField<?> f : dates.keySet()) {
-			f.setValue(null);
-		}
-		for (NumberFilterPopup f : numbers.keySet()) {
-			f.setValue(null);
+			for (AbstractField<?> f : customFields.keySet()) {
+				f.setValue(null);
+			}
+			for (AbstractField<?> f : texts.keySet()) {
+				f.setValue(null);
+			}
+			for (AbstractField<?> f : suggestionFields.keySet()) {
+				f.setValue(null);
+			}
+			for (AbstractField<?> f : enums.keySet()) {
+				f.setValue(null);
+			}
+			for (AbstractField<?> f : booleans.keySet()) {
+				f.setValue(null);
+			}
+			for (AbstractField<?> f : dates.keySet()) {
+				f.setValue(null);
+			}
+			for (NumberFilterPopup f : numbers.keySet()) {
+				f.setValue(null);
+			}
+		} finally {
+			commitFilterUpdate();
 		}
 
 		/* also clear on-demand data */
@@ -142,6 +210,9 @@ class FilterFieldGenerator implements Serializable {
 		for (TextField tf : texts.keySet()) {
 			tf.removeValueChangeListener(listener);
 		}
+		for (SuggestionField sf : suggestionFields.keySet()) {
+			sf.removeValueChangeListener(listener);
+		}
 		for (ComboBox cb : enums.keySet()) {
 			cb.removeValueChangeListener(listener);
 		}
@@ -163,6 +234,9 @@ class FilterFieldGenerator implements Serializable {
 		for (TextField tf : texts.keySet()) {
 			tf.addValueChangeListener(listener);
 		}
+		for (SuggestionField sf : suggestionFields.keySet()) {
+			sf.addValueChangeListener(listener);
+		}
 		for (ComboBox cb : enums.keySet()) {
 			cb.addValueChangeListener(listener);
 		}
@@ -182,7 +256,12 @@ class FilterFieldGenerator implements Serializable {
 		if (owner.getFilterable() != null) {
 			for (Object property : owner.getVisibleColumns()) {
 				if (owner.getContainerPropertyIds().contains(property)) {
-					AbstractField<?> filter = createField(property, owner.getContainerDataSource().getType(property));
+					Class<?> type = owner.getContainerDataSource().getType(property);
+					if (lazyFields && type != String.class) {
+						addFilterColumn(property, createPlaceholder(property));
+						continue;
+					}
+					AbstractField<?> filter = createField(property, type);
 					addFilterColumn(property, filter);
 				} else {
 					AbstractField<?> filter = createField(property, null);
@@ -192,6 +271,7 @@ class FilterFieldGenerator implements Serializable {
 			if (!runFiltersOnDemand) {
 				addValueChangeListeners();
 			}
+			updateFacetCounts();
 		}
 	}
 
@@ -235,7 +315,7 @@ class FilterFieldGenerator implements Serializable {
 			}
 		}
 		/* Special handling for ComboBox (= enum properties) */
-		if (field instanceof ComboBox) {
+		if (field instanceof ComboBox && !(field instanceof SuggestionField)) {
 			return new Equal(propertyId, value);
 		} else {
 			return new SimpleStringFilter(propertyId, String.valueOf(value), true, false);
@@ -333,20 +413,46 @@ class FilterFieldGenerator implements Serializable {
 		filter.setParent(owner.getAsComponent());
 	}
 
-	private void removeFilter(Object propertyId) {
-		if (filters.get(propertyId) != null) {
-			if (owner.getFilterable() != null) {
-				owner.getFilterable().removeContainerFilter(filters.get(propertyId));
+	/*
+	 * The generated filters are set to the container combined into a single
+	 * filter, so that any number of them is changed by removing it and adding
+	 * the new combination, or by replacing it in one step.
+	 */
+	private void updateContainerFilter() {
+		Filter newFilter = combineFilters(filters.values());
+		Filterable filterable = owner.getFilterable();
+		if (filterable != null) {
+			if (containerFilter != null && newFilter != null && filterable instanceof RefinableFilterable) {
+				/* A narrowed filter can be refined */
+				((RefinableFilterable) filterable).replaceContainerFilter(containerFilter, newFilter);
+			} else {
+				if (containerFilter != null) {
+					filterable.removeContainerFilter(containerFilter);
+				}
+				if (newFilter != null) {
+					filterable.addContainerFilter(newFilter);
+				}
 			}
-			filters.remove(propertyId);
 		}
+		containerFilter = newFilter;
 	}
 
-	private void setFilter(Filter filter, Object propertyId) {
-		if (owner.getFilterable() != null) {
-			owner.getFilterable().addContainerFilter(filter);
+	/*
+	 * Containers and matchers flatten the conjunction, so its parts are still
+	 * evaluated and refined one by one.
+	 */
+	private Filter combineFilters(Collection<Filter> parts) {
+		if (parts.isEmpty()) {
+			return null;
+		} else if (parts.size() == 1) {
+			return parts.iterator().next();
 		}
-		filters.put(propertyId, filter);
+		Filter[] partsArray = parts.toArray(new Filter[parts.size()]);
+		return isEvaluatedInMemory(owner.getFilterable()) ? new AdaptiveAnd(partsArray) : new And(partsArray);
+	}
+
+	private Filter prepareFilter(Filter filter) {
+		return compileFilters ? FilterCompiler.compile(filter) : filter;
 	}
 
 	private AbstractField<?> createField(Object property, Class<?> type) {
@@ -378,6 +484,8 @@ class FilterFieldGenerator implements Serializable {
 			nfp.setWidth(100, Unit.PERCENTAGE);
 			nfp.setImmediate(true);
 			return nfp;
+		} else if (type == String.class && suggestedProperties.contains(property)) {
+			field = createSuggestionField(property);
 		} else {
 			field = createTextField(property);
 		}
@@ -397,7 +505,11 @@ class FilterFieldGenerator implements Serializable {
 						textField.setValue(event.getText());
 					}
 				});
-				textField.setTextChangeTimeout(owner.getFilterDecorator().getTextChangeTimeout(propertyId));
+				int timeout = owner.getFilterDecorator().getTextChangeTimeout(propertyId);
+				if (clientSideFiltering) {
+					timeout = Math.max(timeout, CLIENT_SIDE_TEXT_CHANGE_TIMEOUT);
+				}
+				textField.setTextChangeTimeout(timeout);
 			}
 			if (owner.getFilterDecorator().getAllItemsVisibleString() != null) {
 				textField.setInputPrompt(owner.getFilterDecorator().getAllItemsVisibleString());
@@ -408,6 +520,88 @@ class FilterFieldGenerator implements Serializable {
 		return textField;
 	}
 
+	private FilterPlaceholder createPlaceholder(Object propertyId) {
+		FilterPlaceholder placeholder = new FilterPlaceholder(this, propertyId);
+		if (owner.getFilterDecorator() != null && owner.getFilterDecorator().getAllItemsVisibleString() != null) {
+			placeholder.setInputPrompt(owner.getFilterDecorator().getAllItemsVisibleString());
+		}
+		placeholder.setWidth(null);
+		placeholder.setImmediate(true);
+		placeholders.put(placeholder, propertyId);
+		return placeholder;
+	}
+
+	/*
+	 * Replaces the placeholder of a property with the real filter field, in
+	 * the same place in the filter bar.
+	 */
+	Component createLazyField(Object propertyId) {
+		Component component = owner.getColumnIdToFilterMap().get(propertyId);
+		if (!(component instanceof FilterPlaceholder)) {
+			return component;
+		}
+		FilterPlaceholder placeholder = (FilterPlaceholder) component;
+		placeholders.remove(placeholder);
+		AbstractField<?> field = createField(propertyId, owner.getContainerDataSource().getType(propertyId));
+		field.setVisible(placeholder.isVisible());
+		HasComponents parent = placeholder.getParent();
+		placeholder.setParent(null);
+		owner.getColumnIdToFilterMap().put(propertyId, field);
+		field.setParent(parent);
+		if (!runFiltersOnDemand) {
+			field.addValueChangeListener(listener);
+		}
+		updateFacetCounts();
+		/* Only the replaced cell of the filter bar is painted again */
+		owner.getAsComponent().markAsDirty();
+		return field;
+	}
+
+	void setClientSideFiltering(boolean clientSideFiltering) {
+		this.clientSideFiltering = clientSideFiltering;
+	}
+
+	boolean isClientSideFiltering() {
+		return clientSideFiltering;
+	}
+
+	/*
+	 * Properties whose filter the browser can evaluate as the server does:
+	 * the generated text fields, filtering with a case-insensitive substring
+	 * match on the property value.
+	 */
+	Set<Object> getClientSideFilterProperties() {
+		Set<Object> properties = new HashSet<Object>();
+		for (Object propertyId : texts.values()) {
+			if (owner.getContainerPropertyIds().contains(propertyId)) {
+				properties.add(propertyId);
+			}
+		}
+		return properties;
+	}
+
+	void setLazyFieldCreation(boolean lazyFields) {
+		this.lazyFields = lazyFields;
+	}
+
+	boolean isLazyFieldCreation() {
+		return lazyFields;
+	}
+
+	private SuggestionField createSuggestionField(Object propertyId) {
+		Container container = owner.getContainerDataSource();
+		/* Suggest the values of all the items rather than of the current page */
+		if (container instanceof PagedFilterTableContainer) {
+			container = ((PagedFilterTableContainer<?>) container).getContainer();
+		}
+		SuggestionField suggestionField = new SuggestionField(new ContainerSuggestions(container, propertyId));
+		if (owner.getFilterDecorator() != null && owner.getFilterDecorator().getAllItemsVisibleString() != null) {
+			suggestionField.setInputPrompt(owner.getFilterDecorator().getAllItemsVisibleString());
+		}
+		suggestionFields.put(suggestionField, propertyId);
+		return suggestionField;
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private AbstractField createEnumField(Class<?> type, Object propertyId) {
 		ComboBox enumSelect = new ComboBox();
@@ -420,15 +614,12 @@ class FilterFieldGenerator implements Serializable {
 		/* Add items from enumeration */
 		for (Object o : EnumSet.allOf((Class<Enum>) type)) {
 			enumSelect.addItem(o);
+			enumSelect.setItemCaption(o, getOptionCaption(propertyId, o));
 			if (owner.getFilterDecorator() != null) {
-				String caption = owner.getFilterDecorator().getEnumFilterDisplayName(propertyId, o);
-				enumSelect.setItemCaption(o, caption == null ? o.toString() : caption);
 				Resource icon = owner.getFilterDecorator().getEnumFilterIcon(propertyId, o);
 				if (icon != null) {
 					enumSelect.setItemIcon(o, icon);
 				}
-			} else {
-				enumSelect.setItemCaption(o, o.toString());
 			}
 		}
 		enums.put(enumSelect, propertyId);
@@ -446,26 +637,32 @@ class FilterFieldGenerator implements Serializable {
 				booleanSelect.setNullSelectionItemId(nullItem);
 				booleanSelect.setItemCaption(nullItem, owner.getFilterDecorator().getAllItemsVisibleString());
 			}
-			String caption = owner.getFilterDecorator().getBooleanFilterDisplayName(propertyId, true);
-			booleanSelect.setItemCaption(true, caption == null ? "true" : caption);
 			Resource icon = owner.getFilterDecorator().getBooleanFilterIcon(propertyId, true);
 			if (icon != null) {
 				booleanSelect.setItemIcon(true, icon);
 			}
-			caption = owner.getFilterDecorator().getBooleanFilterDisplayName(propertyId, false);
-			booleanSelect.setItemCaption(false, caption == null ? "false" : caption);
 			icon = owner.getFilterDecorator().getBooleanFilterIcon(propertyId, false);
 			if (icon != null) {
 				booleanSelect.setItemIcon(false, icon);
 			}
-		} else {
-			booleanSelect.setItemCaption(true, "true");
-			booleanSelect.setItemCaption(false, "false");
 		}
+		booleanSelect.setItemCaption(true, getOptionCaption(propertyId, true));
+		booleanSelect.setItemCaption(false, getOptionCaption(propertyId, false));
 		booleans.put(booleanSelect, propertyId);
 		return booleanSelect;
 	}
 
+	/* Caption of an enum or boolean option, without a facet count */
+	private String getOptionCaption(Object propertyId, Object option) {
+		String caption = null;
+		if (owner.getFilterDecorator() != null) {
+			caption = option instanceof Boolean
+					? owner.getFilterDecorator().getBooleanFilterDisplayName(propertyId, (Boolean) option)
+					: owner.getFilterDecorator().getEnumFilterDisplayName(propertyId, option);
+		}
+		return caption == null ? option.toString() : caption;
+	}
+
 	private DateFilterPopup createDateField(Object propertyId) {
 		DateFilterPopup dateFilterPopup = new DateFilterPopup(owner.getFilterDecorator(), propertyId);
 		dates.put(dateFilterPopup, propertyId);
@@ -501,6 +698,8 @@ class FilterFieldGenerator implements Serializable {
 			propertyId = customFields.get(field);
 		} else if (texts.containsKey(field)) {
 			propertyId = texts.get(field);
+		} else if (suggestionFields.containsKey(field)) {
+			propertyId = suggestionFields.get(field);
 		} else if (dates.containsKey(field)) {
 			propertyId = dates.get(field);
 		} else if (numbers.containsKey(field)) {
@@ -511,6 +710,19 @@ class FilterFieldGenerator implements Serializable {
 			propertyId = booleans.get(field);
 		}
 
+		if (batchDepth > 0) {
+			PendingFilters changed = changeFilter(batch, propertyId, generateFilter(field, propertyId, value), value);
+			if (changed != null) {
+				batch = changed;
+			}
+			return;
+		}
+		if (isAsynchronous()) {
+			updateFilterAsynchronously(propertyId, generateFilter(field, propertyId, value), value);
+			return;
+		}
+		applyPendingFilters();
+
 		owner.setRefreshingEnabled(false);
 
 		// Generate a new filter
@@ -518,18 +730,22 @@ class FilterFieldGenerator implements Serializable {
 
 		// Check if the filter is already set
 		Filter possiblyExistingFilter = filters.get(propertyId);
-		if (possiblyExistingFilter != null && newFilter != null && possiblyExistingFilter.equals(newFilter)) {
+		if (possiblyExistingFilter != null && newFilter != null
+				&& FilterCompiler.unwrap(possiblyExistingFilter).equals(newFilter)) {
 			return;
 		}
 
-		/* Remove the old filter and set the new filter */
-		removeFilter(propertyId);
+		/* Replace the old filter with the new filter */
 		if (newFilter != null) {
-			setFilter(newFilter, propertyId);
+			filters.put(propertyId, prepareFilter(newFilter));
+			updateContainerFilter();
 			if (owner.getFilterGenerator() != null) {
 				owner.getFilterGenerator().filterAdded(propertyId, newFilter.getClass(), value);
 			}
 		} else {
+			if (filters.remove(propertyId) != null) {
+				updateContainerFilter();
+			}
 			if (owner.getFilterGenerator() != null) {
 				owner.getFilterGenerator().filterRemoved(propertyId);
 			}
@@ -552,6 +768,8 @@ class FilterFieldGenerator implements Serializable {
 			propertyId = customFields.get(field);
 		} else if (texts.containsKey(field)) {
 			propertyId = texts.get(field);
+		} else if (suggestionFields.containsKey(field)) {
+			propertyId = suggestionFields.get(field);
 		} else if (dates.containsKey(field)) {
 			propertyId = dates.get(field);
 		} else if (numbers.containsKey(field)) {
@@ -566,6 +784,7 @@ class FilterFieldGenerator implements Serializable {
 	}
 
 	public void runFiltersNow() {
+		applyPendingFilters();
 		owner.setRefreshingEnabled(false);
 		if (owner.getFilterable() != null && lastOnDemandFilter != null) {
 			owner.getFilterable().removeContainerFilter(lastOnDemandFilter);
@@ -577,6 +796,9 @@ class FilterFieldGenerator implements Serializable {
 		for (AbstractField<?> f : texts.keySet()) {
 			addNonNullFilter(filters, f);
 		}
+		for (AbstractField<?> f : suggestionFields.keySet()) {
+			addNonNullFilter(filters, f);
+		}
 		for (AbstractField<?> f : dates.keySet()) {
 			addNonNullFilter(filters, f);
 		}
@@ -590,8 +812,15 @@ class FilterFieldGenerator implements Serializable {
 			addNonNullFilter(filters, f);
 		}
 
+		/*
+		 * The parts are collected in no particular order, so let the filter
+		 * tune it when evaluated in memory. Containers translating the filters
+		 * themselves, e.g. to SQL, only know the standard And.
+		 */
 		Filter[] filtersArray = filters.toArray(new Filter[0]);
-		lastOnDemandFilter = filters.isEmpty() ? null : new And(filtersArray);
+		Filter conjunction = isEvaluatedInMemory(owner.getFilterable()) ? new AdaptiveAnd(filtersArray)
+				: new And(filtersArray);
+		lastOnDemandFilter = filters.isEmpty() ? null : prepareFilter(conjunction);
 		if (owner.getFilterable() != null && lastOnDemandFilter != null) {
 			owner.getFilterable().addContainerFilter(lastOnDemandFilter);
 		}
@@ -599,6 +828,13 @@ class FilterFieldGenerator implements Serializable {
 
 	}
 
+	private static boolean isEvaluatedInMemory(Filterable filterable) {
+		if (filterable instanceof PagedFilterTableContainer) {
+			filterable = ((PagedFilterTableContainer<?>) filterable).getContainer();
+		}
+		return filterable instanceof ColumnSource || filterable instanceof AbstractInMemoryContainer;
+	}
+
 	private void addNonNullFilter(List<Filter> filters, AbstractField<?> f) {
 		Filter filter = generateFilterForField(f);
 		if (null != filter) {
@@ -641,4 +877,384 @@ class FilterFieldGenerator implements Serializable {
 			initializeFilterFields();
 		}
 	}
+
+	void setFilterCompilationEnabled(boolean compileFilters) {
+		if (this.compileFilters == compileFilters) {
+			return;
+		}
+		applyPendingFilters();
+		this.compileFilters = compileFilters;
+		if (owner.getFilterable() == null) {
+			return;
+		}
+		owner.setRefreshingEnabled(false);
+		/* Re-apply the current filters in their new form */
+		if (!filters.isEmpty()) {
+			for (Map.Entry<Object, Filter> entry : filters.entrySet()) {
+				entry.setValue(prepareFilter(FilterCompiler.unwrap(entry.getValue())));
+			}
+			updateContainerFilter();
+		}
+		if (lastOnDemandFilter != null) {
+			owner.getFilterable().removeContainerFilter(lastOnDemandFilter);
+			lastOnDemandFilter = prepareFilter(FilterCompiler.unwrap(lastOnDemandFilter));
+			owner.getFilterable().addContainerFilter(lastOnDemandFilter);
+		}
+		owner.setRefreshingEnabled(true);
+	}
+
+	boolean isFilterCompilationEnabled() {
+		return compileFilters;
+	}
+
+	void setFilterExecutor(ExecutorService filterExecutor) {
+		if (filterExecutor == null) {
+			applyPendingFilters();
+		}
+		this.filterExecutor = filterExecutor;
+	}
+
+	ExecutorService getFilterExecutor() {
+		return filterExecutor;
+	}
+
+	private boolean isAsynchronous() {
+		return filterExecutor != null && owner.getFilterable() instanceof AsyncFilterable
+				&& owner.getAsComponent().getUI() != null;
+	}
+
+	/*
+	 * Evaluates the filters of the container, with the filter of the given
+	 * property replaced, on the filter executor. An evaluation still in
+	 * progress is cancelled, and its changes carried over to the new one.
+	 */
+	private void updateFilterAsynchronously(Object propertyId, Filter newFilter, Object value) {
+		final PendingFilters pending = changeFilter(pendingFilters, propertyId, newFilter, value);
+		if (pending == null) {
+			return;
+		}
+		cancelPendingFilters();
+
+		final AsyncFilterable container = (AsyncFilterable) owner.getFilterable();
+		final FilterEvaluation evaluation = container.prepareFilterEvaluation(getContainerFilters(pending));
+		if (evaluation == null) {
+			owner.setRefreshingEnabled(false);
+			applyFilters(pending);
+			resetPage();
+			owner.setRefreshingEnabled(true);
+			return;
+		}
+		final UI ui = owner.getAsComponent().getUI();
+		pendingFilters = pending;
+		pending.future = filterExecutor.submit(() -> {
+			try {
+				evaluation.evaluate();
+			} catch (CancellationException e) {
+				return;
+			} catch (RuntimeException e) {
+				/* E.g. the container was modified meanwhile; applied in the usual way below */
+			}
+			ui.access(() -> finishPendingFilters(pending, container, evaluation));
+		});
+	}
+
+	private void finishPendingFilters(PendingFilters pending, AsyncFilterable container,
+			FilterEvaluation evaluation) {
+		if (pendingFilters != pending || owner.getFilterable() != container) {
+			/* Superseded by a newer value */
+			return;
+		}
+		pendingFilters = null;
+		owner.setRefreshingEnabled(false);
+		if (evaluation.isDone() && container.applyFilterEvaluation(evaluation)) {
+			commitFilters(pending);
+		} else {
+			/* The container was modified during the evaluation */
+			applyFilters(pending);
+		}
+		resetPage();
+		owner.setRefreshingEnabled(true);
+	}
+
+	/*
+	 * Applies the changed filters to the container with a single evaluation
+	 * when the container supports it, otherwise by changing the combined
+	 * filter of the container once.
+	 */
+	private void applyFiltersAtOnce(PendingFilters pending) {
+		if (owner.getFilterable() instanceof AsyncFilterable) {
+			AsyncFilterable container = (AsyncFilterable) owner.getFilterable();
+			FilterEvaluation evaluation = container.prepareFilterEvaluation(getContainerFilters(pending));
+			if (evaluation != null) {
+				evaluation.evaluate();
+				if (container.applyFilterEvaluation(evaluation)) {
+					commitFilters(pending);
+					return;
+				}
+			}
+		}
+		applyFilters(pending);
+	}
+
+	/* Applies the changed filters by changing the combined filter once */
+	private void applyFilters(PendingFilters pending) {
+		filters.clear();
+		filters.putAll(pending.filters);
+		updateContainerFilter();
+		for (Map.Entry<Object, Object> entry : pending.values.entrySet()) {
+			notifyFilterChange(entry.getKey(), pending.filters.get(entry.getKey()), entry.getValue());
+		}
+	}
+
+	/* Takes the changed filters into use after the container has applied them */
+	private void commitFilters(PendingFilters pending) {
+		containerFilter = pending.containerFilter;
+		for (Map.Entry<Object, Object> entry : pending.values.entrySet()) {
+			Filter filter = pending.filters.get(entry.getKey());
+			if (filter != null) {
+				filters.put(entry.getKey(), filter);
+			} else {
+				filters.remove(entry.getKey());
+			}
+			notifyFilterChange(entry.getKey(), filter, entry.getValue());
+		}
+	}
+
+	/*
+	 * Returns the filters the container should have: those not generated from
+	 * the filter fields are kept as they are.
+	 */
+	private List<Filter> getContainerFilters(PendingFilters pending) {
+		List<Filter> containerFilters = new ArrayList<Filter>(owner.getFilterable().getContainerFilters());
+		containerFilters.remove(containerFilter);
+		pending.containerFilter = combineFilters(pending.filters.values());
+		if (pending.containerFilter != null) {
+			containerFilters.add(pending.containerFilter);
+		}
+		return containerFilters;
+	}
+
+	/* If the owner is a PagedFilteringTable, move to the first page */
+	private void resetPage() {
+		if (owner instanceof PagedFilterTable<?>) {
+			((PagedFilterTable<?>) owner).setCurrentPage(1);
+		}
+	}
+
+	private void notifyFilterChange(Object propertyId, Filter filter, Object value) {
+		if (owner.getFilterGenerator() == null) {
+			return;
+		}
+		if (filter != null) {
+			owner.getFilterGenerator().filterAdded(propertyId, FilterCompiler.unwrap(filter).getClass(), value);
+		} else {
+			owner.getFilterGenerator().filterRemoved(propertyId);
+		}
+	}
+
+	private void cancelPendingFilters() {
+		if (pendingFilters != null) {
+			pendingFilters.future.cancel(true);
+			pendingFilters = null;
+		}
+	}
+
+	/* Applies the filters of an asynchronous evaluation right away */
+	private void applyPendingFilters() {
+		PendingFilters pending = pendingFilters;
+		if (pending != null) {
+			cancelPendingFilters();
+			owner.setRefreshingEnabled(false);
+			applyFiltersAtOnce(pending);
+			resetPage();
+			owner.setRefreshingEnabled(true);
+		}
+	}
+
+	void beginFilterUpdate() {
+		if (batchDepth++ == 0) {
+			applyPendingFilters();
+		}
+	}
+
+	void commitFilterUpdate() {
+		if (batchDepth == 0) {
+			throw new IllegalStateException("No filter update has been started");
+		}
+		if (--batchDepth == 0 && batch != null) {
+			PendingFilters pending = batch;
+			batch = null;
+			owner.setRefreshingEnabled(false);
+			applyFiltersAtOnce(pending);
+			resetPage();
+			owner.setRefreshingEnabled(true);
+		}
+	}
+
+	void setFacetCounting(boolean facetCounting) {
+		this.facetCounting = facetCounting;
+		updateFacetCounts();
+	}
+
+	boolean isFacetCounting() {
+		return facetCounting;
+	}
+
+	void setEmptyFacetsHidden(boolean emptyFacetsHidden) {
+		this.emptyFacetsHidden = emptyFacetsHidden;
+		updateFacetCounts();
+	}
+
+	boolean isEmptyFacetsHidden() {
+		return emptyFacetsHidden;
+	}
+
+	void setSuggestionsEnabled(Object propertyId, boolean enabled) {
+		if (enabled) {
+			suggestedProperties.add(propertyId);
+		} else {
+			suggestedProperties.remove(propertyId);
+		}
+	}
+
+	boolean isSuggestionsEnabled(Object propertyId) {
+		return suggestedProperties.contains(propertyId);
+	}
+
+	/*
+	 * Shows the number of items each enum and boolean option would leave
+	 * under the filters of the other fields. The counts of all the fields are
+	 * computed together by the container.
+	 */
+	void updateFacetCounts() {
+		Filterable filterable = owner.getFilterable();
+		if (!facetCounting || !(filterable instanceof FacetCountable)) {
+			restoreFacetOptions();
+			return;
+		}
+		Map<ComboBox, Object> facetFields = new HashMap<ComboBox, Object>(enums);
+		facetFields.putAll(booleans);
+		if (facetFields.isEmpty()) {
+			return;
+		}
+		List<Filter> commonFilters = new ArrayList<Filter>(filterable.getContainerFilters());
+		if (containerFilter != null && commonFilters.remove(containerFilter)) {
+			commonFilters.addAll(filters.values());
+		}
+		Collection<Filter> onDemandFilters = Collections.emptyList();
+		if (lastOnDemandFilter != null && commonFilters.remove(lastOnDemandFilter)) {
+			onDemandFilters = FilterCompiler.getConjuncts(FilterCompiler.unwrap(lastOnDemandFilter));
+			commonFilters.addAll(onDemandFilters);
+		}
+		Map<Object, Filter> facetFilters = new HashMap<Object, Filter>();
+		for (Object propertyId : facetFields.values()) {
+			Filter filter = filters.get(propertyId);
+			for (Iterator<Filter> i = onDemandFilters.iterator(); filter == null && i.hasNext();) {
+				Filter part = i.next();
+				if (FilterCompiler.unwrap(part).appliesToProperty(propertyId)) {
+					filter = part;
+				}
+			}
+			commonFilters.remove(filter);
+			facetFilters.put(propertyId, filter);
+		}
+		Map<Object, Map<Object, Integer>> counts = ((FacetCountable) filterable).countFacets(commonFilters,
+				facetFilters);
+		if (counts == null) {
+			restoreFacetOptions();
+			return;
+		}
+		for (Map.Entry<ComboBox, Object> entry : facetFields.entrySet()) {
+			Map<Object, Integer> facetCounts = counts.get(entry.getValue());
+			showFacetCounts(entry.getKey(), entry.getValue(),
+					facetCounts != null ? facetCounts : Collections.<Object, Integer> emptyMap());
+		}
+	}
+
+	/* Updates the captions in place and hides or shows the empty options */
+	private void showFacetCounts(ComboBox field, Object propertyId, Map<Object, Integer> counts) {
+		List<Object> options = facetOptions.get(field);
+		if (options == null) {
+			options = new ArrayList<Object>(field.getItemIds());
+			facetOptions.put(field, options);
+		}
+		int position = 0;
+		for (Object option : options) {
+			if (option == field.getNullSelectionItemId()) {
+				position++;
+				continue;
+			}
+			Integer count = counts.get(option);
+			if (count == null) {
+				count = 0;
+			}
+			if (count > 0 || !emptyFacetsHidden || option.equals(field.getValue())) {
+				if (!field.containsId(option)) {
+					((Container.Indexed) field.getContainerDataSource()).addItemAt(position, option);
+				}
+				field.setItemCaption(option, getOptionCaption(propertyId, option) + " (" + count + ")");
+				position++;
+			} else if (field.containsId(option)) {
+				field.removeItem(option);
+			}
+		}
+	}
+
+	private void restoreFacetOptions() {
+		for (Map.Entry<ComboBox, List<Object>> entry : facetOptions.entrySet()) {
+			ComboBox field = entry.getKey();
+			Object propertyId = enums.containsKey(field) ? enums.get(field) : booleans.get(field);
+			int position = 0;
+			for (Object option : entry.getValue()) {
+				if (option != field.getNullSelectionItemId()) {
+					if (!field.containsId(option)) {
+						((Container.Indexed) field.getContainerDataSource()).addItemAt(position, option);
+					}
+					field.setItemCaption(option, getOptionCaption(propertyId, option));
+				}
+				position++;
+			}
+		}
+		facetOptions.clear();
+	}
+
+	/*
+	 * Returns a copy of the given filters with the filter of a property
+	 * changed, or null if the filter stays the same.
+	 */
+	private PendingFilters changeFilter(PendingFilters previous, Object propertyId, Filter newFilter, Object value) {
+		PendingFilters pending = new PendingFilters(previous != null ? previous.filters : filters, previous);
+		Filter currentFilter = pending.filters.get(propertyId);
+		if (newFilter == null ? currentFilter == null
+				: currentFilter != null && FilterCompiler.unwrap(currentFilter).equals(newFilter)) {
+			return null;
+		}
+		if (newFilter == null) {
+			pending.filters.remove(propertyId);
+		} else {
+			pending.filters.put(propertyId, prepareFilter(newFilter));
+		}
+		pending.values.put(propertyId, value);
+		return pending;
+	}
+
+	/**
+	 * Filters of an asynchronous evaluation or a batch update: all generated
+	 * filters by property ID, and the values of the filter fields changed
+	 * since the filters were last applied.
+	 */
+	private static class PendingFilters {
+		private final Map<Object, Filter> filters;
+		private final Map<Object, Object> values = new HashMap<Object, Object>();
+		/* The filters combined as given to the container for evaluation */
+		private Filter containerFilter;
+		private Future<?> future;
+
+		PendingFilters(Map<Object, Filter> filters, PendingFilters previous) {
+			this.filters = new HashMap<Object, Filter>(filters);
+			if (previous != null) {
+				values.putAll(previous.values);
+			}
+		}
+	}
 }
@@ -0,0 +1,42 @@
+package org.tepi.filtertable;
+
+import com.vaadin.event.FieldEvents.FocusEvent;
+import com.vaadin.event.FieldEvents.FocusListener;
+import com.vaadin.ui.Component;
+import com.vaadin.v7.ui.TextField;
+
+/**
+ * Lightweight stand-in for a filter field that has not been created yet. Shown
+ * in the filter bar when lazy filter field creation is enabled, and replaced
+ * with the real filter field as soon as it gains focus.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public class FilterPlaceholder extends TextField {
+
+	private final Object propertyId;
+
+	FilterPlaceholder(final FilterFieldGenerator generator, Object propertyId) {
+		this.propertyId = propertyId;
+		setNullRepresentation("");
+		addFocusListener(new FocusListener() {
+
+			@Override
+			public void focus(FocusEvent event) {
+				Component field = generator.createLazyField(FilterPlaceholder.this.propertyId);
+				if (field instanceof Component.Focusable) {
+					((Component.Focusable) field).focus();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return ID of the property the filter field is created for
+	 */
+	public Object getPropertyId() {
+		return propertyId;
+	}
+}
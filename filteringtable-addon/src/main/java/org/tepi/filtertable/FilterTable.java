@@ -1,15 +1,22 @@
 package org.tepi.filtertable;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.tepi.filtertable.FilterFieldGenerator.IFilterTable;
 import org.tepi.filtertable.client.ui.FilterTableConnector;
 import org.tepi.filtertable.datefilter.DateInterval;
+import org.tepi.filtertable.export.ColumnarExport;
+import org.tepi.filtertable.export.CsvExport;
+import org.tepi.filtertable.export.TableExport;
+import org.tepi.filtertable.paged.PagedFilterTableContainer;
 
 import com.vaadin.server.KeyMapper;
 import com.vaadin.server.LegacyPaint;
@@ -18,6 +25,7 @@ import com.vaadin.server.PaintTarget;
 import com.vaadin.ui.Component;
 import com.vaadin.ui.HasComponents;
 import com.vaadin.v7.data.Container;
+import com.vaadin.v7.data.Property;
 import com.vaadin.v7.data.util.converter.Converter.ConversionException;
 import com.vaadin.v7.ui.AbstractField;
 import com.vaadin.v7.ui.Table;
@@ -32,12 +40,17 @@ import com.vaadin.v7.ui.TextField;
  */
 @SuppressWarnings({ "serial", "deprecation" })
 public class FilterTable extends Table implements IFilterTable {
+	/** Default maximum number of rows filtered in the browser */
+	public static final int DEFAULT_CLIENT_SIDE_FILTERING_LIMIT = 2000;
+
 	/* Maps property id's to column filter components */
 	private final Map<Object, Component> columnIdToFilterMap = new HashMap<Object, Component>();
 	/* Internal list of currently collapsed column id:s */
 	private final Set<Object> collapsedColumnIds = new HashSet<Object>();
 	/* Set to true to show the filter components */
 	private boolean filtersVisible;
+	/* Set to true to attach only the filter components of columns in view */
+	private boolean filtersVirtualized;
 	/* Filter Generator and Decorator */
 	private FilterGenerator filterGenerator;
 	private FilterDecorator decorator;
@@ -51,6 +64,15 @@ public class FilterTable extends Table implements IFilterTable {
 	private boolean filtersRunOnDemand = false;
 	/* Custom column header style names */
 	private final HashMap<Object, String> columnHeaderStylenames = new HashMap<Object, String>();
+	/* What the client was last sent of the filter row; null until painted in full */
+	private Map<Object, Component> paintedFilters;
+	private Map<String, String> paintedStylenames;
+	private boolean paintedFiltersVisible;
+	/* Maximum number of rows filtered in the browser */
+	private int clientSideFilteringLimit = DEFAULT_CLIENT_SIDE_FILTERING_LIMIT;
+	/* Items and columns whose values the browser holds for filtering; null until sent in full */
+	private Set<Object> clientRows;
+	private Set<Object> clientColumns;
 	/* Fields from Table accessed via reflection */
 	private KeyMapper<Object> _columnIdMap;
 	private HashSet<Component> _visibleComponents;
@@ -104,24 +126,150 @@ public class FilterTable extends Table implements IFilterTable {
 		target.startTag(FilterTableConnector.TAG_FILTERS);
 		target.addAttribute(FilterTableConnector.ATTRIBUTE_FILTERS_VISIBLE, filtersVisible);
 		target.addAttribute(FilterTableConnector.ATTRIBUTE_FORCE_RENDER, reRenderFilterFields);
+		target.addAttribute(FilterTableConnector.ATTRIBUTE_VIRTUALIZED, filtersVirtualized);
+		/*
+		 * Unless the filter row has changed structurally, only the columns
+		 * whose filter component was replaced are sent. The components paint
+		 * their own changes.
+		 */
+		boolean delta = !reRenderFilterFields && paintedFilters != null && paintedFiltersVisible == filtersVisible
+				&& !target.isFullRepaint();
+		target.addAttribute(FilterTableConnector.ATTRIBUTE_DELTA, delta);
 		reRenderFilterFields = false;
+		Map<Object, Component> painted = new HashMap<Object, Component>();
 		for (Object key : getColumnIdToFilterMap().keySet()) {
 			/* Make sure parent is set properly */
 			if (columnIdToFilterMap.get(key) != null && columnIdToFilterMap.get(key).getParent() == null) {
 				continue;
 			}
+			Component c = getColumnIdToFilterMap().get(key);
+			painted.put(key, c);
+			if (delta && paintedFilters.containsKey(key) && paintedFilters.get(key) == c) {
+				continue;
+			}
 			/* Paint the filter field */
 			target.startTag(FilterTableConnector.TAG_FILTER_COMPONENT + _columnIdMap.key(key));
 			target.addAttribute(FilterTableConnector.ATTRIBUTE_COLUMN_ID, _columnIdMap.key(key));
-			Component c = getColumnIdToFilterMap().get(key);
 			LegacyPaint.paint(c, target);
 			target.endTag(FilterTableConnector.TAG_FILTER_COMPONENT + _columnIdMap.key(key));
 		}
+		boolean clientSideFiltering = isClientSideFilteringActive();
+		target.addAttribute(FilterTableConnector.ATTRIBUTE_CLIENT_FILTERING, clientSideFiltering);
+		if (clientSideFiltering) {
+			paintClientSideRows(target, delta);
+		} else {
+			clientRows = null;
+		}
 		Map<String, String> headerStylenames = getColumnHeaderStylenamesForPaint();
-		if (headerStylenames != null) {
+		Map<String, String> paintedHeaderStylenames = headerStylenames;
+		if (delta) {
+			headerStylenames = getChangedStylenames(paintedStylenames, headerStylenames);
+		}
+		if (headerStylenames != null && !(delta && headerStylenames.isEmpty())) {
 			target.addAttribute(FilterTableConnector.ATTRIBUTE_COLUMN_HEADER_STYLE_NAMES, headerStylenames);
 		}
 		target.endTag(FilterTableConnector.TAG_FILTERS);
+		paintedFilters = painted;
+		paintedStylenames = paintedHeaderStylenames;
+		paintedFiltersVisible = filtersVisible;
+	}
+
+	/*
+	 * Sends the values the text filters are evaluated against in the browser,
+	 * converted to strings as SimpleStringFilter does. The browser keeps the
+	 * values it has been sent, so after a refilter only the items it has not
+	 * seen yet are appended.
+	 */
+	private void paintClientSideRows(PaintTarget target, boolean delta) throws PaintException {
+		Set<Object> columns = new HashSet<Object>();
+		for (Object propertyId : generator.getClientSideFilterProperties()) {
+			if (!collapsedColumnIds.contains(propertyId)) {
+				columns.add(propertyId);
+			}
+		}
+		Collection<?> itemIds = getItemIds();
+		boolean append = delta && clientRows != null && columns.equals(clientColumns);
+		if (append) {
+			List<Object> unsent = new ArrayList<Object>();
+			for (Object itemId : itemIds) {
+				if (!clientRows.contains(itemId)) {
+					unsent.add(itemId);
+				}
+			}
+			if (unsent.isEmpty()) {
+				return;
+			}
+			if (clientRows.size() + unsent.size() <= clientSideFilteringLimit) {
+				itemIds = unsent;
+			} else {
+				append = false;
+			}
+		}
+		if (!append) {
+			clientRows = new HashSet<Object>();
+			clientColumns = columns;
+		}
+		clientRows.addAll(itemIds);
+		String[] rowKeys = new String[itemIds.size()];
+		int row = 0;
+		for (Object itemId : itemIds) {
+			rowKeys[row++] = itemIdMapper.key(itemId);
+		}
+		List<String> columnKeys = new ArrayList<String>();
+		for (Object propertyId : columns) {
+			String[] values = new String[rowKeys.length];
+			row = 0;
+			for (Object itemId : itemIds) {
+				Property<?> property = getContainerProperty(itemId, propertyId);
+				Object value = property != null ? property.getValue() : null;
+				values[row++] = value != null ? value.toString() : "";
+			}
+			String columnKey = _columnIdMap.key(propertyId);
+			columnKeys.add(columnKey);
+			target.addAttribute(FilterTableConnector.ATTRIBUTE_CLIENT_VALUES + columnKey, values);
+		}
+		target.addAttribute(FilterTableConnector.ATTRIBUTE_CLIENT_ROW_KEYS, rowKeys);
+		target.addAttribute(FilterTableConnector.ATTRIBUTE_CLIENT_COLUMNS,
+				columnKeys.toArray(new String[columnKeys.size()]));
+		target.addAttribute(FilterTableConnector.ATTRIBUTE_CLIENT_APPEND, append);
+	}
+
+	/* Removed style names are sent as empty strings */
+	private static Map<String, String> getChangedStylenames(Map<String, String> painted, Map<String, String> current) {
+		Map<String, String> changed = new HashMap<String, String>();
+		if (current != null) {
+			for (Map.Entry<String, String> entry : current.entrySet()) {
+				if (painted == null || !entry.getValue().equals(painted.get(entry.getKey()))) {
+					changed.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		if (painted != null) {
+			for (String key : painted.keySet()) {
+				if (current == null || !current.containsKey(key)) {
+					changed.put(key, "");
+				}
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public void detach() {
+		super.detach();
+		/* A client attaching later has not seen the filter row */
+		paintedFilters = null;
+		paintedStylenames = null;
+		clientRows = null;
+	}
+
+	@Override
+	public void valueChange(Property.ValueChangeEvent event) {
+		super.valueChange(event);
+		/* An edited cell makes the values sent for filtering in the browser stale */
+		if (event.getProperty() != this && event.getProperty() != getPropertyDataSource()) {
+			clientRows = null;
+		}
 	}
 
 	@Override
@@ -156,6 +304,8 @@ public class FilterTable extends Table implements IFilterTable {
 	@Override
 	public void setContainerDataSource(Container newDataSource, Collection<?> visibleIds) {
 		super.setContainerDataSource(newDataSource, visibleIds);
+		/* The item keys are issued anew for the new container */
+		clientRows = null;
 		resetFilters();
 	}
 
@@ -240,6 +390,32 @@ public class FilterTable extends Table implements IFilterTable {
 		return filtersVisible;
 	}
 
+	/**
+	 * Sets horizontal virtualization of the filter bar. When enabled, the
+	 * browser only attaches and sizes the filter components of the columns in
+	 * or near the horizontally scrolled view. The other columns show an empty
+	 * placeholder until scrolled into view. Recommended for tables with a
+	 * large number of columns.
+	 * 
+	 * @param filtersVirtualized
+	 *            true to attach only the filter components of columns in view
+	 */
+	public void setFilterBarVirtualized(boolean filtersVirtualized) {
+		if (this.filtersVirtualized != filtersVirtualized) {
+			this.filtersVirtualized = filtersVirtualized;
+			reRenderFilterFields = true;
+			markAsDirty();
+		}
+	}
+
+	/**
+	 * @return true if only the filter components of columns in view are
+	 *         attached in the browser
+	 */
+	public boolean isFilterBarVirtualized() {
+		return filtersVirtualized;
+	}
+
 	/**
 	 * Toggles the visibility of the filter field defined for the give column
 	 * ID.
@@ -286,7 +462,7 @@ public class FilterTable extends Table implements IFilterTable {
 	 *             exception from the underlying field
 	 */
 	public boolean setFilterFieldValue(Object propertyId, Object value) throws ConversionException {
-		Component field = getColumnIdToFilterMap().get(propertyId);
+		Component field = generator.createLazyField(propertyId);
 		boolean retVal = field != null;
 		if (field != null) {
 			((AbstractField<?>) field).setConvertedValue(value);
@@ -303,23 +479,80 @@ public class FilterTable extends Table implements IFilterTable {
 	 */
 	public Object getFilterFieldValue(Object propertyId) {
 		Component field = getColumnIdToFilterMap().get(propertyId);
-		if (field != null) {
+		if (field != null && !(field instanceof FilterPlaceholder)) {
 			return ((AbstractField<?>) field).getValue();
 		} else {
 			return null;
 		}
 	}
 
+	/**
+	 * Set the values of several filter fields at once. The container is
+	 * filtered and the table refreshed only once, after all the values have
+	 * been set.
+	 * 
+	 * @param values
+	 *            New values by property id
+	 * @return true if setting succeeded, false if any of the fields was not
+	 *         found
+	 * @throws ConversionException
+	 *             exception from an underlying field
+	 * @see #beginFilterUpdate()
+	 */
+	public boolean setFilterFieldValues(Map<?, ?> values) throws ConversionException {
+		boolean retVal = true;
+		beginFilterUpdate();
+		try {
+			for (Map.Entry<?, ?> entry : values.entrySet()) {
+				retVal &= setFilterFieldValue(entry.getKey(), entry.getValue());
+			}
+		} finally {
+			commitFilterUpdate();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Starts a batch update of the filter fields. Until the matching
+	 * {@link #commitFilterUpdate()}, changes to the filter field values are
+	 * only collected; the commit then applies all of them to the container
+	 * together, refreshing the table once. Batch updates may be nested, in
+	 * which case the outermost commit applies the changes.
+	 * <p>
+	 * With a container implementing
+	 * {@link org.tepi.filtertable.engine.AsyncFilterable}, the container is
+	 * also filtered only once. The filters of the filter fields are set to
+	 * other containers combined into a single filter, so a batch update
+	 * removes it and adds the new combination, filtering the container at
+	 * most twice however many filters changed, or once when the container
+	 * implements {@link org.tepi.filtertable.engine.RefinableFilterable}.
+	 * {@link #clearFilters()} is applied the same way.
+	 */
+	public void beginFilterUpdate() {
+		generator.beginFilterUpdate();
+	}
+
+	/**
+	 * Ends a batch update started with {@link #beginFilterUpdate()}, applying
+	 * the collected filter changes if this was the outermost batch update.
+	 * 
+	 * @throws IllegalStateException
+	 *             if no batch update has been started
+	 */
+	public void commitFilterUpdate() {
+		generator.commitFilterUpdate();
+	}
+
 	/**
 	 * Returns the filter component instance associated with the given property
-	 * ID.
+	 * ID. A filter field not created yet in lazy mode is created first.
 	 * 
 	 * @param propertyId
 	 *            Property id for which to find the filter component.
 	 * @return Related component instance or null if not found.
 	 */
 	public Component getFilterField(Object propertyId) {
-		return getColumnIdToFilterMap().get(propertyId);
+		return generator.createLazyField(propertyId);
 	}
 
 	@Override
@@ -407,6 +640,231 @@ public class FilterTable extends Table implements IFilterTable {
 		return filtersRunOnDemand;
 	}
 
+	/**
+	 * Sets whether the filters generated from the filter fields are compiled
+	 * before they are added to the container. Compiled filters resolve their
+	 * constants once and evaluate each item without boxing or temporary
+	 * strings. Containers implementing
+	 * {@link org.tepi.filtertable.engine.ColumnSource} evaluate them directly
+	 * against their columns.
+	 * 
+	 * Note: Containers that translate filters themselves (e.g. into SQL) may
+	 * not accept compiled filters.
+	 * 
+	 * @param compileFilters
+	 *            true to compile the generated filters
+	 */
+	public void setFilterCompilationEnabled(boolean compileFilters) {
+		generator.setFilterCompilationEnabled(compileFilters);
+	}
+
+	/**
+	 * @return true if the generated filters are compiled before they are added
+	 *         to the container
+	 */
+	public boolean isFilterCompilationEnabled() {
+		return generator.isFilterCompilationEnabled();
+	}
+
+	/**
+	 * Sets lazy creation of the filter fields. When enabled, the filter bar
+	 * initially shows a lightweight {@link FilterPlaceholder} for every
+	 * column other than String columns, whose filter is a plain text field
+	 * anyway. The real filter field, e.g. a date or number popup or an enum
+	 * selection, is created when its placeholder gains focus, or when it is
+	 * accessed with {@link #getFilterField(Object)} or given a value with
+	 * {@link #setFilterFieldValue(Object, Object)}.
+	 * 
+	 * Note: Recreates the filter fields also!
+	 * 
+	 * @param lazyFields
+	 *            true to create the filter fields on first use
+	 */
+	public void setLazyFilterFieldsEnabled(boolean lazyFields) {
+		generator.setLazyFieldCreation(lazyFields);
+		resetFilters();
+	}
+
+	/**
+	 * @return true if the filter fields are created on first use
+	 */
+	public boolean isLazyFilterFieldsEnabled() {
+		return generator.isLazyFieldCreation();
+	}
+
+	/**
+	 * Sets facet counting. When enabled, and the container implements
+	 * {@link org.tepi.filtertable.engine.FacetCountable}, each option of the
+	 * enum and boolean filter fields shows the number of items it would
+	 * leave, given the values of the other filter fields. The counts are
+	 * updated whenever the filtered items change.
+	 * 
+	 * @param facetCounting
+	 *            true to show the counts
+	 */
+	public void setFacetCountingEnabled(boolean facetCounting) {
+		generator.setFacetCounting(facetCounting);
+	}
+
+	/**
+	 * @return true if the options of the enum and boolean filter fields show
+	 *         the number of matching items
+	 */
+	public boolean isFacetCountingEnabled() {
+		return generator.isFacetCounting();
+	}
+
+	/**
+	 * Sets whether the options with no matching items are hidden from the
+	 * enum and boolean filter fields while facet counting is enabled. The
+	 * selected option is always shown.
+	 * 
+	 * @param emptyFacetsHidden
+	 *            true to hide the options with no matching items
+	 */
+	public void setEmptyFacetsHidden(boolean emptyFacetsHidden) {
+		generator.setEmptyFacetsHidden(emptyFacetsHidden);
+	}
+
+	/**
+	 * @return true if the options with no matching items are hidden
+	 */
+	public boolean isEmptyFacetsHidden() {
+		return generator.isEmptyFacetsHidden();
+	}
+
+	/**
+	 * Sets whether the text filter of a String property suggests the values
+	 * of the property while the user types. The suggestions are the most
+	 * common values starting with the typed text, taken from a bounded index
+	 * of the container that is updated as items are added.
+	 * 
+	 * Note: Recreates the filter fields also!
+	 * 
+	 * @param propertyId
+	 *            ID of a String property
+	 * @param enabled
+	 *            true to suggest values
+	 */
+	public void setSuggestionsEnabled(Object propertyId, boolean enabled) {
+		generator.setSuggestionsEnabled(propertyId, enabled);
+		resetFilters();
+	}
+
+	/**
+	 * @param propertyId
+	 *            ID of a property
+	 * @return true if the text filter of the property suggests values
+	 */
+	public boolean isSuggestionsEnabled(Object propertyId) {
+		return generator.isSuggestionsEnabled(propertyId);
+	}
+
+	@Override
+	public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+		super.containerItemSetChange(event);
+		/*
+		 * Called from the constructor of Table before the generator exists. A
+		 * page change of PagedFilterTable leaves the filtered items as they are.
+		 */
+		if (generator != null && !(event.getContainer() instanceof PagedFilterTableContainer)) {
+			generator.updateFacetCounts();
+		}
+	}
+
+	/**
+	 * Sets filtering in the browser. When enabled, and the table has at most
+	 * {@link #getClientSideFilteringLimit()} rows, the values of the columns
+	 * with a text filter are sent to the browser with the rows, and typing in
+	 * a text filter hides the rows not matching it right away. The server is
+	 * told the filter value only when the user pauses typing, at least for a
+	 * second, or leaves the field, and then filters the container as usual.
+	 * <p>
+	 * The browser filters only the rows it has rendered, so the mode is in use
+	 * only while all the rows fit in the row cache of the table as it is:
+	 * with a page length of 0, or with at most page length * (1 + cache rate)
+	 * rows. No rows are added to the page for it. Narrowing a filter is
+	 * answered in the browser, while rows filtered out by the server come back
+	 * only once the server is told the new value. The values of the rows are
+	 * sent once, and after a refilter only for the rows the browser has not
+	 * seen; an edited value or a new container sends them all again. The mode
+	 * is not in use with PagedFilterTable or when filtering on demand, and it
+	 * assumes the FilterGenerator, if any, does not replace the default
+	 * filters of the text fields.
+	 * 
+	 * Note: Recreates the filter fields also!
+	 * 
+	 * @param clientSideFiltering
+	 *            true to filter small tables in the browser
+	 */
+	public void setClientSideFilteringEnabled(boolean clientSideFiltering) {
+		generator.setClientSideFiltering(clientSideFiltering);
+		resetFilters();
+		markAsDirty();
+	}
+
+	/**
+	 * @return true if small tables are filtered in the browser
+	 */
+	public boolean isClientSideFilteringEnabled() {
+		return generator.isClientSideFiltering();
+	}
+
+	/**
+	 * Sets the maximum number of rows the table may have to be filtered in
+	 * the browser. Defaults to {@link #DEFAULT_CLIENT_SIDE_FILTERING_LIMIT}.
+	 * 
+	 * @param rows
+	 *            Maximum number of rows
+	 */
+	public void setClientSideFilteringLimit(int rows) {
+		clientSideFilteringLimit = rows;
+		markAsDirty();
+	}
+
+	/**
+	 * @return the maximum number of rows the table may have to be filtered in
+	 *         the browser
+	 */
+	public int getClientSideFilteringLimit() {
+		return clientSideFilteringLimit;
+	}
+
+	private boolean isClientSideFilteringActive() {
+		return generator.isClientSideFiltering() && filtersVisible && !filtersRunOnDemand
+				&& !(getContainerDataSource() instanceof PagedFilterTableContainer)
+				&& size() <= clientSideFilteringLimit
+				&& (getPageLength() == 0 || size() <= getPageLength() * (1 + getCacheRate()));
+	}
+
+	/**
+	 * Sets an executor for evaluating the filters asynchronously. When set,
+	 * and the container implements
+	 * {@link org.tepi.filtertable.engine.AsyncFilterable}, changing a filter
+	 * field no longer blocks the session while the container is filtered: the
+	 * filters are evaluated on the executor and the result is applied with
+	 * {@link com.vaadin.ui.UI#access(Runnable)}. A newer value in any filter
+	 * field cancels the evaluation still in progress.
+	 * 
+	 * Note: The result reaches the browser on the next round trip, so the UI
+	 * should use server push or polling.
+	 * 
+	 * @param filterExecutor
+	 *            Executor for evaluating the filters, or null to evaluate
+	 *            them right away (default)
+	 */
+	public void setFilterExecutor(ExecutorService filterExecutor) {
+		generator.setFilterExecutor(filterExecutor);
+	}
+
+	/**
+	 * @return the executor used for evaluating the filters asynchronously, or
+	 *         null if the filters are evaluated right away
+	 */
+	public ExecutorService getFilterExecutor() {
+		return generator.getFilterExecutor();
+	}
+
 	public void runFilters() {
 		if (!filtersRunOnDemand) {
 			throw new IllegalStateException("Can't run filters on demand when filtersRunOnDemand is set to false");
@@ -414,6 +872,81 @@ public class FilterTable extends Table implements IFilterTable {
 		generator.runFiltersNow();
 	}
 
+	/**
+	 * Creates an export of the items passing the filters, in the current
+	 * order, as comma separated values. The visible, non-collapsed columns
+	 * with a container property are exported with their headers, and the
+	 * values are formatted as in the table. The items are read a chunk at a
+	 * time while the export is written, so it can be used directly as the
+	 * source of a StreamResource:
+	 * 
+	 * <pre>
+	 * new StreamResource(table.createCsvExport(), "export.csv");
+	 * </pre>
+	 * 
+	 * @return the export
+	 */
+	public CsvExport createCsvExport() {
+		Object[] columns = getExportedColumns();
+		CsvExport export = new CsvExport(getExportContainer(), columns, getExportedHeaders(columns)) {
+			@Override
+			protected String format(Object itemId, Object propertyId, Property<?> property) {
+				return property == null ? null : formatPropertyValue(itemId, propertyId, property);
+			}
+		};
+		initExport(export);
+		return export;
+	}
+
+	/**
+	 * Creates an export of the items passing the filters, in the current
+	 * order, in a compact binary column-oriented format, see
+	 * {@link ColumnarExport}. The columns are chosen as in
+	 * {@link #createCsvExport()}, the values are exported unformatted.
+	 * 
+	 * @return the export
+	 */
+	public ColumnarExport createColumnarExport() {
+		Object[] columns = getExportedColumns();
+		ColumnarExport export = new ColumnarExport(getExportContainer(), columns, getExportedHeaders(columns));
+		initExport(export);
+		return export;
+	}
+
+	/**
+	 * Returns the container whose items are exported.
+	 */
+	protected Container.Ordered getExportContainer() {
+		return (Container.Ordered) getContainerDataSource();
+	}
+
+	private Object[] getExportedColumns() {
+		Collection<?> propertyIds = getExportContainer().getContainerPropertyIds();
+		List<Object> columns = new ArrayList<Object>();
+		for (Object columnId : getVisibleColumns()) {
+			if (!isColumnCollapsed(columnId) && propertyIds.contains(columnId)) {
+				columns.add(columnId);
+			}
+		}
+		return columns.toArray();
+	}
+
+	private String[] getExportedHeaders(Object[] columns) {
+		String[] headers = new String[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			String header = getColumnHeader(columns[i]);
+			headers[i] = header != null ? header : columns[i].toString();
+		}
+		return headers;
+	}
+
+	/* Reading the container while the export is streamed needs the session lock */
+	private void initExport(TableExport export) {
+		if (getUI() != null) {
+			export.setSession(getUI().getSession());
+		}
+	}
+
 	private Map<String, String> getColumnHeaderStylenamesForPaint() {
 		String[] allStyleNames = getColumnHeaderStylenames();
 		if (allStyleNames == null) {
@@ -8,10 +8,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.tepi.filtertable.FilterFieldGenerator.IFilterTable;
 import org.tepi.filtertable.client.ui.FilterTableConnector;
 import org.tepi.filtertable.datefilter.DateInterval;
+import org.tepi.filtertable.tree.SubtreeMatcher;
+import org.tepi.filtertable.tree.TreeFilterable;
 
 import com.vaadin.server.KeyMapper;
 import com.vaadin.server.LegacyPaint;
@@ -53,6 +56,9 @@ public class FilterTreeTable extends TreeTable implements IFilterTable {
 	private boolean wrapFilters = false;
 	/* Are filters run immediately, or only on demand? */
 	private boolean filtersRunOnDemand = false;
+	/* Filters the hierarchy through a SubtreeMatcher; created on demand */
+	private boolean subtreeMatching;
+	private TreeFilterable treeFilterable;
 	/* Custom column header style names */
 	private final HashMap<Object, String> columnHeaderStylenames = new HashMap<Object, String>();
 	/* Fields from Table accessed via reflection */
@@ -89,6 +95,15 @@ public class FilterTreeTable extends TreeTable implements IFilterTable {
 		initDone = true;
 	}
 
+	@Override
+	public void beforeClientResponse(boolean initial) {
+		/* Changes of the hierarchy during the round trip are matched once */
+		if (treeFilterable != null) {
+			treeFilterable.applyIfStale();
+		}
+		super.beforeClientResponse(initial);
+	}
+
 	@Override
 	public void paintContent(PaintTarget target) throws PaintException {
 		super.paintContent(target);
@@ -276,7 +291,7 @@ public class FilterTreeTable extends TreeTable implements IFilterTable {
 	 *             exception from the underlying field
 	 */
 	public boolean setFilterFieldValue(Object propertyId, Object value) throws ConversionException {
-		Component field = getColumnIdToFilterMap().get(propertyId);
+		Component field = generator.createLazyField(propertyId);
 		boolean retVal = field != null;
 		if (field != null) {
 			((AbstractField<?>) field).setConvertedValue(value);
@@ -293,28 +308,103 @@ public class FilterTreeTable extends TreeTable implements IFilterTable {
 	 */
 	public Object getFilterFieldValue(Object propertyId) {
 		Component field = getColumnIdToFilterMap().get(propertyId);
-		if (field != null) {
+		if (field != null && !(field instanceof FilterPlaceholder)) {
 			return ((AbstractField<?>) field).getValue();
 		} else {
 			return null;
 		}
 	}
 
+	/**
+	 * Set the values of several filter fields at once. The container is
+	 * filtered and the table refreshed only once, after all the values have
+	 * been set.
+	 * 
+	 * @param values
+	 *            New values by property id
+	 * @return true if setting succeeded, false if any of the fields was not
+	 *         found
+	 * @throws ConversionException
+	 *             exception from an underlying field
+	 * @see #beginFilterUpdate()
+	 */
+	public boolean setFilterFieldValues(Map<?, ?> values) throws ConversionException {
+		boolean retVal = true;
+		beginFilterUpdate();
+		try {
+			for (Map.Entry<?, ?> entry : values.entrySet()) {
+				retVal &= setFilterFieldValue(entry.getKey(), entry.getValue());
+			}
+		} finally {
+			commitFilterUpdate();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Starts a batch update of the filter fields. Until the matching
+	 * {@link #commitFilterUpdate()}, changes to the filter field values are
+	 * only collected; the commit then applies all of them to the container
+	 * together, refreshing the table once. Batch updates may be nested, in
+	 * which case the outermost commit applies the changes.
+	 * <p>
+	 * With a container implementing
+	 * {@link org.tepi.filtertable.engine.AsyncFilterable}, the container is
+	 * also filtered only once. The filters of the filter fields are set to
+	 * other containers combined into a single filter, so a batch update
+	 * removes it and adds the new combination, filtering the container at
+	 * most twice however many filters changed, or once when the container
+	 * implements {@link org.tepi.filtertable.engine.RefinableFilterable}.
+	 * {@link #clearFilters()} is applied the same way.
+	 */
+	public void beginFilterUpdate() {
+		generator.beginFilterUpdate();
+	}
+
+	/**
+	 * Ends a batch update started with {@link #beginFilterUpdate()}, applying
+	 * the collected filter changes if this was the outermost batch update.
+	 * 
+	 * @throws IllegalStateException
+	 *             if no batch update has been started
+	 */
+	public void commitFilterUpdate() {
+		generator.commitFilterUpdate();
+	}
+
 	/**
 	 * Returns the filter component instance associated with the given property
-	 * ID.
+	 * ID. A filter field not created yet in lazy mode is created first.
 	 * 
 	 * @param propertyId
 	 *            Property id for which to find the filter component.
 	 * @return Related component instance or null if not found.
 	 */
 	public Component getFilterField(Object propertyId) {
-		return getColumnIdToFilterMap().get(propertyId);
+		return generator.createLazyField(propertyId);
 	}
 
 	@Override
 	public Filterable getFilterable() {
-		return getContainerDataSource() instanceof Filterable ? (Filterable) getContainerDataSource() : null;
+		Container container = getContainerDataSource();
+		if (subtreeMatching && container instanceof Container.Hierarchical && container instanceof Filterable) {
+			if (treeFilterable == null || treeFilterable.getContainer() != container) {
+				if (treeFilterable != null) {
+					treeFilterable.detach();
+				}
+				treeFilterable = new TreeFilterable((Container.Hierarchical) container);
+				treeFilterable.setStaleListener(new TreeFilterable.StaleListener() {
+
+					@Override
+					public void matchesStale(TreeFilterable source) {
+						/* Filter again before the response */
+						markAsDirty();
+					}
+				});
+			}
+			return treeFilterable;
+		}
+		return container instanceof Filterable ? (Filterable) container : null;
 	}
 
 	@Override
@@ -412,6 +502,205 @@ public class FilterTreeTable extends TreeTable implements IFilterTable {
 		return filtersRunOnDemand;
 	}
 
+	/**
+	 * Sets whether the filters generated from the filter fields are compiled
+	 * before they are added to the container. Compiled filters resolve their
+	 * constants once and evaluate each item without boxing or temporary
+	 * strings. Containers implementing
+	 * {@link org.tepi.filtertable.engine.ColumnSource} evaluate them directly
+	 * against their columns.
+	 * 
+	 * Note: Containers that translate filters themselves (e.g. into SQL) may
+	 * not accept compiled filters.
+	 * 
+	 * @param compileFilters
+	 *            true to compile the generated filters
+	 */
+	public void setFilterCompilationEnabled(boolean compileFilters) {
+		generator.setFilterCompilationEnabled(compileFilters);
+	}
+
+	/**
+	 * @return true if the generated filters are compiled before they are added
+	 *         to the container
+	 */
+	public boolean isFilterCompilationEnabled() {
+		return generator.isFilterCompilationEnabled();
+	}
+
+	/**
+	 * Sets whether the hierarchy is filtered with a
+	 * {@link org.tepi.filtertable.tree.SubtreeMatcher}. The items shown are the
+	 * same as when HierarchicalContainer includes the parents of the matching
+	 * items, but they are found in a single pass over the hierarchy, and the
+	 * results of the filters that did not change are reused.
+	 * 
+	 * Note: Recreates the filter fields also!
+	 * 
+	 * @param subtreeMatching
+	 *            true to filter with a SubtreeMatcher
+	 */
+	public void setSubtreeMatchingEnabled(boolean subtreeMatching) {
+		if (this.subtreeMatching == subtreeMatching) {
+			return;
+		}
+		/* Remove the filters from where they were added before switching */
+		generator.destroyFilterComponents();
+		if (treeFilterable != null) {
+			treeFilterable.detach();
+			treeFilterable = null;
+		}
+		this.subtreeMatching = subtreeMatching;
+		resetFilters();
+	}
+
+	/**
+	 * @return true if the hierarchy is filtered with a SubtreeMatcher
+	 */
+	public boolean isSubtreeMatchingEnabled() {
+		return subtreeMatching;
+	}
+
+	/**
+	 * @return the matcher filtering the hierarchy, e.g. to enable parallel
+	 *         evaluation, or null if subtree matching is not enabled or the
+	 *         container is not hierarchical
+	 */
+	public SubtreeMatcher getSubtreeMatcher() {
+		return getFilterable() instanceof TreeFilterable ? treeFilterable.getMatcher() : null;
+	}
+
+	/**
+	 * Sets lazy creation of the filter fields. When enabled, the filter bar
+	 * initially shows a lightweight {@link FilterPlaceholder} for every
+	 * column other than String columns, whose filter is a plain text field
+	 * anyway. The real filter field, e.g. a date or number popup or an enum
+	 * selection, is created when its placeholder gains focus, or when it is
+	 * accessed with {@link #getFilterField(Object)} or given a value with
+	 * {@link #setFilterFieldValue(Object, Object)}.
+	 * 
+	 * Note: Recreates the filter fields also!
+	 * 
+	 * @param lazyFields
+	 *            true to create the filter fields on first use
+	 */
+	public void setLazyFilterFieldsEnabled(boolean lazyFields) {
+		generator.setLazyFieldCreation(lazyFields);
+		resetFilters();
+	}
+
+	/**
+	 * @return true if the filter fields are created on first use
+	 */
+	public boolean isLazyFilterFieldsEnabled() {
+		return generator.isLazyFieldCreation();
+	}
+
+	/**
+	 * Sets facet counting. When enabled, and the container implements
+	 * {@link org.tepi.filtertable.engine.FacetCountable}, each option of the
+	 * enum and boolean filter fields shows the number of items it would
+	 * leave, given the values of the other filter fields. The counts are
+	 * updated whenever the filtered items change.
+	 * 
+	 * @param facetCounting
+	 *            true to show the counts
+	 */
+	public void setFacetCountingEnabled(boolean facetCounting) {
+		generator.setFacetCounting(facetCounting);
+	}
+
+	/**
+	 * @return true if the options of the enum and boolean filter fields show
+	 *         the number of matching items
+	 */
+	public boolean isFacetCountingEnabled() {
+		return generator.isFacetCounting();
+	}
+
+	/**
+	 * Sets whether the options with no matching items are hidden from the
+	 * enum and boolean filter fields while facet counting is enabled. The
+	 * selected option is always shown.
+	 * 
+	 * @param emptyFacetsHidden
+	 *            true to hide the options with no matching items
+	 */
+	public void setEmptyFacetsHidden(boolean emptyFacetsHidden) {
+		generator.setEmptyFacetsHidden(emptyFacetsHidden);
+	}
+
+	/**
+	 * @return true if the options with no matching items are hidden
+	 */
+	public boolean isEmptyFacetsHidden() {
+		return generator.isEmptyFacetsHidden();
+	}
+
+	/**
+	 * Sets whether the text filter of a String property suggests the values
+	 * of the property while the user types. The suggestions are the most
+	 * common values starting with the typed text, taken from a bounded index
+	 * of the container that is updated as items are added.
+	 * 
+	 * Note: Recreates the filter fields also!
+	 * 
+	 * @param propertyId
+	 *            ID of a String property
+	 * @param enabled
+	 *            true to suggest values
+	 */
+	public void setSuggestionsEnabled(Object propertyId, boolean enabled) {
+		generator.setSuggestionsEnabled(propertyId, enabled);
+		resetFilters();
+	}
+
+	/**
+	 * @param propertyId
+	 *            ID of a property
+	 * @return true if the text filter of the property suggests values
+	 */
+	public boolean isSuggestionsEnabled(Object propertyId) {
+		return generator.isSuggestionsEnabled(propertyId);
+	}
+
+	@Override
+	public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+		super.containerItemSetChange(event);
+		/* Called from the constructor of Table before the generator exists */
+		if (generator != null) {
+			generator.updateFacetCounts();
+		}
+	}
+
+	/**
+	 * Sets an executor for evaluating the filters asynchronously. When set,
+	 * and the container implements
+	 * {@link org.tepi.filtertable.engine.AsyncFilterable}, changing a filter
+	 * field no longer blocks the session while the container is filtered: the
+	 * filters are evaluated on the executor and the result is applied with
+	 * {@link com.vaadin.ui.UI#access(Runnable)}. A newer value in any filter
+	 * field cancels the evaluation still in progress.
+	 * 
+	 * Note: The result reaches the browser on the next round trip, so the UI
+	 * should use server push or polling.
+	 * 
+	 * @param filterExecutor
+	 *            Executor for evaluating the filters, or null to evaluate
+	 *            them right away (default)
+	 */
+	public void setFilterExecutor(ExecutorService filterExecutor) {
+		generator.setFilterExecutor(filterExecutor);
+	}
+
+	/**
+	 * @return the executor used for evaluating the filters asynchronously, or
+	 *         null if the filters are evaluated right away
+	 */
+	public ExecutorService getFilterExecutor() {
+		return generator.getFilterExecutor();
+	}
+
 	public void runFilters() {
 		if (!filtersRunOnDemand) {
 			throw new IllegalStateException("Can't run filters on demand when filtersRunOnDemand is set to false");
@@ -28,6 +28,13 @@ public class FilterTableConnector extends TableConnector {
 	public static final String TAG_FILTER_COMPONENT = "filtercomponent-";
 	public static final String ATTRIBUTE_FILTERS_VISIBLE = "filtersvisible";
 	public static final String ATTRIBUTE_FORCE_RENDER = "forceRender";
+	public static final String ATTRIBUTE_DELTA = "delta";
+	public static final String ATTRIBUTE_VIRTUALIZED = "virtualized";
+	public static final String ATTRIBUTE_CLIENT_FILTERING = "clientfiltering";
+	public static final String ATTRIBUTE_CLIENT_ROW_KEYS = "clientrowkeys";
+	public static final String ATTRIBUTE_CLIENT_COLUMNS = "clientcolumns";
+	public static final String ATTRIBUTE_CLIENT_VALUES = "clientvalues-";
+	public static final String ATTRIBUTE_CLIENT_APPEND = "clientappend";
 	public static final String ATTRIBUTE_COLUMN_ID = "columnid";
 	public static final String ATTRIBUTE_CACHED = "cached";
 	public static final String ATTRIBUTE_COLUMN_HEADER_STYLE_NAMES = "columnheaderstylenames";
@@ -50,14 +57,24 @@ public class FilterTableConnector extends TableConnector {
 		boolean filtersVisible = uidl.hasAttribute(ATTRIBUTE_FILTERS_VISIBLE)
 				? uidl.getBooleanAttribute(ATTRIBUTE_FILTERS_VISIBLE) : false;
 		filterTable.setFiltersVisible(filtersVisible);
+		filterTable.setFiltersVirtualized(
+				uidl.hasAttribute(ATTRIBUTE_VIRTUALIZED) && uidl.getBooleanAttribute(ATTRIBUTE_VIRTUALIZED));
 		filterTable.updateHeight();
 
 		/* If filters are not set visible, clear and hide filter panel */
 		if (filtersVisible == false) {
 			filterTable.filters.clear();
 		} else {
+			/* A delta only holds the columns that changed since the previous paint */
+			boolean delta = uidl.hasAttribute(ATTRIBUTE_DELTA) && uidl.getBooleanAttribute(ATTRIBUTE_DELTA)
+					&& !filterTable.filters.isEmpty();
 			if (uidl.hasAttribute(ATTRIBUTE_COLUMN_HEADER_STYLE_NAMES)) {
-				getWidget().setColumnHeaderStylenames(uidl.getMapAttribute(ATTRIBUTE_COLUMN_HEADER_STYLE_NAMES));
+				ValueMap stylenames = uidl.getMapAttribute(ATTRIBUTE_COLUMN_HEADER_STYLE_NAMES);
+				if (delta) {
+					filterTable.updateColumnHeaderStylenames(stylenames);
+				} else {
+					filterTable.setColumnHeaderStylenames(stylenames);
+				}
 			}
 			/* Prepare and paint filter components */
 			Map<String, Widget> newWidgets = new HashMap<String, Widget>();
@@ -81,7 +98,17 @@ public class FilterTableConnector extends TableConnector {
 			}
 
 			boolean forceRender = uidl.getBooleanAttribute(ATTRIBUTE_FORCE_RENDER);
-			if (forceRender || !allCached || filterTable.filters.isEmpty()) {
+			if (delta) {
+				boolean patched = true;
+				for (String cid : newWidgets.keySet()) {
+					patched &= filterTable.replaceFilterComponent(cid, newWidgets.get(cid));
+				}
+				if (patched) {
+					filterTable.resetFilterWidths();
+				} else {
+					filterTable.reRenderFilterComponents();
+				}
+			} else if (forceRender || !allCached || filterTable.filters.isEmpty()) {
 				filterTable.filters.clear();
 				for (String cid : newWidgets.keySet()) {
 					filterTable.filters.put(cid, newWidgets.get(cid));
@@ -91,5 +118,20 @@ public class FilterTableConnector extends TableConnector {
 				filterTable.resetFilterWidths();
 			}
 		}
+
+		/* The rows are sent again only when they have changed */
+		if (uidl.hasAttribute(ATTRIBUTE_CLIENT_FILTERING) && uidl.getBooleanAttribute(ATTRIBUTE_CLIENT_FILTERING)) {
+			if (uidl.hasAttribute(ATTRIBUTE_CLIENT_ROW_KEYS)) {
+				Map<String, String[]> values = new HashMap<String, String[]>();
+				for (String cid : uidl.getStringArrayAttribute(ATTRIBUTE_CLIENT_COLUMNS)) {
+					values.put(cid, uidl.getStringArrayAttribute(ATTRIBUTE_CLIENT_VALUES + cid));
+				}
+				filterTable.setClientSideRows(uidl.getStringArrayAttribute(ATTRIBUTE_CLIENT_ROW_KEYS), values,
+						uidl.getBooleanAttribute(ATTRIBUTE_CLIENT_APPEND));
+			}
+		} else {
+			filterTable.setClientSideRows(null, null, false);
+		}
+		filterTable.applyClientSideFilters();
 	}
 }
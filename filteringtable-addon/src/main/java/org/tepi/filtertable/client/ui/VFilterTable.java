@@ -1,11 +1,20 @@
 package org.tepi.filtertable.client.ui;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.dom.client.Element;
+import com.google.gwt.event.dom.client.KeyUpEvent;
+import com.google.gwt.event.dom.client.KeyUpHandler;
+import com.google.gwt.event.dom.client.ScrollEvent;
+import com.google.gwt.event.shared.HandlerRegistration;
 import com.google.gwt.user.client.DOM;
 import com.google.gwt.user.client.ui.FlowPanel;
 import com.google.gwt.user.client.ui.SimplePanel;
@@ -35,6 +44,9 @@ public class VFilterTable extends VScrollTable {
 	private static final String FILTER_TABLE_HEADER_STYLE = "v-filter-table-header";
 	private static final String FILTER_TABLE_HEADER_CELL_STYLE = "v-table-header-cell";
 	private static final String FILTER_TABLE_COLUMN_SELECTOR_STYLE = "v-filter-table-column-selector";
+	private static final String TEXT_FIELD_PROMPT_STYLE = "v-textfield-prompt";
+	/* Columns attached on both sides of the view when virtualized */
+	private static final int VIRTUALIZATION_MARGIN = 2;
 
 	private final Element tHeadTBodyElement;
 	private final Element tHeadTableHeaderDiv;
@@ -45,8 +57,38 @@ public class VFilterTable extends VScrollTable {
 	private boolean filtersVisible;
 	/* Column filter components - mapped by column keys */
 	public Map<String, Widget> filters = new HashMap<String, Widget>();
+	/* Wrappers of the filter components in the filter row - mapped by column keys */
+	private final Map<String, SimplePanel> filterWrappers = new HashMap<String, SimplePanel>();
+	/* Filter widths are waiting to be updated */
+	private boolean filterWidthResetScheduled;
+	/* Set to true to attach only the filter components of columns in view */
+	private boolean filtersVirtualized;
+	/* Stand-ins for the filter components of columns out of view - mapped by column keys */
+	private final Map<String, Widget> offscreenPlaceholders = new HashMap<String, Widget>();
+	/* Indexes of the first and last visible column whose filter component is attached */
+	private int firstMaterialized;
+	private int lastMaterialized = Integer.MAX_VALUE;
+
+	/* Rows are filtered in the browser */
+	private boolean clientFiltering;
+	/* Lower case values of the rows by row key - mapped by column keys */
+	private final Map<String, Map<String, String>> clientRowValues = new HashMap<String, Map<String, String>>();
+	/* Filter components evaluated in the browser, and their key up handlers */
+	private final Map<String, Widget> clientFilterWidgets = new HashMap<String, Widget>();
+	private final Map<String, HandlerRegistration> clientFilterHandlers = new HashMap<String, HandlerRegistration>();
+	/* Some rows may be hidden by filtering in the browser */
+	private boolean rowsHidden;
+	private final KeyUpHandler clientFilterHandler = new KeyUpHandler() {
+
+		@Override
+		public void onKeyUp(KeyUpEvent event) {
+			filterRows();
+		}
+	};
 
-	private ValueMap columnHeaderStylenames;
+	private final Map<String, String> columnHeaderStylenames = new HashMap<String, String>();
+	/* Header style names currently set to the wrappers - mapped by column keys */
+	private final Map<String, String> appliedStylenames = new HashMap<String, String>();
 
 	public VFilterTable() {
 		super();
@@ -77,7 +119,7 @@ public class VFilterTable extends VScrollTable {
 	@Override
 	protected void setColWidth(int colIndex, int w, boolean isDefinedWidth) {
 		super.setColWidth(colIndex, w, isDefinedWidth);
-		setFilterWidth(colIndex);
+		scheduleFilterWidthReset();
 	}
 
 	@Override
@@ -90,6 +132,17 @@ public class VFilterTable extends VScrollTable {
 	public void onUnregister() {
 		super.onUnregister();
 		filters.clear();
+		offscreenPlaceholders.clear();
+		setClientSideRows(null, null, false);
+		updateClientFilterHandlers();
+	}
+
+	@Override
+	public void onScroll(ScrollEvent event) {
+		super.onScroll(event);
+		if (filtersVirtualized && filterTrElement != null) {
+			updateMaterializedColumns();
+		}
 	}
 
 	/**
@@ -123,124 +176,459 @@ public class VFilterTable extends VScrollTable {
 	}
 
 	/**
-	 * Removes all filters from the filter row and re-adds them.
+	 * Sets horizontal virtualization of the filter row. When enabled, only the
+	 * filter components of the columns in or near the view are attached and
+	 * sized; the other columns show an empty placeholder until scrolled into
+	 * view. Takes effect when the filter row is rendered again.
+	 *
+	 * @param filtersVirtualized
+	 *            {@code true} to attach only the filter components in view
 	 */
-	public void reRenderFilterComponents() {
-		filterTrElement.removeAllChildren();
+	public void setFiltersVirtualized(boolean filtersVirtualized) {
+		this.filtersVirtualized = filtersVirtualized;
+	}
 
-		/* Remember height */
-		MeasuredSize ms = new MeasuredSize();
-		ms.measure(filterTrElement);
-		int height = (int) ms.getInnerHeight();
+	/**
+	 * Brings the filter row up to date with the visible columns. The cells of
+	 * the columns already in the row are reused and only moved into their new
+	 * order. All the sizes are then measured in one pass and set in another,
+	 * so that the browser lays out the row once rather than once per column.
+	 */
+	public void reRenderFilterComponents() {
+		updateMaterializedRange();
+		Map<String, SimplePanel> previousWrappers = new HashMap<String, SimplePanel>(filterWrappers);
+		filterWrappers.clear();
 
 		int visibleCellCount = tHead.getVisibleCellCount();
 		for (int i = 0; i < visibleCellCount; i++) {
 			String key = tHead.getHeaderCell(i).getColKey();
 			if (key != null) {
 				Widget widget = filters.get(key);
-
-				SimplePanel wrapper = new SimplePanel();
-				wrapper.addStyleName(FILTER_WRAPPER_STYLE);
-				if (i == 0) {
-					wrapper.addStyleName(FILTER_WRAPPER_FIRST_STYLE);
-				} else if (i == visibleCellCount - 1) {
-					wrapper.addStyleName(FILTER_WRAPPER_LAST_STYLE);
-				}
-
 				if (widget == null) {
-					/*
-					 * No filter defined -> Use a place holder of the correct
-					 * width
-					 */
-					widget = new FlowPanel();
-					widget.addStyleName(FILTER_PLACEHOLDER_STYLE);
+					widget = createPlaceholder();
 					filters.put(key, widget);
 				}
 
-				wrapper.setWidget(widget);
+				SimplePanel wrapper = previousWrappers.remove(key);
+				Element filterColumn;
+				if (wrapper == null) {
+					wrapper = new SimplePanel();
+					wrapper.addStyleName(FILTER_WRAPPER_STYLE);
+					filterColumn = DOM.createTD();
+					filterColumn.addClassName(FILTER_TABLE_HEADER_CELL_STYLE);
+					filterColumn.appendChild(wrapper.getElement());
+					adopt(wrapper);
+				} else {
+					filterColumn = wrapper.getElement().getParentElement();
+				}
+				Widget shown = getShownFilterComponent(key, i);
+				if (wrapper.getWidget() != shown) {
+					wrapper.setWidget(shown);
+				}
+				wrapper.setStyleName(FILTER_WRAPPER_FIRST_STYLE, i == 0);
+				wrapper.setStyleName(FILTER_WRAPPER_LAST_STYLE, i != 0 && i == visibleCellCount - 1);
+				applyColumnHeaderStylename(key, wrapper);
+				filterWrappers.put(key, wrapper);
 
-				Element filterColumn = DOM.createTD();
-				filterColumn.addClassName(FILTER_TABLE_HEADER_CELL_STYLE);
+				/* Appending a cell already in the row moves it into place */
 				filterTrElement.appendChild(filterColumn);
+			}
+		}
 
-				wrapper.removeFromParent();
-				filterColumn.appendChild(wrapper.getElement());
-				adopt(wrapper);
+		/* Drop the cells of the columns no longer visible */
+		for (Map.Entry<String, SimplePanel> entry : previousWrappers.entrySet()) {
+			SimplePanel wrapper = entry.getValue();
+			Element filterColumn = wrapper.getElement().getParentElement();
+			orphan(wrapper);
+			filterColumn.removeFromParent();
+			appliedStylenames.remove(entry.getKey());
+			offscreenPlaceholders.remove(entry.getKey());
+		}
+		if (!filtersVirtualized) {
+			offscreenPlaceholders.clear();
+		}
 
-				/* deal with wrapper height */
-				MeasuredSize wrapperSize = new MeasuredSize();
-				wrapperSize.measure(wrapper.getElement());
-				int correction = wrapperSize.getMarginHeight() + wrapperSize.getBorderHeight()
-						+ wrapperSize.getPaddingHeight();
-				/* ensure no negative heights */
-				int wrapperHeight = Math.max(height - correction, 0);
-				wrapper.setHeight(wrapperHeight + "px");
+		resizeFilterComponents(true);
+	}
 
-				setFilterWidth(i);
+	/**
+	 * Replaces the filter component of a single column in the filter row,
+	 * leaving the other columns as they are.
+	 *
+	 * @param key
+	 *            Key of the column
+	 * @param widget
+	 *            The new filter component, or null for none
+	 * @return true if the column was found in the filter row; if not, the
+	 *         filter row needs to be rendered again
+	 */
+	public boolean replaceFilterComponent(String key, Widget widget) {
+		if (widget == null) {
+			widget = createPlaceholder();
+		}
+		filters.put(key, widget);
+		SimplePanel wrapper = filterWrappers.get(key);
+		if (wrapper == null) {
+			return false;
+		}
+		/* Out of view, the component is attached once scrolled into view */
+		if (wrapper.getWidget() != widget && wrapper.getWidget() != offscreenPlaceholders.get(key)) {
+			wrapper.setWidget(widget);
+		}
+		return true;
+	}
 
-				if (columnHeaderStylenames != null) {
-					String styleName = columnHeaderStylenames.getString(key);
-					if (styleName != null && !styleName.trim().isEmpty()) {
-						wrapper.addStyleName(columnHeaderStylenames.getString(key));
+	/*
+	 * Finds the visible columns overlapping the horizontal view, widened by a
+	 * margin so that scrolling a little does not swap components. Returns
+	 * true if the range changed.
+	 */
+	private boolean updateMaterializedRange() {
+		int first = 0;
+		int last = Integer.MAX_VALUE;
+		int viewWidth = scrollBodyPanel.getOffsetWidth();
+		if (filtersVirtualized && viewWidth > 0) {
+			int viewLeft = scrollBodyPanel.getHorizontalScrollPosition();
+			int viewRight = viewLeft + viewWidth;
+			int visibleCellCount = tHead.getVisibleCellCount();
+			int firstInView = -1;
+			int lastInView = -1;
+			for (int i = 0; i < visibleCellCount; i++) {
+				Element cell = tHead.getHeaderCell(i).getElement();
+				int left = cell.getOffsetLeft();
+				if (left > viewRight) {
+					break;
+				}
+				if (left + cell.getOffsetWidth() >= viewLeft) {
+					if (firstInView < 0) {
+						firstInView = i;
 					}
+					lastInView = i;
+				}
+			}
+			/* Nothing laid out in view yet -> attach everything */
+			if (firstInView >= 0) {
+				first = Math.max(firstInView - VIRTUALIZATION_MARGIN, 0);
+				last = lastInView + VIRTUALIZATION_MARGIN;
+			}
+		}
+		boolean changed = first != firstMaterialized || last != lastMaterialized;
+		firstMaterialized = first;
+		lastMaterialized = last;
+		return changed;
+	}
+
+	/*
+	 * Attaches the filter components of the columns scrolled into view and
+	 * replaces the ones scrolled out of view with placeholders. Returns true
+	 * if the filter row was changed and resized.
+	 */
+	private boolean updateMaterializedColumns() {
+		if (!updateMaterializedRange()) {
+			return false;
+		}
+		int visibleCellCount = tHead.getVisibleCellCount();
+		for (int i = 0; i < visibleCellCount; i++) {
+			String key = tHead.getHeaderCell(i).getColKey();
+			SimplePanel wrapper = key != null ? filterWrappers.get(key) : null;
+			if (wrapper != null) {
+				Widget shown = getShownFilterComponent(key, i);
+				if (wrapper.getWidget() != shown) {
+					wrapper.setWidget(shown);
 				}
 			}
 		}
+		resizeFilterComponents(true);
+		return true;
+	}
+
+	/* The filter component of the column, or a placeholder when out of view */
+	private Widget getShownFilterComponent(String key, int index) {
+		if (index >= firstMaterialized && index <= lastMaterialized) {
+			return filters.get(key);
+		}
+		Widget placeholder = offscreenPlaceholders.get(key);
+		if (placeholder == null) {
+			placeholder = createPlaceholder();
+			offscreenPlaceholders.put(key, placeholder);
+		}
+		return placeholder;
+	}
+
+	/* No filter defined -> Use a place holder of the correct width */
+	private Widget createPlaceholder() {
+		Widget placeholder = new FlowPanel();
+		placeholder.addStyleName(FILTER_PLACEHOLDER_STYLE);
+		return placeholder;
 	}
 
 	/**
 	 * Recalculates and re-sets the width of all table filters.
 	 */
 	public void resetFilterWidths() {
-		for (int i = 0; i < tHead.getVisibleCellCount(); i++) {
-			setFilterWidth(i);
+		resizeFilterComponents(false);
+	}
+
+	/*
+	 * Column widths are set one column at a time while the table is laid out,
+	 * so the filter widths are updated once after all of them.
+	 */
+	private void scheduleFilterWidthReset() {
+		if (!filterWidthResetScheduled) {
+			filterWidthResetScheduled = true;
+			Scheduler.get().scheduleFinally(new ScheduledCommand() {
+
+				@Override
+				public void execute() {
+					filterWidthResetScheduled = false;
+					/* Resized columns may have moved others into or out of view */
+					if (!filtersVirtualized || filterTrElement == null || !updateMaterializedColumns()) {
+						resetFilterWidths();
+					}
+				}
+			});
 		}
 	}
 
-	private void setFilterWidth(int index) {
-		if (headerChangedDuringUpdate) {
+	/*
+	 * Reads every measurement first and only then writes the sizes, as
+	 * reading a size after writing one forces the browser to lay out again.
+	 * Columns out of view are left as they are.
+	 */
+	private void resizeFilterComponents(boolean resizeHeights) {
+		boolean resizeWidths = !headerChangedDuringUpdate;
+		if (!resizeHeights && !resizeWidths) {
 			return;
 		}
-
-		HeaderCell headerCell = tHead.getHeaderCell(index);
-		if (headerCell != null) {
-			Widget widget = filters.get(headerCell.getColKey());
-			if (null != widget) {
-				/*
-				 * try to get width from first rendered row -> fixes 1px bug in
-				 * GC
-				 */
-				final VScrollTableRow firstRow = scrollBody.getRowByRowIndex(scrollBody.getFirstRendered());
+		int visibleCellCount = tHead.getVisibleCellCount();
+		Widget[] widgets = new Widget[visibleCellCount];
+		int[] wrapperWidths = new int[visibleCellCount];
+		int[] widgetMargins = new int[visibleCellCount];
+		int[] heightCorrections = new int[visibleCellCount];
+
+		/* Read */
+		int height = 0;
+		if (resizeHeights) {
+			MeasuredSize ms = new MeasuredSize();
+			ms.measure(filterTrElement);
+			height = (int) ms.getInnerHeight();
+		}
+		/* try to get widths from first rendered row -> fixes 1px bug in GC */
+		final VScrollTableRow firstRow = resizeWidths ? scrollBody.getRowByRowIndex(scrollBody.getFirstRendered())
+				: null;
+		for (int i = 0; i < visibleCellCount; i++) {
+			HeaderCell headerCell = tHead.getHeaderCell(i);
+			String key = headerCell != null ? headerCell.getColKey() : null;
+			SimplePanel wrapper = key != null ? filterWrappers.get(key) : null;
+			Widget widget = wrapper != null ? wrapper.getWidget() : null;
+			if (widget == null || widget == offscreenPlaceholders.get(key)) {
+				continue;
+			}
+			widgets[i] = widget;
+			MeasuredSize wrapperSize = new MeasuredSize();
+			wrapperSize.measure(widget.getParent().getElement());
+			heightCorrections[i] = wrapperSize.getMarginHeight() + wrapperSize.getBorderHeight()
+					+ wrapperSize.getPaddingHeight();
+			if (resizeWidths) {
 				int wrapperWidth = -1;
 				if (firstRow != null) {
-					final Element cell = DOM.getChild(firstRow.getElement(), index);
+					final Element cell = DOM.getChild(firstRow.getElement(), i);
 					wrapperWidth = WidgetUtil.getRequiredWidth(cell);
 				}
 				if (wrapperWidth <= 0) {
 					wrapperWidth = WidgetUtil.getRequiredWidth(headerCell);
 				}
+				wrapperWidths[i] = wrapperWidth - wrapperSize.getMarginWidth() - wrapperSize.getBorderWidth()
+						- wrapperSize.getPaddingWidth();
+				MeasuredSize widgetSize = new MeasuredSize();
+				widgetSize.measure(widget.getElement());
+				widgetMargins[i] = widgetSize.getMarginWidth();
+			}
+		}
 
-				Widget wrapper = widget.getParent();
-				MeasuredSize wrapperSize = new MeasuredSize();
-				wrapperSize.measure(wrapper.getElement());
-				int wrapperCorrections = wrapperSize.getMarginWidth() + wrapperSize.getBorderWidth()
-						+ wrapperSize.getPaddingWidth();
-				wrapperWidth = wrapperWidth - wrapperCorrections;
+		/* Write */
+		for (int i = 0; i < visibleCellCount; i++) {
+			Widget widget = widgets[i];
+			if (widget == null) {
+				continue;
+			}
+			Widget wrapper = widget.getParent();
+			if (resizeHeights) {
+				/* ensure no negative heights */
+				wrapper.setHeight(Math.max(height - heightCorrections[i], 0) + "px");
+			}
+			if (resizeWidths) {
+				int wrapperWidth = wrapperWidths[i];
 				wrapper.setWidth((wrapperWidth > 0 ? wrapperWidth : 0) + "px");
-
 				if (0 < wrapperWidth) {
-					int widgetWidth = wrapperWidth;
-					MeasuredSize widgetSize = new MeasuredSize();
-					widgetSize.measure(widget.getElement());
-					widgetWidth -= widgetSize.getMarginWidth();
+					int widgetWidth = wrapperWidth - widgetMargins[i];
 					widget.setWidth((widgetWidth > 0 ? widgetWidth : 0) + "px");
 				}
 			}
 		}
 	}
 
+	/**
+	 * Sets the values of rows to filter in the browser as the user types in
+	 * the text filters. Rendered rows whose values are not known here are
+	 * left as they are.
+	 *
+	 * @param rowKeys
+	 *            Keys of the rows, or {@code null} to stop filtering here
+	 * @param values
+	 *            Values of the rows in the order of the keys, mapped by the
+	 *            keys of the columns with a text filter
+	 * @param append
+	 *            true to add the rows to the ones set before
+	 */
+	public void setClientSideRows(String[] rowKeys, Map<String, String[]> values, boolean append) {
+		clientFiltering = rowKeys != null;
+		if (!append) {
+			clientRowValues.clear();
+		}
+		if (rowKeys != null) {
+			for (Map.Entry<String, String[]> entry : values.entrySet()) {
+				Map<String, String> lowerCase = clientRowValues.get(entry.getKey());
+				if (lowerCase == null) {
+					lowerCase = new HashMap<String, String>();
+					clientRowValues.put(entry.getKey(), lowerCase);
+				}
+				String[] columnValues = entry.getValue();
+				for (int row = 0; row < rowKeys.length; row++) {
+					lowerCase.put(rowKeys[row], columnValues[row].toLowerCase());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Filters the rendered rows with the text typed in the text filters. To
+	 * be called after the rows or the filter components have changed.
+	 */
+	public void applyClientSideFilters() {
+		updateClientFilterHandlers();
+		filterRows();
+	}
+
+	/* Follows the typing in the filter components of the filtered columns */
+	private void updateClientFilterHandlers() {
+		for (Iterator<Map.Entry<String, Widget>> it = clientFilterWidgets.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Widget> entry = it.next();
+			String key = entry.getKey();
+			if (!clientFiltering || entry.getValue() != filters.get(key) || !clientRowValues.containsKey(key)) {
+				clientFilterHandlers.remove(key).removeHandler();
+				it.remove();
+			}
+		}
+		if (clientFiltering) {
+			for (String key : clientRowValues.keySet()) {
+				Widget widget = filters.get(key);
+				if (widget != null && !clientFilterWidgets.containsKey(key)) {
+					clientFilterWidgets.put(key, widget);
+					clientFilterHandlers.put(key, widget.addDomHandler(clientFilterHandler, KeyUpEvent.getType()));
+				}
+			}
+		}
+	}
+
+	/*
+	 * Hides the rendered rows not containing the text typed in each filter,
+	 * ignoring case, as SimpleStringFilter does on the server.
+	 */
+	private void filterRows() {
+		List<Map<String, String>> columns = new ArrayList<Map<String, String>>();
+		List<String> texts = new ArrayList<String>();
+		if (clientFiltering) {
+			for (Map.Entry<String, Map<String, String>> entry : clientRowValues.entrySet()) {
+				String text = getFilterText(filters.get(entry.getKey()));
+				if (!text.isEmpty()) {
+					columns.add(entry.getValue());
+					texts.add(text.toLowerCase());
+				}
+			}
+		}
+		if (columns.isEmpty()) {
+			if (rowsHidden) {
+				for (Iterator<Widget> it = scrollBody.iterator(); it.hasNext();) {
+					it.next().setVisible(true);
+				}
+				rowsHidden = false;
+			}
+			return;
+		}
+		for (Iterator<Widget> it = scrollBody.iterator(); it.hasNext();) {
+			Widget row = it.next();
+			if (row instanceof VScrollTableRow) {
+				row.setVisible(isPassing(((VScrollTableRow) row).getKey(), columns, texts));
+			}
+		}
+		rowsHidden = true;
+	}
+
+	/* A row whose values are not known yet passes until the server decides */
+	private static boolean isPassing(String rowKey, List<Map<String, String>> columns, List<String> texts) {
+		for (int column = 0; column < columns.size(); column++) {
+			String value = columns.get(column).get(rowKey);
+			if (value != null && !value.contains(texts.get(column))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* The text typed in a text filter, empty while its input prompt is shown */
+	private static String getFilterText(Widget widget) {
+		if (widget == null || widget.getElement().hasClassName(TEXT_FIELD_PROMPT_STYLE)) {
+			return "";
+		}
+		String text = widget.getElement().getPropertyString("value");
+		return text != null ? text : "";
+	}
+
 	public void setColumnHeaderStylenames(ValueMap valueMap) {
-		this.columnHeaderStylenames = valueMap;
+		columnHeaderStylenames.clear();
+		for (String key : valueMap.getKeySet()) {
+			columnHeaderStylenames.put(key, valueMap.getString(key));
+		}
+	}
+
+	/**
+	 * Applies changed column header style names to the filter row without
+	 * rendering it again.
+	 *
+	 * @param changes
+	 *            New style names by column key; an empty string removes the
+	 *            style name of a column
+	 */
+	public void updateColumnHeaderStylenames(ValueMap changes) {
+		for (String key : changes.getKeySet()) {
+			String styleName = changes.getString(key);
+			if (styleName.isEmpty()) {
+				columnHeaderStylenames.remove(key);
+			} else {
+				columnHeaderStylenames.put(key, styleName);
+			}
+			SimplePanel wrapper = filterWrappers.get(key);
+			if (wrapper != null) {
+				applyColumnHeaderStylename(key, wrapper);
+			}
+		}
+	}
+
+	/* Sets the style name of the column header, replacing the one set before */
+	private void applyColumnHeaderStylename(String key, SimplePanel wrapper) {
+		String applied = appliedStylenames.remove(key);
+		String styleName = columnHeaderStylenames.get(key);
+		if (styleName != null && styleName.trim().isEmpty()) {
+			styleName = null;
+		}
+		if (applied != null && !applied.equals(styleName)) {
+			wrapper.removeStyleName(applied);
+		}
+		if (styleName != null) {
+			wrapper.addStyleName(styleName);
+			appliedStylenames.put(key, styleName);
+		}
 	}
 
 	/**
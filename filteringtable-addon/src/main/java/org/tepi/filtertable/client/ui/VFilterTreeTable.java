@@ -5,6 +5,8 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.dom.client.Element;
 import com.google.gwt.user.client.DOM;
 import com.google.gwt.user.client.ui.FlowPanel;
@@ -46,7 +48,14 @@ public class VFilterTreeTable extends VTreeTable {
 	/* Column filter components - mapped by column keys */
 	public Map<String, Widget> filters = new HashMap<String, Widget>();
 
-	private ValueMap columnHeaderStylenames;
+	/* Wrappers of the filter components in the filter row - mapped by column keys */
+	private final Map<String, SimplePanel> filterWrappers = new HashMap<String, SimplePanel>();
+	/* Filter widths are waiting to be updated */
+	private boolean filterWidthResetScheduled;
+
+	private final Map<String, String> columnHeaderStylenames = new HashMap<String, String>();
+	/* Header style names currently set to the wrappers - mapped by column keys */
+	private final Map<String, String> appliedStylenames = new HashMap<String, String>();
 
 	public VFilterTreeTable() {
 		super();
@@ -77,7 +86,7 @@ public class VFilterTreeTable extends VTreeTable {
 	@Override
 	protected void setColWidth(int colIndex, int w, boolean isDefinedWidth) {
 		super.setColWidth(colIndex, w, isDefinedWidth);
-		setFilterWidth(colIndex);
+		scheduleFilterWidthReset();
 	}
 
 	@Override
@@ -123,116 +132,163 @@ public class VFilterTreeTable extends VTreeTable {
 	}
 
 	/**
-	 * Removes all filters from the filter row and re-adds them.
+	 * Brings the filter row up to date with the visible columns. The cells of
+	 * the columns already in the row are reused and only moved into their new
+	 * order. All the sizes are then measured in one pass and set in another,
+	 * so that the browser lays out the row once rather than once per column.
 	 */
 	public void reRenderFilterComponents() {
-		filterTrElement.removeAllChildren();
-
-		/* Remember height */
-		MeasuredSize ms = new MeasuredSize();
-		ms.measure(filterTrElement);
-		int height = (int) ms.getInnerHeight();
+		Map<String, SimplePanel> previousWrappers = new HashMap<String, SimplePanel>(filterWrappers);
+		filterWrappers.clear();
 
 		int visibleCellCount = tHead.getVisibleCellCount();
 		for (int i = 0; i < visibleCellCount; i++) {
 			String key = tHead.getHeaderCell(i).getColKey();
 			if (key != null) {
 				Widget widget = filters.get(key);
-
-				SimplePanel wrapper = new SimplePanel();
-				wrapper.addStyleName(FILTER_WRAPPER_STYLE);
-				if (i == 0) {
-					wrapper.addStyleName(FILTER_WRAPPER_FIRST_STYLE);
-				} else if (i == visibleCellCount - 1) {
-					wrapper.addStyleName(FILTER_WRAPPER_LAST_STYLE);
-				}
-
 				if (widget == null) {
-					/*
-					 * No filter defined -> Use a place holder of the correct
-					 * width
-					 */
-					widget = new FlowPanel();
-					widget.addStyleName(FILTER_PLACEHOLDER_STYLE);
+					widget = createPlaceholder();
 					filters.put(key, widget);
 				}
 
-				wrapper.setWidget(widget);
+				SimplePanel wrapper = previousWrappers.remove(key);
+				Element filterColumn;
+				if (wrapper == null) {
+					wrapper = new SimplePanel();
+					wrapper.addStyleName(FILTER_WRAPPER_STYLE);
+					filterColumn = DOM.createTD();
+					filterColumn.addClassName(FILTER_TABLE_HEADER_CELL_STYLE);
+					filterColumn.appendChild(wrapper.getElement());
+					adopt(wrapper);
+				} else {
+					filterColumn = wrapper.getElement().getParentElement();
+				}
+				if (wrapper.getWidget() != widget) {
+					wrapper.setWidget(widget);
+				}
+				wrapper.setStyleName(FILTER_WRAPPER_FIRST_STYLE, i == 0);
+				wrapper.setStyleName(FILTER_WRAPPER_LAST_STYLE, i != 0 && i == visibleCellCount - 1);
+				applyColumnHeaderStylename(key, wrapper);
+				filterWrappers.put(key, wrapper);
 
-				Element filterColumn = DOM.createTD();
-				filterColumn.addClassName(FILTER_TABLE_HEADER_CELL_STYLE);
+				/* Appending a cell already in the row moves it into place */
 				filterTrElement.appendChild(filterColumn);
+			}
+		}
 
-				wrapper.removeFromParent();
-				filterColumn.appendChild(wrapper.getElement());
-				adopt(wrapper);
-
-				/* deal with wrapper height */
-				MeasuredSize wrapperSize = new MeasuredSize();
-				wrapperSize.measure(wrapper.getElement());
-				int correction = wrapperSize.getMarginHeight() + wrapperSize.getBorderHeight()
-						+ wrapperSize.getPaddingHeight();
-				/* ensure no negative heights */
-				int wrapperHeight = Math.max(height - correction, 0);
-				wrapper.setHeight(wrapperHeight + "px");
+		/* Drop the cells of the columns no longer visible */
+		for (Map.Entry<String, SimplePanel> entry : previousWrappers.entrySet()) {
+			SimplePanel wrapper = entry.getValue();
+			Element filterColumn = wrapper.getElement().getParentElement();
+			orphan(wrapper);
+			filterColumn.removeFromParent();
+			appliedStylenames.remove(entry.getKey());
+		}
 
-				setFilterWidth(i);
+		resizeFilterComponents(true);
+	}
 
-				if (columnHeaderStylenames != null) {
-					String styleName = columnHeaderStylenames.getString(key);
-					if (styleName != null && !styleName.trim().isEmpty()) {
-						wrapper.addStyleName(columnHeaderStylenames.getString(key));
-					}
-				}
-			}
-		}
+	/* No filter defined -> Use a place holder of the correct width */
+	private Widget createPlaceholder() {
+		Widget placeholder = new FlowPanel();
+		placeholder.addStyleName(FILTER_PLACEHOLDER_STYLE);
+		return placeholder;
 	}
 
 	/**
 	 * Recalculates and re-sets the width of all table filters.
 	 */
 	public void resetFilterWidths() {
-		for (int i = 0; i < tHead.getVisibleCellCount(); i++) {
-			setFilterWidth(i);
+		resizeFilterComponents(false);
+	}
+
+	/*
+	 * Column widths are set one column at a time while the table is laid out,
+	 * so the filter widths are updated once after all of them.
+	 */
+	private void scheduleFilterWidthReset() {
+		if (!filterWidthResetScheduled) {
+			filterWidthResetScheduled = true;
+			Scheduler.get().scheduleFinally(new ScheduledCommand() {
+
+				@Override
+				public void execute() {
+					filterWidthResetScheduled = false;
+					resetFilterWidths();
+				}
+			});
 		}
 	}
 
-	private void setFilterWidth(int index) {
-		if (headerChangedDuringUpdate) {
+	/*
+	 * Reads every measurement first and only then writes the sizes, as
+	 * reading a size after writing one forces the browser to lay out again.
+	 */
+	private void resizeFilterComponents(boolean resizeHeights) {
+		boolean resizeWidths = !headerChangedDuringUpdate;
+		if (!resizeHeights && !resizeWidths) {
 			return;
 		}
-
-		HeaderCell headerCell = tHead.getHeaderCell(index);
-		if (headerCell != null) {
-			Widget widget = filters.get(headerCell.getColKey());
-			if (null != widget) {
-				/*
-				 * try to get width from first rendered row -> fixes 1px bug in
-				 * GC
-				 */
-				final VScrollTableRow firstRow = scrollBody.getRowByRowIndex(scrollBody.getFirstRendered());
+		int visibleCellCount = tHead.getVisibleCellCount();
+		Widget[] widgets = new Widget[visibleCellCount];
+		int[] wrapperWidths = new int[visibleCellCount];
+		int[] widgetMargins = new int[visibleCellCount];
+		int[] heightCorrections = new int[visibleCellCount];
+
+		/* Read */
+		int height = 0;
+		if (resizeHeights) {
+			MeasuredSize ms = new MeasuredSize();
+			ms.measure(filterTrElement);
+			height = (int) ms.getInnerHeight();
+		}
+		/* try to get widths from first rendered row -> fixes 1px bug in GC */
+		final VScrollTableRow firstRow = resizeWidths ? scrollBody.getRowByRowIndex(scrollBody.getFirstRendered())
+				: null;
+		for (int i = 0; i < visibleCellCount; i++) {
+			HeaderCell headerCell = tHead.getHeaderCell(i);
+			Widget widget = headerCell != null ? filters.get(headerCell.getColKey()) : null;
+			if (widget == null || widget.getParent() == null) {
+				continue;
+			}
+			widgets[i] = widget;
+			MeasuredSize wrapperSize = new MeasuredSize();
+			wrapperSize.measure(widget.getParent().getElement());
+			heightCorrections[i] = wrapperSize.getMarginHeight() + wrapperSize.getBorderHeight()
+					+ wrapperSize.getPaddingHeight();
+			if (resizeWidths) {
 				int wrapperWidth = -1;
 				if (firstRow != null) {
-					final Element cell = DOM.getChild(firstRow.getElement(), index);
+					final Element cell = DOM.getChild(firstRow.getElement(), i);
 					wrapperWidth = WidgetUtil.getRequiredWidth(cell);
 				}
 				if (wrapperWidth <= 0) {
 					wrapperWidth = WidgetUtil.getRequiredWidth(headerCell);
 				}
+				wrapperWidths[i] = wrapperWidth - wrapperSize.getMarginWidth() - wrapperSize.getBorderWidth()
+						- wrapperSize.getPaddingWidth();
+				MeasuredSize widgetSize = new MeasuredSize();
+				widgetSize.measure(widget.getElement());
+				widgetMargins[i] = widgetSize.getMarginWidth();
+			}
+		}
 
-				Widget wrapper = widget.getParent();
-				MeasuredSize wrapperSize = new MeasuredSize();
-				wrapperSize.measure(wrapper.getElement());
-				int wrapperCorrections = wrapperSize.getMarginWidth() + wrapperSize.getBorderWidth()
-						+ wrapperSize.getPaddingWidth();
-				wrapperWidth = wrapperWidth - wrapperCorrections;
+		/* Write */
+		for (int i = 0; i < visibleCellCount; i++) {
+			Widget widget = widgets[i];
+			if (widget == null) {
+				continue;
+			}
+			Widget wrapper = widget.getParent();
+			if (resizeHeights) {
+				/* ensure no negative heights */
+				wrapper.setHeight(Math.max(height - heightCorrections[i], 0) + "px");
+			}
+			if (resizeWidths) {
+				int wrapperWidth = wrapperWidths[i];
 				wrapper.setWidth((wrapperWidth > 0 ? wrapperWidth : 0) + "px");
-
 				if (0 < wrapperWidth) {
-					int widgetWidth = wrapperWidth;
-					MeasuredSize widgetSize = new MeasuredSize();
-					widgetSize.measure(widget.getElement());
-					widgetWidth -= widgetSize.getMarginWidth();
+					int widgetWidth = wrapperWidth - widgetMargins[i];
 					widget.setWidth((widgetWidth > 0 ? widgetWidth : 0) + "px");
 				}
 			}
@@ -240,7 +296,26 @@ public class VFilterTreeTable extends VTreeTable {
 	}
 
 	public void setColumnHeaderStylenames(ValueMap valueMap) {
-		this.columnHeaderStylenames = valueMap;
+		columnHeaderStylenames.clear();
+		for (String key : valueMap.getKeySet()) {
+			columnHeaderStylenames.put(key, valueMap.getString(key));
+		}
+	}
+
+	/* Sets the style name of the column header, replacing the one set before */
+	private void applyColumnHeaderStylename(String key, SimplePanel wrapper) {
+		String applied = appliedStylenames.remove(key);
+		String styleName = columnHeaderStylenames.get(key);
+		if (styleName != null && styleName.trim().isEmpty()) {
+			styleName = null;
+		}
+		if (applied != null && !applied.equals(styleName)) {
+			wrapper.removeStyleName(applied);
+		}
+		if (styleName != null) {
+			wrapper.addStyleName(styleName);
+			appliedStylenames.put(key, styleName);
+		}
 	}
 
 	/**
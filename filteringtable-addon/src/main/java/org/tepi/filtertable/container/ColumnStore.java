@@ -0,0 +1,626 @@
+package org.tepi.filtertable.container;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.tepi.filtertable.engine.CodedColumnAccessor;
+import org.tepi.filtertable.engine.ColumnAccessor;
+import org.tepi.filtertable.engine.DoubleColumnAccessor;
+import org.tepi.filtertable.engine.LongColumnAccessor;
+
+/**
+ * Storage of a single column of a {@link ColumnarContainer}. Integral numbers
+ * and dates are kept in primitive arrays, strings, enums and booleans are
+ * dictionary encoded, and any other type falls back to an object array.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "rawtypes", "unchecked" })
+abstract class ColumnStore implements ColumnAccessor {
+
+	/**
+	 * Compares two rows of a column.
+	 */
+	interface RowComparator {
+		int compare(int row1, int row2);
+	}
+
+	private final Class<?> type;
+
+	ColumnStore(Class<?> type) {
+		this.type = type;
+	}
+
+	/**
+	 * Creates the column store best suited for the given property type.
+	 */
+	static ColumnStore create(Class<?> type, int capacity) {
+		type = boxedType(type);
+		if (type == Integer.class || type == Short.class || type == Byte.class) {
+			return new IntStore(type, capacity);
+		} else if (type == Long.class || type == Date.class) {
+			return new LongStore(type, capacity);
+		} else if (type == Double.class || type == Float.class) {
+			return new DoubleStore(type, capacity);
+		} else if (type == String.class || type == Boolean.class || type.isEnum()) {
+			return new CodedStore(type, capacity);
+		}
+		return new ObjectStore(type, capacity);
+	}
+
+	static Class<?> boxedType(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return type;
+		} else if (type == int.class) {
+			return Integer.class;
+		} else if (type == long.class) {
+			return Long.class;
+		} else if (type == double.class) {
+			return Double.class;
+		} else if (type == float.class) {
+			return Float.class;
+		} else if (type == short.class) {
+			return Short.class;
+		} else if (type == byte.class) {
+			return Byte.class;
+		} else if (type == boolean.class) {
+			return Boolean.class;
+		} else if (type == char.class) {
+			return Character.class;
+		}
+		return type;
+	}
+
+	@Override
+	public Class<?> getType() {
+		return type;
+	}
+
+	/**
+	 * Checks that the value can be stored in this column.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the value is not of the column type
+	 */
+	void checkType(Object value) {
+		if (value != null && !type.isInstance(value)) {
+			throw new IllegalArgumentException(
+					"Value is of wrong type, got " + value.getClass().getName() + " but expected " + type.getName());
+		}
+	}
+
+	/**
+	 * Grows the column so that it can hold the given number of rows.
+	 */
+	abstract void ensureCapacity(int capacity);
+
+	/**
+	 * Stores a value. The value must have been checked with
+	 * {@link #checkType(Object)}.
+	 */
+	abstract void set(int row, Object value);
+
+	/**
+	 * Drops all values and shrinks the column to the given capacity.
+	 */
+	abstract void clear(int capacity);
+
+	/**
+	 * Moves the value of a row to a lower row while storage is compacted.
+	 */
+	abstract void move(int from, int to);
+
+	/**
+	 * Releases the values of the rows from the given row count on, which are
+	 * no longer in use after storage has been compacted.
+	 */
+	abstract void trim(int rowCount);
+
+	/**
+	 * @return true if the column holds enough unused data to be worth
+	 *         compacting, even when no rows have been removed
+	 */
+	boolean isSparse() {
+		return false;
+	}
+
+	/**
+	 * @return a comparator ordering the rows by their value in ascending
+	 *         order, null values first
+	 */
+	abstract RowComparator comparator();
+
+	/**
+	 * @return true if the values of this column can be sorted
+	 */
+	boolean isSortable() {
+		return true;
+	}
+
+	static int newCapacity(int current, int required) {
+		int capacity = Math.max(current, 16);
+		while (capacity < required) {
+			capacity = capacity + (capacity >> 1);
+		}
+		return capacity;
+	}
+
+	/**
+	 * Base class for columns with a null bit set.
+	 */
+	abstract static class NullableStore extends ColumnStore {
+		final BitSet nulls = new BitSet();
+
+		NullableStore(Class<?> type) {
+			super(type);
+		}
+
+		public boolean isNull(int row) {
+			return nulls.get(row);
+		}
+
+		@Override
+		public Object getValue(int row) {
+			return nulls.get(row) ? null : decode(row);
+		}
+
+		abstract Object decode(int row);
+
+		@Override
+		void clear(int capacity) {
+			nulls.clear();
+		}
+
+		@Override
+		void move(int from, int to) {
+			nulls.set(to, nulls.get(from));
+		}
+
+		@Override
+		void trim(int rowCount) {
+			nulls.clear(rowCount, Math.max(rowCount, nulls.length()));
+		}
+	}
+
+	/**
+	 * Integer, Short and Byte values in an int array.
+	 */
+	static final class IntStore extends NullableStore implements LongColumnAccessor {
+		private int[] values;
+
+		IntStore(Class<?> type, int capacity) {
+			super(type);
+			values = new int[capacity];
+		}
+
+		@Override
+		void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+			}
+		}
+
+		@Override
+		void set(int row, Object value) {
+			if (value == null) {
+				nulls.set(row);
+				values[row] = 0;
+			} else {
+				nulls.clear(row);
+				values[row] = ((Number) value).intValue();
+			}
+		}
+
+		@Override
+		Object decode(int row) {
+			if (getType() == Short.class) {
+				return Short.valueOf((short) values[row]);
+			} else if (getType() == Byte.class) {
+				return Byte.valueOf((byte) values[row]);
+			}
+			return Integer.valueOf(values[row]);
+		}
+
+		@Override
+		public long getLong(int row) {
+			return values[row];
+		}
+
+		@Override
+		public long encode(Object value) {
+			return ((Number) value).longValue();
+		}
+
+		@Override
+		void clear(int capacity) {
+			super.clear(capacity);
+			values = new int[capacity];
+		}
+
+		@Override
+		void move(int from, int to) {
+			super.move(from, to);
+			values[to] = values[from];
+		}
+
+		@Override
+		RowComparator comparator() {
+			return (row1, row2) -> {
+				boolean null1 = nulls.get(row1), null2 = nulls.get(row2);
+				if (null1 || null2) {
+					return null1 == null2 ? 0 : null1 ? -1 : 1;
+				}
+				return Integer.compare(values[row1], values[row2]);
+			};
+		}
+	}
+
+	/**
+	 * Long and Date values in a long array.
+	 */
+	static final class LongStore extends NullableStore implements LongColumnAccessor {
+		private long[] values;
+
+		LongStore(Class<?> type, int capacity) {
+			super(type);
+			values = new long[capacity];
+		}
+
+		@Override
+		void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+			}
+		}
+
+		@Override
+		void set(int row, Object value) {
+			if (value == null) {
+				nulls.set(row);
+				values[row] = 0;
+			} else {
+				nulls.clear(row);
+				values[row] = encode(value);
+			}
+		}
+
+		@Override
+		Object decode(int row) {
+			if (getType() == Date.class) {
+				return new Date(values[row]);
+			}
+			return Long.valueOf(values[row]);
+		}
+
+		@Override
+		public long getLong(int row) {
+			return values[row];
+		}
+
+		@Override
+		public long encode(Object value) {
+			if (value instanceof Date) {
+				return ((Date) value).getTime();
+			}
+			return ((Number) value).longValue();
+		}
+
+		@Override
+		void clear(int capacity) {
+			super.clear(capacity);
+			values = new long[capacity];
+		}
+
+		@Override
+		void move(int from, int to) {
+			super.move(from, to);
+			values[to] = values[from];
+		}
+
+		@Override
+		RowComparator comparator() {
+			return (row1, row2) -> {
+				boolean null1 = nulls.get(row1), null2 = nulls.get(row2);
+				if (null1 || null2) {
+					return null1 == null2 ? 0 : null1 ? -1 : 1;
+				}
+				return Long.compare(values[row1], values[row2]);
+			};
+		}
+	}
+
+	/**
+	 * Double and Float values in a double array.
+	 */
+	static final class DoubleStore extends NullableStore implements DoubleColumnAccessor {
+		private double[] values;
+
+		DoubleStore(Class<?> type, int capacity) {
+			super(type);
+			values = new double[capacity];
+		}
+
+		@Override
+		void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+			}
+		}
+
+		@Override
+		void set(int row, Object value) {
+			if (value == null) {
+				nulls.set(row);
+				values[row] = 0;
+			} else {
+				nulls.clear(row);
+				values[row] = ((Number) value).doubleValue();
+			}
+		}
+
+		@Override
+		Object decode(int row) {
+			if (getType() == Float.class) {
+				return Float.valueOf((float) values[row]);
+			}
+			return Double.valueOf(values[row]);
+		}
+
+		@Override
+		public double getDouble(int row) {
+			return values[row];
+		}
+
+		@Override
+		public double encode(Object value) {
+			return ((Number) value).doubleValue();
+		}
+
+		@Override
+		void clear(int capacity) {
+			super.clear(capacity);
+			values = new double[capacity];
+		}
+
+		@Override
+		void move(int from, int to) {
+			super.move(from, to);
+			values[to] = values[from];
+		}
+
+		@Override
+		RowComparator comparator() {
+			return (row1, row2) -> {
+				boolean null1 = nulls.get(row1), null2 = nulls.get(row2);
+				if (null1 || null2) {
+					return null1 == null2 ? 0 : null1 ? -1 : 1;
+				}
+				return Double.compare(values[row1], values[row2]);
+			};
+		}
+	}
+
+	/**
+	 * Dictionary encoded values: each row holds the code of its value, or -1
+	 * for null. The rows using each code are counted, so that the codes of
+	 * values no row has any more can be reclaimed when storage is compacted.
+	 */
+	static final class CodedStore extends ColumnStore implements CodedColumnAccessor {
+		private int[] codes;
+		private final List<Object> dictionary = new ArrayList<Object>();
+		private final Map<Object, Integer> codesByValue = new HashMap<Object, Integer>();
+		/* Number of rows having each code */
+		private int[] uses = new int[16];
+		/* Number of codes no row has any more */
+		private int unusedCodes;
+
+		CodedStore(Class<?> type, int capacity) {
+			super(type);
+			codes = new int[capacity];
+			Arrays.fill(codes, -1);
+		}
+
+		@Override
+		void ensureCapacity(int capacity) {
+			if (codes.length < capacity) {
+				int oldLength = codes.length;
+				codes = Arrays.copyOf(codes, newCapacity(codes.length, capacity));
+				Arrays.fill(codes, oldLength, codes.length, -1);
+			}
+		}
+
+		@Override
+		void set(int row, Object value) {
+			int code = value == null ? -1 : codeOf(value);
+			if (code >= 0) {
+				uses[code]++;
+			}
+			int oldCode = codes[row];
+			if (oldCode >= 0 && --uses[oldCode] == 0) {
+				unusedCodes++;
+			}
+			codes[row] = code;
+		}
+
+		private int codeOf(Object value) {
+			Integer code = codesByValue.get(value);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(value);
+				codesByValue.put(value, code);
+				if (uses.length <= code) {
+					uses = Arrays.copyOf(uses, newCapacity(uses.length, code + 1));
+				}
+			} else if (uses[code] == 0) {
+				unusedCodes--;
+			}
+			return code;
+		}
+
+		@Override
+		public int findCode(Object value) {
+			Integer code = codesByValue.get(value);
+			return code == null ? -1 : code;
+		}
+
+		@Override
+		public Object getValue(int row) {
+			int code = codes[row];
+			return code < 0 ? null : dictionary.get(code);
+		}
+
+		@Override
+		public int getCode(int row) {
+			return codes[row];
+		}
+
+		@Override
+		public int getCodeCount() {
+			return dictionary.size();
+		}
+
+		@Override
+		public Object getCodeValue(int code) {
+			return dictionary.get(code);
+		}
+
+		@Override
+		void clear(int capacity) {
+			codes = new int[capacity];
+			Arrays.fill(codes, -1);
+			dictionary.clear();
+			codesByValue.clear();
+			uses = new int[16];
+			unusedCodes = 0;
+		}
+
+		@Override
+		void move(int from, int to) {
+			codes[to] = codes[from];
+		}
+
+		/*
+		 * Also renumbers the codes still in use, keeping their order, so that
+		 * the dictionary only holds values some row has.
+		 */
+		@Override
+		void trim(int rowCount) {
+			Arrays.fill(codes, rowCount, codes.length, -1);
+			if (unusedCodes == 0) {
+				return;
+			}
+			List<Object> values = new ArrayList<Object>(dictionary);
+			dictionary.clear();
+			codesByValue.clear();
+			int[] newCodes = new int[values.size()];
+			int count = 0;
+			for (int code = 0; code < newCodes.length; code++) {
+				if (uses[code] > 0) {
+					newCodes[code] = count;
+					uses[count] = uses[code];
+					dictionary.add(values.get(code));
+					codesByValue.put(values.get(code), count++);
+				}
+			}
+			Arrays.fill(uses, count, uses.length, 0);
+			for (int row = 0; row < rowCount; row++) {
+				if (codes[row] >= 0) {
+					codes[row] = newCodes[codes[row]];
+				}
+			}
+			unusedCodes = 0;
+		}
+
+		@Override
+		boolean isSparse() {
+			return unusedCodes > 16 && unusedCodes > dictionary.size() / 2;
+		}
+
+		@Override
+		RowComparator comparator() {
+			/* Rank the dictionary once instead of comparing values per row */
+			Integer[] sortedCodes = new Integer[dictionary.size()];
+			for (int i = 0; i < sortedCodes.length; i++) {
+				sortedCodes[i] = i;
+			}
+			Arrays.sort(sortedCodes, (c1, c2) -> ((Comparable) dictionary.get(c1)).compareTo(dictionary.get(c2)));
+			final int[] ranks = new int[sortedCodes.length];
+			for (int i = 0; i < sortedCodes.length; i++) {
+				ranks[sortedCodes[i]] = i;
+			}
+			return (row1, row2) -> {
+				int code1 = codes[row1], code2 = codes[row2];
+				if (code1 < 0 || code2 < 0) {
+					return code1 == code2 ? 0 : code1 < 0 ? -1 : 1;
+				}
+				return Integer.compare(ranks[code1], ranks[code2]);
+			};
+		}
+	}
+
+	/**
+	 * Fallback for all other types.
+	 */
+	static final class ObjectStore extends ColumnStore {
+		private Object[] values;
+
+		ObjectStore(Class<?> type, int capacity) {
+			super(type);
+			values = new Object[capacity];
+		}
+
+		@Override
+		void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+			}
+		}
+
+		@Override
+		void set(int row, Object value) {
+			values[row] = value;
+		}
+
+		@Override
+		public Object getValue(int row) {
+			return values[row];
+		}
+
+		@Override
+		void clear(int capacity) {
+			values = new Object[capacity];
+		}
+
+		@Override
+		void move(int from, int to) {
+			values[to] = values[from];
+		}
+
+		@Override
+		void trim(int rowCount) {
+			Arrays.fill(values, rowCount, values.length, null);
+		}
+
+		@Override
+		boolean isSortable() {
+			return Comparable.class.isAssignableFrom(getType());
+		}
+
+		@Override
+		RowComparator comparator() {
+			return (row1, row2) -> {
+				Object value1 = values[row1], value2 = values[row2];
+				if (value1 == null || value2 == null) {
+					return value1 == value2 ? 0 : value1 == null ? -1 : 1;
+				}
+				return ((Comparable) value1).compareTo(value2);
+			};
+		}
+	}
+}
@@ -0,0 +1,1727 @@
+package org.tepi.filtertable.container;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.tepi.filtertable.container.ColumnStore.RowComparator;
+import org.tepi.filtertable.engine.AsyncFilterable;
+import org.tepi.filtertable.engine.CodedColumnAccessor;
+import org.tepi.filtertable.engine.ColumnAccessor;
+import org.tepi.filtertable.engine.ColumnSource;
+import org.tepi.filtertable.engine.CompiledFilter;
+import org.tepi.filtertable.engine.FacetCountable;
+import org.tepi.filtertable.engine.FilterCompiler;
+import org.tepi.filtertable.engine.FilterEvaluation;
+import org.tepi.filtertable.engine.FilterResultCache;
+import org.tepi.filtertable.engine.FilterRefinement;
+import org.tepi.filtertable.engine.RefinableFilterable;
+import org.tepi.filtertable.engine.RowPredicate;
+import org.tepi.filtertable.index.ColumnIndex;
+import org.tepi.filtertable.index.RowBitmap;
+
+import com.vaadin.v7.data.Container;
+import com.vaadin.v7.data.Item;
+import com.vaadin.v7.data.Property;
+import com.vaadin.v7.data.util.filter.UnsupportedFilterException;
+
+/**
+ * An in-memory container that stores its data column by column. Integral
+ * numbers, floating point numbers and dates are kept in primitive arrays,
+ * while strings, enums and booleans are dictionary encoded. Compared to
+ * IndexedContainer, which keeps a map of boxed property values per item, this
+ * takes a fraction of the heap for large data sets.
+ * <p>
+ * Filters are compiled with {@link FilterCompiler} and evaluated directly on
+ * the column arrays, so the container is well suited as a data source for
+ * {@link org.tepi.filtertable.FilterTable} and
+ * {@link org.tepi.filtertable.paged.PagedFilterTable}. When a filter is replaced
+ * by a narrower one, e.g. while typing into a text filter, only the items
+ * currently passing the filters are re-evaluated. Filters can also be
+ * evaluated outside the session lock, see {@link AsyncFilterable}, and in
+ * parallel for large data sets, see {@link #setParallelFilteringThreshold(int)}.
+ * Recent filtering results can be cached with {@link #setFilterCacheSize(int)}.
+ * <p>
+ * Columns can additionally be indexed with {@link #setIndexed(Object, boolean)}
+ * to answer filters on them without testing every item.
+ * <p>
+ * Item IDs are Integers generated by the container; items can not be added
+ * with an ID of your own. Item IDs are not reused, except after
+ * {@link #removeAllItems()}.
+ * <p>
+ * Removed items are dropped from the item order in a single pass before it
+ * is next read, and their storage is reclaimed once removed items make up
+ * half of it. Dictionary codes of values no item has any more are reclaimed
+ * at the same time. Items keep their IDs, which are then looked up by binary
+ * search.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation", "rawtypes", "unchecked" })
+public class ColumnarContainer implements Container.Indexed, Container.Sortable, RefinableFilterable, AsyncFilterable,
+		FacetCountable,
+		Container.ItemSetChangeNotifier, Container.PropertySetChangeNotifier, Property.ValueChangeNotifier,
+		ColumnSource {
+
+	private static final int INITIAL_CAPACITY = 64;
+	/* Number of rows an asynchronous evaluation tests between checks for cancellation */
+	private static final int CANCELLATION_CHECK_INTERVAL = 4096;
+
+	/* Columns mapped by property ID, in the order they were added */
+	private final Map<Object, ColumnStore> columns = new LinkedHashMap<Object, ColumnStore>();
+	private final Map<Object, Object> defaultValues = new HashMap<Object, Object>();
+
+	/* Number of storage rows in use, including removed rows */
+	private int rowCount;
+	private int capacity = INITIAL_CAPACITY;
+	private final BitSet removedRows = new BitSet();
+	/* Number of removed rows still in storage */
+	private int removedCount;
+	/* Number of removed rows still in orderedRows and visibleRows */
+	private int unlinkedCount;
+	/* Item ID of each storage row in ascending order, null while the IDs equal the rows */
+	private int[] idOfRow;
+	/* ID of the next item added */
+	private int nextItemId;
+	/* Incremented on every change to the data or its order */
+	private int modCount;
+	/* Indexes of the indexed columns, by property ID */
+	private final Map<Object, ColumnIndex> indexes = new HashMap<Object, ColumnIndex>();
+
+	/* Live rows in sort order */
+	private int[] orderedRows = new int[INITIAL_CAPACITY];
+	private int orderedCount;
+	/* True while orderedRows is in storage order, i.e. not sorted */
+	private boolean storageOrder = true;
+	/* Rows passing the filters in sort order. Same array as orderedRows when not filtered */
+	private int[] visibleRows = orderedRows;
+	private int visibleCount;
+	/* Index of each row in visibleRows, or -1 if the row is not visible */
+	private int[] visibleIndexOfRow = new int[INITIAL_CAPACITY];
+
+	/* Filters as given, and their compiled counterparts */
+	private final List<Filter> filters = new ArrayList<Filter>();
+	private final List<CompiledFilter> compiledFilters = new ArrayList<CompiledFilter>();
+	/* Predicate of all filters bound to the columns, null if not filtered */
+	private RowPredicate predicate;
+	/* Filtering this many rows or more is done in parallel */
+	private int parallelFilteringThreshold = Integer.MAX_VALUE;
+	/* Pool for parallel filtering, null for the common pool */
+	private transient ForkJoinPool filteringPool;
+	/* Visible rows by filters, null if not caching */
+	private FilterResultCache<int[]> filterCache;
+
+	/* Listeners */
+	private List<ItemSetChangeListener> itemSetChangeListeners;
+	private List<PropertySetChangeListener> propertySetChangeListeners;
+	private List<Property.ValueChangeListener> valueChangeListeners;
+	private Map<Object, Map<Integer, List<Property.ValueChangeListener>>> singlePropertyValueChangeListeners;
+
+	/**
+	 * Creates a new empty ColumnarContainer.
+	 */
+	public ColumnarContainer() {
+		Arrays.fill(visibleIndexOfRow, -1);
+	}
+
+	/*
+	 * Container interface
+	 */
+
+	@Override
+	public Item getItem(Object itemId) {
+		int row = visibleRowOf(itemId);
+		return row < 0 ? null : new ColumnarItem((Integer) itemId);
+	}
+
+	@Override
+	public Collection<?> getContainerPropertyIds() {
+		return Collections.unmodifiableCollection(columns.keySet());
+	}
+
+	@Override
+	public Collection<?> getItemIds() {
+		return getItemIds(0, size());
+	}
+
+	@Override
+	public Property getContainerProperty(Object itemId, Object propertyId) {
+		int row = visibleRowOf(itemId);
+		if (row < 0 || !columns.containsKey(propertyId)) {
+			return null;
+		}
+		return new ColumnarProperty((Integer) itemId, propertyId);
+	}
+
+	@Override
+	public Class<?> getType(Object propertyId) {
+		ColumnStore column = columns.get(propertyId);
+		return column == null ? null : column.getType();
+	}
+
+	@Override
+	public int size() {
+		unlinkRemovedRows();
+		return visibleCount;
+	}
+
+	@Override
+	public boolean containsId(Object itemId) {
+		return visibleRowOf(itemId) >= 0;
+	}
+
+	@Override
+	public Item addItem(Object itemId) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("ColumnarContainer generates its own item IDs, use addItem()");
+	}
+
+	@Override
+	public Object addItem() throws UnsupportedOperationException {
+		int row = appendRow(null);
+		fireItemSetChange();
+		return Integer.valueOf(itemIdOf(row));
+	}
+
+	/**
+	 * Adds a new item with the given property values.
+	 *
+	 * @param values
+	 *            Values in the order of {@link #getContainerPropertyIds()}.
+	 *            Missing values are set to the property defaults.
+	 * @return ID of the new item
+	 * @throws IllegalArgumentException
+	 *             if a value does not match the type of its property
+	 */
+	public Object addRow(Object... values) {
+		int row = appendRow(values);
+		fireItemSetChange();
+		return Integer.valueOf(itemIdOf(row));
+	}
+
+	/**
+	 * Adds a batch of items, firing a single item set change event. Use this
+	 * to load large data sets.
+	 *
+	 * @param rows
+	 *            Property values of the items, each in the order of
+	 *            {@link #getContainerPropertyIds()}
+	 * @throws IllegalArgumentException
+	 *             if a value does not match the type of its property
+	 */
+	public void addRows(Iterable<Object[]> rows) {
+		for (Object[] values : rows) {
+			appendRow(values);
+		}
+		fireItemSetChange();
+	}
+
+	/*
+	 * The row is only marked removed here, and dropped from the item order
+	 * together with the other removed rows when the order is next read, so
+	 * that removing many items takes linear rather than quadratic time.
+	 */
+	@Override
+	public boolean removeItem(Object itemId) throws UnsupportedOperationException {
+		int row = storageRowOf(itemId);
+		if (row < 0) {
+			return false;
+		}
+		removedRows.set(row);
+		removedCount++;
+		unlinkedCount++;
+		modified();
+		for (ColumnIndex index : indexes.values()) {
+			index.remove(row);
+		}
+		for (ColumnStore column : columns.values()) {
+			column.set(row, null);
+		}
+		if (singlePropertyValueChangeListeners != null) {
+			for (Map<Integer, List<Property.ValueChangeListener>> listeners : singlePropertyValueChangeListeners
+					.values()) {
+				listeners.remove(itemId);
+			}
+		}
+		compactIfSparse();
+		fireItemSetChange();
+		return true;
+	}
+
+	@Override
+	public boolean addContainerProperty(Object propertyId, Class<?> type, Object defaultValue)
+			throws UnsupportedOperationException {
+		if (propertyId == null || type == null || columns.containsKey(propertyId)) {
+			return false;
+		}
+		ColumnStore column = ColumnStore.create(type, capacity);
+		column.checkType(defaultValue);
+		for (int row = 0; row < rowCount; row++) {
+			column.set(row, removedRows.get(row) ? null : defaultValue);
+		}
+		columns.put(propertyId, column);
+		defaultValues.put(propertyId, defaultValue);
+		modified();
+		refilter(false);
+		firePropertySetChange();
+		return true;
+	}
+
+	@Override
+	public boolean removeContainerProperty(Object propertyId) throws UnsupportedOperationException {
+		if (columns.remove(propertyId) == null) {
+			return false;
+		}
+		defaultValues.remove(propertyId);
+		indexes.remove(propertyId);
+		modified();
+		if (singlePropertyValueChangeListeners != null) {
+			singlePropertyValueChangeListeners.remove(propertyId);
+		}
+		refilter(false);
+		firePropertySetChange();
+		return true;
+	}
+
+	@Override
+	public boolean removeAllItems() throws UnsupportedOperationException {
+		rowCount = 0;
+		modified();
+		capacity = INITIAL_CAPACITY;
+		removedRows.clear();
+		removedCount = 0;
+		unlinkedCount = 0;
+		idOfRow = null;
+		nextItemId = 0;
+		for (ColumnStore column : columns.values()) {
+			column.clear(capacity);
+		}
+		for (ColumnIndex index : indexes.values()) {
+			index.clear();
+		}
+		orderedRows = new int[capacity];
+		orderedCount = 0;
+		storageOrder = true;
+		visibleIndexOfRow = new int[capacity];
+		Arrays.fill(visibleIndexOfRow, -1);
+		singlePropertyValueChangeListeners = null;
+		refilter(false);
+		fireItemSetChange();
+		return true;
+	}
+
+	/*
+	 * Container.Ordered interface
+	 */
+
+	@Override
+	public Object nextItemId(Object itemId) {
+		int index = indexOfId(itemId);
+		return index < 0 || index + 1 >= size() ? null : getIdByIndex(index + 1);
+	}
+
+	@Override
+	public Object prevItemId(Object itemId) {
+		int index = indexOfId(itemId);
+		return index <= 0 ? null : getIdByIndex(index - 1);
+	}
+
+	@Override
+	public Object firstItemId() {
+		return size() == 0 ? null : getIdByIndex(0);
+	}
+
+	@Override
+	public Object lastItemId() {
+		int size = size();
+		return size == 0 ? null : getIdByIndex(size - 1);
+	}
+
+	@Override
+	public boolean isFirstId(Object itemId) {
+		return itemId != null && itemId.equals(firstItemId());
+	}
+
+	@Override
+	public boolean isLastId(Object itemId) {
+		return itemId != null && itemId.equals(lastItemId());
+	}
+
+	@Override
+	public Object addItemAfter(Object previousItemId) throws UnsupportedOperationException {
+		int index = previousItemId == null ? 0 : indexOfId(previousItemId) + 1;
+		if (index <= 0 && previousItemId != null) {
+			return null;
+		}
+		return addItemAt(index);
+	}
+
+	@Override
+	public Item addItemAfter(Object previousItemId, Object newItemId) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("ColumnarContainer generates its own item IDs, use addItemAfter(Object)");
+	}
+
+	/*
+	 * Container.Indexed interface
+	 */
+
+	@Override
+	public int indexOfId(Object itemId) {
+		int row = storageRowOf(itemId);
+		if (row < 0) {
+			return -1;
+		}
+		unlinkRemovedRows();
+		return visibleIndexOfRow[row];
+	}
+
+	@Override
+	public Object getIdByIndex(int index) {
+		unlinkRemovedRows();
+		if (index < 0 || index >= visibleCount) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds, size " + visibleCount);
+		}
+		return Integer.valueOf(itemIdOf(visibleRows[index]));
+	}
+
+	@Override
+	public List<?> getItemIds(final int startIndex, int numberOfItems) {
+		if (startIndex < 0 || numberOfItems < 0) {
+			throw new IndexOutOfBoundsException("Start index and number of items must not be negative");
+		}
+		unlinkRemovedRows();
+		final int[] rows = visibleRows;
+		final int count = Math.max(0, Math.min(numberOfItems, visibleCount - startIndex));
+		return new AbstractList<Integer>() {
+			@Override
+			public Integer get(int index) {
+				if (index < 0 || index >= count) {
+					throw new IndexOutOfBoundsException("Index " + index + " out of bounds, size " + count);
+				}
+				return Integer.valueOf(itemIdOf(rows[startIndex + index]));
+			}
+
+			@Override
+			public int size() {
+				return count;
+			}
+		};
+	}
+
+	@Override
+	public Object addItemAt(int index) throws UnsupportedOperationException {
+		unlinkRemovedRows();
+		if (index < 0 || index > visibleCount) {
+			return null;
+		}
+		if (index == visibleCount) {
+			return addItem();
+		}
+		/* Insert the new row before the row currently at the index */
+		int rowAtIndex = visibleRows[index];
+		int row = newRow(null);
+		storageOrder = false;
+		orderedRows = ensureCapacity(orderedRows, orderedCount + 1);
+		for (int i = 0; i < orderedCount; i++) {
+			if (orderedRows[i] == rowAtIndex) {
+				System.arraycopy(orderedRows, i, orderedRows, i + 1, orderedCount - i);
+				orderedRows[i] = row;
+				orderedCount++;
+				break;
+			}
+		}
+		if (predicate == null) {
+			visibleRows = orderedRows;
+			visibleCount = orderedCount;
+		} else if (predicate.test(row)) {
+			visibleRows = ensureCapacity(visibleRows, visibleCount + 1);
+			System.arraycopy(visibleRows, index, visibleRows, index + 1, visibleCount - index);
+			visibleRows[index] = row;
+			visibleCount++;
+		}
+		rebuildVisibleIndex();
+		fireItemSetChange();
+		return Integer.valueOf(itemIdOf(row));
+	}
+
+	@Override
+	public Item addItemAt(int index, Object newItemId) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("ColumnarContainer generates its own item IDs, use addItemAt(int)");
+	}
+
+	/*
+	 * Container.Sortable interface
+	 */
+
+	@Override
+	public void sort(Object[] propertyId, boolean[] ascending) {
+		List<RowComparator> comparators = new ArrayList<RowComparator>();
+		List<Boolean> directions = new ArrayList<Boolean>();
+		for (int i = 0; i < propertyId.length; i++) {
+			ColumnStore column = columns.get(propertyId[i]);
+			if (column != null && column.isSortable()) {
+				comparators.add(column.comparator());
+				directions.add(i < ascending.length ? ascending[i] : true);
+			}
+		}
+		if (comparators.isEmpty()) {
+			return;
+		}
+		boolean[] directionArray = new boolean[directions.size()];
+		for (int i = 0; i < directionArray.length; i++) {
+			directionArray[i] = directions.get(i);
+		}
+		unlinkRemovedRows();
+		RowSorter.sort(orderedRows, orderedCount,
+				RowSorter.chain(comparators.toArray(new RowComparator[comparators.size()]), directionArray));
+		storageOrder = false;
+		modified();
+		updateVisibleRows();
+		fireItemSetChange();
+	}
+
+	@Override
+	public Collection<?> getSortableContainerPropertyIds() {
+		List<Object> sortable = new ArrayList<Object>();
+		for (Map.Entry<Object, ColumnStore> entry : columns.entrySet()) {
+			if (entry.getValue().isSortable()) {
+				sortable.add(entry.getKey());
+			}
+		}
+		return Collections.unmodifiableList(sortable);
+	}
+
+	/*
+	 * Container.Filterable interface
+	 */
+
+	@Override
+	public void addContainerFilter(Filter filter) throws UnsupportedFilterException {
+		if (filter == null) {
+			return;
+		}
+		filters.add(filter);
+		compiledFilters.add(FilterCompiler.compile(filter));
+		refilter(true);
+	}
+
+	@Override
+	public void removeContainerFilter(Filter filter) {
+		int index = filters.indexOf(filter);
+		if (index >= 0) {
+			filters.remove(index);
+			compiledFilters.remove(index);
+			refilter(true);
+		}
+	}
+
+	@Override
+	public void removeAllContainerFilters() {
+		if (!filters.isEmpty()) {
+			filters.clear();
+			compiledFilters.clear();
+			refilter(true);
+		}
+	}
+
+	@Override
+	public void replaceContainerFilter(Filter oldFilter, Filter newFilter) throws UnsupportedFilterException {
+		int index = oldFilter == null ? -1 : filters.indexOf(oldFilter);
+		if (index < 0 || newFilter == null) {
+			if (index >= 0) {
+				filters.remove(index);
+				compiledFilters.remove(index);
+			}
+			if (newFilter != null) {
+				filters.add(newFilter);
+				compiledFilters.add(FilterCompiler.compile(newFilter));
+			}
+			refilter(true);
+			return;
+		}
+		CompiledFilter compiled = FilterCompiler.compile(newFilter);
+		boolean narrowing = FilterRefinement.isNarrowing(oldFilter, newFilter);
+		filters.set(index, newFilter);
+		compiledFilters.set(index, compiled);
+		if (narrowing) {
+			predicate = bindFilters();
+			if (!useCachedResult()) {
+				refineVisibleRows(compiled.bind(this));
+				cacheResult();
+			}
+			fireItemSetChange();
+		} else {
+			refilter(true);
+		}
+	}
+
+	@Override
+	public Collection<Filter> getContainerFilters() {
+		return Collections.unmodifiableList(filters);
+	}
+
+	/*
+	 * AsyncFilterable interface
+	 */
+
+	@Override
+	public FilterEvaluation prepareFilterEvaluation(List<Filter> filters) {
+		List<Filter> newFilters = new ArrayList<Filter>();
+		List<CompiledFilter> newCompiledFilters = new ArrayList<CompiledFilter>();
+		for (Filter filter : filters) {
+			if (filter != null) {
+				newFilters.add(filter);
+				newCompiledFilters.add(FilterCompiler.compile(filter));
+			}
+		}
+		if (newFilters.isEmpty()) {
+			return new ColumnarFilterEvaluation(newFilters, newCompiledFilters, null, new IndexLookup());
+		}
+		IndexLookup lookup = lookupIndexes(newFilters);
+		if (lookup.candidates == orderedRows) {
+			/* The evaluation must not see later changes to the order */
+			lookup.candidates = Arrays.copyOf(orderedRows, orderedCount);
+		}
+		return new ColumnarFilterEvaluation(newFilters, newCompiledFilters, bind(newCompiledFilters), lookup);
+	}
+
+	@Override
+	public boolean applyFilterEvaluation(FilterEvaluation evaluation) {
+		if (!(evaluation instanceof ColumnarFilterEvaluation)
+				|| ((ColumnarFilterEvaluation) evaluation).getContainer() != this) {
+			throw new IllegalArgumentException("The evaluation was not prepared by this container");
+		}
+		if (!evaluation.isDone()) {
+			throw new IllegalStateException("The evaluation has not been completed");
+		}
+		ColumnarFilterEvaluation columnarEvaluation = (ColumnarFilterEvaluation) evaluation;
+		if (columnarEvaluation.modCount != modCount) {
+			return false;
+		}
+		filters.clear();
+		filters.addAll(evaluation.getFilters());
+		compiledFilters.clear();
+		compiledFilters.addAll(columnarEvaluation.compiledFilters);
+		predicate = columnarEvaluation.predicate;
+		if (predicate == null) {
+			updateVisibleRows();
+		} else {
+			visibleRows = columnarEvaluation.result;
+			visibleCount = columnarEvaluation.resultCount;
+			rebuildVisibleIndex();
+			cacheResult();
+		}
+		fireItemSetChange();
+		return true;
+	}
+
+	/**
+	 * Evaluation of filters on a snapshot of the candidate rows, taking the
+	 * result into use only if the container has not been modified meanwhile.
+	 */
+	private class ColumnarFilterEvaluation extends FilterEvaluation {
+		private final List<CompiledFilter> compiledFilters;
+		private final RowPredicate predicate;
+		private final IndexLookup lookup;
+		private final int modCount;
+		private int[] result;
+		private int resultCount;
+
+		ColumnarFilterEvaluation(List<Filter> filters, List<CompiledFilter> compiledFilters, RowPredicate predicate,
+				IndexLookup lookup) {
+			super(filters);
+			this.compiledFilters = compiledFilters;
+			this.predicate = predicate;
+			this.lookup = lookup;
+			modCount = ColumnarContainer.this.modCount;
+		}
+
+		@Override
+		protected void doEvaluate() {
+			if (predicate == null) {
+				return;
+			}
+			int[] rows = new int[Math.max(lookup.count, 1)];
+			int count = 0;
+			if (isParallel(lookup)) {
+				checkCancelled();
+				result = rows;
+				resultCount = ParallelRowFilter.filter(getFilteringPool(), lookup.candidates, lookup.count,
+						lookup.exact ? null : predicate, rows, true);
+				return;
+			}
+			for (int from = 0; from < lookup.count; from += CANCELLATION_CHECK_INTERVAL) {
+				checkCancelled();
+				int to = Math.min(lookup.count, from + CANCELLATION_CHECK_INTERVAL);
+				count = filterRows(lookup.candidates, from, to, lookup.exact ? null : predicate, rows, count);
+			}
+			result = rows;
+			resultCount = count;
+		}
+
+		private ColumnarContainer getContainer() {
+			return ColumnarContainer.this;
+		}
+	}
+
+	/*
+	 * FacetCountable interface
+	 */
+
+	/*
+	 * All facets are counted in a single pass over the rows passing the
+	 * common filters, found from the indexes where possible: a row counts for
+	 * every facet if it passes all the facet filters, and for one facet if it
+	 * fails only the filter of that facet. Dictionary encoded columns are
+	 * counted by code.
+	 */
+	@Override
+	public Map<Object, Map<Object, Integer>> countFacets(List<Filter> filters, Map<Object, Filter> facetFilters) {
+		List<Filter> commonFilters = new ArrayList<Filter>();
+		List<CompiledFilter> compiledCommonFilters = new ArrayList<CompiledFilter>();
+		for (Filter filter : filters) {
+			if (filter != null) {
+				commonFilters.add(filter);
+				compiledCommonFilters.add(FilterCompiler.compile(filter));
+			}
+		}
+		IndexLookup lookup = lookupIndexes(commonFilters);
+		RowPredicate common = lookup.exact ? null : bind(compiledCommonFilters);
+
+		Object[] facets = facetFilters.keySet().toArray();
+		RowPredicate[] facetPredicates = new RowPredicate[facets.length];
+		ColumnAccessor[] accessors = new ColumnAccessor[facets.length];
+		int[][] codeCounts = new int[facets.length][];
+		List<Map<Object, int[]>> valueCounts = new ArrayList<Map<Object, int[]>>();
+		for (int i = 0; i < facets.length; i++) {
+			Filter filter = facetFilters.get(facets[i]);
+			facetPredicates[i] = filter == null ? null : FilterCompiler.compile(filter).bind(this);
+			accessors[i] = columns.get(facets[i]);
+			if (accessors[i] instanceof CodedColumnAccessor) {
+				codeCounts[i] = new int[((CodedColumnAccessor) accessors[i]).getCodeCount()];
+			}
+			valueCounts.add(new HashMap<Object, int[]>());
+		}
+
+		for (int i = 0; i < lookup.count; i++) {
+			int row = lookup.candidates[i];
+			if (common != null && !common.test(row)) {
+				continue;
+			}
+			int failed = -1;
+			boolean counted = true;
+			for (int f = 0; f < facets.length; f++) {
+				if (facetPredicates[f] != null && !facetPredicates[f].test(row)) {
+					if (failed >= 0) {
+						counted = false;
+						break;
+					}
+					failed = f;
+				}
+			}
+			if (!counted) {
+				continue;
+			}
+			if (failed >= 0) {
+				countFacetValue(row, accessors[failed], codeCounts[failed], valueCounts.get(failed));
+			} else {
+				for (int f = 0; f < facets.length; f++) {
+					countFacetValue(row, accessors[f], codeCounts[f], valueCounts.get(f));
+				}
+			}
+		}
+
+		Map<Object, Map<Object, Integer>> result = new HashMap<Object, Map<Object, Integer>>();
+		for (int f = 0; f < facets.length; f++) {
+			Map<Object, Integer> counts = new LinkedHashMap<Object, Integer>();
+			if (codeCounts[f] != null) {
+				CodedColumnAccessor accessor = (CodedColumnAccessor) accessors[f];
+				for (int code = 0; code < codeCounts[f].length; code++) {
+					if (codeCounts[f][code] > 0) {
+						counts.put(accessor.getCodeValue(code), codeCounts[f][code]);
+					}
+				}
+			} else {
+				for (Map.Entry<Object, int[]> entry : valueCounts.get(f).entrySet()) {
+					counts.put(entry.getKey(), entry.getValue()[0]);
+				}
+			}
+			result.put(facets[f], counts);
+		}
+		return result;
+	}
+
+	private static void countFacetValue(int row, ColumnAccessor accessor, int[] codeCounts,
+			Map<Object, int[]> valueCounts) {
+		if (accessor == null) {
+			return;
+		} else if (codeCounts != null) {
+			int code = ((CodedColumnAccessor) accessor).getCode(row);
+			if (code >= 0) {
+				codeCounts[code]++;
+			}
+		} else {
+			Object value = accessor.getValue(row);
+			if (value != null) {
+				int[] count = valueCounts.get(value);
+				if (count == null) {
+					valueCounts.put(value, count = new int[1]);
+				}
+				count[0]++;
+			}
+		}
+	}
+
+	/*
+	 * Parallel filtering
+	 */
+
+	/**
+	 * Sets the number of items from which on filters are evaluated in
+	 * parallel. The items are split into chunks that are filtered on a
+	 * ForkJoinPool and merged back in their original order. Smaller
+	 * containers are filtered sequentially, as splitting the work does not
+	 * pay off for them.
+	 * <p>
+	 * Note: Filters are then evaluated on the threads of the pool, so filters
+	 * that are not compiled into column operations (e.g. custom filters) must
+	 * be thread safe and may not rely on thread locals such as
+	 * {@link com.vaadin.ui.UI#getCurrent()}.
+	 *
+	 * @param rows
+	 *            Minimum number of items to filter in parallel, or
+	 *            {@link Integer#MAX_VALUE} to always filter sequentially
+	 *            (default)
+	 */
+	public void setParallelFilteringThreshold(int rows) {
+		parallelFilteringThreshold = rows;
+	}
+
+	/**
+	 * @return the number of items from which on filters are evaluated in
+	 *         parallel
+	 */
+	public int getParallelFilteringThreshold() {
+		return parallelFilteringThreshold;
+	}
+
+	/**
+	 * Sets the pool used for parallel filtering.
+	 *
+	 * @param pool
+	 *            Pool for parallel filtering, or null to use the common pool
+	 *            (default)
+	 */
+	public void setFilteringPool(ForkJoinPool pool) {
+		filteringPool = pool;
+	}
+
+	/**
+	 * @return the pool used for parallel filtering
+	 */
+	public ForkJoinPool getFilteringPool() {
+		return filteringPool != null ? filteringPool : ForkJoinPool.commonPool();
+	}
+
+	/*
+	 * Result cache
+	 */
+
+	/**
+	 * Sets the number of filtering results to cache. Switching back and forth
+	 * between the same filters, e.g. by clearing and retyping a filter field,
+	 * then takes a cached result into use instead of filtering all items
+	 * again. Results are cached by the set of filters regardless of their
+	 * order, and dropped whenever items are added, removed, modified or
+	 * sorted.
+	 * <p>
+	 * Each cached result holds the IDs of the items passing the filters, so
+	 * the memory used grows with both the cache size and the container size.
+	 *
+	 * @param size
+	 *            Maximum number of results to cache, or 0 to disable caching
+	 *            (default)
+	 */
+	public void setFilterCacheSize(int size) {
+		filterCache = size > 0 ? new FilterResultCache<int[]>(size) : null;
+	}
+
+	/**
+	 * @return the cache of filtering results, which provides the hit and miss
+	 *         counts, or null if caching is disabled
+	 */
+	public FilterResultCache<int[]> getFilterCache() {
+		return filterCache;
+	}
+
+	/*
+	 * Column indexes
+	 */
+
+	/**
+	 * Enables or disables an index on a column. Filters on indexed columns
+	 * are answered from the index, and several of them are combined by
+	 * intersecting their results. Boolean and enum columns can be indexed
+	 * with a bitmap per distinct value, which answers equality filters such
+	 * as those of the ComboBox filter fields. Number and date columns are
+	 * indexed by sorting the rows by value, which answers the range filters
+	 * of NumberFilterPopup and DateFilterPopup by binary search. String
+	 * columns get a trigram index, which narrows down the candidates for text
+	 * filters before they are tested.
+	 * <p>
+	 * Indexes are kept up to date as items are added, removed and modified,
+	 * which makes these operations somewhat slower.
+	 *
+	 * @param propertyId
+	 *            ID of the property to index
+	 * @param indexed
+	 *            true to index the column, false to drop its index
+	 * @throws IllegalArgumentException
+	 *             if the property does not exist or its type can not be
+	 *             indexed
+	 */
+	public void setIndexed(Object propertyId, boolean indexed) {
+		ColumnStore column = columns.get(propertyId);
+		if (column == null) {
+			throw new IllegalArgumentException("Unknown property " + propertyId);
+		}
+		if (!indexed) {
+			indexes.remove(propertyId);
+		} else if (!indexes.containsKey(propertyId)) {
+			setIndex(propertyId, ColumnIndex.create(column));
+		}
+	}
+
+	/**
+	 * Indexes a column with the given index, e.g. a
+	 * {@link org.tepi.filtertable.index.TrigramIndex} with a custom memory
+	 * bound. Replaces any previous index of the column.
+	 *
+	 * @param propertyId
+	 *            ID of the property to index
+	 * @param index
+	 *            A new, empty index created for the column returned by
+	 *            {@link #getColumnAccessor(Object)}
+	 * @throws IllegalArgumentException
+	 *             if the index was created for another column
+	 */
+	public void setIndex(Object propertyId, ColumnIndex index) {
+		if (columns.get(propertyId) == null || index.getColumn() != columns.get(propertyId)) {
+			throw new IllegalArgumentException("The index must be created for the column of " + propertyId);
+		}
+		fillIndex(index);
+		indexes.put(propertyId, index);
+	}
+
+	/* Clears the index and adds all live rows to it */
+	private void fillIndex(ColumnIndex index) {
+		index.clear();
+		for (int row = removedRows.nextClearBit(0); row < rowCount; row = removedRows.nextClearBit(row + 1)) {
+			index.add(row);
+		}
+	}
+
+	/**
+	 * @param propertyId
+	 *            ID of a property
+	 * @return true if the column of the property is indexed
+	 */
+	public boolean isIndexed(Object propertyId) {
+		return indexes.containsKey(propertyId);
+	}
+
+	/*
+	 * ColumnSource interface
+	 */
+
+	@Override
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	@Override
+	public ColumnAccessor getColumnAccessor(Object propertyId) {
+		return columns.get(propertyId);
+	}
+
+	@Override
+	public Object getItemId(int row) {
+		return Integer.valueOf(itemIdOf(row));
+	}
+
+	@Override
+	public Item getItem(int row) {
+		return new ColumnarItem(itemIdOf(row));
+	}
+
+	/*
+	 * Row bookkeeping
+	 */
+
+	/* Adds a new storage row with the given or default values. */
+	private int newRow(Object[] values) {
+		Object[] propertyIds = columns.keySet().toArray();
+		if (values != null) {
+			if (values.length > propertyIds.length) {
+				throw new IllegalArgumentException(
+						"Got " + values.length + " values for " + propertyIds.length + " properties");
+			}
+			for (int i = 0; i < values.length; i++) {
+				columns.get(propertyIds[i]).checkType(values[i]);
+			}
+		}
+		int row = rowCount;
+		if (row + 1 > capacity) {
+			capacity = ColumnStore.newCapacity(capacity, row + 1);
+			for (ColumnStore column : columns.values()) {
+				column.ensureCapacity(capacity);
+			}
+			int oldLength = visibleIndexOfRow.length;
+			visibleIndexOfRow = Arrays.copyOf(visibleIndexOfRow, capacity);
+			Arrays.fill(visibleIndexOfRow, oldLength, capacity, -1);
+		}
+		for (int i = 0; i < propertyIds.length; i++) {
+			Object value = values != null && i < values.length ? values[i] : defaultValues.get(propertyIds[i]);
+			columns.get(propertyIds[i]).set(row, value);
+		}
+		for (ColumnIndex index : indexes.values()) {
+			index.add(row);
+		}
+		if (idOfRow != null) {
+			idOfRow = ensureCapacity(idOfRow, row + 1);
+			idOfRow[row] = nextItemId;
+		}
+		nextItemId++;
+		rowCount++;
+		modified();
+		return row;
+	}
+
+	/* Adds a new storage row to the end of the container. */
+	private int appendRow(Object[] values) {
+		int row = newRow(values);
+		orderedRows = ensureCapacity(orderedRows, orderedCount + 1);
+		orderedRows[orderedCount++] = row;
+		if (predicate == null) {
+			visibleRows = orderedRows;
+			visibleCount = orderedCount;
+			visibleIndexOfRow[row] = visibleCount - 1;
+		} else if (predicate.test(row)) {
+			visibleRows = ensureCapacity(visibleRows, visibleCount + 1);
+			visibleRows[visibleCount] = row;
+			visibleIndexOfRow[row] = visibleCount;
+			visibleCount++;
+		}
+		return row;
+	}
+
+	private static int[] ensureCapacity(int[] array, int required) {
+		if (array.length < required) {
+			return Arrays.copyOf(array, ColumnStore.newCapacity(array.length, required));
+		}
+		return array;
+	}
+
+	/* Returns the storage row of a live item, or -1 */
+	private int storageRowOf(Object itemId) {
+		return itemId instanceof Integer ? rowOf((Integer) itemId) : -1;
+	}
+
+	private int rowOf(int itemId) {
+		int row = idOfRow == null ? itemId : Arrays.binarySearch(idOfRow, 0, rowCount, itemId);
+		if (row < 0 || row >= rowCount || removedRows.get(row)) {
+			return -1;
+		}
+		return row;
+	}
+
+	private int itemIdOf(int row) {
+		return idOfRow == null ? row : idOfRow[row];
+	}
+
+	/* Returns the storage row of an item passing the filters, or -1 */
+	private int visibleRowOf(Object itemId) {
+		int row = storageRowOf(itemId);
+		return row < 0 || visibleIndexOfRow[row] < 0 ? -1 : row;
+	}
+
+	/* Re-binds the filters and re-evaluates them for all rows. */
+	private void refilter(boolean fireEvent) {
+		predicate = bindFilters();
+		if (!useCachedResult()) {
+			updateVisibleRows();
+			cacheResult();
+		}
+		if (fireEvent) {
+			fireItemSetChange();
+		}
+	}
+
+	/* Marks the data or its order changed */
+	private void modified() {
+		modCount++;
+		if (filterCache != null) {
+			filterCache.invalidate();
+		}
+	}
+
+	/* Takes the cached result for the current filters into use, if any */
+	private boolean useCachedResult() {
+		if (filterCache == null || predicate == null) {
+			return false;
+		}
+		int[] cached = filterCache.get(filters);
+		if (cached == null) {
+			return false;
+		}
+		/* The visible rows are modified in place, the cached ones never */
+		visibleRows = Arrays.copyOf(cached, Math.max(cached.length, 1));
+		visibleCount = cached.length;
+		rebuildVisibleIndex();
+		return true;
+	}
+
+	private void cacheResult() {
+		if (filterCache != null && predicate != null) {
+			filterCache.put(filters, Arrays.copyOf(visibleRows, visibleCount));
+		}
+	}
+
+	private RowPredicate bindFilters() {
+		return bind(compiledFilters);
+	}
+
+	private RowPredicate bind(List<CompiledFilter> compiledFilters) {
+		if (compiledFilters.isEmpty()) {
+			return null;
+		}
+		final RowPredicate[] bound = new RowPredicate[compiledFilters.size()];
+		for (int i = 0; i < bound.length; i++) {
+			bound[i] = compiledFilters.get(i).bind(this);
+		}
+		if (bound.length == 1) {
+			return bound[0];
+		}
+		return row -> {
+			for (RowPredicate p : bound) {
+				if (!p.test(row)) {
+					return false;
+				}
+			}
+			return true;
+		};
+	}
+
+	private void updateVisibleRows() {
+		unlinkRemovedRows();
+		if (predicate == null) {
+			visibleRows = orderedRows;
+			visibleCount = orderedCount;
+		} else {
+			IndexLookup lookup = lookupIndexes(filters);
+			int[] result = new int[Math.max(lookup.count, 1)];
+			if (isParallel(lookup)) {
+				visibleCount = ParallelRowFilter.filter(getFilteringPool(), lookup.candidates, lookup.count,
+						lookup.exact ? null : predicate, result, false);
+			} else {
+				visibleCount = filterRows(lookup.candidates, 0, lookup.count, lookup.exact ? null : predicate, result,
+						0);
+			}
+			visibleRows = result;
+		}
+		rebuildVisibleIndex();
+	}
+
+	private boolean isParallel(IndexLookup lookup) {
+		return !lookup.exact && lookup.count >= parallelFilteringThreshold;
+	}
+
+	/*
+	 * Copies the rows[from, to) passing the predicate, or all of them if the
+	 * predicate is null, to the result starting at the given position.
+	 * Returns the new number of rows in the result.
+	 */
+	private static int filterRows(int[] rows, int from, int to, RowPredicate predicate, int[] result, int count) {
+		if (predicate == null) {
+			System.arraycopy(rows, from, result, count, to - from);
+			return count + to - from;
+		}
+		for (int i = from; i < to; i++) {
+			if (predicate.test(rows[i])) {
+				result[count++] = rows[i];
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Finds the candidate rows for the given filters, in sort order, using
+	 * the indexes applicable to them.
+	 */
+	private IndexLookup lookupIndexes(List<Filter> filters) {
+		unlinkRemovedRows();
+		IndexLookup lookup = new IndexLookup();
+		for (Filter filter : filters) {
+			lookupIndexes(filter, lookup);
+		}
+		if (lookup.rows == null) {
+			lookup.candidates = orderedRows;
+			lookup.count = orderedCount;
+		} else if (storageOrder) {
+			/* Only the candidates need to be visited */
+			lookup.candidates = lookup.rows.toArray();
+			lookup.count = lookup.candidates.length;
+		} else {
+			BitSet candidateSet = new BitSet(rowCount);
+			lookup.rows.forEach(candidateSet::set);
+			lookup.candidates = new int[lookup.rows.getCardinality()];
+			for (int i = 0; i < orderedCount; i++) {
+				if (candidateSet.get(orderedRows[i])) {
+					lookup.candidates[lookup.count++] = orderedRows[i];
+				}
+			}
+		}
+		return lookup;
+	}
+
+	/*
+	 * Narrows the candidate rows of the lookup with the indexes applicable to
+	 * the filter or, for a conjunction, to its parts.
+	 */
+	private void lookupIndexes(Filter filter, IndexLookup lookup) {
+		filter = FilterCompiler.unwrap(filter);
+		Collection<Filter> parts = FilterCompiler.getConjuncts(filter);
+		if (parts != null) {
+			for (Filter part : parts) {
+				lookupIndexes(part, lookup);
+			}
+			return;
+		}
+		RowBitmap rows = null;
+		for (Map.Entry<Object, ColumnIndex> entry : indexes.entrySet()) {
+			if (filter.appliesToProperty(entry.getKey())) {
+				rows = entry.getValue().find(filter);
+				if (rows != null) {
+					lookup.exact &= entry.getValue().isExact();
+					break;
+				}
+			}
+		}
+		if (rows == null) {
+			lookup.exact = false;
+		} else {
+			lookup.rows = lookup.rows == null ? rows : RowBitmap.and(lookup.rows, rows);
+		}
+	}
+
+	/**
+	 * Rows found from the column indexes for the current filters.
+	 */
+	private static class IndexLookup {
+		/* Rows that may pass the filters, null if no index applied */
+		private RowBitmap rows;
+		/* True if exactly the rows passing all filters were found */
+		private boolean exact = true;
+		/* The candidate rows in sort order */
+		private int[] candidates;
+		private int count;
+	}
+
+	/*
+	 * Drops the visible rows not passing the given refining predicate. Only
+	 * called while filtered, so visibleRows is not shared with orderedRows.
+	 */
+	private void refineVisibleRows(RowPredicate refinement) {
+		unlinkRemovedRows();
+		int count = 0;
+		for (int i = 0; i < visibleCount; i++) {
+			int row = visibleRows[i];
+			if (refinement.test(row)) {
+				visibleRows[count] = row;
+				visibleIndexOfRow[row] = count++;
+			} else {
+				visibleIndexOfRow[row] = -1;
+			}
+		}
+		visibleCount = count;
+	}
+
+	private void rebuildVisibleIndex() {
+		Arrays.fill(visibleIndexOfRow, -1);
+		for (int i = 0; i < visibleCount; i++) {
+			visibleIndexOfRow[visibleRows[i]] = i;
+		}
+	}
+
+	/* Drops the removed rows from orderedRows and visibleRows in one pass */
+	private void unlinkRemovedRows() {
+		if (unlinkedCount == 0) {
+			return;
+		}
+		unlinkedCount = 0;
+		orderedCount = dropRemovedRows(orderedRows, orderedCount);
+		if (visibleRows == orderedRows) {
+			visibleCount = orderedCount;
+		} else {
+			visibleCount = dropRemovedRows(visibleRows, visibleCount);
+		}
+		rebuildVisibleIndex();
+	}
+
+	private int dropRemovedRows(int[] rows, int count) {
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			if (!removedRows.get(rows[i])) {
+				rows[kept++] = rows[i];
+			}
+		}
+		return kept;
+	}
+
+	/*
+	 * Compacts storage once removed rows make up half of it, or a column
+	 * holds many dictionary codes no row uses any more.
+	 */
+	private void compactIfSparse() {
+		boolean sparse = removedCount >= INITIAL_CAPACITY && removedCount > rowCount / 2;
+		for (ColumnStore column : columns.values()) {
+			sparse |= column.isSparse();
+		}
+		if (sparse) {
+			compactStorage();
+		}
+	}
+
+	/*
+	 * Moves the live rows to the front of storage, keeping their order, so
+	 * that new items reuse the space of the removed ones. The item IDs are
+	 * kept in idOfRow, which stays sorted. The indexes are rebuilt and the
+	 * filters bound again, as rows and dictionary codes change.
+	 */
+	private void compactStorage() {
+		unlinkRemovedRows();
+		int[] ids = idOfRow != null ? idOfRow : new int[capacity];
+		int[] newRows = new int[rowCount];
+		int count = 0;
+		for (int row = 0; row < rowCount; row++) {
+			if (removedRows.get(row)) {
+				newRows[row] = -1;
+				continue;
+			}
+			ids[count] = itemIdOf(row);
+			if (row != count) {
+				for (ColumnStore column : columns.values()) {
+					column.move(row, count);
+				}
+			}
+			newRows[row] = count++;
+		}
+		for (ColumnStore column : columns.values()) {
+			column.trim(count);
+		}
+		idOfRow = ids;
+		rowCount = count;
+		removedRows.clear();
+		removedCount = 0;
+		for (int i = 0; i < orderedCount; i++) {
+			orderedRows[i] = newRows[orderedRows[i]];
+		}
+		if (visibleRows != orderedRows) {
+			for (int i = 0; i < visibleCount; i++) {
+				visibleRows[i] = newRows[visibleRows[i]];
+			}
+		}
+		rebuildVisibleIndex();
+		for (ColumnIndex index : indexes.values()) {
+			fillIndex(index);
+		}
+		predicate = bindFilters();
+	}
+
+	private boolean isFilteredBy(Object propertyId) {
+		for (Filter filter : filters) {
+			if (filter.appliesToProperty(propertyId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Items and properties
+	 */
+
+	private Object getValue(int row, Object propertyId) {
+		ColumnStore column = columns.get(propertyId);
+		return column == null ? null : column.getValue(row);
+	}
+
+	private void setValue(int itemId, Object propertyId, Object value) {
+		ColumnStore column = columns.get(propertyId);
+		int row = rowOf(itemId);
+		if (column == null || row < 0) {
+			return;
+		}
+		column.checkType(value);
+		ColumnIndex index = indexes.get(propertyId);
+		if (index != null) {
+			index.remove(row);
+		}
+		column.set(row, value);
+		if (index != null) {
+			index.add(row);
+		}
+		modified();
+		compactIfSparse();
+		firePropertyValueChange(new ColumnarProperty(itemId, propertyId));
+		/* Keep the filtered rows up to date */
+		if (predicate != null && isFilteredBy(propertyId)) {
+			refilter(true);
+		}
+	}
+
+	/**
+	 * Flyweight item reading and writing the storage row of an item.
+	 */
+	class ColumnarItem implements Item {
+		private final int itemId;
+
+		ColumnarItem(int itemId) {
+			this.itemId = itemId;
+		}
+
+		@Override
+		public Property getItemProperty(Object id) {
+			return columns.containsKey(id) ? new ColumnarProperty(itemId, id) : null;
+		}
+
+		@Override
+		public Collection<?> getItemPropertyIds() {
+			return getContainerPropertyIds();
+		}
+
+		@Override
+		public boolean addItemProperty(Object id, Property property) throws UnsupportedOperationException {
+			throw new UnsupportedOperationException("Use addContainerProperty instead");
+		}
+
+		@Override
+		public boolean removeItemProperty(Object id) throws UnsupportedOperationException {
+			throw new UnsupportedOperationException("Use removeContainerProperty instead");
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ColumnarItem && ((ColumnarItem) obj).itemId == itemId
+					&& ((ColumnarItem) obj).getContainer() == getContainer();
+		}
+
+		@Override
+		public int hashCode() {
+			return itemId;
+		}
+
+		private ColumnarContainer getContainer() {
+			return ColumnarContainer.this;
+		}
+
+		@Override
+		public String toString() {
+			int row = rowOf(itemId);
+			StringBuilder sb = new StringBuilder();
+			for (Object propertyId : columns.keySet()) {
+				if (sb.length() > 0) {
+					sb.append(' ');
+				}
+				sb.append(row < 0 ? null : getValue(row, propertyId));
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Flyweight property for a single cell. Instances for the same cell are
+	 * equal, so listeners can be removed through any instance.
+	 */
+	class ColumnarProperty implements Property, Property.ValueChangeNotifier {
+		private final int itemId;
+		private final Object propertyId;
+
+		ColumnarProperty(int itemId, Object propertyId) {
+			this.itemId = itemId;
+			this.propertyId = propertyId;
+		}
+
+		@Override
+		public Object getValue() {
+			int row = rowOf(itemId);
+			return row < 0 ? null : ColumnarContainer.this.getValue(row, propertyId);
+		}
+
+		@Override
+		public void setValue(Object newValue) throws ReadOnlyException {
+			ColumnarContainer.this.setValue(itemId, propertyId, newValue);
+		}
+
+		@Override
+		public Class getType() {
+			return ColumnarContainer.this.getType(propertyId);
+		}
+
+		@Override
+		public boolean isReadOnly() {
+			return false;
+		}
+
+		@Override
+		public void setReadOnly(boolean newStatus) {
+			/* Not supported */
+		}
+
+		@Override
+		public void addValueChangeListener(Property.ValueChangeListener listener) {
+			addSinglePropertyChangeListener(itemId, propertyId, listener);
+		}
+
+		@Override
+		public void addListener(Property.ValueChangeListener listener) {
+			addValueChangeListener(listener);
+		}
+
+		@Override
+		public void removeValueChangeListener(Property.ValueChangeListener listener) {
+			removeSinglePropertyChangeListener(itemId, propertyId, listener);
+		}
+
+		@Override
+		public void removeListener(Property.ValueChangeListener listener) {
+			removeValueChangeListener(listener);
+		}
+
+		private ColumnarContainer getContainer() {
+			return ColumnarContainer.this;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ColumnarProperty)) {
+				return false;
+			}
+			ColumnarProperty other = (ColumnarProperty) obj;
+			return other.itemId == itemId && other.propertyId.equals(propertyId)
+					&& other.getContainer() == getContainer();
+		}
+
+		@Override
+		public int hashCode() {
+			return itemId * 31 + propertyId.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			Object value = getValue();
+			return value == null ? null : value.toString();
+		}
+	}
+
+	/*
+	 * Events and listeners
+	 */
+
+	private static class BaseItemSetChangeEvent extends EventObject implements Container.ItemSetChangeEvent {
+		private BaseItemSetChangeEvent(ColumnarContainer source) {
+			super(source);
+		}
+
+		@Override
+		public Container getContainer() {
+			return (Container) getSource();
+		}
+	}
+
+	private static class BasePropertySetChangeEvent extends EventObject implements Container.PropertySetChangeEvent {
+		private BasePropertySetChangeEvent(ColumnarContainer source) {
+			super(source);
+		}
+
+		@Override
+		public Container getContainer() {
+			return (Container) getSource();
+		}
+	}
+
+	private static class PropertyValueChangeEvent extends EventObject implements Property.ValueChangeEvent {
+		private PropertyValueChangeEvent(Property source) {
+			super(source);
+		}
+
+		@Override
+		public Property getProperty() {
+			return (Property) getSource();
+		}
+	}
+
+	protected void fireItemSetChange() {
+		if (itemSetChangeListeners != null) {
+			BaseItemSetChangeEvent event = new BaseItemSetChangeEvent(this);
+			for (ItemSetChangeListener listener : new ArrayList<ItemSetChangeListener>(itemSetChangeListeners)) {
+				listener.containerItemSetChange(event);
+			}
+		}
+	}
+
+	protected void firePropertySetChange() {
+		if (propertySetChangeListeners != null) {
+			BasePropertySetChangeEvent event = new BasePropertySetChangeEvent(this);
+			for (PropertySetChangeListener listener : new ArrayList<PropertySetChangeListener>(
+					propertySetChangeListeners)) {
+				listener.containerPropertySetChange(event);
+			}
+		}
+	}
+
+	private void firePropertyValueChange(ColumnarProperty property) {
+		PropertyValueChangeEvent event = new PropertyValueChangeEvent(property);
+		if (valueChangeListeners != null) {
+			for (Property.ValueChangeListener listener : new ArrayList<Property.ValueChangeListener>(
+					valueChangeListeners)) {
+				listener.valueChange(event);
+			}
+		}
+		if (singlePropertyValueChangeListeners != null) {
+			Map<Integer, List<Property.ValueChangeListener>> byItem = singlePropertyValueChangeListeners
+					.get(property.propertyId);
+			List<Property.ValueChangeListener> listeners = byItem == null ? null : byItem.get(property.itemId);
+			if (listeners != null) {
+				for (Property.ValueChangeListener listener : new ArrayList<Property.ValueChangeListener>(listeners)) {
+					listener.valueChange(event);
+				}
+			}
+		}
+	}
+
+	private void addSinglePropertyChangeListener(int itemId, Object propertyId,
+			Property.ValueChangeListener listener) {
+		if (listener == null) {
+			return;
+		}
+		if (singlePropertyValueChangeListeners == null) {
+			singlePropertyValueChangeListeners = new HashMap<Object, Map<Integer, List<Property.ValueChangeListener>>>();
+		}
+		Map<Integer, List<Property.ValueChangeListener>> byItem = singlePropertyValueChangeListeners.get(propertyId);
+		if (byItem == null) {
+			byItem = new HashMap<Integer, List<Property.ValueChangeListener>>();
+			singlePropertyValueChangeListeners.put(propertyId, byItem);
+		}
+		List<Property.ValueChangeListener> listeners = byItem.get(itemId);
+		if (listeners == null) {
+			listeners = new LinkedList<Property.ValueChangeListener>();
+			byItem.put(itemId, listeners);
+		}
+		listeners.add(listener);
+	}
+
+	private void removeSinglePropertyChangeListener(int itemId, Object propertyId,
+			Property.ValueChangeListener listener) {
+		if (singlePropertyValueChangeListeners == null) {
+			return;
+		}
+		Map<Integer, List<Property.ValueChangeListener>> byItem = singlePropertyValueChangeListeners.get(propertyId);
+		List<Property.ValueChangeListener> listeners = byItem == null ? null : byItem.get(itemId);
+		if (listeners != null) {
+			listeners.remove(listener);
+			if (listeners.isEmpty()) {
+				byItem.remove(itemId);
+			}
+		}
+	}
+
+	@Override
+	public void addItemSetChangeListener(ItemSetChangeListener listener) {
+		if (itemSetChangeListeners == null) {
+			itemSetChangeListeners = new LinkedList<ItemSetChangeListener>();
+		}
+		itemSetChangeListeners.add(listener);
+	}
+
+	@Override
+	public void addListener(ItemSetChangeListener listener) {
+		addItemSetChangeListener(listener);
+	}
+
+	@Override
+	public void removeItemSetChangeListener(ItemSetChangeListener listener) {
+		if (itemSetChangeListeners != null) {
+			itemSetChangeListeners.remove(listener);
+		}
+	}
+
+	@Override
+	public void removeListener(ItemSetChangeListener listener) {
+		removeItemSetChangeListener(listener);
+	}
+
+	@Override
+	public void addPropertySetChangeListener(PropertySetChangeListener listener) {
+		if (propertySetChangeListeners == null) {
+			propertySetChangeListeners = new LinkedList<PropertySetChangeListener>();
+		}
+		propertySetChangeListeners.add(listener);
+	}
+
+	@Override
+	public void addListener(PropertySetChangeListener listener) {
+		addPropertySetChangeListener(listener);
+	}
+
+	@Override
+	public void removePropertySetChangeListener(PropertySetChangeListener listener) {
+		if (propertySetChangeListeners != null) {
+			propertySetChangeListeners.remove(listener);
+		}
+	}
+
+	@Override
+	public void removeListener(PropertySetChangeListener listener) {
+		removePropertySetChangeListener(listener);
+	}
+
+	/**
+	 * Adds a listener that is notified of value changes of any property in
+	 * this container.
+	 */
+	@Override
+	public void addValueChangeListener(Property.ValueChangeListener listener) {
+		if (valueChangeListeners == null) {
+			valueChangeListeners = new LinkedList<Property.ValueChangeListener>();
+		}
+		valueChangeListeners.add(listener);
+	}
+
+	@Override
+	public void addListener(Property.ValueChangeListener listener) {
+		addValueChangeListener(listener);
+	}
+
+	@Override
+	public void removeValueChangeListener(Property.ValueChangeListener listener) {
+		if (valueChangeListeners != null) {
+			valueChangeListeners.remove(listener);
+		}
+	}
+
+	@Override
+	public void removeListener(Property.ValueChangeListener listener) {
+		removeValueChangeListener(listener);
+	}
+}
@@ -0,0 +1,141 @@
+package org.tepi.filtertable.container;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.tepi.filtertable.engine.RowPredicate;
+
+/**
+ * Tests rows against a predicate on a ForkJoinPool. The rows are split into
+ * chunks that are filtered in parallel, and the matches of the chunks are
+ * then concatenated so that they keep their original order. An interruptible
+ * filtering stops all the chunks soon after the calling thread is
+ * interrupted.
+ *
+ * @author Teppo Kurki
+ *
+ */
+final class ParallelRowFilter {
+
+	/* Chunks are not made smaller than this */
+	private static final int MIN_CHUNK_SIZE = 8192;
+	/* Number of rows a chunk tests between checks for cancellation */
+	private static final int CANCELLATION_CHECK_INTERVAL = 4096;
+
+	private ParallelRowFilter() {
+	}
+
+	/**
+	 * Copies the first <code>count</code> rows passing the predicate, or all
+	 * of them if the predicate is null, to the result in their original order.
+	 *
+	 * @param interruptible
+	 *            true to stop when the calling thread is interrupted
+	 * @return the number of matching rows
+	 * @throws CancellationException
+	 *             if interruptible and the calling thread was interrupted
+	 */
+	static int filter(ForkJoinPool pool, int[] rows, int count, RowPredicate predicate, int[] result,
+			boolean interruptible) throws CancellationException {
+		int chunkSize = Math.max(MIN_CHUNK_SIZE, count / (pool.getParallelism() * 4) + 1);
+		int chunkCount = (count + chunkSize - 1) / chunkSize;
+		int[][] matches = new int[chunkCount][];
+		int[] matchCounts = new int[chunkCount];
+		AtomicBoolean cancelled = new AtomicBoolean();
+		ChunkTask task = new ChunkTask(rows, count, chunkSize, predicate, matches, matchCounts, cancelled, 0,
+				chunkCount);
+		if (interruptible) {
+			/* Unlike invoke(), waiting with get() can be interrupted */
+			try {
+				pool.submit(task).get();
+			} catch (InterruptedException e) {
+				cancelled.set(true);
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Filter evaluation was cancelled");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+						: new IllegalStateException(e.getCause());
+			}
+		} else {
+			pool.invoke(task);
+		}
+		int total = 0;
+		for (int i = 0; i < chunkCount; i++) {
+			System.arraycopy(matches[i], 0, result, total, matchCounts[i]);
+			total += matchCounts[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Filters the chunks [fromChunk, toChunk), splitting the range in halves
+	 * until a single chunk is left.
+	 */
+	private static final class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] rows;
+		private final int count;
+		private final int chunkSize;
+		private final RowPredicate predicate;
+		private final int[][] matches;
+		private final int[] matchCounts;
+		private final AtomicBoolean cancelled;
+		private final int fromChunk;
+		private final int toChunk;
+
+		ChunkTask(int[] rows, int count, int chunkSize, RowPredicate predicate, int[][] matches, int[] matchCounts,
+				AtomicBoolean cancelled, int fromChunk, int toChunk) {
+			this.rows = rows;
+			this.count = count;
+			this.chunkSize = chunkSize;
+			this.predicate = predicate;
+			this.matches = matches;
+			this.matchCounts = matchCounts;
+			this.cancelled = cancelled;
+			this.fromChunk = fromChunk;
+			this.toChunk = toChunk;
+		}
+
+		@Override
+		protected void compute() {
+			if (toChunk - fromChunk > 1) {
+				int middle = (fromChunk + toChunk) >>> 1;
+				invokeAll(
+						new ChunkTask(rows, count, chunkSize, predicate, matches, matchCounts, cancelled, fromChunk,
+								middle),
+						new ChunkTask(rows, count, chunkSize, predicate, matches, matchCounts, cancelled, middle,
+								toChunk));
+				return;
+			}
+			int from = fromChunk * chunkSize;
+			int to = Math.min(count, from + chunkSize);
+			int[] chunkMatches = new int[to - from];
+			int matchCount = 0;
+			for (int start = from; start < to; start += CANCELLATION_CHECK_INTERVAL) {
+				if (cancelled.get()) {
+					return;
+				}
+				int end = Math.min(to, start + CANCELLATION_CHECK_INTERVAL);
+				if (predicate == null) {
+					System.arraycopy(rows, start, chunkMatches, matchCount, end - start);
+					matchCount += end - start;
+					continue;
+				}
+				for (int i = start; i < end; i++) {
+					if (predicate.test(rows[i])) {
+						chunkMatches[matchCount++] = rows[i];
+					}
+				}
+			}
+			matches[fromChunk] = chunkMatches;
+			matchCounts[fromChunk] = matchCount;
+		}
+	}
+}
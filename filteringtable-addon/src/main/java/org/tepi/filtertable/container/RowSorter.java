@@ -0,0 +1,83 @@
+package org.tepi.filtertable.container;
+
+import org.tepi.filtertable.container.ColumnStore.RowComparator;
+
+/**
+ * Stable merge sort for arrays of row positions, so that rows can be sorted
+ * without boxing them.
+ *
+ * @author Teppo Kurki
+ *
+ */
+final class RowSorter {
+
+	/* Ranges shorter than this are sorted with insertion sort */
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+
+	private RowSorter() {
+	}
+
+	/**
+	 * Sorts the first <code>count</code> rows of the given array.
+	 */
+	static void sort(int[] rows, int count, RowComparator comparator) {
+		if (count < 2) {
+			return;
+		}
+		int[] buffer = new int[count];
+		System.arraycopy(rows, 0, buffer, 0, count);
+		mergeSort(buffer, rows, 0, count, comparator);
+	}
+
+	/*
+	 * Sorts src[from, to) into dest[from, to). Both arrays hold the same rows
+	 * in that range on entry.
+	 */
+	private static void mergeSort(int[] src, int[] dest, int from, int to, RowComparator comparator) {
+		int length = to - from;
+		if (length < INSERTION_SORT_THRESHOLD) {
+			for (int i = from + 1; i < to; i++) {
+				int row = dest[i];
+				int j = i - 1;
+				while (j >= from && comparator.compare(dest[j], row) > 0) {
+					dest[j + 1] = dest[j];
+					j--;
+				}
+				dest[j + 1] = row;
+			}
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(dest, src, from, middle, comparator);
+		mergeSort(dest, src, middle, to, comparator);
+		/* Already in order? */
+		if (comparator.compare(src[middle - 1], src[middle]) <= 0) {
+			System.arraycopy(src, from, dest, from, length);
+			return;
+		}
+		for (int i = from, p = from, q = middle; i < to; i++) {
+			if (q >= to || (p < middle && comparator.compare(src[p], src[q]) <= 0)) {
+				dest[i] = src[p++];
+			} else {
+				dest[i] = src[q++];
+			}
+		}
+	}
+
+	/**
+	 * Combines the given comparators, applying them in order until one of
+	 * them finds the rows different.
+	 */
+	static RowComparator chain(final RowComparator[] comparators, final boolean[] ascending) {
+		return (row1, row2) -> {
+			for (int i = 0; i < comparators.length; i++) {
+				int result = comparators[i].compare(row1, row2);
+				if (result != 0) {
+					return ascending[i] ? result : -result;
+				}
+			}
+			/* Keep the storage order for equal rows */
+			return Integer.compare(row1, row2);
+		};
+	}
+}
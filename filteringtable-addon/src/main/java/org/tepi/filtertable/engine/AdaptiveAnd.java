@@ -0,0 +1,66 @@
+package org.tepi.filtertable.engine;
+
+import com.vaadin.v7.data.Container.Filter;
+import com.vaadin.v7.data.Item;
+import com.vaadin.v7.data.util.filter.AbstractJunctionFilter;
+
+/**
+ * Conjunction of filters evaluated in an adaptive order. The parts are
+ * reordered at runtime by their measured cost and pass rate, so that cheap
+ * and selective parts, such as an enum equality, are tested before expensive
+ * ones, such as a substring search on a long text. The order is re-tuned
+ * continuously as the filtered data changes.
+ * <p>
+ * Passes exactly the same items as an And of the same parts, provided the
+ * parts have no side effects. When compiled with {@link FilterCompiler}, the
+ * compiled predicates share the ordering of this filter.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public class AdaptiveAnd extends AbstractJunctionFilter {
+
+	private final Filter[] parts;
+	private final PredicateOrdering ordering;
+
+	/**
+	 * @param filters
+	 *            Filters all of which must pass
+	 */
+	public AdaptiveAnd(Filter... filters) {
+		super(filters);
+		parts = filters.clone();
+		ordering = new PredicateOrdering(parts.length);
+	}
+
+	PredicateOrdering getOrdering() {
+		return ordering;
+	}
+
+	@Override
+	public boolean passesFilter(Object itemId, Item item) throws UnsupportedOperationException {
+		if (!ordering.startEvaluation()) {
+			for (int part : ordering.getOrder()) {
+				if (!parts[part].passesFilter(itemId, item)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for (int part : ordering.getOrder()) {
+			long start = System.nanoTime();
+			boolean passed = parts[part].passesFilter(itemId, item);
+			ordering.record(part, System.nanoTime() - start, passed);
+			if (!passed) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "AdaptiveAnd" + getFilters();
+	}
+}
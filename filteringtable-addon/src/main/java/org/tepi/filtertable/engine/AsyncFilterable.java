@@ -0,0 +1,48 @@
+package org.tepi.filtertable.engine;
+
+import java.util.List;
+
+import com.vaadin.v7.data.Container;
+
+/**
+ * Filterable container able to evaluate a set of filters without holding the
+ * session lock. The evaluation is prepared and applied while holding the
+ * lock, but run in between on any thread:
+ *
+ * <pre>
+ * FilterEvaluation evaluation = container.prepareFilterEvaluation(filters);
+ * executor.submit(() -&gt; {
+ * 	evaluation.evaluate();
+ * 	ui.access(() -&gt; container.applyFilterEvaluation(evaluation));
+ * });
+ * </pre>
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "deprecation" })
+public interface AsyncFilterable extends Container.Filterable {
+
+	/**
+	 * Prepares an evaluation of the given filters. Does not modify the
+	 * container.
+	 *
+	 * @param filters
+	 *            The complete set of filters the container should have
+	 * @return the prepared evaluation, or null if this container can not
+	 *         evaluate filters asynchronously
+	 */
+	public FilterEvaluation prepareFilterEvaluation(List<Filter> filters);
+
+	/**
+	 * Replaces the filters of this container with the evaluated ones and
+	 * takes the evaluated result into use.
+	 *
+	 * @param evaluation
+	 *            A completed evaluation prepared by this container
+	 * @return true if the result was applied; false if the container has been
+	 *         modified since the evaluation was prepared, in which case the
+	 *         container is left unchanged
+	 */
+	public boolean applyFilterEvaluation(FilterEvaluation evaluation);
+}
@@ -0,0 +1,40 @@
+package org.tepi.filtertable.engine;
+
+/**
+ * Column accessor for dictionary encoded values, such as strings, enums and
+ * booleans. Every distinct value of the column is assigned a code, which lets
+ * a compiled filter evaluate each distinct value only once.
+ * 
+ * @author Teppo Kurki
+ * 
+ */
+public interface CodedColumnAccessor extends ColumnAccessor {
+
+	/**
+	 * @param row
+	 *            Storage position of the row
+	 * @return code of the value at the given row, or -1 if the value is null
+	 */
+	public int getCode(int row);
+
+	/**
+	 * @return the number of codes currently in use. Codes range from zero to
+	 *         this value (exclusive).
+	 */
+	public int getCodeCount();
+
+	/**
+	 * @param code
+	 *            Code of a value
+	 * @return the value the given code stands for
+	 */
+	public Object getCodeValue(int code);
+
+	/**
+	 * @param value
+	 *            A non-null value
+	 * @return code of the given value, or -1 if the value does not occur in
+	 *         this column
+	 */
+	public int findCode(Object value);
+}
@@ -0,0 +1,29 @@
+package org.tepi.filtertable.engine;
+
+import java.io.Serializable;
+
+/**
+ * Read access to a single column of a {@link ColumnSource}. Implementations
+ * may additionally implement {@link LongColumnAccessor},
+ * {@link DoubleColumnAccessor} or {@link CodedColumnAccessor} to let compiled
+ * filters skip boxing the values.
+ * 
+ * @author Teppo Kurki
+ * 
+ */
+public interface ColumnAccessor extends Serializable {
+
+	/**
+	 * @return the (boxed) type of the values in this column
+	 */
+	public Class<?> getType();
+
+	/**
+	 * Returns the value of this column at the given row.
+	 * 
+	 * @param row
+	 *            Storage position of the row
+	 * @return the value, may be null
+	 */
+	public Object getValue(int row);
+}
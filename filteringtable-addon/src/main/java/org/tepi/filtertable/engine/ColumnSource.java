@@ -0,0 +1,52 @@
+package org.tepi.filtertable.engine;
+
+import com.vaadin.v7.data.Item;
+
+/**
+ * Interface for containers that can expose their data column by column. A
+ * {@link CompiledFilter} bound to a ColumnSource reads the column values
+ * directly instead of going through the Item and Property lookups.
+ * 
+ * @author Teppo Kurki
+ * 
+ */
+@SuppressWarnings({ "deprecation" })
+public interface ColumnSource {
+
+	/**
+	 * Returns the number of storage rows. Row positions passed to the column
+	 * accessors range from zero to this value (exclusive).
+	 * 
+	 * @return number of rows
+	 */
+	public int getRowCount();
+
+	/**
+	 * Returns the accessor for the column of the given property.
+	 * 
+	 * @param propertyId
+	 *            ID of the property
+	 * @return column accessor, or null if the property does not exist
+	 */
+	public ColumnAccessor getColumnAccessor(Object propertyId);
+
+	/**
+	 * Returns the item ID stored at the given row. Used when a filter can not
+	 * be compiled and must be evaluated through its passesFilter method.
+	 * 
+	 * @param row
+	 *            Storage position of the row
+	 * @return item ID
+	 */
+	public Object getItemId(int row);
+
+	/**
+	 * Returns the item stored at the given row. Used when a filter can not be
+	 * compiled and must be evaluated through its passesFilter method.
+	 * 
+	 * @param row
+	 *            Storage position of the row
+	 * @return the item
+	 */
+	public Item getItem(int row);
+}
@@ -0,0 +1,90 @@
+package org.tepi.filtertable.engine;
+
+import com.vaadin.v7.data.Container.Filter;
+import com.vaadin.v7.data.Item;
+
+/**
+ * A Filter produced by {@link FilterCompiler}. Wraps the original filter tree
+ * and evaluates it through a specialized predicate tree, where the filter
+ * constants have been resolved and type-checked once.
+ * <p>
+ * A CompiledFilter can be added to any Filterable container in place of the
+ * original filter. Containers implementing {@link ColumnSource} may instead
+ * {@link #bind(ColumnSource)} it to their columns to evaluate rows without any
+ * item or property lookups.
+ * <p>
+ * Two CompiledFilters are equal if their original filters are, so a filter
+ * compiled again from an equal filter removes the first one from a container
+ * that compares filters with equals. A CompiledFilter is never equal to the
+ * original filter itself, as equals would then not be symmetric: remove it
+ * from a container with a CompiledFilter, not with the original instance.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public final class CompiledFilter implements Filter {
+
+	private final Filter sourceFilter;
+	private final FilterCompiler.Node root;
+
+	CompiledFilter(Filter sourceFilter, FilterCompiler.Node root) {
+		this.sourceFilter = sourceFilter;
+		this.root = root;
+	}
+
+	/**
+	 * @return the filter this compiled filter was created from
+	 */
+	public Filter getSourceFilter() {
+		return sourceFilter;
+	}
+
+	FilterCompiler.Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * Binds this filter to the columns of the given source. The returned
+	 * predicate reflects the columns as they are at the time of binding; bind
+	 * again after the set of properties of the source has changed.
+	 *
+	 * @param source
+	 *            Column source to bind to
+	 * @return predicate testing rows of the given source
+	 */
+	public RowPredicate bind(ColumnSource source) {
+		return root.bind(source);
+	}
+
+	@Override
+	public boolean passesFilter(Object itemId, Item item) throws UnsupportedOperationException {
+		return root.test(itemId, item);
+	}
+
+	@Override
+	public boolean appliesToProperty(Object propertyId) {
+		return sourceFilter.appliesToProperty(propertyId);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (obj instanceof CompiledFilter) {
+			return sourceFilter.equals(((CompiledFilter) obj).sourceFilter);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return sourceFilter.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "Compiled(" + sourceFilter + ")";
+	}
+}
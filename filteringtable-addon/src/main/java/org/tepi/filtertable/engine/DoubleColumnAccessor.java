@@ -0,0 +1,34 @@
+package org.tepi.filtertable.engine;
+
+/**
+ * Column accessor for values that are stored as primitive doubles.
+ * 
+ * @author Teppo Kurki
+ * 
+ */
+public interface DoubleColumnAccessor extends ColumnAccessor {
+
+	/**
+	 * @param row
+	 *            Storage position of the row
+	 * @return true if the value at the given row is null
+	 */
+	public boolean isNull(int row);
+
+	/**
+	 * @param row
+	 *            Storage position of the row
+	 * @return the value at the given row, undefined if the value is null
+	 */
+	public double getDouble(int row);
+
+	/**
+	 * Encodes a value of this column's type into the primitive form.
+	 * 
+	 * @param value
+	 *            Non-null value of exactly the type returned by
+	 *            {@link #getType()}
+	 * @return encoded value
+	 */
+	public double encode(Object value);
+}
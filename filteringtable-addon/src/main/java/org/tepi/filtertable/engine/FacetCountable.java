@@ -0,0 +1,37 @@
+package org.tepi.filtertable.engine;
+
+import java.util.List;
+import java.util.Map;
+
+import com.vaadin.v7.data.Container;
+
+/**
+ * Filterable container able to count its items by the values of a set of
+ * properties, each under the filters of the other properties. A filter field
+ * for a property with few distinct values, such as an enum, uses the counts to
+ * tell how many items each of its options would leave, given the values of the
+ * other filter fields.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "deprecation" })
+public interface FacetCountable extends Container.Filterable {
+
+	/**
+	 * Counts the items by the values of the facet properties. For each facet
+	 * property, the items passing the given filters and the filters of all
+	 * the other facet properties are counted by their value of the property.
+	 * The current filters of the container are not used.
+	 *
+	 * @param filters
+	 *            Filters all counted items must pass
+	 * @param facetFilters
+	 *            The facet properties, each mapped to its own filter or to
+	 *            null if it has none
+	 * @return the counts of the non-null values by facet property, values
+	 *         with no items left out; or null if this container can not count
+	 *         facets, e.g. a wrapper of a container that can not
+	 */
+	public Map<Object, Map<Object, Integer>> countFacets(List<Filter> filters, Map<Object, Filter> facetFilters);
+}
@@ -0,0 +1,622 @@
+package org.tepi.filtertable.engine;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import com.vaadin.v7.data.Container.Filter;
+import com.vaadin.v7.data.Item;
+import com.vaadin.v7.data.Property;
+import com.vaadin.v7.data.util.filter.And;
+import com.vaadin.v7.data.util.filter.Between;
+import com.vaadin.v7.data.util.filter.Compare;
+import com.vaadin.v7.data.util.filter.IsNull;
+import com.vaadin.v7.data.util.filter.Not;
+import com.vaadin.v7.data.util.filter.Or;
+import com.vaadin.v7.data.util.filter.SimpleStringFilter;
+
+/**
+ * Compiles a tree of container filters into a {@link CompiledFilter}.
+ * <p>
+ * The filters created by FilterTable (Compare, Between, SimpleStringFilter and
+ * the junctions And, Or and Not, as well as IsNull) are translated into
+ * specialized predicates that follow the evaluation rules of the original
+ * filters. Any other filter is kept as is and evaluated through its own
+ * passesFilter method.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation", "rawtypes", "unchecked" })
+public final class FilterCompiler {
+
+	private FilterCompiler() {
+	}
+
+	/**
+	 * Compiles the given filter.
+	 *
+	 * @param filter
+	 *            Filter to compile. If this already is a CompiledFilter, it is
+	 *            returned as is.
+	 * @return the compiled filter, or null if the given filter was null
+	 */
+	public static CompiledFilter compile(Filter filter) {
+		if (filter == null) {
+			return null;
+		}
+		if (filter instanceof CompiledFilter) {
+			return (CompiledFilter) filter;
+		}
+		return new CompiledFilter(filter, compileNode(filter));
+	}
+
+	/**
+	 * Returns the original filter of the given (possibly compiled) filter.
+	 *
+	 * @param filter
+	 *            Filter to unwrap
+	 * @return the source filter of a CompiledFilter, otherwise the given filter
+	 */
+	public static Filter unwrap(Filter filter) {
+		return filter instanceof CompiledFilter ? ((CompiledFilter) filter).getSourceFilter() : filter;
+	}
+
+	/**
+	 * Returns the parts of a conjunction, i.e. an And or an
+	 * {@link AdaptiveAnd}.
+	 *
+	 * @param filter
+	 *            Filter to split
+	 * @return the parts of the given filter, or null if it is not a
+	 *         conjunction
+	 */
+	public static Collection<Filter> getConjuncts(Filter filter) {
+		if (filter instanceof And) {
+			return ((And) filter).getFilters();
+		} else if (filter instanceof AdaptiveAnd) {
+			return ((AdaptiveAnd) filter).getFilters();
+		}
+		return null;
+	}
+
+	static Node compileNode(Filter filter) {
+		if (filter instanceof CompiledFilter) {
+			return ((CompiledFilter) filter).getRoot();
+		} else if (filter instanceof AdaptiveAnd) {
+			AdaptiveAnd and = (AdaptiveAnd) filter;
+			return new AdaptiveAndNode(compileChildren(and.getFilters()), and.getOrdering());
+		} else if (filter instanceof And) {
+			return new AndNode(compileChildren(((And) filter).getFilters()));
+		} else if (filter instanceof Or) {
+			return new OrNode(compileChildren(((Or) filter).getFilters()));
+		} else if (filter instanceof Not) {
+			return new NotNode(compileNode(((Not) filter).getFilter()));
+		} else if (filter instanceof Compare) {
+			Compare compare = (Compare) filter;
+			return new CompareNode(compare.getPropertyId(), compare.getOperation(), compare.getValue());
+		} else if (filter instanceof Between) {
+			Between between = (Between) filter;
+			return new BetweenNode(between.getPropertyId(), between.getStartValue(), between.getEndValue());
+		} else if (filter instanceof SimpleStringFilter) {
+			SimpleStringFilter ssf = (SimpleStringFilter) filter;
+			return new StringNode(ssf.getPropertyId(), ssf.getFilterString(), ssf.isIgnoreCase(),
+					ssf.isOnlyMatchPrefix());
+		} else if (filter instanceof IsNull) {
+			return new IsNullNode(((IsNull) filter).getPropertyId());
+		}
+		return new OpaqueNode(filter);
+	}
+
+	private static Node[] compileChildren(Iterable<Filter> filters) {
+		List<Node> nodes = new ArrayList<Node>();
+		for (Filter f : filters) {
+			nodes.add(compileNode(f));
+		}
+		return nodes.toArray(new Node[nodes.size()]);
+	}
+
+	/**
+	 * Case-insensitive substring search against an already lower-cased
+	 * pattern, without creating a lower-cased copy of the value.
+	 */
+	static boolean containsLowerCase(String value, String lowerCasePattern, boolean prefixOnly) {
+		int patternLength = lowerCasePattern.length();
+		if (value.length() < patternLength) {
+			return false;
+		}
+		int last = prefixOnly ? 0 : value.length() - patternLength;
+		for (int start = 0; start <= last; start++) {
+			int i = 0;
+			while (i < patternLength
+					&& Character.toLowerCase(value.charAt(start + i)) == lowerCasePattern.charAt(i)) {
+				i++;
+			}
+			if (i == patternLength) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Predicate tree from here on
+	 */
+
+	/**
+	 * Base class of the compiled predicate tree.
+	 */
+	abstract static class Node implements Serializable {
+
+		/**
+		 * Evaluates this node against an item, as the original filter would.
+		 */
+		abstract boolean test(Object itemId, Item item);
+
+		/**
+		 * Binds this node to the columns of the given source.
+		 */
+		abstract RowPredicate bind(ColumnSource source);
+	}
+
+	/**
+	 * Base class for predicates on the value of a single property.
+	 */
+	abstract static class PropertyNode extends Node {
+		final Object propertyId;
+
+		PropertyNode(Object propertyId) {
+			this.propertyId = propertyId;
+		}
+
+		Object getPropertyId() {
+			return propertyId;
+		}
+
+		/**
+		 * Evaluates this predicate against a property value.
+		 */
+		abstract boolean testValue(Object value);
+
+		/**
+		 * Returns a predicate specialized for the primitive storage of the
+		 * given accessor, or null if this node can not be specialized for it.
+		 */
+		RowPredicate bindPrimitive(ColumnAccessor accessor) {
+			return null;
+		}
+
+		@Override
+		boolean test(Object itemId, Item item) {
+			Property<?> p = item.getItemProperty(propertyId);
+			if (p == null) {
+				return false;
+			}
+			return testValue(p.getValue());
+		}
+
+		@Override
+		RowPredicate bind(ColumnSource source) {
+			final ColumnAccessor accessor = source.getColumnAccessor(propertyId);
+			if (accessor == null) {
+				return row -> false;
+			}
+			if (accessor instanceof CodedColumnAccessor) {
+				return bindCoded((CodedColumnAccessor) accessor);
+			}
+			RowPredicate primitive = bindPrimitive(accessor);
+			if (primitive != null) {
+				return primitive;
+			}
+			return row -> testValue(accessor.getValue(row));
+		}
+
+		/*
+		 * Evaluate the predicate once per distinct value, when the value is
+		 * first met, so that binding stays cheap for columns with many
+		 * distinct values of which only a few rows get tested. Codes added
+		 * after binding are evaluated on the fly.
+		 */
+		private RowPredicate bindCoded(final CodedColumnAccessor accessor) {
+			/* 0 = not evaluated yet, 1 = passes, 2 = fails */
+			final byte[] table = new byte[accessor.getCodeCount()];
+			final boolean nullResult = testValue(null);
+			return row -> {
+				int code = accessor.getCode(row);
+				if (code < 0) {
+					return nullResult;
+				} else if (code < table.length) {
+					if (table[code] == 0) {
+						table[code] = testValue(accessor.getCodeValue(code)) ? (byte) 1 : (byte) 2;
+					}
+					return table[code] == 1;
+				}
+				return testValue(accessor.getCodeValue(code));
+			};
+		}
+
+		/**
+		 * @return true if the given constant can be compared directly in the
+		 *         primitive form of the given accessor
+		 */
+		static boolean isPrimitiveComparable(ColumnAccessor accessor, Object constant) {
+			if (constant == null || constant.getClass() != accessor.getType()) {
+				return false;
+			}
+			/* Subclasses of Date (e.g. Timestamp) carry more than the millis */
+			return !(constant instanceof Date) || constant.getClass() == Date.class;
+		}
+	}
+
+	static final class CompareNode extends PropertyNode {
+		final Compare.Operation operation;
+		final Object constant;
+
+		CompareNode(Object propertyId, Compare.Operation operation, Object constant) {
+			super(propertyId);
+			this.operation = operation;
+			this.constant = constant;
+		}
+
+		@Override
+		boolean testValue(Object value) {
+			switch (operation) {
+			case EQUAL:
+				return compareEquals(value);
+			case GREATER:
+				return compareValue(value) > 0;
+			case LESS:
+				return compareValue(value) < 0;
+			case GREATER_OR_EQUAL:
+				return compareValue(value) >= 0;
+			case LESS_OR_EQUAL:
+				return compareValue(value) <= 0;
+			}
+			return false;
+		}
+
+		/* Same rules as in Compare.compareEquals */
+		private boolean compareEquals(Object value) {
+			if (value == null || constant == null) {
+				return value == constant;
+			} else if (value == constant) {
+				return true;
+			} else if (value instanceof Comparable && value.getClass().isAssignableFrom(constant.getClass())) {
+				return ((Comparable) value).compareTo(constant) == 0;
+			}
+			return value.equals(constant);
+		}
+
+		/* Same rules as in Compare.compareValue */
+		private int compareValue(Object value) {
+			if (constant == null) {
+				return value == null ? 0 : -1;
+			} else if (value == null) {
+				return 1;
+			} else if (constant instanceof Comparable && value.getClass().isAssignableFrom(constant.getClass())) {
+				return -((Comparable) constant).compareTo(value);
+			}
+			throw new IllegalArgumentException("Could not compare the arguments: " + value + ", " + constant);
+		}
+
+		@Override
+		RowPredicate bindPrimitive(ColumnAccessor accessor) {
+			if (!isPrimitiveComparable(accessor, constant)) {
+				return null;
+			}
+			final boolean nullResult = testValue(null);
+			if (accessor instanceof LongColumnAccessor) {
+				final LongColumnAccessor column = (LongColumnAccessor) accessor;
+				final long c = column.encode(constant);
+				switch (operation) {
+				case EQUAL:
+					return row -> column.isNull(row) ? nullResult : column.getLong(row) == c;
+				case GREATER:
+					return row -> column.isNull(row) ? nullResult : column.getLong(row) > c;
+				case LESS:
+					return row -> column.isNull(row) ? nullResult : column.getLong(row) < c;
+				case GREATER_OR_EQUAL:
+					return row -> column.isNull(row) ? nullResult : column.getLong(row) >= c;
+				case LESS_OR_EQUAL:
+					return row -> column.isNull(row) ? nullResult : column.getLong(row) <= c;
+				}
+			} else if (accessor instanceof DoubleColumnAccessor) {
+				final DoubleColumnAccessor column = (DoubleColumnAccessor) accessor;
+				final double c = column.encode(constant);
+				/* Double.compare matches the ordering of Double.compareTo */
+				switch (operation) {
+				case EQUAL:
+					return row -> column.isNull(row) ? nullResult : Double.compare(column.getDouble(row), c) == 0;
+				case GREATER:
+					return row -> column.isNull(row) ? nullResult : Double.compare(column.getDouble(row), c) > 0;
+				case LESS:
+					return row -> column.isNull(row) ? nullResult : Double.compare(column.getDouble(row), c) < 0;
+				case GREATER_OR_EQUAL:
+					return row -> column.isNull(row) ? nullResult : Double.compare(column.getDouble(row), c) >= 0;
+				case LESS_OR_EQUAL:
+					return row -> column.isNull(row) ? nullResult : Double.compare(column.getDouble(row), c) <= 0;
+				}
+			}
+			return null;
+		}
+	}
+
+	static final class BetweenNode extends PropertyNode {
+		final Comparable start;
+		final Comparable end;
+
+		BetweenNode(Object propertyId, Comparable<?> start, Comparable<?> end) {
+			super(propertyId);
+			this.start = start;
+			this.end = end;
+		}
+
+		/* Same rules as in Between.passesFilter */
+		@Override
+		boolean testValue(Object value) {
+			if (value instanceof Comparable) {
+				return (start == null || start.compareTo(value) <= 0) && (end == null || end.compareTo(value) >= 0);
+			} else if (value == null) {
+				return start == null && end == null;
+			}
+			return false;
+		}
+
+		@Override
+		RowPredicate bindPrimitive(ColumnAccessor accessor) {
+			if ((start != null && !isPrimitiveComparable(accessor, start))
+					|| (end != null && !isPrimitiveComparable(accessor, end)) || (start == null && end == null)) {
+				return null;
+			}
+			if (accessor instanceof LongColumnAccessor) {
+				final LongColumnAccessor column = (LongColumnAccessor) accessor;
+				final long from = start == null ? Long.MIN_VALUE : column.encode(start);
+				final long to = end == null ? Long.MAX_VALUE : column.encode(end);
+				return row -> {
+					if (column.isNull(row)) {
+						return false;
+					}
+					long value = column.getLong(row);
+					return value >= from && value <= to;
+				};
+			} else if (accessor instanceof DoubleColumnAccessor) {
+				final DoubleColumnAccessor column = (DoubleColumnAccessor) accessor;
+				final boolean hasStart = start != null, hasEnd = end != null;
+				final double from = hasStart ? column.encode(start) : 0;
+				final double to = hasEnd ? column.encode(end) : 0;
+				return row -> {
+					if (column.isNull(row)) {
+						return false;
+					}
+					double value = column.getDouble(row);
+					return (!hasStart || Double.compare(value, from) >= 0)
+							&& (!hasEnd || Double.compare(value, to) <= 0);
+				};
+			}
+			return null;
+		}
+	}
+
+	static final class StringNode extends PropertyNode {
+		final String filterString;
+		final boolean ignoreCase;
+		final boolean onlyMatchPrefix;
+
+		StringNode(Object propertyId, String filterString, boolean ignoreCase, boolean onlyMatchPrefix) {
+			super(propertyId);
+			this.filterString = filterString;
+			this.ignoreCase = ignoreCase;
+			this.onlyMatchPrefix = onlyMatchPrefix;
+		}
+
+		/* Same rules as in SimpleStringFilter.passesFilter */
+		@Override
+		boolean testValue(Object value) {
+			if (value == null) {
+				return false;
+			}
+			String string = value.toString();
+			if (ignoreCase) {
+				return containsLowerCase(string, filterString, onlyMatchPrefix);
+			}
+			return onlyMatchPrefix ? string.startsWith(filterString) : string.contains(filterString);
+		}
+	}
+
+	static final class IsNullNode extends PropertyNode {
+
+		IsNullNode(Object propertyId) {
+			super(propertyId);
+		}
+
+		@Override
+		boolean testValue(Object value) {
+			return value == null;
+		}
+
+		@Override
+		RowPredicate bindPrimitive(ColumnAccessor accessor) {
+			if (accessor instanceof LongColumnAccessor) {
+				final LongColumnAccessor column = (LongColumnAccessor) accessor;
+				return row -> column.isNull(row);
+			} else if (accessor instanceof DoubleColumnAccessor) {
+				final DoubleColumnAccessor column = (DoubleColumnAccessor) accessor;
+				return row -> column.isNull(row);
+			}
+			return null;
+		}
+	}
+
+	static final class AndNode extends Node {
+		final Node[] children;
+
+		AndNode(Node[] children) {
+			this.children = children;
+		}
+
+		@Override
+		boolean test(Object itemId, Item item) {
+			for (Node child : children) {
+				if (!child.test(itemId, item)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		RowPredicate bind(ColumnSource source) {
+			final RowPredicate[] bound = bindAll(children, source);
+			if (bound.length == 1) {
+				return bound[0];
+			} else if (bound.length == 2) {
+				final RowPredicate first = bound[0], second = bound[1];
+				return row -> first.test(row) && second.test(row);
+			}
+			return row -> {
+				for (RowPredicate p : bound) {
+					if (!p.test(row)) {
+						return false;
+					}
+				}
+				return true;
+			};
+		}
+	}
+
+	static final class AdaptiveAndNode extends Node {
+		final Node[] children;
+		final PredicateOrdering ordering;
+
+		AdaptiveAndNode(Node[] children, PredicateOrdering ordering) {
+			this.children = children;
+			this.ordering = ordering;
+		}
+
+		@Override
+		boolean test(Object itemId, Item item) {
+			if (!ordering.startEvaluation()) {
+				for (int child : ordering.getOrder()) {
+					if (!children[child].test(itemId, item)) {
+						return false;
+					}
+				}
+				return true;
+			}
+			for (int child : ordering.getOrder()) {
+				long start = System.nanoTime();
+				boolean passed = children[child].test(itemId, item);
+				ordering.record(child, System.nanoTime() - start, passed);
+				if (!passed) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		RowPredicate bind(ColumnSource source) {
+			final RowPredicate[] bound = bindAll(children, source);
+			return row -> {
+				if (!ordering.startEvaluation()) {
+					for (int child : ordering.getOrder()) {
+						if (!bound[child].test(row)) {
+							return false;
+						}
+					}
+					return true;
+				}
+				for (int child : ordering.getOrder()) {
+					long start = System.nanoTime();
+					boolean passed = bound[child].test(row);
+					ordering.record(child, System.nanoTime() - start, passed);
+					if (!passed) {
+						return false;
+					}
+				}
+				return true;
+			};
+		}
+	}
+
+	static final class OrNode extends Node {
+		final Node[] children;
+
+		OrNode(Node[] children) {
+			this.children = children;
+		}
+
+		@Override
+		boolean test(Object itemId, Item item) {
+			for (Node child : children) {
+				if (child.test(itemId, item)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		RowPredicate bind(ColumnSource source) {
+			final RowPredicate[] bound = bindAll(children, source);
+			return row -> {
+				for (RowPredicate p : bound) {
+					if (p.test(row)) {
+						return true;
+					}
+				}
+				return false;
+			};
+		}
+	}
+
+	static final class NotNode extends Node {
+		final Node child;
+
+		NotNode(Node child) {
+			this.child = child;
+		}
+
+		@Override
+		boolean test(Object itemId, Item item) {
+			return !child.test(itemId, item);
+		}
+
+		@Override
+		RowPredicate bind(ColumnSource source) {
+			final RowPredicate bound = child.bind(source);
+			return row -> !bound.test(row);
+		}
+	}
+
+	/**
+	 * Wraps a filter that has no compiled counterpart.
+	 */
+	static final class OpaqueNode extends Node {
+		final Filter filter;
+
+		OpaqueNode(Filter filter) {
+			this.filter = filter;
+		}
+
+		@Override
+		boolean test(Object itemId, Item item) {
+			return filter.passesFilter(itemId, item);
+		}
+
+		@Override
+		RowPredicate bind(final ColumnSource source) {
+			return row -> filter.passesFilter(source.getItemId(row), source.getItem(row));
+		}
+	}
+
+	private static RowPredicate[] bindAll(Node[] nodes, ColumnSource source) {
+		RowPredicate[] bound = new RowPredicate[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			bound[i] = nodes[i].bind(source);
+		}
+		return bound;
+	}
+}
@@ -0,0 +1,71 @@
+package org.tepi.filtertable.engine;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import com.vaadin.v7.data.Container.Filter;
+
+/**
+ * Evaluation of a set of filters prepared by an {@link AsyncFilterable}
+ * container. The evaluation is run outside the session lock, after which the
+ * result is applied to the container with
+ * {@link AsyncFilterable#applyFilterEvaluation(FilterEvaluation)}.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "deprecation" })
+public abstract class FilterEvaluation {
+
+	private final List<Filter> filters;
+	private volatile boolean done;
+
+	protected FilterEvaluation(List<Filter> filters) {
+		this.filters = Collections.unmodifiableList(filters);
+	}
+
+	/**
+	 * @return the filters being evaluated
+	 */
+	public List<Filter> getFilters() {
+		return filters;
+	}
+
+	/**
+	 * Evaluates the filters. May be called from any thread, but only once.
+	 *
+	 * @throws CancellationException
+	 *             if the evaluating thread was interrupted
+	 */
+	public void evaluate() throws CancellationException {
+		doEvaluate();
+		done = true;
+	}
+
+	/**
+	 * @return true if {@link #evaluate()} has completed
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Does the actual evaluation. Implementations should check the interrupted
+	 * status of the current thread every now and then.
+	 *
+	 * @throws CancellationException
+	 *             if the evaluating thread was interrupted
+	 */
+	protected abstract void doEvaluate() throws CancellationException;
+
+	/**
+	 * Throws a CancellationException if the current thread has been
+	 * interrupted.
+	 */
+	protected static void checkCancelled() throws CancellationException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Filter evaluation was cancelled");
+		}
+	}
+}
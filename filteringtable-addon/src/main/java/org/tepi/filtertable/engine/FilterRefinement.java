@@ -0,0 +1,177 @@
+package org.tepi.filtertable.engine;
+
+import java.util.Collection;
+
+import com.vaadin.v7.data.Container.Filter;
+import com.vaadin.v7.data.util.filter.Between;
+import com.vaadin.v7.data.util.filter.Compare;
+import com.vaadin.v7.data.util.filter.SimpleStringFilter;
+
+/**
+ * Detects when a filter is a refinement of another, i.e. every item passing
+ * the new filter is known to pass the previous one. Containers can then
+ * re-evaluate only the items currently passing instead of all items.
+ * <p>
+ * Recognized refinements are longer substrings or prefixes of a
+ * SimpleStringFilter, tighter ranges built from Compare and Between filters on
+ * the same property (the filters produced for NumberInterval and
+ * DateInterval), and conjunctions of those.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "deprecation", "rawtypes", "unchecked" })
+public final class FilterRefinement {
+
+	private FilterRefinement() {
+	}
+
+	/**
+	 * Tests whether the next filter narrows the previous one. A false result
+	 * only means that narrowing could not be proven.
+	 *
+	 * @param previous
+	 *            Previously applied filter
+	 * @param next
+	 *            Filter replacing the previous one
+	 * @return true if every item passing <code>next</code> also passes
+	 *         <code>previous</code>
+	 */
+	public static boolean isNarrowing(Filter previous, Filter next) {
+		previous = FilterCompiler.unwrap(previous);
+		next = FilterCompiler.unwrap(next);
+		if (previous == null || next == null) {
+			return false;
+		}
+		if (previous.equals(next)) {
+			return true;
+		}
+		Collection<Filter> previousParts = FilterCompiler.getConjuncts(previous);
+		if (previousParts != null) {
+			/* Each of the previous conditions must still hold */
+			for (Filter child : previousParts) {
+				if (!isNarrowing(child, next)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		Collection<Filter> nextParts = FilterCompiler.getConjuncts(next);
+		if (nextParts != null) {
+			/* One of the new conditions is enough */
+			for (Filter child : nextParts) {
+				if (isNarrowing(previous, child)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (previous instanceof SimpleStringFilter && next instanceof SimpleStringFilter) {
+			return isNarrowingString((SimpleStringFilter) previous, (SimpleStringFilter) next);
+		}
+		Range previousRange = Range.of(previous);
+		Range nextRange = Range.of(next);
+		return previousRange != null && nextRange != null && previousRange.contains(nextRange);
+	}
+
+	private static boolean isNarrowingString(SimpleStringFilter previous, SimpleStringFilter next) {
+		if (!previous.getPropertyId().equals(next.getPropertyId())
+				|| previous.isIgnoreCase() != next.isIgnoreCase()) {
+			return false;
+		}
+		String previousString = previous.getFilterString();
+		String nextString = next.getFilterString();
+		if (previous.isOnlyMatchPrefix()) {
+			return next.isOnlyMatchPrefix() && nextString.startsWith(previousString);
+		}
+		/* A prefix or substring containing the previous substring */
+		return nextString.contains(previousString);
+	}
+
+	/**
+	 * A range of values on a single property, following the rules of the
+	 * Compare and Between filters.
+	 */
+	private static final class Range {
+		private final Object propertyId;
+		private final Comparable lower;
+		private final boolean lowerInclusive;
+		private final Comparable upper;
+		private final boolean upperInclusive;
+		/* Compare.Greater and GreaterOrEqual let null values pass */
+		private final boolean passesNull;
+
+		private Range(Object propertyId, Comparable lower, boolean lowerInclusive, Comparable upper,
+				boolean upperInclusive, boolean passesNull) {
+			this.propertyId = propertyId;
+			this.lower = lower;
+			this.lowerInclusive = lowerInclusive;
+			this.upper = upper;
+			this.upperInclusive = upperInclusive;
+			this.passesNull = passesNull;
+		}
+
+		static Range of(Filter filter) {
+			if (filter instanceof Compare) {
+				Compare compare = (Compare) filter;
+				if (!(compare.getValue() instanceof Comparable)) {
+					return null;
+				}
+				Comparable value = (Comparable) compare.getValue();
+				Object propertyId = compare.getPropertyId();
+				switch (compare.getOperation()) {
+				case EQUAL:
+					return new Range(propertyId, value, true, value, true, false);
+				case GREATER:
+					return new Range(propertyId, value, false, null, false, true);
+				case GREATER_OR_EQUAL:
+					return new Range(propertyId, value, true, null, false, true);
+				case LESS:
+					return new Range(propertyId, null, false, value, false, false);
+				case LESS_OR_EQUAL:
+					return new Range(propertyId, null, false, value, true, false);
+				}
+			} else if (filter instanceof Between) {
+				Between between = (Between) filter;
+				if (between.getStartValue() == null || between.getEndValue() == null) {
+					return null;
+				}
+				return new Range(between.getPropertyId(), between.getStartValue(), true, between.getEndValue(), true,
+						false);
+			}
+			return null;
+		}
+
+		/**
+		 * @return true if every value in the other range is also in this one
+		 */
+		boolean contains(Range other) {
+			if (!propertyId.equals(other.propertyId) || (other.passesNull && !passesNull)) {
+				return false;
+			}
+			if (lower != null) {
+				if (other.lower == null || !sameType(lower, other.lower)) {
+					return false;
+				}
+				int c = other.lower.compareTo(lower);
+				if (c < 0 || (c == 0 && other.lowerInclusive && !lowerInclusive)) {
+					return false;
+				}
+			}
+			if (upper != null) {
+				if (other.upper == null || !sameType(upper, other.upper)) {
+					return false;
+				}
+				int c = other.upper.compareTo(upper);
+				if (c > 0 || (c == 0 && other.upperInclusive && !upperInclusive)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean sameType(Object a, Object b) {
+			return a.getClass() == b.getClass();
+		}
+	}
+}
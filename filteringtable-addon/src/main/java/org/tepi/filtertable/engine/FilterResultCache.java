@@ -0,0 +1,156 @@
+package org.tepi.filtertable.engine;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.vaadin.v7.data.Container.Filter;
+
+/**
+ * Bounded cache of filtering results, keyed by the set of active filters.
+ * The least recently used result is evicted when the cache is full.
+ * <p>
+ * The key is normalized: compiled filters are unwrapped and And filters are
+ * flattened into their parts, so the same conditions map to the same result
+ * regardless of the order or the form in which they were added.
+ * <p>
+ * The owner of the cache must {@link #invalidate()} it whenever the items or
+ * their values change.
+ *
+ * @param <V>
+ *            Type of the cached results
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "deprecation" })
+public class FilterResultCache<V> implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final LruMap<V> results;
+	private long hitCount;
+	private long missCount;
+
+	/**
+	 * @param maxSize
+	 *            Maximum number of results to keep
+	 */
+	public FilterResultCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+		results = new LruMap<V>(maxSize);
+	}
+
+	/**
+	 * Looks up the result for the given filters and updates the hit and miss
+	 * counts.
+	 *
+	 * @param filters
+	 *            Active filters
+	 * @return the cached result, or null if there is none
+	 */
+	public V get(Collection<Filter> filters) {
+		V result = results.get(keyOf(filters));
+		if (result != null) {
+			hitCount++;
+		} else {
+			missCount++;
+		}
+		return result;
+	}
+
+	/**
+	 * Caches the result for the given filters.
+	 *
+	 * @param filters
+	 *            Active filters
+	 * @param result
+	 *            Result of filtering with them
+	 */
+	public void put(Collection<Filter> filters, V result) {
+		results.put(keyOf(filters), result);
+	}
+
+	/**
+	 * Drops all cached results.
+	 */
+	public void invalidate() {
+		results.clear();
+	}
+
+	/**
+	 * @return the number of results currently cached
+	 */
+	public int size() {
+		return results.size();
+	}
+
+	/**
+	 * @return the maximum number of results kept
+	 */
+	public int getMaxSize() {
+		return results.maxSize;
+	}
+
+	/**
+	 * @return the number of lookups that found a cached result
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of lookups that found no cached result
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Resets the hit and miss counts to zero.
+	 */
+	public void resetCounts() {
+		hitCount = 0;
+		missCount = 0;
+	}
+
+	private static Set<Filter> keyOf(Collection<Filter> filters) {
+		Set<Filter> key = new HashSet<Filter>();
+		for (Filter filter : filters) {
+			addNormalized(key, filter);
+		}
+		return key;
+	}
+
+	private static void addNormalized(Set<Filter> key, Filter filter) {
+		filter = FilterCompiler.unwrap(filter);
+		Collection<Filter> parts = FilterCompiler.getConjuncts(filter);
+		if (parts != null) {
+			for (Filter part : parts) {
+				addNormalized(key, part);
+			}
+		} else if (filter != null) {
+			key.add(filter);
+		}
+	}
+
+	private static class LruMap<V> extends LinkedHashMap<Set<Filter>, V> {
+		private static final long serialVersionUID = 1L;
+
+		private final int maxSize;
+
+		LruMap(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Set<Filter>, V> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package org.tepi.filtertable.engine;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fetch of a range of items prepared by a {@link PrefetchingIndexed}
+ * container. The fetch is run outside the session lock, after which the
+ * fetched items are handed to the container with
+ * {@link PrefetchingIndexed#applyItemPrefetch(ItemPrefetch)}.
+ *
+ * @author Teppo Kurki
+ *
+ */
+public abstract class ItemPrefetch {
+
+	private final Object afterItemId;
+	private final int skip;
+	private final int count;
+	private volatile List<?> itemIds;
+
+	protected ItemPrefetch(Object afterItemId, int skip, int count) {
+		this.afterItemId = afterItemId;
+		this.skip = skip;
+		this.count = count;
+	}
+
+	/**
+	 * @return the ID of the item the range follows, or null if the range is
+	 *         counted from the first item
+	 */
+	public Object getAfterItemId() {
+		return afterItemId;
+	}
+
+	/**
+	 * @return the number of items skipped before the range
+	 */
+	public int getSkip() {
+		return skip;
+	}
+
+	/**
+	 * @return the maximum number of items in the range
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Fetches the items. May be called from any thread, but only once.
+	 */
+	public void fetch() {
+		itemIds = Collections.unmodifiableList(doFetch());
+	}
+
+	/**
+	 * @return true if {@link #fetch()} has completed
+	 */
+	public boolean isDone() {
+		return itemIds != null;
+	}
+
+	/**
+	 * @return the IDs of the fetched items in order, or null if the fetch has
+	 *         not completed
+	 */
+	public List<?> getItemIds() {
+		return itemIds;
+	}
+
+	/**
+	 * Does the actual fetch.
+	 *
+	 * @return the IDs of the fetched items in order
+	 */
+	protected abstract List<?> doFetch();
+}
@@ -0,0 +1,50 @@
+package org.tepi.filtertable.engine;
+
+import java.util.List;
+
+import com.vaadin.v7.data.Container;
+
+/**
+ * Indexed container that can find the items next to a known item without
+ * counting the items before it. For a database this is keyset (seek)
+ * pagination: the rows after a row are found through the values of its sort
+ * columns, in time independent of its index, whereas an index means skipping
+ * all the rows before it.
+ * <p>
+ * {@link org.tepi.filtertable.paged.PagedFilterTableContainer} uses this
+ * interface in keyset paging mode to move between pages.
+ *
+ * @author Teppo Kurki
+ *
+ */
+public interface KeysetIndexed extends Container.Indexed {
+
+	/**
+	 * Returns the IDs of the items following the given item in the current
+	 * order.
+	 *
+	 * @param itemId
+	 *            ID of the item to start after
+	 * @param skip
+	 *            Number of following items to skip first
+	 * @param count
+	 *            Maximum number of item IDs to return
+	 * @return the item IDs in the current order, or null if the given item is
+	 *         not in the container
+	 */
+	public List<?> getItemIdsAfter(Object itemId, int skip, int count);
+
+	/**
+	 * Returns the IDs of the items preceding the given item in the current
+	 * order.
+	 *
+	 * @param itemId
+	 *            ID of the item to end before
+	 * @param count
+	 *            Maximum number of item IDs to return
+	 * @return the item IDs in the current order, the last one immediately
+	 *         preceding the given item, or null if the given item is not in
+	 *         the container
+	 */
+	public List<?> getItemIdsBefore(Object itemId, int count);
+}
@@ -0,0 +1,73 @@
+package org.tepi.filtertable.engine;
+
+import java.util.List;
+
+import com.vaadin.v7.data.Container;
+
+/**
+ * Filterable container for which counting the items passing the filters is
+ * expensive, e.g. a COUNT(*) query on a database. The container tells what it
+ * knows about its size without counting, and counts on request for a given
+ * set of filters on any thread:
+ *
+ * <pre>
+ * List&lt;Filter&gt; filters = new ArrayList&lt;Filter&gt;(container.getContainerFilters());
+ * executor.submit(() -&gt; {
+ * 	int count = container.countItems(filters);
+ * 	ui.access(() -&gt; container.setKnownSize(filters, count));
+ * });
+ * </pre>
+ *
+ * {@link org.tepi.filtertable.paged.PagedFilterTable} uses this interface to
+ * page through the container without counting its items on every page change.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "deprecation" })
+public interface LazyCountFilterable extends Container.Filterable {
+
+	/**
+	 * @return the number of items passing the current filters if it is known
+	 *         without counting them, otherwise -1
+	 */
+	public int getKnownSize();
+
+	/**
+	 * @return a quick estimate of the number of items passing the current
+	 *         filters, or -1 if no estimate is available
+	 */
+	public int estimateSize();
+
+	/**
+	 * Tests whether an item exists at the given index without counting all
+	 * the items.
+	 *
+	 * @param index
+	 *            Index to test
+	 * @return true if the index is less than the size of the container
+	 */
+	public boolean containsIndex(int index);
+
+	/**
+	 * Counts the items passing the given filters. Does not modify the
+	 * container and may be called from any thread.
+	 *
+	 * @param filters
+	 *            The complete set of filters to count the items for
+	 * @return the number of items passing the filters
+	 */
+	public int countItems(List<Filter> filters);
+
+	/**
+	 * Takes a count made with {@link #countItems(List)} into use.
+	 *
+	 * @param filters
+	 *            The filters the items were counted for
+	 * @param size
+	 *            Number of items passing the filters
+	 * @return true if the count was taken into use; false if the filters of
+	 *         the container have changed since
+	 */
+	public boolean setKnownSize(List<Filter> filters, int size);
+}
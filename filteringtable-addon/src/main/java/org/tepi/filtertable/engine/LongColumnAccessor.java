@@ -0,0 +1,37 @@
+package org.tepi.filtertable.engine;
+
+/**
+ * Column accessor for values that are stored as primitive longs, e.g. integral
+ * numbers and dates.
+ * 
+ * @author Teppo Kurki
+ * 
+ */
+public interface LongColumnAccessor extends ColumnAccessor {
+
+	/**
+	 * @param row
+	 *            Storage position of the row
+	 * @return true if the value at the given row is null
+	 */
+	public boolean isNull(int row);
+
+	/**
+	 * @param row
+	 *            Storage position of the row
+	 * @return the encoded value at the given row, undefined if the value is
+	 *         null
+	 */
+	public long getLong(int row);
+
+	/**
+	 * Encodes a value of this column's type into the primitive form. The
+	 * encoding must preserve the natural ordering of the values.
+	 * 
+	 * @param value
+	 *            Non-null value of exactly the type returned by
+	 *            {@link #getType()}
+	 * @return encoded value
+	 */
+	public long encode(Object value);
+}
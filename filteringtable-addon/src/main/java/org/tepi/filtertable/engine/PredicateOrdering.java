@@ -0,0 +1,105 @@
+package org.tepi.filtertable.engine;
+
+import java.io.Serializable;
+
+/**
+ * Evaluation order of the parts of an {@link AdaptiveAnd}, tuned from the
+ * cost and pass rate measured for each part.
+ * <p>
+ * Every {@link #SAMPLE_INTERVAL}th evaluation is timed. After every
+ * {@link #REORDER_INTERVAL} evaluations the parts are sorted by their cost
+ * divided by their rejection rate, which is the order minimizing the expected
+ * cost of a conjunction of independent predicates. The statistics are then
+ * halved, so that the order follows changes in the data.
+ * <p>
+ * The statistics are updated without synchronization. Concurrent evaluations
+ * may lose samples, which only affects the order and never the result.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings("serial")
+final class PredicateOrdering implements Serializable {
+
+	/* Must be powers of two */
+	static final int SAMPLE_INTERVAL = 32;
+	static final int REORDER_INTERVAL = 4096;
+
+	private volatile int[] order;
+	private final double[] calls;
+	private final double[] passes;
+	private final double[] nanos;
+	private int evaluations;
+
+	PredicateOrdering(int size) {
+		order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		calls = new double[size];
+		passes = new double[size];
+		nanos = new double[size];
+	}
+
+	/**
+	 * @return the indexes of the parts in the order they should be evaluated
+	 */
+	int[] getOrder() {
+		return order;
+	}
+
+	/**
+	 * Counts an evaluation, reordering the parts when due.
+	 *
+	 * @return true if the parts should be timed in this evaluation
+	 */
+	boolean startEvaluation() {
+		int count = ++evaluations;
+		if (count >= REORDER_INTERVAL) {
+			evaluations = 0;
+			reorder();
+		}
+		return (count & (SAMPLE_INTERVAL - 1)) == 0;
+	}
+
+	/**
+	 * Records a timed evaluation of a part.
+	 */
+	void record(int part, long elapsedNanos, boolean passed) {
+		calls[part]++;
+		nanos[part] += elapsedNanos;
+		if (passed) {
+			passes[part]++;
+		}
+	}
+
+	private void reorder() {
+		int size = calls.length;
+		double[] ranks = new double[size];
+		for (int i = 0; i < size; i++) {
+			if (calls[i] == 0) {
+				/* Never reached: try it early so that it gets measured */
+				ranks[i] = 0;
+			} else {
+				double cost = nanos[i] / calls[i];
+				double rejectionRate = (calls[i] - passes[i] + 1) / (calls[i] + 2);
+				ranks[i] = cost / rejectionRate;
+			}
+			calls[i] /= 2;
+			passes[i] /= 2;
+			nanos[i] /= 2;
+		}
+		int[] newOrder = order.clone();
+		/* Insertion sort, stable and fast for the few parts of a filter row */
+		for (int i = 1; i < size; i++) {
+			int part = newOrder[i];
+			int j = i - 1;
+			while (j >= 0 && ranks[newOrder[j]] > ranks[part]) {
+				newOrder[j + 1] = newOrder[j];
+				j--;
+			}
+			newOrder[j + 1] = part;
+		}
+		order = newOrder;
+	}
+}
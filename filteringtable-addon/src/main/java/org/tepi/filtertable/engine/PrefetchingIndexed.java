@@ -0,0 +1,54 @@
+package org.tepi.filtertable.engine;
+
+import com.vaadin.v7.data.Container;
+
+/**
+ * Indexed container able to fetch a range of items without holding the
+ * session lock, so that the items of adjacent pages can be read ahead. The
+ * fetch is prepared and applied while holding the lock, but run in between on
+ * any thread:
+ *
+ * <pre>
+ * ItemPrefetch prefetch = container.prepareItemPrefetch(null, 100, 25);
+ * executor.submit(() -&gt; {
+ * 	prefetch.fetch();
+ * 	ui.access(() -&gt; container.applyItemPrefetch(prefetch));
+ * });
+ * </pre>
+ *
+ * {@link org.tepi.filtertable.paged.PagedFilterTable} uses this interface to
+ * prefetch the pages next to the current one.
+ *
+ * @author Teppo Kurki
+ *
+ */
+public interface PrefetchingIndexed extends Container.Indexed {
+
+	/**
+	 * Prepares a fetch of a range of items in the current order. Does not
+	 * modify the container.
+	 *
+	 * @param afterItemId
+	 *            ID of the item the range follows, see
+	 *            {@link KeysetIndexed#getItemIdsAfter(Object, int, int)}, or
+	 *            null to count the range from the first item
+	 * @param skip
+	 *            Number of items to skip before the range
+	 * @param count
+	 *            Maximum number of items to fetch
+	 * @return the prepared fetch, or null if the items are already at hand or
+	 *         can not be fetched in advance
+	 */
+	public ItemPrefetch prepareItemPrefetch(Object afterItemId, int skip, int count);
+
+	/**
+	 * Takes the fetched items into use, so that they are returned without
+	 * fetching them again while they fit in the cache of the container.
+	 *
+	 * @param prefetch
+	 *            A completed fetch prepared by this container
+	 * @return true if the items were taken into use; false if the container
+	 *         has changed since the fetch was prepared
+	 */
+	public boolean applyItemPrefetch(ItemPrefetch prefetch);
+}
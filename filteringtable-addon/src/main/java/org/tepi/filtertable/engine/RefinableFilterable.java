@@ -0,0 +1,35 @@
+package org.tepi.filtertable.engine;
+
+import com.vaadin.v7.data.Container;
+import com.vaadin.v7.data.util.filter.UnsupportedFilterException;
+
+/**
+ * Filterable container that can replace one of its filters in a single step.
+ * When the new filter narrows the old one (see
+ * {@link FilterRefinement#isNarrowing(Filter, Filter)}), only the items that
+ * currently pass the filters need to be re-evaluated.
+ * <p>
+ * FilterTable uses this interface, when available, to update the filter of a
+ * column instead of removing the old filter and adding the new one.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "deprecation" })
+public interface RefinableFilterable extends Container.Filterable {
+
+	/**
+	 * Replaces a filter of this container with another filter and updates the
+	 * filtered items once.
+	 *
+	 * @param oldFilter
+	 *            Filter to replace. If it is not one of the filters of this
+	 *            container, the new filter is simply added.
+	 * @param newFilter
+	 *            Filter to add in place of the old one. If null, the old
+	 *            filter is simply removed.
+	 * @throws UnsupportedFilterException
+	 *             if the new filter is not supported by this container
+	 */
+	public void replaceContainerFilter(Filter oldFilter, Filter newFilter) throws UnsupportedFilterException;
+}
@@ -0,0 +1,23 @@
+package org.tepi.filtertable.engine;
+
+import java.io.Serializable;
+
+/**
+ * A filter predicate bound to the columns of a {@link ColumnSource}. Rows are
+ * addressed by their storage position, so testing a row requires no item or
+ * property lookups.
+ * 
+ * @author Teppo Kurki
+ * 
+ */
+public interface RowPredicate extends Serializable {
+
+	/**
+	 * Tests whether the row at the given storage position passes the filter.
+	 * 
+	 * @param row
+	 *            Storage position of the row
+	 * @return true if the row passes the filter
+	 */
+	public boolean test(int row);
+}
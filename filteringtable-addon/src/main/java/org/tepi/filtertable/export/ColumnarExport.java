@@ -0,0 +1,210 @@
+package org.tepi.filtertable.export;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vaadin.v7.data.Container;
+import com.vaadin.v7.data.Item;
+import com.vaadin.v7.data.Property;
+
+/**
+ * Export of the items of a container in a compact binary column-oriented
+ * format, written with the conventions of {@link DataOutputStream} (big
+ * endian):
+ *
+ * <pre>
+ * file   = "FTCX" version:byte columns:int (header:string type:byte)* chunk* 0:int
+ * chunk  = rows:int column*               one column for each exported property
+ * column = nulls:byte[(rows + 7) / 8]     bit i of byte i / 8 set if value i is null
+ *          values                         the non-null values of the column
+ * string = length:int utf8:byte[length]
+ * </pre>
+ *
+ * The values of a column are written according to its type:
+ * {@link #TYPE_LONG} and {@link #TYPE_DATE} (milliseconds) as long,
+ * {@link #TYPE_DOUBLE} as double and {@link #TYPE_BOOLEAN} as byte. Values of
+ * {@link #TYPE_STRING} columns are converted with toString and written as a
+ * dictionary of the distinct values of the chunk (count:int string*),
+ * followed by the index of each value in the dictionary: a byte if the
+ * dictionary has at most 256 values, a short if at most 65536, otherwise an
+ * int.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public class ColumnarExport extends TableExport {
+
+	/** Format version written after the magic bytes */
+	public static final int VERSION = 1;
+
+	public static final byte TYPE_LONG = 1;
+	public static final byte TYPE_DOUBLE = 2;
+	public static final byte TYPE_BOOLEAN = 3;
+	public static final byte TYPE_DATE = 4;
+	public static final byte TYPE_STRING = 5;
+
+	private final byte[] types;
+
+	/**
+	 * @param container
+	 *            Container to export the items of
+	 * @param propertyIds
+	 *            Properties to export as columns, in order
+	 * @param headers
+	 *            Headers of the columns
+	 */
+	public ColumnarExport(Container.Ordered container, Object[] propertyIds, String[] headers) {
+		super(container, propertyIds, headers);
+		types = new byte[propertyIds.length];
+		for (int i = 0; i < propertyIds.length; i++) {
+			types[i] = getColumnType(container.getType(propertyIds[i]));
+		}
+	}
+
+	/**
+	 * Returns the column type a property type is exported as.
+	 */
+	protected byte getColumnType(Class<?> type) {
+		if (type == Long.class || type == Integer.class || type == Short.class || type == Byte.class
+				|| type == long.class || type == int.class || type == short.class || type == byte.class) {
+			return TYPE_LONG;
+		} else if (type == Double.class || type == Float.class || type == double.class || type == float.class) {
+			return TYPE_DOUBLE;
+		} else if (type == Boolean.class || type == boolean.class) {
+			return TYPE_BOOLEAN;
+		} else if (type != null && Date.class.isAssignableFrom(type)) {
+			return TYPE_DATE;
+		}
+		return TYPE_STRING;
+	}
+
+	@Override
+	public String getMIMEType() {
+		return "application/octet-stream";
+	}
+
+	@Override
+	protected void writeStart(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeBytes("FTCX");
+		data.writeByte(VERSION);
+		String[] headers = getHeaders();
+		data.writeInt(headers.length);
+		for (int i = 0; i < headers.length; i++) {
+			writeString(data, headers[i] == null ? "" : headers[i]);
+			data.writeByte(types[i]);
+		}
+		data.flush();
+	}
+
+	@Override
+	protected void writeChunk(OutputStream out, List<?> itemIds) throws IOException {
+		Object[] propertyIds = getPropertyIds();
+		Item[] items = new Item[itemIds.size()];
+		int rows = 0;
+		for (Object itemId : itemIds) {
+			Item item = getContainer().getItem(itemId);
+			if (item != null) {
+				items[rows++] = item;
+			}
+		}
+		if (rows == 0) {
+			return;
+		}
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(rows);
+		Object[] values = new Object[rows];
+		for (int column = 0; column < propertyIds.length; column++) {
+			byte[] nulls = new byte[(rows + 7) / 8];
+			for (int row = 0; row < rows; row++) {
+				Property<?> property = items[row].getItemProperty(propertyIds[column]);
+				values[row] = property == null ? null : property.getValue();
+				if (values[row] == null) {
+					nulls[row / 8] |= 1 << (row % 8);
+				}
+			}
+			data.write(nulls);
+			writeValues(data, types[column], values, rows);
+		}
+		data.flush();
+	}
+
+	@Override
+	protected void writeEnd(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(0);
+		data.flush();
+	}
+
+	private void writeValues(DataOutputStream data, byte type, Object[] values, int rows) throws IOException {
+		if (type == TYPE_STRING) {
+			writeDictionary(data, values, rows);
+			return;
+		}
+		for (int row = 0; row < rows; row++) {
+			Object value = values[row];
+			if (value == null) {
+				continue;
+			}
+			switch (type) {
+			case TYPE_LONG:
+				data.writeLong(((Number) value).longValue());
+				break;
+			case TYPE_DOUBLE:
+				data.writeDouble(((Number) value).doubleValue());
+				break;
+			case TYPE_BOOLEAN:
+				data.writeByte(Boolean.TRUE.equals(value) ? 1 : 0);
+				break;
+			case TYPE_DATE:
+				data.writeLong(((Date) value).getTime());
+				break;
+			}
+		}
+	}
+
+	private void writeDictionary(DataOutputStream data, Object[] values, int rows) throws IOException {
+		Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+		int[] indexes = new int[rows];
+		for (int row = 0; row < rows; row++) {
+			if (values[row] != null) {
+				String value = values[row].toString();
+				Integer index = dictionary.get(value);
+				if (index == null) {
+					index = dictionary.size();
+					dictionary.put(value, index);
+				}
+				indexes[row] = index;
+			}
+		}
+		data.writeInt(dictionary.size());
+		for (String value : dictionary.keySet()) {
+			writeString(data, value);
+		}
+		for (int row = 0; row < rows; row++) {
+			if (values[row] == null) {
+				continue;
+			}
+			if (dictionary.size() <= 1 << 8) {
+				data.writeByte(indexes[row]);
+			} else if (dictionary.size() <= 1 << 16) {
+				data.writeShort(indexes[row]);
+			} else {
+				data.writeInt(indexes[row]);
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream data, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+}
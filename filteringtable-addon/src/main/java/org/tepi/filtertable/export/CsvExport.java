@@ -0,0 +1,150 @@
+package org.tepi.filtertable.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.vaadin.v7.data.Container;
+import com.vaadin.v7.data.Item;
+import com.vaadin.v7.data.Property;
+
+/**
+ * Export of the items of a container as comma separated values (RFC 4180).
+ * The first line holds the headers. Values containing the separator, a quote
+ * or a line break are quoted.
+ * <p>
+ * Override {@link #format(Object, Object, Property)} to format the values
+ * differently; by default the value is converted with toString and null is
+ * exported as an empty value.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public class CsvExport extends TableExport {
+
+	private char separator = ',';
+	private Charset charset = StandardCharsets.UTF_8;
+
+	/**
+	 * @param container
+	 *            Container to export the items of
+	 * @param propertyIds
+	 *            Properties to export as columns, in order
+	 * @param headers
+	 *            Headers of the columns
+	 */
+	public CsvExport(Container.Ordered container, Object[] propertyIds, String[] headers) {
+		super(container, propertyIds, headers);
+	}
+
+	/**
+	 * Sets the character separating the values, e.g. ';' for locales using
+	 * the comma as the decimal separator. Default is ','.
+	 */
+	public void setSeparator(char separator) {
+		if (separator == '"' || separator == '\r' || separator == '\n') {
+			throw new IllegalArgumentException("Invalid separator: " + separator);
+		}
+		this.separator = separator;
+	}
+
+	public char getSeparator() {
+		return separator;
+	}
+
+	/**
+	 * Sets the character set of the export. Default is UTF-8.
+	 */
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	@Override
+	public String getMIMEType() {
+		return "text/csv; charset=" + charset.name();
+	}
+
+	@Override
+	protected void writeStart(OutputStream out) throws IOException {
+		StringBuilder line = new StringBuilder();
+		String[] headers = getHeaders();
+		for (int i = 0; i < headers.length; i++) {
+			appendValue(line, i, headers[i]);
+		}
+		writeLine(out, line);
+	}
+
+	@Override
+	protected void writeChunk(OutputStream out, List<?> itemIds) throws IOException {
+		Object[] propertyIds = getPropertyIds();
+		StringBuilder line = new StringBuilder();
+		for (Object itemId : itemIds) {
+			Item item = getContainer().getItem(itemId);
+			if (item == null) {
+				continue;
+			}
+			for (int i = 0; i < propertyIds.length; i++) {
+				appendValue(line, i, format(itemId, propertyIds[i], item.getItemProperty(propertyIds[i])));
+			}
+			writeLine(out, line);
+		}
+	}
+
+	@Override
+	protected void writeEnd(OutputStream out) throws IOException {
+	}
+
+	/**
+	 * Formats a value for the export.
+	 *
+	 * @param itemId
+	 *            ID of the item
+	 * @param propertyId
+	 *            ID of the property
+	 * @param property
+	 *            The property of the item, or null if it does not have one
+	 * @return the value as text, or null for an empty value
+	 */
+	protected String format(Object itemId, Object propertyId, Property<?> property) {
+		if (property == null || property.getValue() == null) {
+			return null;
+		}
+		return property.getValue().toString();
+	}
+
+	private void appendValue(StringBuilder line, int column, String value) {
+		if (column > 0) {
+			line.append(separator);
+		}
+		if (value == null) {
+			return;
+		}
+		if (value.indexOf(separator) < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+				&& value.indexOf('\r') < 0) {
+			line.append(value);
+			return;
+		}
+		line.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				line.append('"');
+			}
+			line.append(c);
+		}
+		line.append('"');
+	}
+
+	private void writeLine(OutputStream out, StringBuilder line) throws IOException {
+		line.append("\r\n");
+		out.write(line.toString().getBytes(charset));
+		line.setLength(0);
+	}
+}
@@ -0,0 +1,273 @@
+package org.tepi.filtertable.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import org.tepi.filtertable.engine.KeysetIndexed;
+
+import com.vaadin.server.StreamResource;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.v7.data.Container;
+
+/**
+ * Export of the items of a container, in their current order and passing the
+ * current filters. The items are read and written in chunks, so that the
+ * memory needed does not depend on the number of items: a
+ * {@link KeysetIndexed} container is read with
+ * {@link KeysetIndexed#getItemIdsAfter(Object, int, int)} after the first
+ * chunk, so that no chunk skips the items before it, any other indexed
+ * container with {@link Container.Indexed#getItemIds(int, int)}, and any other
+ * ordered container by following {@link Container.Ordered#nextItemId(Object)}.
+ * <p>
+ * The export is written either directly with {@link #write(OutputStream)}, or
+ * through a {@link StreamResource}, which reads the stream returned by
+ * {@link #getStream()} after the request has released the session lock. Set
+ * the session with {@link #setSession(VaadinSession)} to read the container
+ * holding the lock of the session one chunk at a time.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public abstract class TableExport implements StreamResource.StreamSource {
+
+	/** Default number of items read at a time */
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	private final Container.Ordered container;
+	private final Object[] propertyIds;
+	private final String[] headers;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private VaadinSession session;
+
+	/**
+	 * @param container
+	 *            Container to export the items of
+	 * @param propertyIds
+	 *            Properties to export, in order
+	 * @param headers
+	 *            Headers of the properties, in the same order
+	 */
+	protected TableExport(Container.Ordered container, Object[] propertyIds, String[] headers) {
+		if (propertyIds.length != headers.length) {
+			throw new IllegalArgumentException("Each exported property needs a header");
+		}
+		this.container = container;
+		this.propertyIds = propertyIds.clone();
+		this.headers = headers.clone();
+	}
+
+	public Container.Ordered getContainer() {
+		return container;
+	}
+
+	public Object[] getPropertyIds() {
+		return propertyIds.clone();
+	}
+
+	public String[] getHeaders() {
+		return headers.clone();
+	}
+
+	/**
+	 * Sets the number of items read and written at a time.
+	 *
+	 * @param chunkSize
+	 *            Number of items, at least 1
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be at least 1");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the session whose lock is held while reading the container. Leave
+	 * null if the export is written by a thread already holding the lock.
+	 */
+	public void setSession(VaadinSession session) {
+		this.session = session;
+	}
+
+	public VaadinSession getSession() {
+		return session;
+	}
+
+	/**
+	 * Writes the export to the given stream. The stream is not closed.
+	 *
+	 * @param out
+	 *            Stream to write to
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void write(OutputStream out) throws IOException {
+		Chunks chunks = new Chunks();
+		writeStart(out);
+		while (chunks.writeNext(out)) {
+			out.flush();
+		}
+		writeEnd(out);
+	}
+
+	/**
+	 * Returns a stream producing the export as it is read, one chunk at a
+	 * time.
+	 */
+	@Override
+	public InputStream getStream() {
+		return new ExportStream();
+	}
+
+	/**
+	 * @return the MIME type of the export
+	 */
+	public abstract String getMIMEType();
+
+	/**
+	 * Writes what precedes the items, e.g. the headers.
+	 */
+	protected abstract void writeStart(OutputStream out) throws IOException;
+
+	/**
+	 * Writes a chunk of items. Called for at most {@link #getChunkSize()} items
+	 * at a time, holding the lock of the session if one is set.
+	 */
+	protected abstract void writeChunk(OutputStream out, List<?> itemIds) throws IOException;
+
+	/**
+	 * Writes what follows the items.
+	 */
+	protected abstract void writeEnd(OutputStream out) throws IOException;
+
+	/*
+	 * Writes the items a chunk at a time, holding the lock of the session if
+	 * one is set, as the items are read while writing them.
+	 */
+	private class Chunks {
+		private int index;
+		private Object lastItemId;
+		private boolean done;
+
+		/* Returns false when there are no more items */
+		private boolean writeNext(OutputStream out) throws IOException {
+			if (done) {
+				return false;
+			}
+			Lock lock = session != null ? session.getLockInstance() : null;
+			if (lock != null) {
+				lock.lock();
+			}
+			try {
+				List<?> itemIds = nextItemIds();
+				done = itemIds.size() < chunkSize;
+				if (itemIds.isEmpty()) {
+					return false;
+				}
+				writeChunk(out, itemIds);
+				return true;
+			} finally {
+				if (lock != null) {
+					lock.unlock();
+				}
+			}
+		}
+
+		private List<?> nextItemIds() {
+			if (container instanceof KeysetIndexed && lastItemId != null) {
+				List<?> itemIds = ((KeysetIndexed) container).getItemIdsAfter(lastItemId, 0, chunkSize);
+				/* Continue by index if the last item is gone */
+				if (itemIds != null) {
+					return advance(itemIds);
+				}
+			}
+			if (container instanceof Container.Indexed) {
+				return advance(((Container.Indexed) container).getItemIds(index, chunkSize));
+			}
+			List<Object> itemIds = new ArrayList<Object>(chunkSize);
+			Object itemId = lastItemId == null && index == 0 ? container.firstItemId()
+					: container.nextItemId(lastItemId);
+			while (itemId != null && itemIds.size() < chunkSize) {
+				itemIds.add(itemId);
+				lastItemId = itemId;
+				if (itemIds.size() < chunkSize) {
+					itemId = container.nextItemId(itemId);
+				}
+			}
+			index += itemIds.size();
+			return itemIds;
+		}
+
+		private List<?> advance(List<?> itemIds) {
+			index += itemIds.size();
+			if (!itemIds.isEmpty()) {
+				lastItemId = itemIds.get(itemIds.size() - 1);
+			}
+			return itemIds;
+		}
+	}
+
+	/*
+	 * Produces the export into a buffer a chunk at a time as it is read.
+	 */
+	private class ExportStream extends InputStream {
+		private final Chunks chunks = new Chunks();
+		private final Buffer buffer = new Buffer();
+		private int position;
+		private boolean started;
+		private boolean ended;
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (position == buffer.size()) {
+				if (ended) {
+					return -1;
+				}
+				fill();
+			}
+			int count = Math.min(len, buffer.size() - position);
+			System.arraycopy(buffer.bytes(), position, b, off, count);
+			position += count;
+			return count;
+		}
+
+		private void fill() throws IOException {
+			buffer.reset();
+			position = 0;
+			if (!started) {
+				started = true;
+				writeStart(buffer);
+				return;
+			}
+			if (!chunks.writeNext(buffer)) {
+				writeEnd(buffer);
+				ended = true;
+			}
+		}
+	}
+
+	private static class Buffer extends ByteArrayOutputStream {
+		private byte[] bytes() {
+			return buf;
+		}
+	}
+}
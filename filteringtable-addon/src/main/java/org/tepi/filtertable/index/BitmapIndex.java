@@ -0,0 +1,78 @@
+package org.tepi.filtertable.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.tepi.filtertable.engine.CodedColumnAccessor;
+
+import com.vaadin.v7.data.Container.Filter;
+import com.vaadin.v7.data.util.filter.Compare;
+
+/**
+ * Index keeping a {@link RowBitmap} of the rows for each distinct value of a
+ * dictionary encoded column. Meant for columns with few distinct values, such
+ * as enums and booleans: equality filters, as generated for their ComboBox
+ * filter fields, resolve to a precomputed bitmap.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public class BitmapIndex extends ColumnIndex {
+
+	private final List<RowBitmap> rowsByCode = new ArrayList<RowBitmap>();
+	private final RowBitmap nullRows = new RowBitmap();
+
+	public BitmapIndex(CodedColumnAccessor column) {
+		super(column);
+	}
+
+	@Override
+	public CodedColumnAccessor getColumn() {
+		return (CodedColumnAccessor) super.getColumn();
+	}
+
+	@Override
+	public void add(int row) {
+		rowsOf(getColumn().getCode(row), true).add(row);
+	}
+
+	@Override
+	public void remove(int row) {
+		RowBitmap rows = rowsOf(getColumn().getCode(row), false);
+		if (rows != null) {
+			rows.remove(row);
+		}
+	}
+
+	@Override
+	public void clear() {
+		rowsByCode.clear();
+		nullRows.clear();
+	}
+
+	@Override
+	public RowBitmap find(Filter filter) {
+		if (!(filter instanceof Compare) || ((Compare) filter).getOperation() != Compare.Operation.EQUAL) {
+			return null;
+		}
+		Object value = ((Compare) filter).getValue();
+		if (value == null) {
+			return nullRows;
+		}
+		/* A value no row has is not in the dictionary, -1 is reserved for null */
+		int code = getColumn().findCode(value);
+		RowBitmap rows = code >= 0 ? rowsOf(code, false) : null;
+		return rows == null ? new RowBitmap() : rows;
+	}
+
+	private RowBitmap rowsOf(int code, boolean create) {
+		if (code < 0) {
+			return nullRows;
+		}
+		while (create && rowsByCode.size() <= code) {
+			rowsByCode.add(new RowBitmap());
+		}
+		return code < rowsByCode.size() ? rowsByCode.get(code) : null;
+	}
+}
@@ -0,0 +1,99 @@
+package org.tepi.filtertable.index;
+
+import java.io.Serializable;
+
+import org.tepi.filtertable.engine.CodedColumnAccessor;
+import org.tepi.filtertable.engine.ColumnAccessor;
+import org.tepi.filtertable.engine.DoubleColumnAccessor;
+import org.tepi.filtertable.engine.LongColumnAccessor;
+
+import com.vaadin.v7.data.Container.Filter;
+
+/**
+ * Index of the values of a single column, answering filters on that column
+ * with a set of matching rows instead of testing every row.
+ * <p>
+ * The owner of the column keeps the index up to date by calling
+ * {@link #remove(int)} before the value of a row changes or the row is
+ * removed, and {@link #add(int)} after a row has got its new value.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public abstract class ColumnIndex implements Serializable {
+
+	private final ColumnAccessor column;
+
+	protected ColumnIndex(ColumnAccessor column) {
+		this.column = column;
+	}
+
+	/**
+	 * Creates an index suited for the type of the given column. Boolean and
+	 * enum columns get a {@link BitmapIndex}, number and date columns a
+	 * {@link SortedIndex} and String columns a {@link TrigramIndex}.
+	 *
+	 * @param column
+	 *            Column to index
+	 * @return a new, empty index
+	 * @throws IllegalArgumentException
+	 *             if columns of this type can not be indexed
+	 */
+	public static ColumnIndex create(ColumnAccessor column) {
+		Class<?> type = column.getType();
+		if (column instanceof CodedColumnAccessor && (type == Boolean.class || type.isEnum())) {
+			return new BitmapIndex((CodedColumnAccessor) column);
+		} else if (column instanceof CodedColumnAccessor && type == String.class) {
+			return new TrigramIndex((CodedColumnAccessor) column);
+		} else if (column instanceof LongColumnAccessor) {
+			return new SortedIndex((LongColumnAccessor) column);
+		} else if (column instanceof DoubleColumnAccessor) {
+			return new SortedIndex((DoubleColumnAccessor) column);
+		}
+		throw new IllegalArgumentException("Columns of type " + type.getName() + " can not be indexed");
+	}
+
+	/**
+	 * @return the indexed column
+	 */
+	public ColumnAccessor getColumn() {
+		return column;
+	}
+
+	/**
+	 * Adds a row with its current value to the index.
+	 */
+	public abstract void add(int row);
+
+	/**
+	 * Removes a row from the index. Called while the row still holds the value
+	 * it was added with.
+	 */
+	public abstract void remove(int row);
+
+	/**
+	 * Removes all rows from the index.
+	 */
+	public abstract void clear();
+
+	/**
+	 * Looks up the rows matching a filter on the indexed column. The returned
+	 * set may be shared with the index and must not be modified.
+	 *
+	 * @param filter
+	 *            Filter on the indexed column
+	 * @return the matching rows, or null if this index can not answer the
+	 *         filter
+	 */
+	public abstract RowBitmap find(Filter filter);
+
+	/**
+	 * @return true if the rows returned by {@link #find(Filter)} are exactly
+	 *         the rows passing the filter, false if they are candidates that
+	 *         still need to be tested
+	 */
+	public boolean isExact() {
+		return true;
+	}
+}
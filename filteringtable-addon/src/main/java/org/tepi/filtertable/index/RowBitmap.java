@@ -0,0 +1,432 @@
+package org.tepi.filtertable.index;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of row positions in the style of Roaring bitmaps. Rows are
+ * split into chunks of 65536 by their upper 16 bits. Sparse chunks are kept
+ * as sorted arrays of the lower 16 bits and dense chunks as plain bitmaps, so
+ * both few and many matching rows take little memory and intersect fast.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings("serial")
+public final class RowBitmap implements Serializable {
+
+	/* Chunks with more values than this are stored as bitmaps */
+	private static final int MAX_ARRAY_SIZE = 4096;
+
+	private char[] keys = new char[4];
+	private Chunk[] chunks = new Chunk[4];
+	private int chunkCount;
+	private int cardinality;
+
+	/**
+	 * Adds a row to this set.
+	 *
+	 * @param row
+	 *            Non-negative row position
+	 * @return true if the row was not in the set before
+	 */
+	public boolean add(int row) {
+		char key = (char) (row >>> 16);
+		int index = findChunk(key);
+		if (index < 0) {
+			index = -index - 1;
+			insertChunk(index, key, new ArrayChunk());
+		}
+		Chunk chunk = chunks[index];
+		int before = chunk.cardinality();
+		chunks[index] = chunk.add((char) row);
+		if (chunks[index].cardinality() == before) {
+			return false;
+		}
+		cardinality++;
+		return true;
+	}
+
+	/**
+	 * Removes a row from this set.
+	 *
+	 * @param row
+	 *            Non-negative row position
+	 * @return true if the row was in the set
+	 */
+	public boolean remove(int row) {
+		int index = findChunk((char) (row >>> 16));
+		if (index < 0) {
+			return false;
+		}
+		Chunk chunk = chunks[index];
+		int before = chunk.cardinality();
+		chunk = chunk.remove((char) row);
+		if (chunk.cardinality() == before) {
+			return false;
+		}
+		cardinality--;
+		if (chunk.cardinality() == 0) {
+			removeChunk(index);
+		} else {
+			chunks[index] = chunk;
+		}
+		return true;
+	}
+
+	/**
+	 * @param row
+	 *            Row position
+	 * @return true if the row is in this set
+	 */
+	public boolean contains(int row) {
+		int index = findChunk((char) (row >>> 16));
+		return index >= 0 && chunks[index].contains((char) row);
+	}
+
+	/**
+	 * @return the number of rows in this set
+	 */
+	public int getCardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * @return true if this set contains no rows
+	 */
+	public boolean isEmpty() {
+		return cardinality == 0;
+	}
+
+	/**
+	 * Removes all rows from this set.
+	 */
+	public void clear() {
+		keys = new char[4];
+		chunks = new Chunk[4];
+		chunkCount = 0;
+		cardinality = 0;
+	}
+
+	/**
+	 * Passes each row of this set to the given consumer in ascending order.
+	 */
+	public void forEach(IntConsumer consumer) {
+		for (int i = 0; i < chunkCount; i++) {
+			chunks[i].forEach(keys[i] << 16, consumer);
+		}
+	}
+
+	/**
+	 * @return the rows of this set in ascending order
+	 */
+	public int[] toArray() {
+		final int[] rows = new int[cardinality];
+		forEach(new IntConsumer() {
+			private int i;
+
+			@Override
+			public void accept(int row) {
+				rows[i++] = row;
+			}
+		});
+		return rows;
+	}
+
+	/**
+	 * @return a new set with the same rows as this one
+	 */
+	public RowBitmap copy() {
+		RowBitmap copy = new RowBitmap();
+		copy.keys = Arrays.copyOf(keys, keys.length);
+		copy.chunks = new Chunk[chunks.length];
+		for (int i = 0; i < chunkCount; i++) {
+			copy.chunks[i] = chunks[i].copy();
+		}
+		copy.chunkCount = chunkCount;
+		copy.cardinality = cardinality;
+		return copy;
+	}
+
+	/**
+	 * Intersects two sets. Neither of the given sets is modified.
+	 *
+	 * @return a new set of the rows contained in both sets
+	 */
+	public static RowBitmap and(RowBitmap first, RowBitmap second) {
+		RowBitmap result = new RowBitmap();
+		int i = 0, j = 0;
+		while (i < first.chunkCount && j < second.chunkCount) {
+			char key1 = first.keys[i], key2 = second.keys[j];
+			if (key1 < key2) {
+				i++;
+			} else if (key1 > key2) {
+				j++;
+			} else {
+				Chunk chunk = first.chunks[i++].and(second.chunks[j++]);
+				if (chunk.cardinality() > 0) {
+					result.insertChunk(result.chunkCount, key1, chunk);
+					result.cardinality += chunk.cardinality();
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		forEach(row -> {
+			if (sb.length() > 1) {
+				sb.append(',');
+			}
+			sb.append(row);
+		});
+		return sb.append('}').toString();
+	}
+
+	private int findChunk(char key) {
+		return Arrays.binarySearch(keys, 0, chunkCount, key);
+	}
+
+	private void insertChunk(int index, char key, Chunk chunk) {
+		if (chunkCount == keys.length) {
+			keys = Arrays.copyOf(keys, keys.length * 2);
+			chunks = Arrays.copyOf(chunks, chunks.length * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, chunkCount - index);
+		System.arraycopy(chunks, index, chunks, index + 1, chunkCount - index);
+		keys[index] = key;
+		chunks[index] = chunk;
+		chunkCount++;
+	}
+
+	private void removeChunk(int index) {
+		System.arraycopy(keys, index + 1, keys, index, chunkCount - index - 1);
+		System.arraycopy(chunks, index + 1, chunks, index, chunkCount - index - 1);
+		chunks[--chunkCount] = null;
+	}
+
+	/**
+	 * Lower 16 bits of the rows sharing the same upper 16 bits. Mutating
+	 * operations return the chunk to use afterwards, which is a converted one
+	 * when the chunk crosses {@link RowBitmap#MAX_ARRAY_SIZE}.
+	 */
+	private abstract static class Chunk implements Serializable {
+		abstract int cardinality();
+
+		abstract boolean contains(char value);
+
+		abstract Chunk add(char value);
+
+		abstract Chunk remove(char value);
+
+		abstract Chunk and(Chunk other);
+
+		abstract Chunk copy();
+
+		abstract void forEach(int high, IntConsumer consumer);
+	}
+
+	/**
+	 * Sparse chunk as a sorted array.
+	 */
+	private static final class ArrayChunk extends Chunk {
+		private char[] values;
+		private int size;
+
+		ArrayChunk() {
+			values = new char[4];
+		}
+
+		ArrayChunk(char[] values, int size) {
+			this.values = values;
+			this.size = size;
+		}
+
+		@Override
+		int cardinality() {
+			return size;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, size, value) >= 0;
+		}
+
+		@Override
+		Chunk add(char value) {
+			int index = Arrays.binarySearch(values, 0, size, value);
+			if (index >= 0) {
+				return this;
+			}
+			if (size == MAX_ARRAY_SIZE) {
+				return toBitmap().add(value);
+			}
+			index = -index - 1;
+			if (size == values.length) {
+				values = Arrays.copyOf(values, Math.min(values.length * 2, MAX_ARRAY_SIZE));
+			}
+			System.arraycopy(values, index, values, index + 1, size - index);
+			values[index] = value;
+			size++;
+			return this;
+		}
+
+		@Override
+		Chunk remove(char value) {
+			int index = Arrays.binarySearch(values, 0, size, value);
+			if (index >= 0) {
+				System.arraycopy(values, index + 1, values, index, size - index - 1);
+				size--;
+			}
+			return this;
+		}
+
+		@Override
+		Chunk and(Chunk other) {
+			char[] result = new char[size];
+			int count = 0;
+			if (other instanceof ArrayChunk) {
+				ArrayChunk array = (ArrayChunk) other;
+				int i = 0, j = 0;
+				while (i < size && j < array.size) {
+					if (values[i] < array.values[j]) {
+						i++;
+					} else if (values[i] > array.values[j]) {
+						j++;
+					} else {
+						result[count++] = values[i];
+						i++;
+						j++;
+					}
+				}
+			} else {
+				for (int i = 0; i < size; i++) {
+					if (other.contains(values[i])) {
+						result[count++] = values[i];
+					}
+				}
+			}
+			return new ArrayChunk(result, count);
+		}
+
+		@Override
+		Chunk copy() {
+			return new ArrayChunk(Arrays.copyOf(values, Math.max(size, 4)), size);
+		}
+
+		@Override
+		void forEach(int high, IntConsumer consumer) {
+			for (int i = 0; i < size; i++) {
+				consumer.accept(high | values[i]);
+			}
+		}
+
+		private BitmapChunk toBitmap() {
+			BitmapChunk bitmap = new BitmapChunk();
+			for (int i = 0; i < size; i++) {
+				bitmap.add(values[i]);
+			}
+			return bitmap;
+		}
+	}
+
+	/**
+	 * Dense chunk as a bitmap of 65536 bits.
+	 */
+	private static final class BitmapChunk extends Chunk {
+		private final long[] words;
+		private int cardinality;
+
+		BitmapChunk() {
+			words = new long[1024];
+		}
+
+		private BitmapChunk(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		Chunk add(char value) {
+			long word = words[value >>> 6];
+			long updated = word | (1L << value);
+			if (word != updated) {
+				words[value >>> 6] = updated;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		Chunk remove(char value) {
+			long word = words[value >>> 6];
+			long updated = word & ~(1L << value);
+			if (word != updated) {
+				words[value >>> 6] = updated;
+				cardinality--;
+				if (cardinality <= MAX_ARRAY_SIZE) {
+					return toArray();
+				}
+			}
+			return this;
+		}
+
+		@Override
+		Chunk and(Chunk other) {
+			if (other instanceof ArrayChunk) {
+				return other.and(this);
+			}
+			long[] otherWords = ((BitmapChunk) other).words;
+			long[] result = new long[words.length];
+			int count = 0;
+			for (int i = 0; i < words.length; i++) {
+				result[i] = words[i] & otherWords[i];
+				count += Long.bitCount(result[i]);
+			}
+			BitmapChunk chunk = new BitmapChunk(result, count);
+			return count <= MAX_ARRAY_SIZE ? chunk.toArray() : chunk;
+		}
+
+		@Override
+		Chunk copy() {
+			return new BitmapChunk(Arrays.copyOf(words, words.length), cardinality);
+		}
+
+		@Override
+		void forEach(int high, IntConsumer consumer) {
+			for (int i = 0; i < words.length; i++) {
+				long word = words[i];
+				while (word != 0) {
+					consumer.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+
+		private ArrayChunk toArray() {
+			char[] values = new char[Math.max(cardinality, 4)];
+			int count = 0;
+			for (int i = 0; i < words.length; i++) {
+				long word = words[i];
+				while (word != 0) {
+					values[count++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayChunk(values, count);
+		}
+	}
+}
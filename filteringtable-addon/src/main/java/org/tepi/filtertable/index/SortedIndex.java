@@ -0,0 +1,229 @@
+package org.tepi.filtertable.index;
+
+import java.util.Arrays;
+
+import org.tepi.filtertable.engine.ColumnAccessor;
+import org.tepi.filtertable.engine.DoubleColumnAccessor;
+import org.tepi.filtertable.engine.LongColumnAccessor;
+
+import com.vaadin.v7.data.Container.Filter;
+import com.vaadin.v7.data.util.filter.Between;
+import com.vaadin.v7.data.util.filter.Compare;
+
+/**
+ * Index keeping the rows of a number or date column sorted by their value.
+ * The Compare and Between filters generated for NumberFilterPopup and
+ * DateFilterPopup are answered by binary search, in logarithmic time plus the
+ * number of matching rows.
+ * <p>
+ * Changes to the column only mark the index as outdated; it is sorted again
+ * on the next lookup.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public class SortedIndex extends ColumnIndex {
+
+	/* Indexed rows with and without a value */
+	private final RowBitmap rows = new RowBitmap();
+	private final RowBitmap nullRows = new RowBitmap();
+
+	/* Non-null rows in ascending order of their values, and those values */
+	private int[] sortedRows = new int[0];
+	private long[] sortedKeys = new long[0];
+	private boolean outdated;
+
+	public SortedIndex(LongColumnAccessor column) {
+		super(column);
+	}
+
+	public SortedIndex(DoubleColumnAccessor column) {
+		super(column);
+	}
+
+	@Override
+	public void add(int row) {
+		if (isNull(row)) {
+			nullRows.add(row);
+		} else {
+			rows.add(row);
+			outdated = true;
+		}
+	}
+
+	@Override
+	public void remove(int row) {
+		if (isNull(row)) {
+			nullRows.remove(row);
+		} else {
+			rows.remove(row);
+			outdated = true;
+		}
+	}
+
+	@Override
+	public void clear() {
+		rows.clear();
+		nullRows.clear();
+		sortedRows = new int[0];
+		sortedKeys = new long[0];
+		outdated = false;
+	}
+
+	@Override
+	public RowBitmap find(Filter filter) {
+		ensureSorted();
+		if (filter instanceof Compare) {
+			Compare compare = (Compare) filter;
+			if (compare.getValue() == null) {
+				return compare.getOperation() == Compare.Operation.EQUAL ? nullRows : null;
+			}
+			if (!isSupported(compare.getValue())) {
+				return null;
+			}
+			long key = key(compare.getValue());
+			switch (compare.getOperation()) {
+			case EQUAL:
+				return range(lowerBound(key, true), lowerBound(key, false), false);
+			case GREATER:
+				/* Compare lets null values pass Greater and GreaterOrEqual */
+				return range(lowerBound(key, false), sortedRows.length, true);
+			case GREATER_OR_EQUAL:
+				return range(lowerBound(key, true), sortedRows.length, true);
+			case LESS:
+				return range(0, lowerBound(key, true), false);
+			case LESS_OR_EQUAL:
+				return range(0, lowerBound(key, false), false);
+			}
+		} else if (filter instanceof Between) {
+			Between between = (Between) filter;
+			Object start = between.getStartValue(), end = between.getEndValue();
+			if ((start != null && !isSupported(start)) || (end != null && !isSupported(end))) {
+				return null;
+			}
+			if (start == null && end == null) {
+				return null;
+			}
+			int from = start == null ? 0 : lowerBound(key(start), true);
+			int to = end == null ? sortedRows.length : lowerBound(key(end), false);
+			return range(from, Math.max(from, to), false);
+		}
+		return null;
+	}
+
+	/*
+	 * Only constants of exactly the column type are compared like the column
+	 * values, e.g. a Timestamp does not compare to a Date by its time alone.
+	 */
+	private boolean isSupported(Object value) {
+		return value.getClass() == getColumn().getType();
+	}
+
+	private boolean isNull(int row) {
+		ColumnAccessor column = getColumn();
+		if (column instanceof LongColumnAccessor) {
+			return ((LongColumnAccessor) column).isNull(row);
+		}
+		return ((DoubleColumnAccessor) column).isNull(row);
+	}
+
+	/*
+	 * Returns the value of a row as a long ordered like the values. Doubles
+	 * are mapped to their bits, flipped so that they order like
+	 * Double.compareTo.
+	 */
+	private long keyOf(int row) {
+		ColumnAccessor column = getColumn();
+		if (column instanceof LongColumnAccessor) {
+			return ((LongColumnAccessor) column).getLong(row);
+		}
+		return doubleKey(((DoubleColumnAccessor) column).getDouble(row));
+	}
+
+	private long key(Object value) {
+		ColumnAccessor column = getColumn();
+		if (column instanceof LongColumnAccessor) {
+			return ((LongColumnAccessor) column).encode(value);
+		}
+		return doubleKey(((DoubleColumnAccessor) column).encode(value));
+	}
+
+	private static long doubleKey(double value) {
+		long bits = Double.doubleToLongBits(value);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	/*
+	 * Returns the position of the first key not less than (inclusive) or
+	 * greater than (exclusive) the given key.
+	 */
+	private int lowerBound(long key, boolean inclusive) {
+		int low = 0, high = sortedKeys.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sortedKeys[middle] < key || (!inclusive && sortedKeys[middle] == key)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private RowBitmap range(int from, int to, boolean includeNulls) {
+		int[] matches = Arrays.copyOfRange(sortedRows, from, to);
+		/* Rows in ascending order are appended to the bitmap cheaply */
+		Arrays.sort(matches);
+		RowBitmap result = new RowBitmap();
+		for (int row : matches) {
+			result.add(row);
+		}
+		if (includeNulls) {
+			nullRows.forEach(result::add);
+		}
+		return result;
+	}
+
+	private void ensureSorted() {
+		if (!outdated) {
+			return;
+		}
+		int[] newRows = rows.toArray();
+		long[] newKeys = new long[newRows.length];
+		for (int i = 0; i < newRows.length; i++) {
+			newKeys[i] = keyOf(newRows[i]);
+		}
+		sort(newKeys, newRows, new long[newKeys.length], new int[newRows.length], 0, newKeys.length);
+		sortedRows = newRows;
+		sortedKeys = newKeys;
+		outdated = false;
+	}
+
+	/*
+	 * Merge sort of keys[from, to) together with their rows, using the
+	 * buffers of the same size as scratch space.
+	 */
+	private static void sort(long[] keys, int[] rows, long[] keyBuffer, int[] rowBuffer, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		sort(keys, rows, keyBuffer, rowBuffer, from, middle);
+		sort(keys, rows, keyBuffer, rowBuffer, middle, to);
+		if (keys[middle - 1] <= keys[middle]) {
+			return;
+		}
+		System.arraycopy(keys, from, keyBuffer, from, to - from);
+		System.arraycopy(rows, from, rowBuffer, from, to - from);
+		for (int i = from, p = from, q = middle; i < to; i++) {
+			if (q >= to || (p < middle && keyBuffer[p] <= keyBuffer[q])) {
+				keys[i] = keyBuffer[p];
+				rows[i] = rowBuffer[p++];
+			} else {
+				keys[i] = keyBuffer[q];
+				rows[i] = rowBuffer[q++];
+			}
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package org.tepi.filtertable.index;
+
+import org.tepi.filtertable.engine.CodedColumnAccessor;
+
+import com.vaadin.v7.data.Container.Filter;
+import com.vaadin.v7.data.util.filter.SimpleStringFilter;
+
+/**
+ * Inverted index of the three character substrings (trigrams) of a String
+ * column. A SimpleStringFilter with a filter string of at least three
+ * characters is answered with the rows containing all of its trigrams, which
+ * are then tested with the filter itself.
+ * <p>
+ * Memory is bounded: trigrams are hashed into a fixed number of buckets, and
+ * a bucket containing more than a given share of all rows is dropped, as such
+ * a common trigram would not narrow down the rows anyway. While rows are
+ * being added the share is judged against the rows added so far, so once the
+ * number of rows has doubled since a bucket was dropped, the buckets are
+ * rebuilt against the current number of rows the next time the index is
+ * queried. A bucket dropped while loading is thus admitted again if its
+ * trigram turns out to be rare among all the rows. Besides the buckets, the
+ * index keeps one bitmap of the indexed rows for rebuilding.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public class TrigramIndex extends ColumnIndex {
+
+	/** Default number of buckets */
+	public static final int DEFAULT_BUCKET_COUNT = 1 << 16;
+
+	/** Default share of rows above which a bucket is dropped */
+	public static final double DEFAULT_SATURATION = 0.3;
+
+	/* Buckets are never dropped while the index holds fewer rows than this */
+	private static final int MIN_ROWS_TO_SATURATE = 1000;
+
+	private final RowBitmap[] buckets;
+	private final boolean[] saturated;
+	private final double saturation;
+	/* The indexed rows, i.e. those with a value */
+	private final RowBitmap rows = new RowBitmap();
+	private int rowCount;
+	/* Row count a bucket was first dropped at since the last rebuild, 0 if none */
+	private int saturatedAt;
+
+	/**
+	 * Creates a trigram index with {@link #DEFAULT_BUCKET_COUNT} buckets and
+	 * {@link #DEFAULT_SATURATION}.
+	 */
+	public TrigramIndex(CodedColumnAccessor column) {
+		this(column, DEFAULT_BUCKET_COUNT, DEFAULT_SATURATION);
+	}
+
+	/**
+	 * Creates a trigram index.
+	 *
+	 * @param column
+	 *            String column to index
+	 * @param bucketCount
+	 *            Number of buckets the trigrams are hashed into. Rounded up to
+	 *            a power of two.
+	 * @param saturation
+	 *            Share of all rows, between 0 and 1, above which a bucket is
+	 *            dropped
+	 */
+	public TrigramIndex(CodedColumnAccessor column, int bucketCount, double saturation) {
+		super(column);
+		if (bucketCount < 1 || saturation <= 0 || saturation > 1) {
+			throw new IllegalArgumentException("Invalid bucket count or saturation");
+		}
+		int size = Integer.highestOneBit(bucketCount);
+		if (size < bucketCount) {
+			size <<= 1;
+		}
+		buckets = new RowBitmap[size];
+		saturated = new boolean[size];
+		this.saturation = saturation;
+	}
+
+	@Override
+	public CodedColumnAccessor getColumn() {
+		return (CodedColumnAccessor) super.getColumn();
+	}
+
+	@Override
+	public void add(int row) {
+		String value = valueOf(row);
+		if (value == null) {
+			return;
+		}
+		rows.add(row);
+		rowCount++;
+		addTrigrams(row, value);
+	}
+
+	private void addTrigrams(int row, String value) {
+		int limit = (int) (saturation * Math.max(rowCount, MIN_ROWS_TO_SATURATE));
+		for (int i = 0; i + 3 <= value.length(); i++) {
+			int bucket = bucketOf(value, i);
+			if (saturated[bucket]) {
+				continue;
+			}
+			if (buckets[bucket] == null) {
+				buckets[bucket] = new RowBitmap();
+			}
+			buckets[bucket].add(row);
+			if (buckets[bucket].getCardinality() > limit) {
+				buckets[bucket] = null;
+				saturated[bucket] = true;
+				if (saturatedAt == 0) {
+					saturatedAt = Math.max(rowCount, MIN_ROWS_TO_SATURATE);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void remove(int row) {
+		String value = valueOf(row);
+		if (value == null) {
+			return;
+		}
+		rows.remove(row);
+		rowCount--;
+		for (int i = 0; i + 3 <= value.length(); i++) {
+			RowBitmap bucket = buckets[bucketOf(value, i)];
+			if (bucket != null) {
+				bucket.remove(row);
+			}
+		}
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = null;
+			saturated[i] = false;
+		}
+		rows.clear();
+		rowCount = 0;
+		saturatedAt = 0;
+	}
+
+	/* Adds all rows again, judging the buckets against the current row count */
+	private void rebuild() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = null;
+			saturated[i] = false;
+		}
+		saturatedAt = 0;
+		rows.forEach(row -> addTrigrams(row, valueOf(row)));
+	}
+
+	@Override
+	public RowBitmap find(Filter filter) {
+		if (!(filter instanceof SimpleStringFilter)) {
+			return null;
+		}
+		if (saturatedAt > 0 && Math.max(rowCount, MIN_ROWS_TO_SATURATE) >= 2 * saturatedAt) {
+			rebuild();
+		}
+		/* The index is case insensitive, so it finds candidates in either case */
+		String pattern = ((SimpleStringFilter) filter).getFilterString().toLowerCase();
+		RowBitmap result = null;
+		for (int i = 0; i + 3 <= pattern.length(); i++) {
+			int bucket = bucketOf(pattern, i);
+			if (saturated[bucket]) {
+				continue;
+			}
+			if (buckets[bucket] == null) {
+				return new RowBitmap();
+			}
+			result = result == null ? buckets[bucket] : RowBitmap.and(result, buckets[bucket]);
+			if (result.isEmpty()) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isExact() {
+		return false;
+	}
+
+	private String valueOf(int row) {
+		int code = getColumn().getCode(row);
+		return code < 0 ? null : getColumn().getCodeValue(code).toString().toLowerCase();
+	}
+
+	private int bucketOf(String value, int start) {
+		int hash = (value.charAt(start) * 31 + value.charAt(start + 1)) * 31 + value.charAt(start + 2);
+		hash ^= hash >>> 16;
+		hash *= 0x45d9f3b;
+		hash ^= hash >>> 16;
+		return hash & (buckets.length - 1);
+	}
+}
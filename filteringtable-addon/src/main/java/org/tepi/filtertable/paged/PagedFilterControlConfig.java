@@ -14,6 +14,8 @@ public class PagedFilterControlConfig {
     private String previous = "<";
     private String next = ">";
 
+    private String unknownTotal = "many";
+
     private List<Integer> pageLengths;
 
     public String getItemsPerPage() {
@@ -64,6 +66,18 @@ public class PagedFilterControlConfig {
         this.next = next;
     }
 
+    public String getUnknownTotal() {
+        return unknownTotal;
+    }
+
+    /**
+     * Sets the caption shown as the total amount of pages while the items are
+     * still being counted, see {@link PagedFilterTable#setCountExecutor}.
+     */
+    public void setUnknownTotal(String unknownTotal) {
+        this.unknownTotal = unknownTotal;
+    }
+
     public List<Integer> getPageLengths() {
         return pageLengths;
     }
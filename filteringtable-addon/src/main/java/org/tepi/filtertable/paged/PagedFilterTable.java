@@ -5,8 +5,12 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.tepi.filtertable.FilterTable;
+import org.tepi.filtertable.engine.FilterResultCache;
+import org.tepi.filtertable.engine.LazyCountFilterable;
 
 import com.vaadin.shared.ui.ContentMode;
 import com.vaadin.ui.Alignment;
@@ -32,6 +36,29 @@ public class PagedFilterTable<T extends Container.Indexed & Container.Filterable
 
 	private PagedFilterTableContainer<T> container;
 
+	/* Number of item counts kept, by filter state */
+	private static final int COUNT_CACHE_SIZE = 16;
+
+	/* Executor for counting the items in the background, null if not in use */
+	private transient ExecutorService countExecutor;
+	private final FilterResultCache<Integer> countCache = new FilterResultCache<Integer>(COUNT_CACHE_SIZE);
+	/* Count in progress and the filters it is for, null if none */
+	private transient Future<?> pendingCount;
+	private transient List<Filter> pendingCountFilters;
+	/* Incremented when the cached counts become invalid */
+	private int countGeneration;
+	/* Filters of the wrapped container when its item set last changed */
+	private List<Filter> itemSetFilters;
+	private final Container.ItemSetChangeListener countInvalidator = e -> wrappedItemSetChange();
+
+	private boolean keysetPaging;
+
+	/* Number of pages read ahead in both directions */
+	private int prefetchPages;
+	/* Executor for reading ahead in the background, null if not in use */
+	private transient ExecutorService prefetchExecutor;
+	private transient Future<?> pendingPrefetch;
+
 	public PagedFilterTable() {
 		this(null);
 	}
@@ -40,6 +67,7 @@ public class PagedFilterTable<T extends Container.Indexed & Container.Filterable
 		super(caption);
 		setPageLength(25);
 		addStyleName("pagedtable");
+		followCounts();
 	}
 
 	public HorizontalLayout createControls(PagedFilterControlConfig config) {
@@ -72,7 +100,8 @@ public class PagedFilterTable<T extends Container.Indexed & Container.Filterable
 			}
 		});
 		Label separatorLabel = new Label("&nbsp;/&nbsp;", ContentMode.HTML);
-		final Label totalPagesLabel = new Label(String.valueOf(getTotalAmountOfPages()), ContentMode.HTML);
+		final String unknownTotal = config.getUnknownTotal();
+		final Label totalPagesLabel = new Label(getTotalAmountOfPagesCaption(unknownTotal), ContentMode.HTML);
 		currentPageTextField.setStyleName(ValoTheme.TEXTFIELD_SMALL);
 		currentPageTextField.setImmediate(true);
 		currentPageTextField.addValueChangeListener(e -> {
@@ -152,8 +181,8 @@ public class PagedFilterTable<T extends Container.Indexed & Container.Filterable
 		if (container != null) {
 			first.setEnabled(container.getStartIndex() > 0);
 			previous.setEnabled(container.getStartIndex() > 0);
-			next.setEnabled(container.getStartIndex() < container.getRealSize() - getPageLength());
-			last.setEnabled(container.getStartIndex() < container.getRealSize() - getPageLength());
+			next.setEnabled(hasNextPage());
+			last.setEnabled(hasNextPage());
 		}
 
 		addListener(new PageChangeListener() {
@@ -165,10 +194,10 @@ public class PagedFilterTable<T extends Container.Indexed & Container.Filterable
 					inMiddleOfValueChange = true;
 					first.setEnabled(container.getStartIndex() > 0);
 					previous.setEnabled(container.getStartIndex() > 0);
-					next.setEnabled(container.getStartIndex() < container.getRealSize() - getPageLength());
-					last.setEnabled(container.getStartIndex() < container.getRealSize() - getPageLength());
+					next.setEnabled(hasNextPage());
+					last.setEnabled(hasNextPage());
 					currentPageTextField.setValue(String.valueOf(getCurrentPage()));
-					totalPagesLabel.setValue(Integer.toString(getTotalAmountOfPages()));
+					totalPagesLabel.setValue(getTotalAmountOfPagesCaption(unknownTotal));
 					itemsPerPageSelect.setValue(getPageLength());
 					inMiddleOfValueChange = false;
 				}
@@ -191,7 +220,20 @@ public class PagedFilterTable<T extends Container.Indexed & Container.Filterable
 		}
 		PagedFilterTableContainer<T> pagedFilteringTableContainer = new PagedFilterTableContainer<T>((T) newDataSource);
 		pagedFilteringTableContainer.setPageLength(getPageLength());
+		pagedFilteringTableContainer.setKeysetPaging(keysetPaging);
+		/*
+		 * Called from the constructor of Table before the fields of this class
+		 * are initialized; the constructor of this class follows the counts.
+		 */
+		boolean initialized = countCache != null;
+		if (initialized && container != null) {
+			container.getContainer().removeItemSetChangeListener(countInvalidator);
+		}
 		container = pagedFilteringTableContainer;
+		if (initialized) {
+			invalidateCounts();
+			followCounts();
+		}
 		super.setContainerDataSource(pagedFilteringTableContainer);
 		firePagedChangedEvent();
 	}
@@ -201,7 +243,7 @@ public class PagedFilterTable<T extends Container.Indexed & Container.Filterable
 			if (firstIndex <= 0) {
 				firstIndex = 0;
 			}
-			if (firstIndex > container.getRealSize() - 1) {
+			if (firstIndex > 0 && !container.containsRealIndex(firstIndex)) {
 				int size = container.getRealSize() - 1;
 				int pages = 0;
 				if (getPageLength() != 0) {
@@ -228,6 +270,8 @@ public class PagedFilterTable<T extends Container.Indexed & Container.Filterable
 	}
 
 	private void firePagedChangedEvent() {
+		requestCount();
+		requestPrefetch();
 		if (listeners != null) {
 			PagedTableChangeEvent event = new PagedTableChangeEvent(this);
 			for (PageChangeListener listener : listeners) {
@@ -271,7 +315,10 @@ public class PagedFilterTable<T extends Container.Indexed & Container.Filterable
 	}
 
 	public int getTotalAmountOfPages() {
-		int size = container.getContainer().size();
+		return getAmountOfPages(container.getContainer().size());
+	}
+
+	private int getAmountOfPages(int size) {
 		double pageLength = getPageLength();
 		int pageCount = (int) Math.ceil(size / pageLength);
 		if (pageCount < 1) {
@@ -280,6 +327,258 @@ public class PagedFilterTable<T extends Container.Indexed & Container.Filterable
 		return pageCount;
 	}
 
+	/*
+	 * Returns the total amount of pages for the controls, without counting
+	 * the items when they are counted in the background.
+	 */
+	private String getTotalAmountOfPagesCaption(String unknownTotal) {
+		if (!isCountingInBackground()) {
+			return String.valueOf(getTotalAmountOfPages());
+		}
+		int size = container.getKnownRealSize();
+		if (size >= 0) {
+			return String.valueOf(getAmountOfPages(size));
+		}
+		int estimate = ((LazyCountFilterable) container.getContainer()).estimateSize();
+		return estimate >= 0 ? "~" + getAmountOfPages(estimate) : unknownTotal;
+	}
+
+	private boolean hasNextPage() {
+		return container.containsRealIndex(container.getStartIndex() + getPageLength());
+	}
+
+	/**
+	 * Sets keyset (seek) paging mode, see
+	 * {@link PagedFilterTableContainer#setKeysetPaging(boolean)}. Has effect
+	 * only with a container implementing
+	 * {@link org.tepi.filtertable.engine.KeysetIndexed}.
+	 * 
+	 * @param keysetPaging
+	 *            true to find the items of a page starting from the adjacent
+	 *            page rather than by their index
+	 */
+	public void setKeysetPaging(boolean keysetPaging) {
+		this.keysetPaging = keysetPaging;
+		if (container != null) {
+			container.setKeysetPaging(keysetPaging);
+			setPageFirstIndex(container.getStartIndex());
+		}
+	}
+
+	/**
+	 * @return true if keyset paging mode is set
+	 */
+	public boolean isKeysetPaging() {
+		return keysetPaging;
+	}
+
+	/**
+	 * Sets the executor for counting the items of the container in the
+	 * background. With a container implementing {@link LazyCountFilterable},
+	 * e.g. {@link org.tepi.filtertable.sql.JdbcContainer}, a page change or a
+	 * filter change then no longer waits for the items to be counted. The
+	 * controls show an estimate or the caption set with
+	 * {@link PagedFilterControlConfig#setUnknownTotal(String)} as the total
+	 * amount of pages until the count is ready. Counts are cached by the set
+	 * of filters.
+	 * 
+	 * Note: The count reaches the browser on the next round trip, so the UI
+	 * should use server push or polling.
+	 * 
+	 * @param countExecutor
+	 *            Executor for counting the items, or null to count them right
+	 *            away (default)
+	 */
+	public void setCountExecutor(ExecutorService countExecutor) {
+		this.countExecutor = countExecutor;
+		if (countExecutor == null && pendingCount != null) {
+			pendingCount.cancel(true);
+			pendingCount = null;
+			pendingCountFilters = null;
+		}
+	}
+
+	/**
+	 * @return the executor used for counting the items in the background, or
+	 *         null if the items are counted right away
+	 */
+	public ExecutorService getCountExecutor() {
+		return countExecutor;
+	}
+
+	/**
+	 * Discards the cached item counts. This is done whenever the wrapped
+	 * container notifies of a change of its items with its filters unchanged;
+	 * call this after the data has changed otherwise, when counting in the
+	 * background.
+	 */
+	public void invalidateCounts() {
+		countCache.invalidate();
+		countGeneration++;
+		if (pendingCount != null) {
+			pendingCount.cancel(true);
+			pendingCount = null;
+			pendingCountFilters = null;
+		}
+	}
+
+	/* Follows the changes of the items of the wrapped container */
+	private void followCounts() {
+		if (container != null) {
+			itemSetFilters = new ArrayList<Filter>(container.getContainer().getContainerFilters());
+			container.getContainer().addItemSetChangeListener(countInvalidator);
+		}
+	}
+
+	/*
+	 * The wrapped container also notifies of changes of its filters and sort
+	 * order, whereas the page changes of this table are not seen here. The
+	 * counts of other filter states stay valid when only the filters change.
+	 */
+	private void wrappedItemSetChange() {
+		List<Filter> filters = new ArrayList<Filter>(container.getContainer().getContainerFilters());
+		if (filters.equals(itemSetFilters)) {
+			invalidateCounts();
+			requestCount();
+		}
+		itemSetFilters = filters;
+	}
+
+	private boolean isCountingInBackground() {
+		return countExecutor != null && container != null
+				&& container.getContainer() instanceof LazyCountFilterable;
+	}
+
+	/*
+	 * Starts counting the items for the current filters in the background,
+	 * unless the count is known, cached or already in progress.
+	 */
+	private void requestCount() {
+		if (!isCountingInBackground() || getUI() == null) {
+			return;
+		}
+		final LazyCountFilterable lazy = (LazyCountFilterable) container.getContainer();
+		if (lazy.getKnownSize() >= 0) {
+			return;
+		}
+		final List<Filter> filters = new ArrayList<Filter>(lazy.getContainerFilters());
+		Integer count = countCache.get(filters);
+		if (count != null) {
+			lazy.setKnownSize(filters, count);
+			return;
+		}
+		if (pendingCount != null) {
+			if (filters.equals(pendingCountFilters)) {
+				return;
+			}
+			pendingCount.cancel(true);
+		}
+		final UI ui = getUI();
+		final int generation = countGeneration;
+		pendingCountFilters = filters;
+		pendingCount = countExecutor.submit(() -> {
+			int size = lazy.countItems(filters);
+			ui.access(() -> countFinished(lazy, filters, size, generation));
+		});
+	}
+
+	private void countFinished(LazyCountFilterable lazy, List<Filter> filters, int size, int generation) {
+		if (generation != countGeneration) {
+			/* Counted before the items changed */
+			return;
+		}
+		countCache.put(filters, size);
+		if (filters.equals(pendingCountFilters)) {
+			pendingCount = null;
+			pendingCountFilters = null;
+		}
+		if (container != null && container.getContainer() == lazy && lazy.setKnownSize(filters, size)) {
+			firePagedChangedEvent();
+		}
+	}
+
+	/**
+	 * Sets the number of pages next to the current page, in both directions,
+	 * whose items are read ahead in the background after each page change.
+	 * Moving to an adjacent page then does not wait for the items to be
+	 * fetched. Has effect only when an executor is set with
+	 * {@link #setPrefetchExecutor(ExecutorService)} and the container
+	 * implements {@link org.tepi.filtertable.engine.PrefetchingIndexed}, e.g.
+	 * {@link org.tepi.filtertable.sql.JdbcContainer}. The container must cache
+	 * enough rows to hold the prefetched pages.
+	 * 
+	 * @param prefetchPages
+	 *            Number of pages to read ahead in both directions, 0 to
+	 *            disable (default)
+	 */
+	public void setPrefetchPages(int prefetchPages) {
+		if (prefetchPages < 0) {
+			throw new IllegalArgumentException("Number of pages to prefetch can not be negative");
+		}
+		this.prefetchPages = prefetchPages;
+		requestPrefetch();
+	}
+
+	/**
+	 * @return the number of pages read ahead in both directions
+	 */
+	public int getPrefetchPages() {
+		return prefetchPages;
+	}
+
+	/**
+	 * Sets the executor for reading adjacent pages ahead, see
+	 * {@link #setPrefetchPages(int)}.
+	 * 
+	 * Note: The items are stored on the next round trip, so the UI should use
+	 * server push or polling.
+	 * 
+	 * @param prefetchExecutor
+	 *            Executor for reading ahead, or null to disable reading ahead
+	 *            (default)
+	 */
+	public void setPrefetchExecutor(ExecutorService prefetchExecutor) {
+		this.prefetchExecutor = prefetchExecutor;
+		requestPrefetch();
+	}
+
+	/**
+	 * @return the executor for reading adjacent pages ahead, or null if not
+	 *         in use
+	 */
+	public ExecutorService getPrefetchExecutor() {
+		return prefetchExecutor;
+	}
+
+	/*
+	 * Starts reading the pages next to the current page ahead in the
+	 * background, cancelling the reading for the previous page.
+	 */
+	private void requestPrefetch() {
+		if (pendingPrefetch != null) {
+			pendingPrefetch.cancel(true);
+			pendingPrefetch = null;
+		}
+		if (prefetchPages == 0 || prefetchExecutor == null || container == null || getUI() == null) {
+			return;
+		}
+		final PagedFilterTableContainer<T> paged = container;
+		final List<PagedFilterTableContainer.PagePrefetch> prefetches = paged.preparePrefetch(prefetchPages);
+		if (prefetches.isEmpty()) {
+			return;
+		}
+		final UI ui = getUI();
+		pendingPrefetch = prefetchExecutor.submit(() -> {
+			for (PagedFilterTableContainer.PagePrefetch prefetch : prefetches) {
+				if (Thread.currentThread().isInterrupted()) {
+					return;
+				}
+				prefetch.fetch();
+				ui.access(() -> paged.applyPrefetch(prefetch));
+			}
+		});
+	}
+
 	public void addListener(PageChangeListener listener) {
 		if (listeners == null) {
 			listeners = new ArrayList<PageChangeListener>();
@@ -294,6 +593,20 @@ public class PagedFilterTable<T extends Container.Indexed & Container.Filterable
 		listeners.remove(listener);
 	}
 
+	/* Export all the pages rather than the current one */
+	@Override
+	protected Container.Ordered getExportContainer() {
+		return container.getContainer();
+	}
+
+	@Override
+	public void attach() {
+		super.attach();
+		/* Counting and reading ahead need the UI to deliver the result */
+		requestCount();
+		requestPrefetch();
+	}
+
 	@Override
 	public void resetFilters() {
 		super.resetFilters();
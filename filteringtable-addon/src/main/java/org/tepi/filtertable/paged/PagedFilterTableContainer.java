@@ -1,8 +1,22 @@
 package org.tepi.filtertable.paged;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.tepi.filtertable.engine.AsyncFilterable;
+import org.tepi.filtertable.engine.FacetCountable;
+import org.tepi.filtertable.engine.FilterEvaluation;
+import org.tepi.filtertable.engine.ItemPrefetch;
+import org.tepi.filtertable.engine.KeysetIndexed;
+import org.tepi.filtertable.engine.LazyCountFilterable;
+import org.tepi.filtertable.engine.PrefetchingIndexed;
+import org.tepi.filtertable.engine.RefinableFilterable;
 
 import com.vaadin.v7.data.Container;
 import com.vaadin.v7.data.Item;
@@ -11,16 +25,49 @@ import com.vaadin.v7.data.util.filter.UnsupportedFilterException;
 
 @SuppressWarnings({ "deprecation" })
 public class PagedFilterTableContainer<T extends Container.Indexed & Container.Filterable & Container.ItemSetChangeNotifier>
-		implements Container, Container.Indexed, Container.Sortable, Container.Filterable,
-		Container.ItemSetChangeNotifier {
+		implements Container, Container.Indexed, Container.Sortable, RefinableFilterable, AsyncFilterable,
+		FacetCountable, Container.ItemSetChangeNotifier {
 	private static final long serialVersionUID = -2134233618583099046L;
 
+	private static final int MAX_PAGE_BOUNDARIES = 1024;
+	private static final int MAX_PREFETCHED_PAGES = 32;
+
 	private final T container;
 	private int pageLength = 25;
 	private int startIndex = 0;
 
+	private boolean keysetPaging;
+	/* IDs of the current page in keyset paging mode, null until loaded */
+	private List<?> pageIds;
+	/* Whether an item follows the current page in keyset paging mode */
+	private boolean morePages;
+	/* Index of the first item of a page -> ID of the item preceding it */
+	private final TreeMap<Integer, Object> pageBoundaries = new TreeMap<Integer, Object>();
+	/* Prefetched IDs by page start index in keyset paging mode, least recently used first */
+	private final LinkedHashMap<Integer, List<?>> prefetchedPages = new LinkedHashMap<Integer, List<?>>(16, 0.75f,
+			true) {
+		private static final long serialVersionUID = -4000941235813462431L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, List<?>> eldest) {
+			return size() > MAX_PREFETCHED_PAGES;
+		}
+	};
+	/* Incremented when prefetched pages become invalid */
+	private int prefetchGeneration;
+	/* Page index of the item ID looked up last */
+	private int indexHint = -1;
+
 	public PagedFilterTableContainer(T container) {
 		this.container = container;
+		container.addItemSetChangeListener(new ItemSetChangeListener() {
+			private static final long serialVersionUID = 4410258036271376958L;
+
+			@Override
+			public void containerItemSetChange(ItemSetChangeEvent event) {
+				resetPageIds();
+			}
+		});
 	}
 
 	public T getContainer() {
@@ -33,6 +80,8 @@ public class PagedFilterTableContainer<T extends Container.Indexed & Container.F
 
 	public void setPageLength(int pageLength) {
 		this.pageLength = pageLength;
+		pageIds = null;
+		discardPrefetchedPages();
 	}
 
 	public int getStartIndex() {
@@ -41,9 +90,212 @@ public class PagedFilterTableContainer<T extends Container.Indexed & Container.F
 
 	public void setStartIndex(int startIndex) {
 		if (startIndex < 0) {
-			this.startIndex = 0;
+			startIndex = 0;
+		}
+		if (isKeysetPaging()) {
+			loadPageIds(startIndex);
+		}
+		this.startIndex = startIndex;
+	}
+
+	/**
+	 * Sets keyset (seek) paging mode. In this mode the items of a page are
+	 * found starting from the last item of the previous page, or the first
+	 * item of the next page, instead of by their index. With a database
+	 * container the cost of a page change then does not grow with the index
+	 * of the page. Jumping to a page starts from the nearest page boundary
+	 * seen so far.
+	 * <p>
+	 * Has effect only if the real container implements {@link KeysetIndexed},
+	 * e.g. {@link org.tepi.filtertable.sql.JdbcContainer}.
+	 * 
+	 * @param keysetPaging
+	 *            true to enable keyset paging
+	 */
+	public void setKeysetPaging(boolean keysetPaging) {
+		this.keysetPaging = keysetPaging;
+		resetPageIds();
+	}
+
+	/**
+	 * @return true if keyset paging is enabled and supported by the real
+	 *         container
+	 */
+	public boolean isKeysetPaging() {
+		return keysetPaging && container instanceof KeysetIndexed;
+	}
+
+	private void resetPageIds() {
+		pageIds = null;
+		pageBoundaries.clear();
+		discardPrefetchedPages();
+	}
+
+	private void discardPrefetchedPages() {
+		prefetchedPages.clear();
+		prefetchGeneration++;
+	}
+
+	private List<?> getPageIds() {
+		if (pageIds == null) {
+			loadPageIds(startIndex);
+		}
+		return pageIds;
+	}
+
+	/*
+	 * Loads the IDs of the page starting at the given index, and one more to
+	 * find out whether a next page exists. Must be called before the start
+	 * index is changed, as a move back by at most a page seeks from the
+	 * current page.
+	 */
+	private void loadPageIds(int start) {
+		KeysetIndexed keyset = (KeysetIndexed) container;
+		int count = pageLength + 1;
+		List<Object> ids = null;
+		List<?> prefetched = prefetchedPages.get(start);
+		if (prefetched != null) {
+			ids = new ArrayList<Object>(prefetched);
+		} else if (pageIds != null && !pageIds.isEmpty() && start < startIndex && start >= startIndex - pageLength) {
+			List<?> before = keyset.getItemIdsBefore(pageIds.get(0), startIndex - start);
+			if (before != null && before.size() == startIndex - start) {
+				ids = new ArrayList<Object>(before);
+				for (Iterator<?> i = pageIds.iterator(); i.hasNext() && ids.size() < count;) {
+					ids.add(i.next());
+				}
+			}
+		}
+		if (ids == null) {
+			Map.Entry<Integer, Object> boundary = pageBoundaries.floorEntry(start);
+			if (boundary != null) {
+				List<?> after = keyset.getItemIdsAfter(boundary.getValue(), start - boundary.getKey(), count);
+				if (after != null) {
+					ids = new ArrayList<Object>(after);
+				}
+			}
+		}
+		if (ids == null) {
+			ids = new ArrayList<Object>(container.getItemIds(start, count));
+		}
+		morePages = ids.size() > pageLength;
+		pageIds = morePages ? ids.subList(0, pageLength) : ids;
+		if (!pageIds.isEmpty()) {
+			addPageBoundary(start + pageIds.size(), pageIds.get(pageIds.size() - 1));
+		}
+	}
+
+	/**
+	 * Prepares fetching the items of the pages next to the current page in
+	 * advance, nearest pages first. Has effect only if the real container
+	 * implements {@link PrefetchingIndexed}.
+	 * 
+	 * @param pages
+	 *            Number of pages to prefetch in both directions
+	 * @return the prepared fetches, to be run on any thread and applied with
+	 *         {@link #applyPrefetch(PagePrefetch)}
+	 */
+	List<PagePrefetch> preparePrefetch(int pages) {
+		List<PagePrefetch> prefetches = new ArrayList<PagePrefetch>();
+		if (!(container instanceof PrefetchingIndexed) || pageLength == 0) {
+			return prefetches;
+		}
+		int knownSize = isKeysetPaging() ? -1 : getKnownRealSize();
+		/* Loading the current page tells in keyset mode whether more follow */
+		boolean next = !isKeysetPaging() || getPageIds() != null && morePages;
+		boolean previous = true;
+		for (int distance = 1; distance <= pages; distance++) {
+			int nextStart = startIndex + distance * pageLength;
+			next = next && (knownSize < 0 || nextStart < knownSize);
+			if (next) {
+				addPrefetch(prefetches, nextStart);
+			}
+			int previousStart = startIndex - distance * pageLength;
+			previous = previous && previousStart >= 0;
+			if (previous) {
+				addPrefetch(prefetches, previousStart);
+			}
+		}
+		return prefetches;
+	}
+
+	private void addPrefetch(List<PagePrefetch> prefetches, int start) {
+		PrefetchingIndexed prefetching = (PrefetchingIndexed) container;
+		ItemPrefetch prefetch;
+		if (isKeysetPaging()) {
+			if (prefetchedPages.containsKey(start)) {
+				return;
+			}
+			Map.Entry<Integer, Object> boundary = pageBoundaries.floorEntry(start);
+			if (boundary != null) {
+				prefetch = prefetching.prepareItemPrefetch(boundary.getValue(), start - boundary.getKey(),
+						pageLength + 1);
+			} else {
+				prefetch = prefetching.prepareItemPrefetch(null, start, pageLength + 1);
+			}
 		} else {
-			this.startIndex = startIndex;
+			prefetch = prefetching.prepareItemPrefetch(null, start, pageLength + 1);
+		}
+		if (prefetch != null) {
+			prefetches.add(new PagePrefetch(start, prefetchGeneration, prefetch));
+		}
+	}
+
+	/**
+	 * Takes the items of a completed prefetch into use.
+	 * 
+	 * @return true if the items were taken into use; false if the page or the
+	 *         real container has changed since the prefetch was prepared
+	 */
+	boolean applyPrefetch(PagePrefetch prefetch) {
+		if (prefetch.generation != prefetchGeneration
+				|| !((PrefetchingIndexed) container).applyItemPrefetch(prefetch.prefetch)) {
+			return false;
+		}
+		if (isKeysetPaging()) {
+			List<?> ids = prefetch.prefetch.getItemIds();
+			prefetchedPages.put(prefetch.start, ids);
+			int pageSize = Math.min(ids.size(), pageLength);
+			if (pageSize > 0) {
+				addPageBoundary(prefetch.start + pageSize, ids.get(pageSize - 1));
+			}
+		}
+		return true;
+	}
+
+	private void addPageBoundary(int index, Object precedingItemId) {
+		pageBoundaries.put(index, precedingItemId);
+		if (pageBoundaries.size() > MAX_PAGE_BOUNDARIES) {
+			/* Keep every other boundary, the rest are reached by skipping */
+			boolean remove = false;
+			for (Iterator<Integer> i = pageBoundaries.keySet().iterator(); i.hasNext();) {
+				i.next();
+				if (remove) {
+					i.remove();
+				}
+				remove = !remove;
+			}
+		}
+	}
+
+	/**
+	 * Fetch of the items of one page in advance.
+	 */
+	static class PagePrefetch {
+		private final int start;
+		private final int generation;
+		private final ItemPrefetch prefetch;
+
+		private PagePrefetch(int start, int generation, ItemPrefetch prefetch) {
+			this.start = start;
+			this.generation = generation;
+			this.prefetch = prefetch;
+		}
+
+		/**
+		 * Fetches the items. May be called from any thread.
+		 */
+		void fetch() {
+			prefetch.fetch();
 		}
 	}
 
@@ -53,6 +305,23 @@ public class PagedFilterTableContainer<T extends Container.Indexed & Container.F
 
 	@Override
 	public int size() {
+		if (isKeysetPaging()) {
+			return getPageIds().size();
+		}
+		if (getKnownRealSize() < 0) {
+			/* Find the rows of the page without counting all of them */
+			LazyCountFilterable lazy = (LazyCountFilterable) container;
+			if (pageLength == 0 || lazy.containsIndex(startIndex + pageLength - 1)) {
+				return pageLength;
+			}
+			if (lazy.getKnownSize() < 0) {
+				int rows = 0;
+				while (lazy.containsIndex(startIndex + rows)) {
+					rows++;
+				}
+				return rows;
+			}
+		}
 		int rowsLeft = container.size() - startIndex;
 		if (rowsLeft > pageLength) {
 			return pageLength;
@@ -65,11 +334,112 @@ public class PagedFilterTableContainer<T extends Container.Indexed & Container.F
 		return container.size();
 	}
 
+	/**
+	 * @return the size of the real container if it is known without counting
+	 *         its items, otherwise -1. Only a container implementing
+	 *         {@link LazyCountFilterable} may have an unknown size.
+	 */
+	public int getKnownRealSize() {
+		if (container instanceof LazyCountFilterable) {
+			return ((LazyCountFilterable) container).getKnownSize();
+		}
+		return container.size();
+	}
+
+	/**
+	 * Tests whether the real container has an item at the given index,
+	 * without counting its items if possible.
+	 */
+	public boolean containsRealIndex(int index) {
+		if (isKeysetPaging() && index >= startIndex) {
+			int pageSize = getPageIds().size();
+			if (index < startIndex + pageSize) {
+				return true;
+			} else if (index == startIndex + pageSize || index == startIndex + pageLength) {
+				return morePages;
+			}
+		}
+		if (container instanceof LazyCountFilterable) {
+			return ((LazyCountFilterable) container).containsIndex(index);
+		}
+		return index >= 0 && index < container.size();
+	}
+
 	@Override
 	public Object getIdByIndex(int index) {
+		if (isKeysetPaging() && index >= 0 && index < getPageIds().size()) {
+			return pageIds.get(index);
+		}
 		return container.getIdByIndex(index + startIndex);
 	}
 
+	/*
+	 * The item IDs and the ordered navigation are limited to the current
+	 * page, so that they cost the same regardless of the size of the real
+	 * container.
+	 */
+
+	@Override
+	public Collection<?> getItemIds() {
+		return getItemIds(0, size());
+	}
+
+	@Override
+	public int indexOfId(Object itemId) {
+		if (itemId == null) {
+			return -1;
+		}
+		int size = size();
+		/* Iterating with nextItemId or prevItemId asks for a neighbour of the previous answer */
+		if (indexHint >= 0 && indexHint < size && itemId.equals(getIdByIndex(indexHint))) {
+			return indexHint;
+		}
+		int index = getItemIds(0, size).indexOf(itemId);
+		indexHint = index;
+		return index;
+	}
+
+	@Override
+	public Object nextItemId(Object itemId) {
+		int index = indexOfId(itemId);
+		if (index < 0 || index + 1 >= size()) {
+			return null;
+		}
+		indexHint = index + 1;
+		return getIdByIndex(index + 1);
+	}
+
+	@Override
+	public Object prevItemId(Object itemId) {
+		int index = indexOfId(itemId);
+		if (index <= 0) {
+			return null;
+		}
+		indexHint = index - 1;
+		return getIdByIndex(index - 1);
+	}
+
+	@Override
+	public Object firstItemId() {
+		return size() > 0 ? getIdByIndex(0) : null;
+	}
+
+	@Override
+	public Object lastItemId() {
+		int size = size();
+		return size > 0 ? getIdByIndex(size - 1) : null;
+	}
+
+	@Override
+	public boolean isFirstId(Object itemId) {
+		return itemId != null && itemId.equals(firstItemId());
+	}
+
+	@Override
+	public boolean isLastId(Object itemId) {
+		return itemId != null && itemId.equals(lastItemId());
+	}
+
 	/*
 	 * Delegate methods to real container from here on
 	 */
@@ -84,13 +454,11 @@ public class PagedFilterTableContainer<T extends Container.Indexed & Container.F
 		return container.getContainerPropertyIds();
 	}
 
-	@Override
-	public Collection<?> getItemIds() {
-		return container.getItemIds();
-	}
-
 	@Override
 	public List<?> getItemIds(int startIndex, int numberOfItems) {
+		if (isKeysetPaging() && startIndex >= 0 && startIndex + numberOfItems <= getPageIds().size()) {
+			return Collections.unmodifiableList(pageIds.subList(startIndex, startIndex + numberOfItems));
+		}
 		return container.getItemIds(this.startIndex + startIndex, numberOfItems);
 	}
 
@@ -140,36 +508,6 @@ public class PagedFilterTableContainer<T extends Container.Indexed & Container.F
 		return container.removeAllItems();
 	}
 
-	@Override
-	public Object nextItemId(Object itemId) {
-		return container.nextItemId(itemId);
-	}
-
-	@Override
-	public Object prevItemId(Object itemId) {
-		return container.prevItemId(itemId);
-	}
-
-	@Override
-	public Object firstItemId() {
-		return container.firstItemId();
-	}
-
-	@Override
-	public Object lastItemId() {
-		return container.lastItemId();
-	}
-
-	@Override
-	public boolean isFirstId(Object itemId) {
-		return container.isFirstId(itemId);
-	}
-
-	@Override
-	public boolean isLastId(Object itemId) {
-		return container.isLastId(itemId);
-	}
-
 	@Override
 	public Object addItemAfter(Object previousItemId) throws UnsupportedOperationException {
 		return container.addItemAfter(previousItemId);
@@ -180,11 +518,6 @@ public class PagedFilterTableContainer<T extends Container.Indexed & Container.F
 		return container.addItemAfter(previousItemId, newItemId);
 	}
 
-	@Override
-	public int indexOfId(Object itemId) {
-		return container.indexOfId(itemId);
-	}
-
 	@Override
 	public Object addItemAt(int index) throws UnsupportedOperationException {
 		return container.addItemAt(index);
@@ -219,6 +552,48 @@ public class PagedFilterTableContainer<T extends Container.Indexed & Container.F
 		container.addContainerFilter(filter);
 	}
 
+	@Override
+	public void replaceContainerFilter(Filter oldFilter, Filter newFilter) throws UnsupportedFilterException {
+		if (container instanceof RefinableFilterable) {
+			((RefinableFilterable) container).replaceContainerFilter(oldFilter, newFilter);
+		} else {
+			if (oldFilter != null) {
+				container.removeContainerFilter(oldFilter);
+			}
+			if (newFilter != null) {
+				container.addContainerFilter(newFilter);
+			}
+		}
+	}
+
+	@Override
+	public FilterEvaluation prepareFilterEvaluation(List<Filter> filters) {
+		if (container instanceof AsyncFilterable) {
+			return ((AsyncFilterable) container).prepareFilterEvaluation(filters);
+		}
+		return null;
+	}
+
+	@Override
+	public boolean applyFilterEvaluation(FilterEvaluation evaluation) {
+		if (container instanceof AsyncFilterable) {
+			return ((AsyncFilterable) container).applyFilterEvaluation(evaluation);
+		}
+		throw new IllegalArgumentException("The evaluation was not prepared by this container");
+	}
+
+	/*
+	 * Facets are counted over all pages, so the counts are the same as
+	 * without paging.
+	 */
+	@Override
+	public Map<Object, Map<Object, Integer>> countFacets(List<Filter> filters, Map<Object, Filter> facetFilters) {
+		if (container instanceof FacetCountable) {
+			return ((FacetCountable) container).countFacets(filters, facetFilters);
+		}
+		return null;
+	}
+
 	@Override
 	public Collection<Filter> getContainerFilters() {
 		return container.getContainerFilters();
@@ -0,0 +1,1221 @@
+package org.tepi.filtertable.sql;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EventObject;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.tepi.filtertable.engine.ItemPrefetch;
+import org.tepi.filtertable.engine.KeysetIndexed;
+import org.tepi.filtertable.engine.LazyCountFilterable;
+import org.tepi.filtertable.engine.PrefetchingIndexed;
+import org.tepi.filtertable.suggest.SuggestionSource;
+
+import com.vaadin.v7.data.Container;
+import com.vaadin.v7.data.Item;
+import com.vaadin.v7.data.Property;
+import com.vaadin.v7.data.util.filter.SimpleStringFilter;
+import com.vaadin.v7.data.util.filter.UnsupportedFilterException;
+import com.vaadin.v7.data.util.sqlcontainer.connection.JDBCConnectionPool;
+
+/**
+ * A read-only container over a database table or view that loads only the
+ * rows it is asked for. Use it as the data source of
+ * {@link org.tepi.filtertable.FilterTable} or
+ * {@link org.tepi.filtertable.paged.PagedFilterTable} for tables too large to
+ * be held in memory.
+ * <p>
+ * Filters are translated into a parameterized WHERE clause with a
+ * {@link SqlFilterTranslator}, so only the rows passing them are read from
+ * the database. Rows are fetched in pages of {@link #getFetchSize()} rows with
+ * LIMIT and OFFSET, and the most recently used pages are kept in memory. The
+ * number of rows is counted with COUNT(*) once per filter state, unless it is
+ * learned from a page with fewer rows than the fetch size. See
+ * {@link LazyCountFilterable} for counting in the background. Rows next to a
+ * known row can also be found by the values of the sort columns instead of an
+ * offset, see {@link KeysetIndexed}. Null values are ordered before any other
+ * value, as in Compare filters.
+ * <p>
+ * Property IDs are the column labels reported by the database and item IDs
+ * are the values of the key column, which must be unique. Changes made to the
+ * table by others become visible after {@link #refresh()}.
+ * <p>
+ * Connections are taken from a {@link JDBCConnectionPool}, which is
+ * serializable, so the container can be kept in the session. A container
+ * created with a DataSource can only be serialized if the DataSource is;
+ * otherwise use e.g. a J2EEConnectionPool, which looks the DataSource up by
+ * its JNDI name when needed.
+ * <p>
+ * The SQL follows the standard and works as is with e.g. H2, HSQLDB and
+ * PostgreSQL. For other databases override
+ * {@link #appendPaging(StringBuilder, List, int, int)} and, if needed, use a
+ * custom {@link SqlFilterTranslator}.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation", "rawtypes" })
+public class JdbcContainer implements KeysetIndexed, PrefetchingIndexed, Container.Sortable, LazyCountFilterable,
+		Container.ItemSetChangeNotifier, SuggestionSource {
+
+	/** Default number of rows fetched with one query */
+	public static final int DEFAULT_FETCH_SIZE = 100;
+
+	/** Default number of fetched pages kept in memory */
+	public static final int DEFAULT_CACHED_PAGES = 10;
+
+	private final JDBCConnectionPool connectionPool;
+	private final String tableName;
+	/* Column types by label, in the order of the table */
+	private final Map<String, Class<?>> columns = new LinkedHashMap<String, Class<?>>();
+	private final Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+	private final String keyColumn;
+	private SqlFilterTranslator translator = new SqlFilterTranslator();
+
+	private final List<Filter> filters = new ArrayList<Filter>();
+	private final List<Object> sortPropertyIds = new ArrayList<Object>();
+	private final List<Boolean> sortAscending = new ArrayList<Boolean>();
+
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+	private int cachedPages = DEFAULT_CACHED_PAGES;
+	/* Number of rows passing the filters, -1 if not counted yet */
+	private int size = -1;
+	/* Incremented whenever the fetched rows are discarded */
+	private int cacheVersion;
+	/* Fetched pages by page index, least recently used first */
+	private final LinkedHashMap<Integer, Page> pages = new LinkedHashMap<Integer, Page>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+			return size() > cachedPages;
+		}
+	};
+	/* Items found by seeking, least recently used first */
+	private final LinkedHashMap<Object, JdbcItem> seekItems = new LinkedHashMap<Object, JdbcItem>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, JdbcItem> eldest) {
+			return size() > cachedPages * fetchSize;
+		}
+	};
+
+	private List<ItemSetChangeListener> itemSetChangeListeners;
+
+	/**
+	 * Creates a container for a database table or view. The columns and their
+	 * types are read from the database.
+	 *
+	 * @param dataSource
+	 *            Source of the connections to the database. Each query takes
+	 *            a connection of its own and closes it, so a pooling data
+	 *            source is recommended. The container is serializable only if
+	 *            the data source is.
+	 * @param tableName
+	 *            Name of the table or view, inserted into the SQL as is. Quote
+	 *            it yourself if needed.
+	 * @param keyColumn
+	 *            Label of a column with unique values to use as the item IDs,
+	 *            matched ignoring case
+	 * @throws SQLException
+	 *             if the columns could not be read
+	 * @throws IllegalArgumentException
+	 *             if the table has no such key column
+	 */
+	public JdbcContainer(DataSource dataSource, String tableName, String keyColumn) throws SQLException {
+		this(new DataSourceConnectionPool(dataSource), tableName, keyColumn);
+	}
+
+	/**
+	 * Creates a container for a database table or view. The columns and their
+	 * types are read from the database.
+	 *
+	 * @param connectionPool
+	 *            Pool of the connections to the database. Each query reserves
+	 *            a connection and releases it when done.
+	 * @param tableName
+	 *            Name of the table or view, inserted into the SQL as is. Quote
+	 *            it yourself if needed.
+	 * @param keyColumn
+	 *            Label of a column with unique values to use as the item IDs,
+	 *            matched ignoring case
+	 * @throws SQLException
+	 *             if the columns could not be read
+	 * @throws IllegalArgumentException
+	 *             if the table has no such key column
+	 */
+	public JdbcContainer(JDBCConnectionPool connectionPool, String tableName, String keyColumn)
+			throws SQLException {
+		this.connectionPool = connectionPool;
+		this.tableName = tableName;
+		Connection connection = connectionPool.reserveConnection();
+		try (Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT * FROM " + tableName + " WHERE 1 = 0")) {
+			ResultSetMetaData metaData = resultSet.getMetaData();
+			for (int i = 1; i <= metaData.getColumnCount(); i++) {
+				String label = metaData.getColumnLabel(i);
+				columnIndexes.put(label, columns.size());
+				columns.put(label, typeOf(metaData.getColumnClassName(i)));
+			}
+		} finally {
+			connectionPool.releaseConnection(connection);
+		}
+		String key = null;
+		for (String column : columns.keySet()) {
+			if (column.equalsIgnoreCase(keyColumn)) {
+				key = column;
+				break;
+			}
+		}
+		if (key == null) {
+			throw new IllegalArgumentException("No column " + keyColumn + " in " + tableName);
+		}
+		this.keyColumn = key;
+		translator.setPropertyTypes(columns);
+	}
+
+	private static Class<?> typeOf(String className) {
+		try {
+			return Class.forName(className);
+		} catch (ClassNotFoundException | RuntimeException e) {
+			return Object.class;
+		}
+	}
+
+	/**
+	 * @return the pool the connections to the database are taken from
+	 */
+	public JDBCConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
+	/**
+	 * @return the label of the column whose values are the item IDs
+	 */
+	public String getKeyColumn() {
+		return keyColumn;
+	}
+
+	/**
+	 * Sets the translator of the filters, e.g. one adapted to the SQL dialect
+	 * of the database. Filters already added must be supported by it. The
+	 * types of the columns are set to it.
+	 *
+	 * @param translator
+	 *            Filter translator to use
+	 */
+	public void setFilterTranslator(SqlFilterTranslator translator) {
+		if (translator == null) {
+			throw new IllegalArgumentException("Translator must not be null");
+		}
+		translator.setPropertyTypes(columns);
+		this.translator = translator;
+		refresh();
+	}
+
+	/**
+	 * @return the translator of the filters
+	 */
+	public SqlFilterTranslator getFilterTranslator() {
+		return translator;
+	}
+
+	/**
+	 * Sets the number of rows fetched with one query. Set this to at least
+	 * the page length of the table.
+	 *
+	 * @param fetchSize
+	 *            Number of rows per query, at least 1
+	 */
+	public void setFetchSize(int fetchSize) {
+		if (fetchSize < 1) {
+			throw new IllegalArgumentException("Fetch size must be at least 1");
+		}
+		this.fetchSize = fetchSize;
+		clearCache();
+	}
+
+	/**
+	 * @return the number of rows fetched with one query
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Sets the number of fetched pages kept in memory.
+	 *
+	 * @param cachedPages
+	 *            Number of pages, at least 1
+	 */
+	public void setCachedPageCount(int cachedPages) {
+		if (cachedPages < 1) {
+			throw new IllegalArgumentException("At least one page must be cached");
+		}
+		this.cachedPages = cachedPages;
+		while (pages.size() > cachedPages) {
+			pages.remove(pages.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * @return the number of fetched pages kept in memory
+	 */
+	public int getCachedPageCount() {
+		return cachedPages;
+	}
+
+	/**
+	 * Discards the fetched rows and the row count, so that changes made to
+	 * the table become visible, and notifies the listeners.
+	 */
+	public void refresh() {
+		size = -1;
+		clearCache();
+		fireItemSetChange();
+	}
+
+	/*
+	 * Container interface
+	 */
+
+	@Override
+	public Item getItem(Object itemId) {
+		if (itemId == null) {
+			return null;
+		}
+		for (Page page : pages.values()) {
+			Integer position = page.positions.get(itemId);
+			if (position != null) {
+				return page.items[position];
+			}
+		}
+		JdbcItem item = seekItems.get(itemId);
+		if (item != null) {
+			return item;
+		}
+		StringBuilder sql = new StringBuilder(selectFrom(getSelectList()));
+		List<Object> parameters = new ArrayList<Object>();
+		appendWhere(sql, parameters, filters, itemId);
+		List<Object[]> rows = query(sql.toString(), parameters, 1);
+		return rows.isEmpty() ? null : new JdbcItem(rows.get(0));
+	}
+
+	@Override
+	public Collection<?> getContainerPropertyIds() {
+		return Collections.unmodifiableCollection(columns.keySet());
+	}
+
+	@Override
+	public Collection<?> getItemIds() {
+		return getItemIds(0, size());
+	}
+
+	@Override
+	public Property getContainerProperty(Object itemId, Object propertyId) {
+		Item item = getItem(itemId);
+		return item == null ? null : item.getItemProperty(propertyId);
+	}
+
+	@Override
+	public Class<?> getType(Object propertyId) {
+		return columns.get(propertyId);
+	}
+
+	@Override
+	public int size() {
+		if (size < 0) {
+			size = countItems(filters);
+		}
+		return size;
+	}
+
+	@Override
+	public boolean containsId(Object itemId) {
+		return getItem(itemId) != null;
+	}
+
+	@Override
+	public Item addItem(Object itemId) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("JdbcContainer is read-only");
+	}
+
+	@Override
+	public Object addItem() throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("JdbcContainer is read-only");
+	}
+
+	@Override
+	public boolean removeItem(Object itemId) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("JdbcContainer is read-only");
+	}
+
+	@Override
+	public boolean addContainerProperty(Object propertyId, Class<?> type, Object defaultValue)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("JdbcContainer is read-only");
+	}
+
+	@Override
+	public boolean removeContainerProperty(Object propertyId) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("JdbcContainer is read-only");
+	}
+
+	@Override
+	public boolean removeAllItems() throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("JdbcContainer is read-only");
+	}
+
+	/*
+	 * Container.Ordered interface
+	 */
+
+	/*
+	 * The neighbours of an item not on the fetched pages are found by the
+	 * values of the sort columns, which does not depend on its index.
+	 */
+
+	@Override
+	public Object nextItemId(Object itemId) {
+		int index = fetchedIndexOf(itemId);
+		if (index >= 0) {
+			return containsIndex(index + 1) ? getIdByIndex(index + 1) : null;
+		}
+		List<?> ids = itemId == null ? null : seek(itemId, true, 0, 1);
+		return ids == null || ids.isEmpty() ? null : ids.get(0);
+	}
+
+	@Override
+	public Object prevItemId(Object itemId) {
+		int index = fetchedIndexOf(itemId);
+		if (index >= 0) {
+			return index == 0 ? null : getIdByIndex(index - 1);
+		}
+		List<?> ids = itemId == null ? null : seek(itemId, false, 0, 1);
+		return ids == null || ids.isEmpty() ? null : ids.get(0);
+	}
+
+	@Override
+	public Object firstItemId() {
+		return containsIndex(0) ? getIdByIndex(0) : null;
+	}
+
+	@Override
+	public Object lastItemId() {
+		return size() == 0 ? null : getIdByIndex(size() - 1);
+	}
+
+	@Override
+	public boolean isFirstId(Object itemId) {
+		return itemId != null && itemId.equals(firstItemId());
+	}
+
+	@Override
+	public boolean isLastId(Object itemId) {
+		return itemId != null && itemId.equals(lastItemId());
+	}
+
+	@Override
+	public Object addItemAfter(Object previousItemId) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("JdbcContainer is read-only");
+	}
+
+	@Override
+	public Item addItemAfter(Object previousItemId, Object newItemId) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("JdbcContainer is read-only");
+	}
+
+	/*
+	 * Container.Indexed interface
+	 */
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Items on the fetched pages are found in memory. For other items the
+	 * rows ordered before the item are counted in the database, so only the
+	 * item and the count are read.
+	 */
+	@Override
+	public int indexOfId(Object itemId) {
+		int index = fetchedIndexOf(itemId);
+		if (index >= 0 || itemId == null) {
+			return index;
+		}
+		JdbcItem item = (JdbcItem) getItem(itemId);
+		if (item == null) {
+			return -1;
+		}
+		StringBuilder sql = new StringBuilder(selectFrom("COUNT(*)"));
+		List<Object> parameters = new ArrayList<Object>();
+		appendWhere(sql, parameters, filters, null);
+		sql.append(filters.isEmpty() ? " WHERE " : " AND ");
+		appendSeek(sql, parameters, item, false);
+		return ((Number) query(sql.toString(), parameters, 1).get(0)[0]).intValue();
+	}
+
+	/* Returns the index of an item on the fetched pages, or -1 */
+	private int fetchedIndexOf(Object itemId) {
+		if (itemId != null) {
+			for (Page page : pages.values()) {
+				Integer position = page.positions.get(itemId);
+				if (position != null) {
+					return page.start + position;
+				}
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public Object getIdByIndex(int index) {
+		if (!containsIndex(index)) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds");
+		}
+		Page page = getPage(index / fetchSize);
+		return page.ids[index - page.start];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The items are not counted; only the pages covering the requested range
+	 * are fetched.
+	 */
+	@Override
+	public List<?> getItemIds(final int startIndex, int numberOfItems) {
+		if (startIndex < 0 || numberOfItems < 0) {
+			throw new IndexOutOfBoundsException("Start index and number of items must not be negative");
+		}
+		int available = 0;
+		while (available < numberOfItems && containsIndex(startIndex + available)) {
+			available++;
+		}
+		final int count = available;
+		return new AbstractList<Object>() {
+			@Override
+			public Object get(int index) {
+				if (index < 0 || index >= count) {
+					throw new IndexOutOfBoundsException("Index " + index + " out of bounds, size " + count);
+				}
+				return getIdByIndex(startIndex + index);
+			}
+
+			@Override
+			public int size() {
+				return count;
+			}
+		};
+	}
+
+	@Override
+	public Object addItemAt(int index) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("JdbcContainer is read-only");
+	}
+
+	@Override
+	public Item addItemAt(int index, Object newItemId) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("JdbcContainer is read-only");
+	}
+
+	/*
+	 * Container.Sortable interface
+	 */
+
+	@Override
+	public void sort(Object[] propertyId, boolean[] ascending) {
+		sortPropertyIds.clear();
+		sortAscending.clear();
+		for (int i = 0; i < propertyId.length; i++) {
+			if (columns.containsKey(propertyId[i])) {
+				sortPropertyIds.add(propertyId[i]);
+				sortAscending.add(i < ascending.length ? ascending[i] : true);
+			}
+		}
+		/* The order changes, the number of rows does not */
+		clearCache();
+		fireItemSetChange();
+	}
+
+	@Override
+	public Collection<?> getSortableContainerPropertyIds() {
+		return getContainerPropertyIds();
+	}
+
+	/*
+	 * Container.Filterable interface
+	 */
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws UnsupportedFilterException
+	 *             if the filter can not be translated to SQL
+	 */
+	@Override
+	public void addContainerFilter(Filter filter) throws UnsupportedFilterException {
+		if (filter == null || !translator.isSupported(filter)) {
+			throw new UnsupportedFilterException("Filter can not be translated to SQL: " + filter);
+		}
+		filters.add(filter);
+		refresh();
+	}
+
+	@Override
+	public void removeContainerFilter(Filter filter) {
+		if (filters.remove(filter)) {
+			refresh();
+		}
+	}
+
+	@Override
+	public void removeAllContainerFilters() {
+		if (!filters.isEmpty()) {
+			filters.clear();
+			refresh();
+		}
+	}
+
+	@Override
+	public Collection<Filter> getContainerFilters() {
+		return Collections.unmodifiableList(filters);
+	}
+
+	/*
+	 * KeysetIndexed interface
+	 */
+
+	@Override
+	public List<?> getItemIdsAfter(Object itemId, int skip, int count) {
+		return seek(itemId, true, skip, count);
+	}
+
+	@Override
+	public List<?> getItemIdsBefore(Object itemId, int count) {
+		List<Object> ids = seek(itemId, false, 0, count);
+		if (ids != null) {
+			Collections.reverse(ids);
+		}
+		return ids;
+	}
+
+	/*
+	 * PrefetchingIndexed interface
+	 */
+
+	@Override
+	public ItemPrefetch prepareItemPrefetch(Object afterItemId, int skip, int count) {
+		if (count <= 0 || skip < 0) {
+			return null;
+		}
+		StringBuilder sql = new StringBuilder();
+		List<Object> parameters = new ArrayList<Object>();
+		if (afterItemId != null) {
+			if (!prepareSeek(afterItemId, true, skip, count, sql, parameters)) {
+				return null;
+			}
+			return new JdbcPrefetch(afterItemId, skip, count, sql.toString(), parameters, -1);
+		}
+		/* Fetch the missing pages covering the range */
+		int firstPage = skip / fetchSize;
+		int lastPage = (skip + count - 1) / fetchSize;
+		if (size >= 0) {
+			lastPage = Math.min(lastPage, Math.max(0, size - 1) / fetchSize);
+		}
+		while (firstPage <= lastPage && pages.containsKey(firstPage)) {
+			firstPage++;
+		}
+		while (lastPage >= firstPage && pages.containsKey(lastPage)) {
+			lastPage--;
+		}
+		if (firstPage > lastPage) {
+			return null;
+		}
+		preparePages(firstPage, lastPage - firstPage + 1, sql, parameters);
+		return new JdbcPrefetch(null, skip, count, sql.toString(), parameters, firstPage);
+	}
+
+	@Override
+	public boolean applyItemPrefetch(ItemPrefetch prefetch) {
+		if (!(prefetch instanceof JdbcPrefetch) || !prefetch.isDone()) {
+			return false;
+		}
+		JdbcPrefetch jdbcPrefetch = (JdbcPrefetch) prefetch;
+		if (jdbcPrefetch.getContainer() != this || jdbcPrefetch.cacheVersion != cacheVersion) {
+			return false;
+		}
+		List<Object[]> rows = jdbcPrefetch.rows;
+		if (jdbcPrefetch.firstPage < 0) {
+			int keyIndex = columnIndexes.get(keyColumn);
+			for (Object[] row : rows) {
+				seekItems.put(row[keyIndex], new JdbcItem(row));
+			}
+			return true;
+		}
+		int pageIndex = jdbcPrefetch.firstPage;
+		for (int start = 0; start < rows.size() || start == 0; start += fetchSize, pageIndex++) {
+			if (!pages.containsKey(pageIndex)) {
+				addPage(pageIndex, rows.subList(start, Math.min(start + fetchSize, rows.size())));
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * LazyCountFilterable interface
+	 */
+
+	@Override
+	public int getKnownSize() {
+		return size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Returns the known size by default. Override to estimate the size e.g.
+	 * from the statistics of the database.
+	 */
+	@Override
+	public int estimateSize() {
+		return size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Fetches the page of the index, unless the size is already known.
+	 */
+	@Override
+	public boolean containsIndex(int index) {
+		if (index < 0) {
+			return false;
+		} else if (size >= 0) {
+			return index < size;
+		}
+		Page page = getPage(index / fetchSize);
+		return index - page.start < page.ids.length;
+	}
+
+	@Override
+	public int countItems(List<Filter> filters) {
+		StringBuilder sql = new StringBuilder(selectFrom("COUNT(*)"));
+		List<Object> parameters = new ArrayList<Object>();
+		appendWhere(sql, parameters, filters, null);
+		return ((Number) query(sql.toString(), parameters, 1).get(0)[0]).intValue();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Groups the rows of the table by the value of the column, so only the
+	 * suggested values are read from the database.
+	 */
+	@Override
+	public List<String> suggestValues(Object propertyId, String prefix, int limit) {
+		if (limit <= 0 || columns.get(propertyId) != String.class) {
+			return Collections.emptyList();
+		}
+		String column = translator.getColumnName(propertyId);
+		StringBuilder sql = new StringBuilder(selectFrom(column + ", COUNT(*)"));
+		List<Object> parameters = new ArrayList<Object>();
+		sql.append(" WHERE ").append(column).append(" IS NOT NULL");
+		if (prefix != null && !prefix.isEmpty()) {
+			sql.append(" AND ");
+			translator.translate(new SimpleStringFilter(propertyId, prefix, true, true), sql, parameters);
+		}
+		sql.append(" GROUP BY ").append(column).append(" ORDER BY COUNT(*) DESC, ").append(column);
+		appendPaging(sql, parameters, 0, limit);
+		List<String> values = new ArrayList<String>(limit);
+		for (Object[] row : query(sql.toString(), parameters, limit)) {
+			values.add((String) row[0]);
+		}
+		return values;
+	}
+
+	@Override
+	public boolean setKnownSize(List<Filter> filters, int size) {
+		if (!this.filters.equals(filters)) {
+			return false;
+		}
+		this.size = size;
+		return true;
+	}
+
+	/*
+	 * SQL
+	 */
+
+	/**
+	 * Appends the clause restricting the result to <code>limit</code> rows
+	 * starting from <code>offset</code>. By default
+	 * <code>LIMIT ? OFFSET ?</code>.
+	 *
+	 * @param sql
+	 *            Query to append the clause to
+	 * @param parameters
+	 *            List to append the parameters of the clause to
+	 * @param offset
+	 *            Number of rows to skip
+	 * @param limit
+	 *            Maximum number of rows to return
+	 */
+	protected void appendPaging(StringBuilder sql, List<Object> parameters, int offset, int limit) {
+		sql.append(" LIMIT ? OFFSET ?");
+		parameters.add(limit);
+		parameters.add(offset);
+	}
+
+	/**
+	 * Sets a parameter of a statement. Dates are passed as Timestamps and
+	 * enums by their names, other values as they are.
+	 */
+	protected void setParameter(PreparedStatement statement, int index, Object value) throws SQLException {
+		if (value instanceof Date && !(value instanceof Timestamp || value instanceof java.sql.Date
+				|| value instanceof java.sql.Time)) {
+			statement.setTimestamp(index, new Timestamp(((Date) value).getTime()));
+		} else if (value instanceof Enum) {
+			statement.setString(index, ((Enum<?>) value).name());
+		} else {
+			statement.setObject(index, value);
+		}
+	}
+
+	private String selectFrom(String selectList) {
+		return "SELECT " + selectList + " FROM " + tableName;
+	}
+
+	private String getSelectList() {
+		StringBuilder sb = new StringBuilder();
+		for (String column : columns.keySet()) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(translator.getColumnName(column));
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Appends the WHERE clause of the filters, restricted to a single item if
+	 * an ID is given.
+	 */
+	private void appendWhere(StringBuilder sql, List<Object> parameters, List<Filter> filters, Object itemId) {
+		String keyword = " WHERE ";
+		if (itemId != null) {
+			sql.append(keyword).append(translator.getColumnName(keyColumn)).append(" = ?");
+			parameters.add(itemId);
+			keyword = " AND ";
+		}
+		for (Filter filter : filters) {
+			sql.append(keyword);
+			translator.translate(filter, sql, parameters);
+			keyword = " AND ";
+		}
+	}
+
+	/**
+	 * Appends a column of the ORDER BY clause. By default null values are
+	 * ordered before any other value, i.e. <code>ASC NULLS FIRST</code> and
+	 * <code>DESC NULLS LAST</code>. Keyset pagination relies on this order.
+	 *
+	 * @param sql
+	 *            Query to append the column to
+	 * @param column
+	 *            SQL expression of the column
+	 * @param ascending
+	 *            Direction of the order
+	 */
+	protected void appendSortColumn(StringBuilder sql, String column, boolean ascending) {
+		sql.append(column).append(ascending ? " ASC NULLS FIRST" : " DESC NULLS LAST");
+	}
+
+	private void appendOrderBy(StringBuilder sql) {
+		appendOrderBy(sql, false);
+	}
+
+	/* The key column breaks ties, so that the order and the pages are stable */
+	private void appendOrderBy(StringBuilder sql, boolean reverse) {
+		sql.append(" ORDER BY ");
+		for (int i = 0; i < sortPropertyIds.size(); i++) {
+			appendSortColumn(sql, translator.getColumnName(sortPropertyIds.get(i)), sortAscending.get(i) != reverse);
+			sql.append(", ");
+		}
+		appendSortColumn(sql, translator.getColumnName(keyColumn), !reverse);
+	}
+
+	/*
+	 * Fetches the rows after (forward) or before the given item in the
+	 * current order, nearest first.
+	 */
+	private List<Object> seek(Object itemId, boolean forward, int skip, int count) {
+		StringBuilder sql = new StringBuilder();
+		List<Object> parameters = new ArrayList<Object>();
+		if (!prepareSeek(itemId, forward, skip, count, sql, parameters)) {
+			return null;
+		}
+		int keyIndex = columnIndexes.get(keyColumn);
+		List<Object> ids = new ArrayList<Object>(count);
+		for (Object[] row : query(sql.toString(), parameters, count)) {
+			ids.add(row[keyIndex]);
+			seekItems.put(row[keyIndex], new JdbcItem(row));
+		}
+		return ids;
+	}
+
+	/* Returns false if the item is not in the container */
+	private boolean prepareSeek(Object itemId, boolean forward, int skip, int count, StringBuilder sql,
+			List<Object> parameters) {
+		JdbcItem boundary = (JdbcItem) getItem(itemId);
+		if (boundary == null) {
+			return false;
+		}
+		sql.append(selectFrom(getSelectList()));
+		appendWhere(sql, parameters, filters, null);
+		sql.append(filters.isEmpty() ? " WHERE " : " AND ");
+		appendSeek(sql, parameters, boundary, forward);
+		appendOrderBy(sql, !forward);
+		appendPaging(sql, parameters, skip, count);
+		return true;
+	}
+
+	/*
+	 * Appends the condition selecting the rows ordered after (forward) or
+	 * before the boundary row: (c1 beyond v1) OR (c1 = v1 AND c2 beyond v2)
+	 * OR ..., ending with the key column. Null values come first in ascending
+	 * order.
+	 */
+	private void appendSeek(StringBuilder sql, List<Object> parameters, JdbcItem boundary, boolean forward) {
+		List<Object> sortColumns = new ArrayList<Object>(sortPropertyIds);
+		List<Boolean> directions = new ArrayList<Boolean>(sortAscending);
+		sortColumns.add(keyColumn);
+		directions.add(true);
+		StringBuilder equal = new StringBuilder();
+		List<Object> equalParameters = new ArrayList<Object>();
+		sql.append('(');
+		boolean first = true;
+		for (int i = 0; i < sortColumns.size(); i++) {
+			String column = translator.getColumnName(sortColumns.get(i));
+			Object value = boundary.values[columnIndexes.get(sortColumns.get(i))];
+			/* True if the rows beyond the boundary have greater values */
+			boolean greater = forward == directions.get(i);
+			String beyond;
+			if (value == null) {
+				/* Nothing is less than null */
+				beyond = greater ? column + " IS NOT NULL" : null;
+			} else {
+				beyond = greater ? column + " > ?" : "(" + column + " < ? OR " + column + " IS NULL)";
+			}
+			if (beyond != null) {
+				sql.append(first ? "(" : " OR (").append(equal).append(beyond).append(')');
+				parameters.addAll(equalParameters);
+				if (value != null) {
+					parameters.add(value);
+				}
+				first = false;
+			}
+			if (value == null) {
+				equal.append(column).append(" IS NULL AND ");
+			} else {
+				equal.append(column).append(" = ? AND ");
+				equalParameters.add(value);
+			}
+		}
+		sql.append(first ? "1 = 0)" : ")");
+	}
+
+	private void clearCache() {
+		pages.clear();
+		seekItems.clear();
+		cacheVersion++;
+	}
+
+	private Page getPage(int pageIndex) {
+		Page page = pages.get(pageIndex);
+		if (page == null) {
+			StringBuilder sql = new StringBuilder();
+			List<Object> parameters = new ArrayList<Object>();
+			preparePages(pageIndex, 1, sql, parameters);
+			page = addPage(pageIndex, query(sql.toString(), parameters, fetchSize));
+		}
+		return page;
+	}
+
+	private void preparePages(int firstPage, int pageCount, StringBuilder sql, List<Object> parameters) {
+		sql.append(selectFrom(getSelectList()));
+		appendWhere(sql, parameters, filters, null);
+		appendOrderBy(sql);
+		appendPaging(sql, parameters, firstPage * fetchSize, pageCount * fetchSize);
+	}
+
+	private Page addPage(int pageIndex, List<Object[]> rows) {
+		Page page = new Page(pageIndex * fetchSize, rows);
+		pages.put(pageIndex, page);
+		if (page.ids.length < fetchSize && (page.ids.length > 0 || pageIndex == 0)) {
+			/* The last page tells the number of rows */
+			size = page.start + page.ids.length;
+		}
+		return page;
+	}
+
+	private List<Object[]> query(String sql, List<Object> parameters, int expectedRows) {
+		try {
+			Connection connection = connectionPool.reserveConnection();
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				setParameters(statement, parameters);
+				statement.setFetchSize(expectedRows);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					int columnCount = resultSet.getMetaData().getColumnCount();
+					List<Object[]> rows = new ArrayList<Object[]>(expectedRows);
+					while (resultSet.next()) {
+						Object[] row = new Object[columnCount];
+						for (int i = 0; i < columnCount; i++) {
+							row[i] = resultSet.getObject(i + 1);
+						}
+						rows.add(row);
+					}
+					return rows;
+				}
+			} finally {
+				connectionPool.releaseConnection(connection);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Query failed: " + sql, e);
+		}
+	}
+
+	private void setParameters(PreparedStatement statement, List<Object> parameters) throws SQLException {
+		for (int i = 0; i < parameters.size(); i++) {
+			setParameter(statement, i + 1, parameters.get(i));
+		}
+	}
+
+	/**
+	 * Connection pool taking a new connection from a DataSource for each
+	 * query and closing it when released.
+	 */
+	private static class DataSourceConnectionPool implements JDBCConnectionPool {
+		private final DataSource dataSource;
+
+		private DataSourceConnectionPool(DataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+
+		@Override
+		public Connection reserveConnection() throws SQLException {
+			return dataSource.getConnection();
+		}
+
+		@Override
+		public void releaseConnection(Connection conn) {
+			try {
+				conn.close();
+			} catch (SQLException e) {
+				/* The connection is not used any more */
+			}
+		}
+
+		@Override
+		public void destroy() {
+			/* Connections are closed as they are released */
+		}
+	}
+
+	/**
+	 * Rows fetched in advance, see {@link PrefetchingIndexed}. Either whole
+	 * pages starting from the given page, or the rows found by seeking if the
+	 * page is -1.
+	 */
+	private class JdbcPrefetch extends ItemPrefetch {
+		private final String sql;
+		private final List<Object> parameters;
+		private final int firstPage;
+		private final int cacheVersion = JdbcContainer.this.cacheVersion;
+		private volatile List<Object[]> rows;
+
+		private JdbcPrefetch(Object afterItemId, int skip, int count, String sql, List<Object> parameters,
+				int firstPage) {
+			super(afterItemId, skip, count);
+			this.sql = sql;
+			this.parameters = parameters;
+			this.firstPage = firstPage;
+		}
+
+		private JdbcContainer getContainer() {
+			return JdbcContainer.this;
+		}
+
+		@Override
+		protected List<?> doFetch() {
+			List<Object[]> fetched = query(sql, parameters, firstPage < 0 ? getCount() : fetchSize);
+			int keyIndex = columnIndexes.get(keyColumn);
+			int from = firstPage < 0 ? 0 : Math.max(0, getSkip() - firstPage * fetchSize);
+			List<Object> ids = new ArrayList<Object>();
+			for (int i = from; i < fetched.size() && ids.size() < getCount(); i++) {
+				ids.add(fetched.get(i)[keyIndex]);
+			}
+			rows = fetched;
+			return ids;
+		}
+	}
+
+	/**
+	 * Rows fetched with one query.
+	 */
+	private class Page implements Serializable {
+		private final int start;
+		private final Object[] ids;
+		private final JdbcItem[] items;
+		private final Map<Object, Integer> positions = new HashMap<Object, Integer>();
+
+		private Page(int start, List<Object[]> rows) {
+			this.start = start;
+			ids = new Object[rows.size()];
+			items = new JdbcItem[rows.size()];
+			int keyIndex = columnIndexes.get(keyColumn);
+			for (int i = 0; i < ids.length; i++) {
+				items[i] = new JdbcItem(rows.get(i));
+				ids[i] = rows.get(i)[keyIndex];
+				positions.put(ids[i], i);
+			}
+		}
+	}
+
+	/**
+	 * Item holding the values of one fetched row.
+	 */
+	private class JdbcItem implements Item {
+		private final Object[] values;
+
+		private JdbcItem(Object[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public Property getItemProperty(Object id) {
+			Integer index = columnIndexes.get(id);
+			return index == null ? null : new JdbcProperty(values[index], columns.get(id));
+		}
+
+		@Override
+		public Collection<?> getItemPropertyIds() {
+			return getContainerPropertyIds();
+		}
+
+		@Override
+		public boolean addItemProperty(Object id, Property property) throws UnsupportedOperationException {
+			throw new UnsupportedOperationException("JdbcContainer is read-only");
+		}
+
+		@Override
+		public boolean removeItemProperty(Object id) throws UnsupportedOperationException {
+			throw new UnsupportedOperationException("JdbcContainer is read-only");
+		}
+	}
+
+	/**
+	 * Read-only property of a fetched value.
+	 */
+	private static class JdbcProperty implements Property {
+		private final Object value;
+		private final Class<?> type;
+
+		private JdbcProperty(Object value, Class<?> type) {
+			this.value = value;
+			this.type = type;
+		}
+
+		@Override
+		public Object getValue() {
+			return value;
+		}
+
+		@Override
+		public void setValue(Object newValue) throws ReadOnlyException {
+			throw new ReadOnlyException("JdbcContainer is read-only");
+		}
+
+		@Override
+		public Class getType() {
+			return type;
+		}
+
+		@Override
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		@Override
+		public void setReadOnly(boolean newStatus) {
+			/* Always read-only */
+		}
+
+		@Override
+		public String toString() {
+			return value == null ? null : value.toString();
+		}
+	}
+
+	/*
+	 * Events and listeners
+	 */
+
+	private static class BaseItemSetChangeEvent extends EventObject implements Container.ItemSetChangeEvent {
+		private BaseItemSetChangeEvent(JdbcContainer source) {
+			super(source);
+		}
+
+		@Override
+		public Container getContainer() {
+			return (Container) getSource();
+		}
+	}
+
+	protected void fireItemSetChange() {
+		if (itemSetChangeListeners != null) {
+			BaseItemSetChangeEvent event = new BaseItemSetChangeEvent(this);
+			for (ItemSetChangeListener listener : new ArrayList<ItemSetChangeListener>(itemSetChangeListeners)) {
+				listener.containerItemSetChange(event);
+			}
+		}
+	}
+
+	@Override
+	public void addItemSetChangeListener(ItemSetChangeListener listener) {
+		if (itemSetChangeListeners == null) {
+			itemSetChangeListeners = new LinkedList<ItemSetChangeListener>();
+		}
+		itemSetChangeListeners.add(listener);
+	}
+
+	@Override
+	public void addListener(ItemSetChangeListener listener) {
+		addItemSetChangeListener(listener);
+	}
+
+	@Override
+	public void removeItemSetChangeListener(ItemSetChangeListener listener) {
+		if (itemSetChangeListeners != null) {
+			itemSetChangeListeners.remove(listener);
+		}
+	}
+
+	@Override
+	public void removeListener(ItemSetChangeListener listener) {
+		removeItemSetChangeListener(listener);
+	}
+}
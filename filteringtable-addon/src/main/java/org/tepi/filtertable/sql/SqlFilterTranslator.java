@@ -0,0 +1,264 @@
+package org.tepi.filtertable.sql;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.tepi.filtertable.engine.FilterCompiler;
+
+import com.vaadin.v7.data.Container.Filter;
+import com.vaadin.v7.data.util.filter.Between;
+import com.vaadin.v7.data.util.filter.Compare;
+import com.vaadin.v7.data.util.filter.IsNull;
+import com.vaadin.v7.data.util.filter.Not;
+import com.vaadin.v7.data.util.filter.Or;
+import com.vaadin.v7.data.util.filter.SimpleStringFilter;
+import com.vaadin.v7.data.util.filter.UnsupportedFilterException;
+
+/**
+ * Translates container filters into a parameterized SQL condition.
+ * <p>
+ * The filters created by FilterTable (Compare, Between, SimpleStringFilter and
+ * the junctions And, Or and Not, as well as IsNull) are supported, also when
+ * compiled with {@link FilterCompiler} or combined into an
+ * {@link org.tepi.filtertable.engine.AdaptiveAnd}. The conditions select
+ * exactly the rows the filters would pass in memory, including the handling of
+ * null values, e.g. Compare.Greater passes null values. SimpleStringFilters on
+ * columns whose type is known not to be String match the column cast to
+ * VARCHAR, see {@link #setPropertyTypes(Map)}.
+ * <p>
+ * Override {@link #getColumnName(Object)} to map property IDs to columns
+ * differently, or the translate methods to adapt to an SQL dialect.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public class SqlFilterTranslator implements Serializable {
+
+	private Map<?, Class<?>> propertyTypes = Collections.emptyMap();
+
+	/**
+	 * Sets the types of the properties, e.g. as read from the database. A
+	 * SimpleStringFilter on a property with a type other than String casts
+	 * its column to VARCHAR, since LIKE only accepts strings in e.g.
+	 * PostgreSQL. The columns of properties with no type are used as is.
+	 *
+	 * @param propertyTypes
+	 *            Types by property ID
+	 */
+	public void setPropertyTypes(Map<?, Class<?>> propertyTypes) {
+		this.propertyTypes = propertyTypes != null ? propertyTypes : Collections.<Object, Class<?>> emptyMap();
+	}
+
+	/**
+	 * Returns the type of a property, or null if not known.
+	 */
+	protected Class<?> getPropertyType(Object propertyId) {
+		return propertyTypes.get(propertyId);
+	}
+
+	/**
+	 * Tests whether the given filter can be translated.
+	 *
+	 * @param filter
+	 *            Filter to test
+	 * @return true if {@link #translate(Filter, StringBuilder, List)} accepts
+	 *         the filter
+	 */
+	public boolean isSupported(Filter filter) {
+		filter = FilterCompiler.unwrap(filter);
+		Collection<Filter> parts = FilterCompiler.getConjuncts(filter);
+		if (parts == null && filter instanceof Or) {
+			parts = ((Or) filter).getFilters();
+		}
+		if (parts != null) {
+			for (Filter part : parts) {
+				if (!isSupported(part)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (filter instanceof Not) {
+			return isSupported(((Not) filter).getFilter());
+		}
+		return filter instanceof Compare || filter instanceof Between || filter instanceof SimpleStringFilter
+				|| filter instanceof IsNull;
+	}
+
+	/**
+	 * Appends the SQL condition of a filter.
+	 *
+	 * @param filter
+	 *            Filter to translate
+	 * @param sql
+	 *            Statement to append the condition to
+	 * @param parameters
+	 *            List to append the values of the parameters of the condition
+	 *            to, in order
+	 * @throws UnsupportedFilterException
+	 *             if the filter can not be translated
+	 */
+	public void translate(Filter filter, StringBuilder sql, List<Object> parameters)
+			throws UnsupportedFilterException {
+		filter = FilterCompiler.unwrap(filter);
+		Collection<Filter> parts = FilterCompiler.getConjuncts(filter);
+		if (parts != null) {
+			translateJunction(parts, " AND ", "1 = 1", sql, parameters);
+		} else if (filter instanceof Or) {
+			translateJunction(((Or) filter).getFilters(), " OR ", "1 = 0", sql, parameters);
+		} else if (filter instanceof Not) {
+			translateNot((Not) filter, sql, parameters);
+		} else if (filter instanceof Compare) {
+			translateCompare((Compare) filter, sql, parameters);
+		} else if (filter instanceof Between) {
+			translateBetween((Between) filter, sql, parameters);
+		} else if (filter instanceof SimpleStringFilter) {
+			translateString((SimpleStringFilter) filter, sql, parameters);
+		} else if (filter instanceof IsNull) {
+			sql.append(getColumnName(((IsNull) filter).getPropertyId())).append(" IS NULL");
+		} else {
+			throw new UnsupportedFilterException("Filter can not be translated to SQL: " + filter);
+		}
+	}
+
+	/**
+	 * Returns the SQL expression of the column of a property. By default the
+	 * property ID as a quoted identifier.
+	 */
+	protected String getColumnName(Object propertyId) {
+		return quoteIdentifier(propertyId.toString());
+	}
+
+	/**
+	 * Quotes an identifier in the standard SQL way.
+	 */
+	protected String quoteIdentifier(String identifier) {
+		return '"' + identifier.replace("\"", "\"\"") + '"';
+	}
+
+	protected void translateJunction(Collection<Filter> parts, String operator, String empty, StringBuilder sql,
+			List<Object> parameters) {
+		if (parts.isEmpty()) {
+			sql.append(empty);
+			return;
+		}
+		sql.append('(');
+		boolean first = true;
+		for (Filter part : parts) {
+			if (!first) {
+				sql.append(operator);
+			}
+			first = false;
+			translate(part, sql, parameters);
+		}
+		sql.append(')');
+	}
+
+	/*
+	 * A condition on a null value is unknown rather than false in SQL, and
+	 * NOT would keep it unknown. Map it to false first, as Not passes the
+	 * items its filter does not pass.
+	 */
+	protected void translateNot(Not not, StringBuilder sql, List<Object> parameters) {
+		sql.append("(CASE WHEN ");
+		translate(not.getFilter(), sql, parameters);
+		sql.append(" THEN 1 ELSE 0 END) = 0");
+	}
+
+	/*
+	 * Compare orders null before any value: a null value passes Greater and
+	 * GreaterOrEqual, and with a null constant, every value passes Less.
+	 */
+	protected void translateCompare(Compare compare, StringBuilder sql, List<Object> parameters) {
+		String column = getColumnName(compare.getPropertyId());
+		Object value = compare.getValue();
+		if (value == null) {
+			switch (compare.getOperation()) {
+			case EQUAL:
+			case GREATER_OR_EQUAL:
+				sql.append(column).append(" IS NULL");
+				break;
+			case LESS:
+				sql.append(column).append(" IS NOT NULL");
+				break;
+			case LESS_OR_EQUAL:
+				sql.append("1 = 1");
+				break;
+			case GREATER:
+				sql.append("1 = 0");
+				break;
+			}
+			return;
+		}
+		switch (compare.getOperation()) {
+		case EQUAL:
+			sql.append(column).append(" = ?");
+			break;
+		case GREATER:
+			sql.append('(').append(column).append(" > ? OR ").append(column).append(" IS NULL)");
+			break;
+		case GREATER_OR_EQUAL:
+			sql.append('(').append(column).append(" >= ? OR ").append(column).append(" IS NULL)");
+			break;
+		case LESS:
+			sql.append(column).append(" < ?");
+			break;
+		case LESS_OR_EQUAL:
+			sql.append(column).append(" <= ?");
+			break;
+		}
+		parameters.add(value);
+	}
+
+	/* Between has open bounds where null, and passes a null value only if both are */
+	protected void translateBetween(Between between, StringBuilder sql, List<Object> parameters) {
+		String column = getColumnName(between.getPropertyId());
+		Object start = between.getStartValue(), end = between.getEndValue();
+		if (start == null && end == null) {
+			sql.append("1 = 1");
+		} else if (end == null) {
+			sql.append(column).append(" >= ?");
+			parameters.add(start);
+		} else if (start == null) {
+			sql.append(column).append(" <= ?");
+			parameters.add(end);
+		} else {
+			sql.append('(').append(column).append(" >= ? AND ").append(column).append(" <= ?)");
+			parameters.add(start);
+			parameters.add(end);
+		}
+	}
+
+	/*
+	 * The filter string of a case insensitive filter is already in lower case.
+	 * SimpleStringFilter matches the string value of any other type.
+	 */
+	protected void translateString(SimpleStringFilter filter, StringBuilder sql, List<Object> parameters) {
+		String column = getColumnName(filter.getPropertyId());
+		Class<?> type = getPropertyType(filter.getPropertyId());
+		if (type != null && type != String.class) {
+			column = "CAST(" + column + " AS VARCHAR)";
+		}
+		if (filter.isIgnoreCase()) {
+			column = "LOWER(" + column + ")";
+		}
+		sql.append(column).append(" LIKE ? ESCAPE '\\'");
+		String pattern = escapeLike(filter.getFilterString()) + '%';
+		parameters.add(filter.isOnlyMatchPrefix() ? pattern : '%' + pattern);
+	}
+
+	private static String escapeLike(String value) {
+		StringBuilder sb = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '%' || c == '_') {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+}
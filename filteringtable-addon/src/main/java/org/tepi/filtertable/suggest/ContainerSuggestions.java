@@ -0,0 +1,240 @@
+package org.tepi.filtertable.suggest;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.tepi.filtertable.engine.CodedColumnAccessor;
+import org.tepi.filtertable.engine.ColumnAccessor;
+import org.tepi.filtertable.engine.ColumnSource;
+
+import com.vaadin.v7.data.Container;
+import com.vaadin.v7.data.Container.ItemSetChangeEvent;
+import com.vaadin.v7.data.Container.ItemSetChangeListener;
+import com.vaadin.v7.data.Property;
+import com.vaadin.v7.data.util.AbstractInMemoryContainer;
+
+/**
+ * Suggests values of a String property of a container, backed by a
+ * {@link PrefixIndex} that follows the items of the container.
+ * <p>
+ * A container implementing {@link SuggestionSource}, such as a database
+ * container, is asked for the suggestions directly and nothing is indexed.
+ * Otherwise the index is built on first use and brought up to date on the
+ * next suggestion after an item set change or a value change. For a container
+ * implementing {@link ColumnSource} it covers all the rows regardless of the
+ * filters. The value of each row when last indexed is remembered for a
+ * dictionary encoded column, so that only the rows added, removed or modified
+ * since touch the index. Other columns are indexed again in full.
+ * <p>
+ * Other containers are indexed through their item IDs, which leave out the
+ * items not passing the filters, so the index is rebuilt only while the
+ * container has no filters. This is done only for containers holding their
+ * items in memory; any other container gets no suggestions.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public class ContainerSuggestions implements ItemSetChangeListener {
+
+	private final Container container;
+	private final Object propertyId;
+	private final PrefixIndex index;
+
+	private boolean stale = true;
+	private int indexedRows;
+	/* Code of each row and value of each code when last indexed, for coded columns */
+	private int[] indexedCodes = new int[0];
+	private Object[] indexedCodeValues = new Object[0];
+
+	/* Edited values raise no item set change */
+	private final Property.ValueChangeListener valueChangeListener = new Property.ValueChangeListener() {
+
+		@Override
+		public void valueChange(Property.ValueChangeEvent event) {
+			if (isFollowingChanges()) {
+				stale = true;
+			}
+		}
+	};
+
+	/**
+	 * Creates suggestions for a property, indexing at most
+	 * {@link PrefixIndex#DEFAULT_MAX_VALUES} distinct values.
+	 *
+	 * @param container
+	 *            Container of the items
+	 * @param propertyId
+	 *            ID of the String property to suggest values of
+	 */
+	public ContainerSuggestions(Container container, Object propertyId) {
+		this(container, propertyId, PrefixIndex.DEFAULT_MAX_VALUES);
+	}
+
+	/**
+	 * Creates suggestions for a property.
+	 *
+	 * @param container
+	 *            Container of the items
+	 * @param propertyId
+	 *            ID of the String property to suggest values of
+	 * @param maxValues
+	 *            Maximum number of distinct values to index
+	 */
+	public ContainerSuggestions(Container container, Object propertyId, int maxValues) {
+		this.container = container;
+		this.propertyId = propertyId;
+		index = new PrefixIndex(maxValues);
+		if (container instanceof SuggestionSource) {
+			return;
+		}
+		if (container instanceof Container.ItemSetChangeNotifier) {
+			((Container.ItemSetChangeNotifier) container).addItemSetChangeListener(this);
+		}
+		if (container instanceof Property.ValueChangeNotifier) {
+			((Property.ValueChangeNotifier) container).addValueChangeListener(valueChangeListener);
+		}
+	}
+
+
+	/**
+	 * Returns the values starting with the given prefix, ignoring case, the
+	 * values of most items first.
+	 *
+	 * @param prefix
+	 *            Prefix typed by the user
+	 * @param limit
+	 *            Maximum number of values to return
+	 * @return the suggested values
+	 */
+	public List<String> suggest(String prefix, int limit) {
+		if (container instanceof SuggestionSource) {
+			return ((SuggestionSource) container).suggestValues(propertyId, prefix, limit);
+		}
+		if (stale) {
+			update();
+		}
+		return index.complete(prefix, limit);
+	}
+
+	/**
+	 * @return the index backing the suggestions
+	 */
+	public PrefixIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Stops following the changes of the container.
+	 */
+	public void detach() {
+		if (container instanceof Container.ItemSetChangeNotifier) {
+			((Container.ItemSetChangeNotifier) container).removeItemSetChangeListener(this);
+		}
+		if (container instanceof Property.ValueChangeNotifier) {
+			((Property.ValueChangeNotifier) container).removeValueChangeListener(valueChangeListener);
+		}
+	}
+
+	@Override
+	public void containerItemSetChange(ItemSetChangeEvent event) {
+		if (isFollowingChanges()) {
+			/* Caught up with on the next suggestion */
+			stale = true;
+		}
+	}
+
+	private boolean isFollowingChanges() {
+		return container instanceof ColumnSource || !(container instanceof Container.Filterable)
+				|| ((Container.Filterable) container).getContainerFilters().isEmpty();
+	}
+
+	private void update() {
+		stale = false;
+		ColumnAccessor column = container instanceof ColumnSource
+				? ((ColumnSource) container).getColumnAccessor(propertyId)
+				: null;
+		if (column instanceof CodedColumnAccessor) {
+			indexCodedRows(((ColumnSource) container).getRowCount(), (CodedColumnAccessor) column);
+		} else if (column != null) {
+			indexRows(((ColumnSource) container).getRowCount(), column);
+		} else if (container instanceof AbstractInMemoryContainer) {
+			indexItems();
+		}
+	}
+
+	/*
+	 * Compares the codes of the rows with those last indexed, so that the
+	 * index is only told the net change of the occurrences of each value.
+	 */
+	private void indexCodedRows(int rowCount, CodedColumnAccessor coded) {
+		int codeCount = coded.getCodeCount();
+		if (rowCount < indexedRows || !isDictionaryIndexed(coded)) {
+			/* Rows were dropped, e.g. on removeAllItems, or codes reassigned */
+			index.clear();
+			indexedRows = 0;
+		}
+		if (indexedCodes.length < rowCount) {
+			indexedCodes = Arrays.copyOf(indexedCodes, Math.max(rowCount, indexedCodes.length * 2));
+		}
+		int[] deltas = new int[codeCount];
+		for (int row = 0; row < rowCount; row++) {
+			int code = coded.getCode(row);
+			int indexedCode = row < indexedRows ? indexedCodes[row] : -1;
+			if (code != indexedCode) {
+				if (indexedCode >= 0) {
+					deltas[indexedCode]--;
+				}
+				if (code >= 0) {
+					deltas[code]++;
+				}
+				indexedCodes[row] = code;
+			}
+		}
+		indexedCodeValues = new Object[codeCount];
+		for (int code = 0; code < codeCount; code++) {
+			Object value = coded.getCodeValue(code);
+			indexedCodeValues[code] = value;
+			if (deltas[code] > 0) {
+				index.add(String.valueOf(value), deltas[code]);
+			} else if (deltas[code] < 0) {
+				index.remove(String.valueOf(value), -deltas[code]);
+			}
+		}
+		indexedRows = rowCount;
+	}
+
+	/* Codes are only added to a dictionary, until it is cleared or its unused codes are reclaimed */
+	private boolean isDictionaryIndexed(CodedColumnAccessor coded) {
+		if (coded.getCodeCount() < indexedCodeValues.length) {
+			return false;
+		}
+		for (int code = 0; code < indexedCodeValues.length; code++) {
+			if (!indexedCodeValues[code].equals(coded.getCodeValue(code))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void indexRows(int rowCount, ColumnAccessor column) {
+		index.clear();
+		for (int row = 0; row < rowCount; row++) {
+			Object value = column.getValue(row);
+			if (value != null) {
+				index.add(value.toString(), 1);
+			}
+		}
+	}
+
+	private void indexItems() {
+		index.clear();
+		for (Object itemId : container.getItemIds()) {
+			Property<?> property = container.getContainerProperty(itemId, propertyId);
+			Object value = property != null ? property.getValue() : null;
+			if (value != null) {
+				index.add(value.toString(), 1);
+			}
+		}
+	}
+}
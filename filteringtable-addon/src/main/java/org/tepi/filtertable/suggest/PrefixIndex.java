@@ -0,0 +1,261 @@
+package org.tepi.filtertable.suggest;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Sorted index of the distinct values of a String column, counting the
+ * occurrences of each. Completes a prefix, ignoring case, with the values
+ * occurring most often. Finding them takes time proportional to the number of
+ * values sharing the prefix, so the completions of prefixes shared by many
+ * values, typically the first letter or two, are kept until a value starting
+ * with the prefix is added or removed.
+ * <p>
+ * Memory is bounded: when the index grows beyond its maximum number of
+ * values, the values occurring least often are evicted, as they are the least
+ * likely to be suggested anyway.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial" })
+public class PrefixIndex implements Serializable {
+
+	/** Default maximum number of distinct values */
+	public static final int DEFAULT_MAX_VALUES = 100000;
+
+	/* Values are ordered by their lower case form, then by the value itself */
+	private static final char SEPARATOR = '\0';
+
+	/* Number of completions kept for a prefix, and the prefixes kept at most */
+	private static final int KEPT_COMPLETIONS = 32;
+	private static final int MAX_KEPT_PREFIXES = 1024;
+	/* Completions of a prefix are kept when finding them takes this many values */
+	private static final int KEEP_THRESHOLD = 256;
+
+	private static final Comparator<Entry> BY_COUNT = new Comparator<Entry>() {
+
+		@Override
+		public int compare(Entry e1, Entry e2) {
+			if (e1.count != e2.count) {
+				return e1.count < e2.count ? -1 : 1;
+			}
+			/* Of equal counts, the alphabetically first ranks higher */
+			return e2.value.compareTo(e1.value);
+		}
+	};
+
+	private final TreeMap<String, Entry> entries = new TreeMap<String, Entry>();
+	/* Completions of the lower case prefixes, least recently used first */
+	private final LinkedHashMap<String, String[]> completions = new LinkedHashMap<String, String[]>(16, 0.75f,
+			true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+			return size() > MAX_KEPT_PREFIXES;
+		}
+	};
+	private final int maxValues;
+	private boolean truncated;
+
+	/**
+	 * Creates a prefix index of at most {@link #DEFAULT_MAX_VALUES} values.
+	 */
+	public PrefixIndex() {
+		this(DEFAULT_MAX_VALUES);
+	}
+
+	/**
+	 * Creates a prefix index.
+	 *
+	 * @param maxValues
+	 *            Maximum number of distinct values to hold
+	 */
+	public PrefixIndex(int maxValues) {
+		if (maxValues < 1) {
+			throw new IllegalArgumentException("Maximum number of values must be positive");
+		}
+		this.maxValues = maxValues;
+	}
+
+	/**
+	 * Adds occurrences of a value.
+	 *
+	 * @param value
+	 *            The value, nulls and empty strings are ignored
+	 * @param count
+	 *            Number of occurrences to add
+	 */
+	public void add(String value, int count) {
+		if (value == null || value.isEmpty() || count <= 0) {
+			return;
+		}
+		String lowerCase = value.toLowerCase();
+		String key = lowerCase + SEPARATOR + value;
+		forgetCompletions(lowerCase);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entries.put(key, new Entry(value, count));
+			if (entries.size() > maxValues) {
+				evict();
+			}
+		} else {
+			entry.count += count;
+		}
+	}
+
+	/**
+	 * Removes occurrences of a value. The value is dropped from the index when
+	 * no occurrences are left.
+	 *
+	 * @param value
+	 *            The value, nulls and empty strings are ignored
+	 * @param count
+	 *            Number of occurrences to remove
+	 */
+	public void remove(String value, int count) {
+		if (value == null || value.isEmpty() || count <= 0) {
+			return;
+		}
+		String lowerCase = value.toLowerCase();
+		String key = lowerCase + SEPARATOR + value;
+		Entry entry = entries.get(key);
+		/* An evicted value is not in the index */
+		if (entry != null) {
+			forgetCompletions(lowerCase);
+			entry.count -= count;
+			if (entry.count <= 0) {
+				entries.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns the values starting with the given prefix, ignoring case, the
+	 * values occurring most often first.
+	 *
+	 * @param prefix
+	 *            Prefix typed by the user; null or empty matches all values
+	 * @param limit
+	 *            Maximum number of values to return
+	 * @return the matching values
+	 */
+	public List<String> complete(String prefix, int limit) {
+		if (limit <= 0) {
+			return Collections.emptyList();
+		}
+		String from = prefix != null ? prefix.toLowerCase() : "";
+		String[] values = limit <= KEPT_COMPLETIONS ? completions.get(from) : null;
+		if (values == null) {
+			SortedMap<String, Entry> range = from.isEmpty() ? entries
+					: entries.subMap(from, from + Character.MAX_VALUE);
+			int k = Math.max(limit, KEPT_COMPLETIONS);
+			PriorityQueue<Entry> top = new PriorityQueue<Entry>(k + 1, BY_COUNT);
+			int scanned = 0;
+			for (Entry entry : range.values()) {
+				scanned++;
+				if (top.size() < k) {
+					top.add(entry);
+				} else if (BY_COUNT.compare(entry, top.peek()) > 0) {
+					top.poll();
+					top.add(entry);
+				}
+			}
+			values = new String[top.size()];
+			for (int i = values.length - 1; i >= 0; i--) {
+				values[i] = top.poll().value;
+			}
+			if (scanned >= KEEP_THRESHOLD) {
+				completions.put(from, values);
+			}
+		}
+		return Arrays.asList(values.length > limit ? Arrays.copyOf(values, limit) : values);
+	}
+
+	/**
+	 * Removes all values from the index.
+	 */
+	public void clear() {
+		entries.clear();
+		completions.clear();
+		truncated = false;
+	}
+
+	/**
+	 * @return the number of distinct values in the index
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the maximum number of distinct values held
+	 */
+	public int getMaxValues() {
+		return maxValues;
+	}
+
+	/**
+	 * @return true if values have been evicted to keep the index within its
+	 *         maximum size
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/*
+	 * Evicts a quarter of the values at once, the least common first, so that
+	 * the cost of finding them is shared by the values added in between.
+	 */
+	private void evict() {
+		int[] counts = new int[entries.size()];
+		int i = 0;
+		for (Entry entry : entries.values()) {
+			counts[i++] = entry.count;
+		}
+		Arrays.sort(counts);
+		int toEvict = entries.size() - Math.max(1, maxValues * 3 / 4);
+		int threshold = counts[toEvict - 1];
+		/* Values below the threshold go first, then values at it as needed */
+		for (int pass = 0; pass < 2 && toEvict > 0; pass++) {
+			Iterator<Entry> it = entries.values().iterator();
+			while (it.hasNext() && toEvict > 0) {
+				int count = it.next().count;
+				if (pass == 0 ? count < threshold : count == threshold) {
+					it.remove();
+					toEvict--;
+				}
+			}
+		}
+		completions.clear();
+		truncated = true;
+	}
+
+	/* The completions of every prefix of a changed value may have changed */
+	private void forgetCompletions(String lowerCase) {
+		if (!completions.isEmpty()) {
+			completions.remove("");
+			for (int length = 1; length <= lowerCase.length(); length++) {
+				completions.remove(lowerCase.substring(0, length));
+			}
+		}
+	}
+
+	private static class Entry implements Serializable {
+		private final String value;
+		private int count;
+
+		private Entry(String value, int count) {
+			this.value = value;
+			this.count = count;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.tepi.filtertable.suggest;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import com.vaadin.shared.ui.combobox.FilteringMode;
+import com.vaadin.v7.ui.ComboBox;
+
+/**
+ * Free-form text filter field suggesting the values of its property while
+ * the user types. The options of the drop-down are replaced on each typed
+ * prefix with the completions of a {@link ContainerSuggestions}, so that only
+ * a handful of options is held and sent to the client at any time. Any typed
+ * text is accepted as the value.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public class SuggestionField extends ComboBox {
+
+	/** Default maximum number of suggestions shown */
+	public static final int DEFAULT_SUGGESTION_COUNT = 10;
+
+	private final ContainerSuggestions suggestions;
+	private int suggestionCount = DEFAULT_SUGGESTION_COUNT;
+
+	/**
+	 * @param suggestions
+	 *            Source of the suggested values
+	 */
+	public SuggestionField(ContainerSuggestions suggestions) {
+		this.suggestions = suggestions;
+		setNewItemsAllowed(true);
+		setFilteringMode(FilteringMode.STARTSWITH);
+		setPageLength(0);
+	}
+
+	/**
+	 * @return the source of the suggested values
+	 */
+	public ContainerSuggestions getSuggestions() {
+		return suggestions;
+	}
+
+	/**
+	 * Sets the maximum number of values suggested at a time.
+	 *
+	 * @param suggestionCount
+	 *            Maximum number of suggestions
+	 */
+	public void setSuggestionCount(int suggestionCount) {
+		this.suggestionCount = suggestionCount;
+	}
+
+	/**
+	 * @return the maximum number of values suggested at a time
+	 */
+	public int getSuggestionCount() {
+		return suggestionCount;
+	}
+
+	@Override
+	public void changeVariables(Object source, Map<String, Object> variables) {
+		if (variables.containsKey("filter")) {
+			showSuggestions((String) variables.get("filter"));
+		}
+		super.changeVariables(source, variables);
+	}
+
+	/* Keeps the current value as an option, removing it would clear the filter */
+	private void showSuggestions(String prefix) {
+		Object value = getValue();
+		for (Object itemId : new ArrayList<Object>(getItemIds())) {
+			if (!itemId.equals(value)) {
+				removeItem(itemId);
+			}
+		}
+		for (String suggestion : suggestions.suggest(prefix, suggestionCount)) {
+			addItem(suggestion);
+		}
+	}
+}
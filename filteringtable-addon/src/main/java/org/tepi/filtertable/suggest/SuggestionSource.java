@@ -0,0 +1,29 @@
+package org.tepi.filtertable.suggest;
+
+import java.util.List;
+
+/**
+ * Container able to suggest the values of its properties itself, e.g. with a
+ * database query, rather than having all its items read into a
+ * {@link PrefixIndex}. Used by {@link ContainerSuggestions}.
+ *
+ * @author Teppo Kurki
+ *
+ */
+public interface SuggestionSource {
+
+	/**
+	 * Returns the values of a property starting with the given prefix,
+	 * ignoring case, the values of most items first. The filters of the
+	 * container are not applied.
+	 *
+	 * @param propertyId
+	 *            ID of the String property
+	 * @param prefix
+	 *            Prefix typed by the user; null or empty matches all values
+	 * @param limit
+	 *            Maximum number of values to return
+	 * @return the suggested values
+	 */
+	public List<String> suggestValues(Object propertyId, String prefix, int limit);
+}
@@ -0,0 +1,302 @@
+package org.tepi.filtertable.tree;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.tepi.filtertable.engine.FilterCompiler;
+import org.tepi.filtertable.engine.FilterResultCache;
+
+import com.vaadin.v7.data.Container;
+import com.vaadin.v7.data.Container.Filter;
+
+/**
+ * Finds the items of a hierarchical container that pass a set of filters or
+ * have a descendant that does, i.e. the items a tree shows when filtered.
+ * <p>
+ * The hierarchy is flattened once into an array in depth-first pre-order, so
+ * that every subtree is a contiguous range and a node always comes before
+ * its descendants. A single backwards pass over the array then propagates the
+ * matches from the descendants to their ancestors, without recursion and
+ * without testing any node more than once.
+ * <p>
+ * The nodes passing each filter are memoized, so that when one filter of
+ * several changes only that filter is evaluated again. Filters are evaluated
+ * in parallel on disjoint ranges of subtrees for large hierarchies, see
+ * {@link #setParallelThreshold(int)}.
+ * <p>
+ * The owner must call {@link #invalidate()} whenever the items, their values
+ * or the hierarchy change.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation" })
+public class SubtreeMatcher implements Serializable {
+
+	/** Default number of filter results memoized */
+	public static final int DEFAULT_MEMO_SIZE = 16;
+
+	/* Ranges are not made smaller than this for parallel evaluation */
+	private static final int MIN_CHUNK_SIZE = 4096;
+
+	private final Container.Hierarchical container;
+	private final FilterResultCache<BitSet> memo;
+
+	private int parallelThreshold = Integer.MAX_VALUE;
+	private transient ForkJoinPool pool;
+
+	/* The hierarchy in pre-order; null until built */
+	private Object[] nodes;
+	private int[] parents;
+
+	/**
+	 * Creates a matcher memoizing the results of {@link #DEFAULT_MEMO_SIZE}
+	 * filters.
+	 *
+	 * @param container
+	 *            The hierarchical container
+	 */
+	public SubtreeMatcher(Container.Hierarchical container) {
+		this(container, DEFAULT_MEMO_SIZE);
+	}
+
+	/**
+	 * Creates a matcher.
+	 *
+	 * @param container
+	 *            The hierarchical container
+	 * @param memoSize
+	 *            Maximum number of filter results to memoize
+	 */
+	public SubtreeMatcher(Container.Hierarchical container, int memoSize) {
+		this.container = container;
+		memo = new FilterResultCache<BitSet>(memoSize);
+	}
+
+	/**
+	 * Returns the IDs of the items passing all the given filters together with
+	 * all their ancestors. The hierarchy is read through the container, which
+	 * must not have filters of its own hiding items at the time.
+	 *
+	 * @param filters
+	 *            Filters all of which an item must pass
+	 * @return IDs of the items to show
+	 */
+	public Set<Object> match(Collection<Filter> filters) {
+		if (nodes == null) {
+			flatten();
+		}
+		int count = nodes.length;
+		BitSet shown = new BitSet(count);
+		shown.set(0, count);
+		for (Filter filter : conjunctsOf(filters)) {
+			shown.and(evaluate(filter));
+		}
+		/* Descendants come after their ancestors, so walking backwards visits them first */
+		for (int node = count - 1; node >= 0; node--) {
+			if (shown.get(node) && parents[node] >= 0) {
+				shown.set(parents[node]);
+			}
+		}
+		Set<Object> itemIds = new HashSet<Object>(shown.cardinality() * 4 / 3 + 1);
+		for (int node = shown.nextSetBit(0); node >= 0; node = shown.nextSetBit(node + 1)) {
+			itemIds.add(nodes[node]);
+		}
+		return itemIds;
+	}
+
+	/**
+	 * Drops the flattened hierarchy and the memoized filter results.
+	 */
+	public void invalidate() {
+		nodes = null;
+		parents = null;
+		memo.invalidate();
+	}
+
+	/**
+	 * @return the memoized filter results
+	 */
+	public FilterResultCache<BitSet> getMemo() {
+		return memo;
+	}
+
+	/**
+	 * Sets the number of items from which filters are evaluated in parallel.
+	 * The items are then read from several threads at once, so the container
+	 * must support concurrent reads; HierarchicalContainer does as long as it
+	 * is not modified at the same time.
+	 *
+	 * @param items
+	 *            Minimum number of items to evaluate in parallel, or
+	 *            Integer.MAX_VALUE to never do so (the default)
+	 */
+	public void setParallelThreshold(int items) {
+		parallelThreshold = items;
+	}
+
+	/**
+	 * @return the number of items from which filters are evaluated in parallel
+	 */
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Sets the pool to evaluate filters on in parallel.
+	 *
+	 * @param pool
+	 *            the pool, or null to use the common pool (the default)
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @return the pool filters are evaluated on in parallel
+	 */
+	public ForkJoinPool getPool() {
+		return pool != null ? pool : ForkJoinPool.commonPool();
+	}
+
+	/* Iterative depth-first walk, as a deep hierarchy would overflow the stack */
+	private void flatten() {
+		int capacity = Math.max(16, container.size());
+		Object[] order = new Object[capacity];
+		int[] parentOrder = new int[capacity];
+		int count = 0;
+		Deque<Iterator<?>> iterators = new ArrayDeque<Iterator<?>>();
+		int[] path = new int[16];
+		int depth = 0;
+		iterators.push(container.rootItemIds().iterator());
+		path[0] = -1;
+		while (!iterators.isEmpty()) {
+			Iterator<?> siblings = iterators.peek();
+			if (!siblings.hasNext()) {
+				iterators.pop();
+				depth--;
+				continue;
+			}
+			Object itemId = siblings.next();
+			if (count == order.length) {
+				order = Arrays.copyOf(order, count * 2);
+				parentOrder = Arrays.copyOf(parentOrder, count * 2);
+			}
+			order[count] = itemId;
+			parentOrder[count] = path[depth];
+			Collection<?> children = container.getChildren(itemId);
+			if (children != null && !children.isEmpty()) {
+				iterators.push(children.iterator());
+				if (++depth == path.length) {
+					path = Arrays.copyOf(path, depth * 2);
+				}
+				path[depth] = count;
+			}
+			count++;
+		}
+		nodes = Arrays.copyOf(order, count);
+		parents = Arrays.copyOf(parentOrder, count);
+	}
+
+	private BitSet evaluate(Filter filter) {
+		Collection<Filter> key = Collections.singleton(filter);
+		BitSet passing = memo.get(key);
+		if (passing == null) {
+			long[] words = new long[(nodes.length + 63) >> 6];
+			if (nodes.length >= parallelThreshold) {
+				evaluateInParallel(filter, words);
+			} else {
+				evaluate(filter, words, 0, nodes.length);
+			}
+			passing = BitSet.valueOf(words);
+			memo.put(key, passing);
+		}
+		return passing;
+	}
+
+	/* Sets the bits of the passing nodes in [from, to) in the words of a bit set */
+	private void evaluate(Filter filter, long[] words, int from, int to) {
+		for (int node = from; node < to; node++) {
+			Object itemId = nodes[node];
+			if (filter.passesFilter(itemId, container.getItem(itemId))) {
+				words[node >> 6] |= 1L << node;
+			}
+		}
+	}
+
+	/*
+	 * The ranges start at multiples of 64 nodes, so each one writes whole
+	 * words of its own and they can share the words without merging.
+	 */
+	private void evaluateInParallel(Filter filter, long[] words) {
+		ForkJoinPool pool = getPool();
+		int chunkSize = (Math.max(MIN_CHUNK_SIZE, nodes.length / (pool.getParallelism() * 4) + 1) + 63) & ~63;
+		int chunkCount = (nodes.length + chunkSize - 1) / chunkSize;
+		pool.invoke(new RangeTask(filter, chunkSize, words, 0, chunkCount));
+	}
+
+	/* Flattens And filters so that each part is memoized on its own */
+	private static List<Filter> conjunctsOf(Collection<Filter> filters) {
+		List<Filter> conjuncts = new ArrayList<Filter>();
+		for (Filter filter : filters) {
+			addConjuncts(conjuncts, filter);
+		}
+		return conjuncts;
+	}
+
+	private static void addConjuncts(List<Filter> conjuncts, Filter filter) {
+		Collection<Filter> parts = FilterCompiler.getConjuncts(FilterCompiler.unwrap(filter));
+		if (parts != null) {
+			for (Filter part : parts) {
+				addConjuncts(conjuncts, part);
+			}
+		} else if (filter != null) {
+			conjuncts.add(filter);
+		}
+	}
+
+	/**
+	 * Evaluates the ranges [fromChunk, toChunk), splitting them in halves
+	 * until a single range is left.
+	 */
+	private final class RangeTask extends RecursiveAction {
+
+		private final Filter filter;
+		private final int chunkSize;
+		private final long[] words;
+		private final int fromChunk;
+		private final int toChunk;
+
+		RangeTask(Filter filter, int chunkSize, long[] words, int fromChunk, int toChunk) {
+			this.filter = filter;
+			this.chunkSize = chunkSize;
+			this.words = words;
+			this.fromChunk = fromChunk;
+			this.toChunk = toChunk;
+		}
+
+		@Override
+		protected void compute() {
+			if (toChunk - fromChunk > 1) {
+				int middle = (fromChunk + toChunk) >>> 1;
+				invokeAll(new RangeTask(filter, chunkSize, words, fromChunk, middle),
+						new RangeTask(filter, chunkSize, words, middle, toChunk));
+				return;
+			}
+			int from = fromChunk * chunkSize;
+			evaluate(filter, words, from, Math.min(nodes.length, from + chunkSize));
+		}
+	}
+}
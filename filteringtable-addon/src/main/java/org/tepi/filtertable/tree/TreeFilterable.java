@@ -0,0 +1,314 @@
+package org.tepi.filtertable.tree;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.tepi.filtertable.engine.RefinableFilterable;
+
+import com.vaadin.v7.data.Container;
+import com.vaadin.v7.data.Container.Filter;
+import com.vaadin.v7.data.Item;
+import com.vaadin.v7.data.Property;
+import com.vaadin.v7.data.util.HierarchicalContainer;
+import com.vaadin.v7.data.util.filter.UnsupportedFilterException;
+
+/**
+ * Filters a hierarchical container through a {@link SubtreeMatcher}. The
+ * filters added to this Filterable are not added to the container itself;
+ * instead the matcher finds the items to show, and the container is given a
+ * single filter passing exactly those. The container then only looks up each
+ * item in a set rather than evaluating the filters on it and its descendants.
+ * <p>
+ * The items shown are the same as with HierarchicalContainer including the
+ * parents when filtering: the items passing the filters and all their
+ * ancestors.
+ * <p>
+ * When the items or their values change, the matches are computed again only
+ * once {@link #applyIfStale()} is called, so that a round trip with many
+ * edits matches the hierarchy once. FilterTreeTable calls it before each
+ * response to the client. Call {@link #detach()} when no longer in use.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings({ "serial", "deprecation", "rawtypes" })
+public class TreeFilterable
+		implements RefinableFilterable, Container.ItemSetChangeListener, Property.ValueChangeListener {
+
+	/**
+	 * Notified when the items or their values have changed after the filters
+	 * were last applied.
+	 */
+	public interface StaleListener extends Serializable {
+		public void matchesStale(TreeFilterable source);
+	}
+
+	private final Container.Filterable container;
+	private final SubtreeMatcher matcher;
+	private final List<Filter> filters = new ArrayList<Filter>();
+
+	private Filter shownFilter;
+	private boolean applying;
+	/* The shown items are out of date with the container */
+	private boolean stale;
+	private StaleListener staleListener;
+	/* Setting of the HierarchicalContainer before it was filtered here */
+	private boolean includeParentsWhenFiltering;
+
+	/**
+	 * @param container
+	 *            Container to filter, must also implement Container.Filterable
+	 */
+	public TreeFilterable(Container.Hierarchical container) {
+		if (!(container instanceof Container.Filterable)) {
+			throw new IllegalArgumentException("Container must be Filterable");
+		}
+		this.container = (Container.Filterable) container;
+		matcher = new SubtreeMatcher(container);
+		if (container instanceof HierarchicalContainer) {
+			/* The shown items already include their parents */
+			includeParentsWhenFiltering = ((HierarchicalContainer) container).isIncludeParentsWhenFiltering();
+			((HierarchicalContainer) container).setIncludeParentsWhenFiltering(false);
+		}
+		if (container instanceof Container.ItemSetChangeNotifier) {
+			((Container.ItemSetChangeNotifier) container).addItemSetChangeListener(this);
+		}
+		if (container instanceof Property.ValueChangeNotifier) {
+			((Property.ValueChangeNotifier) container).addValueChangeListener(this);
+		}
+	}
+
+	/**
+	 * @return the filtered container
+	 */
+	public Container.Filterable getContainer() {
+		return container;
+	}
+
+	/**
+	 * @return the matcher finding the items to show
+	 */
+	public SubtreeMatcher getMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * Sets the listener to notify when the matches become stale, e.g. to
+	 * schedule a call to {@link #applyIfStale()}.
+	 *
+	 * @param staleListener
+	 *            Listener to notify, or null
+	 */
+	public void setStaleListener(StaleListener staleListener) {
+		this.staleListener = staleListener;
+	}
+
+	/**
+	 * Matches the hierarchy again if the items or their values have changed
+	 * since the filters were last applied.
+	 */
+	public void applyIfStale() {
+		if (stale) {
+			apply();
+		}
+	}
+
+	/**
+	 * Stops following the changes of the container and removes the filter
+	 * set to it. The setting of a HierarchicalContainer to include the
+	 * parents when filtering is restored.
+	 */
+	public void detach() {
+		if (container instanceof Container.ItemSetChangeNotifier) {
+			((Container.ItemSetChangeNotifier) container).removeItemSetChangeListener(this);
+		}
+		if (container instanceof Property.ValueChangeNotifier) {
+			((Property.ValueChangeNotifier) container).removeValueChangeListener(this);
+		}
+		if (shownFilter != null) {
+			container.removeContainerFilter(shownFilter);
+			shownFilter = null;
+		}
+		if (container instanceof HierarchicalContainer) {
+			((HierarchicalContainer) container).setIncludeParentsWhenFiltering(includeParentsWhenFiltering);
+		}
+	}
+
+	@Override
+	public void addContainerFilter(Filter filter) throws UnsupportedFilterException {
+		filters.add(filter);
+		apply();
+	}
+
+	@Override
+	public void removeContainerFilter(Filter filter) {
+		if (filters.remove(filter)) {
+			apply();
+		}
+	}
+
+	@Override
+	public void removeAllContainerFilters() {
+		filters.clear();
+		apply();
+	}
+
+	@Override
+	public void replaceContainerFilter(Filter oldFilter, Filter newFilter) throws UnsupportedFilterException {
+		int index = oldFilter != null ? filters.indexOf(oldFilter) : -1;
+		if (index >= 0 && newFilter != null) {
+			filters.set(index, newFilter);
+		} else if (index >= 0) {
+			filters.remove(index);
+		} else if (newFilter != null) {
+			filters.add(newFilter);
+		} else {
+			return;
+		}
+		apply();
+	}
+
+	@Override
+	public Collection<Filter> getContainerFilters() {
+		return Collections.unmodifiableList(filters);
+	}
+
+	/*
+	 * Container methods are delegated to the filtered container
+	 */
+
+	@Override
+	public Item getItem(Object itemId) {
+		return container.getItem(itemId);
+	}
+
+	@Override
+	public Collection<?> getContainerPropertyIds() {
+		return container.getContainerPropertyIds();
+	}
+
+	@Override
+	public Collection<?> getItemIds() {
+		return container.getItemIds();
+	}
+
+	@Override
+	public Property getContainerProperty(Object itemId, Object propertyId) {
+		return container.getContainerProperty(itemId, propertyId);
+	}
+
+	@Override
+	public Class<?> getType(Object propertyId) {
+		return container.getType(propertyId);
+	}
+
+	@Override
+	public int size() {
+		return container.size();
+	}
+
+	@Override
+	public boolean containsId(Object itemId) {
+		return container.containsId(itemId);
+	}
+
+	@Override
+	public Item addItem(Object itemId) throws UnsupportedOperationException {
+		return container.addItem(itemId);
+	}
+
+	@Override
+	public Object addItem() throws UnsupportedOperationException {
+		return container.addItem();
+	}
+
+	@Override
+	public boolean removeItem(Object itemId) throws UnsupportedOperationException {
+		return container.removeItem(itemId);
+	}
+
+	@Override
+	public boolean addContainerProperty(Object propertyId, Class<?> type, Object defaultValue)
+			throws UnsupportedOperationException {
+		return container.addContainerProperty(propertyId, type, defaultValue);
+	}
+
+	@Override
+	public boolean removeContainerProperty(Object propertyId) throws UnsupportedOperationException {
+		return container.removeContainerProperty(propertyId);
+	}
+
+	@Override
+	public boolean removeAllItems() throws UnsupportedOperationException {
+		return container.removeAllItems();
+	}
+
+	@Override
+	public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+		if (!applying) {
+			invalidate();
+		}
+	}
+
+	@Override
+	public void valueChange(Property.ValueChangeEvent event) {
+		invalidate();
+	}
+
+	/* The matches are computed again lazily, once for any number of changes */
+	private void invalidate() {
+		matcher.invalidate();
+		if (!stale && !filters.isEmpty()) {
+			stale = true;
+			if (staleListener != null) {
+				staleListener.matchesStale(this);
+			}
+		}
+	}
+
+	/*
+	 * The hierarchy is read unfiltered, so the previous filter is removed
+	 * before matching. Without filters that is a cheap reset for the container.
+	 */
+	private void apply() {
+		stale = false;
+		applying = true;
+		try {
+			if (shownFilter != null) {
+				container.removeContainerFilter(shownFilter);
+				shownFilter = null;
+			}
+			if (!filters.isEmpty()) {
+				shownFilter = new ShownItemsFilter(matcher.match(filters));
+				container.addContainerFilter(shownFilter);
+			}
+		} finally {
+			applying = false;
+		}
+	}
+
+	/**
+	 * Passes the items found by the matcher.
+	 */
+	private static class ShownItemsFilter implements Filter {
+		private final Set<Object> itemIds;
+
+		private ShownItemsFilter(Set<Object> itemIds) {
+			this.itemIds = itemIds;
+		}
+
+		@Override
+		public boolean passesFilter(Object itemId, Item item) throws UnsupportedOperationException {
+			return itemIds.contains(itemId);
+		}
+
+		@Override
+		public boolean appliesToProperty(Object propertyId) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package org.tepi.filtertable.paged;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.vaadin.v7.data.util.IndexedContainer;
+
+/**
+ * Creates a PagedFilterTable and pages an IndexedContainer with it.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings("deprecation")
+public class PagedFilterTableTest {
+
+	@Test
+	public void testSetIndexedContainer() {
+		PagedFilterTable<IndexedContainer> table = new PagedFilterTable<IndexedContainer>();
+		IndexedContainer container = new IndexedContainer();
+		container.addContainerProperty("name", String.class, null);
+		for (int i = 0; i < 60; i++) {
+			container.addItem(i).getItemProperty("name").setValue("Item " + i);
+		}
+		table.setContainerDataSource(container);
+
+		assertSame(container, table.getContainerDataSource().getContainer());
+		assertEquals(25, table.size());
+		assertEquals(3, table.getTotalAmountOfPages());
+
+		/* The wrapped container is followed after the table is created */
+		container.addItem(60);
+		assertEquals(61, table.getContainerDataSource().getRealSize());
+		assertEquals(3, table.getTotalAmountOfPages());
+	}
+}
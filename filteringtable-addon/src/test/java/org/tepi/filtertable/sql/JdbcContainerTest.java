@@ -0,0 +1,197 @@
+package org.tepi.filtertable.sql;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.v7.data.Container.Filter;
+import com.vaadin.v7.data.util.filter.And;
+import com.vaadin.v7.data.util.filter.Between;
+import com.vaadin.v7.data.util.filter.Compare;
+import com.vaadin.v7.data.util.filter.IsNull;
+import com.vaadin.v7.data.util.filter.Not;
+import com.vaadin.v7.data.util.filter.Or;
+import com.vaadin.v7.data.util.filter.SimpleStringFilter;
+
+/**
+ * Runs the SQL of JdbcContainer and SqlFilterTranslator against an in-memory
+ * H2 database.
+ *
+ * @author Teppo Kurki
+ *
+ */
+@SuppressWarnings("deprecation")
+public class JdbcContainerTest {
+
+	private static final int ROWS = 250;
+	private static final int FETCH_SIZE = 20;
+
+	private static int databases;
+
+	private JdbcDataSource dataSource;
+	private JdbcContainer container;
+	/* Page offsets the container has queried, in order */
+	private final List<Integer> offsets = new ArrayList<Integer>();
+
+	@Before
+	public void setUp() throws SQLException {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:filtertable" + ++databases + ";DB_CLOSE_DELAY=-1");
+		try (Connection connection = dataSource.getConnection();
+				Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE PERSON (ID INT PRIMARY KEY, NAME VARCHAR(40), AGE INT)");
+			try (PreparedStatement insert = connection.prepareStatement("INSERT INTO PERSON VALUES (?, ?, ?)")) {
+				for (int id = 1; id <= ROWS; id++) {
+					insert.setInt(1, id);
+					insert.setString(2, name(id));
+					if (age(id) == null) {
+						insert.setNull(3, Types.INTEGER);
+					} else {
+						insert.setInt(3, age(id));
+					}
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+		}
+		container = new JdbcContainer(dataSource, "PERSON", "id") {
+			@Override
+			protected void appendPaging(StringBuilder sql, List<Object> parameters, int offset, int limit) {
+				super.appendPaging(sql, parameters, offset, limit);
+				offsets.add(offset);
+			}
+		};
+		container.setFetchSize(FETCH_SIZE);
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		try (Connection connection = dataSource.getConnection();
+				Statement statement = connection.createStatement()) {
+			statement.execute("SHUTDOWN");
+		}
+	}
+
+	private static String name(int id) {
+		return (id % 3 == 0 ? "Anna_" : "Bob ") + id;
+	}
+
+	private static Integer age(int id) {
+		return id % 10 == 0 ? null : id % 90;
+	}
+
+	@Test
+	public void testTranslatedWhereClause() {
+		StringBuilder sql = new StringBuilder();
+		List<Object> parameters = new ArrayList<Object>();
+		container.getFilterTranslator().translate(new And(new Compare.Greater("AGE", 30),
+				new SimpleStringFilter("NAME", "anna_", true, true), new SimpleStringFilter("AGE", "4", true, false)),
+				sql, parameters);
+		assertEquals("((\"AGE\" > ? OR \"AGE\" IS NULL) AND LOWER(\"NAME\") LIKE ? ESCAPE '\\'"
+				+ " AND LOWER(CAST(\"AGE\" AS VARCHAR)) LIKE ? ESCAPE '\\')", sql.toString());
+		assertEquals(Arrays.<Object> asList(30, "anna\\_%", "%4%"), parameters);
+	}
+
+	@Test
+	public void testFiltersSelectTheRowsPassingInMemory() throws SQLException {
+		JdbcContainer all = new JdbcContainer(dataSource, "PERSON", "ID");
+		List<Filter> filters = Arrays.<Filter> asList(new Compare.Greater("AGE", 30), new Compare.Less("AGE", 30),
+				new Not(new Compare.Equal("AGE", 5)), new Between("AGE", 10, 20), new IsNull("AGE"),
+				new SimpleStringFilter("NAME", "anna_1", true, true), new SimpleStringFilter("NAME", "B", false, false),
+				new SimpleStringFilter("AGE", "4", true, false),
+				new Or(new Compare.Equal("NAME", "Bob 1"), new Not(new SimpleStringFilter("AGE", "1", true, true))));
+		for (Filter filter : filters) {
+			List<Object> expected = new ArrayList<Object>();
+			for (Object itemId : all.getItemIds()) {
+				if (filter.passesFilter(itemId, all.getItem(itemId))) {
+					expected.add(itemId);
+				}
+			}
+			container.addContainerFilter(filter);
+			assertEquals(filter.toString(), expected, new ArrayList<Object>(container.getItemIds()));
+			assertEquals(filter.toString(), expected.size(), container.size());
+			container.removeAllContainerFilters();
+		}
+	}
+
+	@Test
+	public void testPaging() {
+		container.sort(new Object[] { "NAME" }, new boolean[] { false });
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int id = 1; id <= ROWS; id++) {
+			expected.add(id);
+		}
+		Collections.sort(expected, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer id1, Integer id2) {
+				return name(id2).compareTo(name(id1));
+			}
+		});
+
+		offsets.clear();
+		assertEquals(expected.subList(95, 125), container.getItemIds(95, 30));
+		assertEquals(Arrays.asList(80, 100, 120), offsets);
+		assertEquals(expected.subList(240, ROWS), container.getItemIds(240, 30));
+		assertEquals(ROWS, container.size());
+		for (int index = 0; index < ROWS; index++) {
+			assertEquals(expected.get(index), container.getIdByIndex(index));
+		}
+
+		assertEquals(expected.subList(100, 125), container.getItemIdsAfter(expected.get(99), 0, 25));
+		assertEquals(expected.subList(80, 100), container.getItemIdsBefore(expected.get(100), 20));
+	}
+
+	@Test
+	public void testItemsNotFetched() {
+		container.sort(new Object[] { "AGE" }, new boolean[] { true });
+		List<Object> ids = new ArrayList<Object>(container.getItemIds());
+		for (int index : new int[] { 0, 1, 57, 149, ROWS - 1 }) {
+			Object itemId = ids.get(index);
+			container.refresh();
+			offsets.clear();
+			assertEquals(index, container.indexOfId(itemId));
+			/* Counted without reading the rows before the item */
+			assertEquals(Collections.emptyList(), offsets);
+			container.refresh();
+			assertEquals(index + 1 < ROWS ? ids.get(index + 1) : null, container.nextItemId(itemId));
+			container.refresh();
+			assertEquals(index > 0 ? ids.get(index - 1) : null, container.prevItemId(itemId));
+		}
+	}
+
+	@Test
+	public void testSerialization() throws SQLException, IOException, ClassNotFoundException {
+		JdbcContainer original = new JdbcContainer(dataSource, "PERSON", "ID");
+		original.addContainerFilter(new Compare.Greater("AGE", 30));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(original);
+		}
+		JdbcContainer copy;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			copy = (JdbcContainer) in.readObject();
+		}
+		copy.refresh();
+		assertEquals(original.size(), copy.size());
+		assertEquals(original.getIdByIndex(42), copy.getIdByIndex(42));
+	}
+}